@@ -25,7 +25,9 @@ import com.acgist.snail.context.initializer.TrackerInitializer;
 import com.acgist.snail.net.application.ApplicationClient;
 import com.acgist.snail.net.application.ApplicationServer;
 import com.acgist.snail.net.torrent.TorrentServer;
+import com.acgist.snail.net.torrent.TorrentStreamingServer;
 import com.acgist.snail.net.torrent.lsd.LocalServiceDiscoveryServer;
+import com.acgist.snail.net.torrent.peer.PeerRequestScheduler;
 import com.acgist.snail.net.torrent.peer.PeerServer;
 import com.acgist.snail.net.torrent.tracker.TrackerServer;
 import com.acgist.snail.net.torrent.utp.UtpRequestQueue;
@@ -148,10 +150,12 @@ public final class Snail {
 				// 加载Torrent协议
 				PeerServer.getInstance().close();
 				TorrentServer.getInstance().close();
+				TorrentStreamingServer.getInstance().close();
 				TrackerServer.getInstance().close();
 				LocalServiceDiscoveryServer.getInstance().close();
 				NatContext.getInstance().shutdown();
 				UtpRequestQueue.getInstance().shutdown();
+				PeerRequestScheduler.getInstance().shutdown();
 				// 保存DHT和Tracker配置
 				DhtConfig.getInstance().persistent();
 				TrackerConfig.getInstance().persistent();
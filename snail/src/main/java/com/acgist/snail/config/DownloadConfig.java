@@ -86,6 +86,12 @@ public final class DownloadConfig extends PropertiesConfig {
 	 * @see #memoryBuffer
 	 */
 	private static final String DOWNLOAD_MEMORY_BUFFER = "acgist.download.memory.buffer";
+	/**
+	 * <p>文件分配方式配置名称：{@value}</p>
+	 * 
+	 * @see #allocation
+	 */
+	private static final String DOWNLOAD_ALLOCATION = "acgist.download.allocation";
 	
 	static {
 		LOGGER.debug("初始化下载配置：{}", DOWNLOAD_CONFIG);
@@ -132,6 +138,11 @@ public final class DownloadConfig extends PropertiesConfig {
 	 * <p>磁盘缓存（单个）（MB）</p>
 	 */
 	private int memoryBuffer;
+	/**
+	 * <p>文件分配方式</p>
+	 * <p>none：不分配；sparse：稀疏文件；full：完整分配；</p>
+	 */
+	private String allocation;
 	/**
 	 * <p>上传速度（单个）（B）</p>
 	 * <p>缓存：防止重复计算</p>
@@ -159,6 +170,7 @@ public final class DownloadConfig extends PropertiesConfig {
 		this.delete = this.getBoolean(DOWNLOAD_DELETE, false);
 		this.lastPath = this.getString(DOWNLOAD_LAST_PATH);
 		this.memoryBuffer = this.getInteger(DOWNLOAD_MEMORY_BUFFER, 8);
+		this.allocation = this.getString(DOWNLOAD_ALLOCATION, "none");
 	}
 	
 	/**
@@ -181,6 +193,8 @@ public final class DownloadConfig extends PropertiesConfig {
 		this.lastPath = this.getString(entity, this.lastPath);
 		entity = entityContext.findConfigByName(DOWNLOAD_MEMORY_BUFFER);
 		this.memoryBuffer = this.getInteger(entity, this.memoryBuffer);
+		entity = entityContext.findConfigByName(DOWNLOAD_ALLOCATION);
+		this.allocation = this.getString(entity, this.allocation);
 	}
 	
 	/**
@@ -194,6 +208,7 @@ public final class DownloadConfig extends PropertiesConfig {
 		LOGGER.debug("下载速度（单个）（KB）：{}", this.buffer);
 		LOGGER.debug("最后一次选择目录：{}", this.lastPath);
 		LOGGER.debug("磁盘缓存（单个）（MB）：{}", this.memoryBuffer);
+		LOGGER.debug("文件分配方式：{}", this.allocation);
 	}
 	
 	/**
@@ -462,4 +477,28 @@ public final class DownloadConfig extends PropertiesConfig {
 		this.memoryBufferByte = this.memoryBuffer * SystemConfig.ONE_MB;
 	}
 	
+	/**
+	 * <p>设置文件分配方式</p>
+	 * <p>只对之后加载的任务有效</p>
+	 * 
+	 * @param allocation 文件分配方式
+	 */
+	public static final void setAllocation(String allocation) {
+		if(StringUtils.equals(INSTANCE.allocation, allocation)) {
+			// 忽略没有修改
+			return;
+		}
+		INSTANCE.allocation = allocation;
+		EntityContext.getInstance().mergeConfig(DOWNLOAD_ALLOCATION, allocation);
+	}
+	
+	/**
+	 * <p>获取文件分配方式</p>
+	 * 
+	 * @return 文件分配方式
+	 */
+	public static final String getAllocation() {
+		return INSTANCE.allocation;
+	}
+	
 }
@@ -16,6 +16,12 @@ public final class SystemConfig extends PropertiesConfig {
 
 	private static final Logger LOGGER = LoggerFactory.getLogger(SystemConfig.class);
 	
+	/**
+	 * <p>用户工作目录</p>
+	 * <p>注意：初始化为常量（单例对象创建时会使用：必须在单例对象之前初始化）</p>
+	 */
+	private static final String USER_DIR = System.getProperty("user.dir");
+	
 	/**
 	 * <p>单例对象</p>
 	 */
@@ -91,9 +97,9 @@ public final class SystemConfig extends PropertiesConfig {
 	public static final int IP_PORT_LENGTH = 6;
 	/**
 	 * <p>TCP消息缓冲大小：{@value}</p>
-	 * <p>大小和Piece交换Slice大小一样</p>
+	 * <p>大于Piece交换Slice消息大小：完整piece消息可以直接使用接收缓冲区切片处理</p>
 	 */
-	public static final int TCP_BUFFER_LENGTH = 16 * ONE_KB;
+	public static final int TCP_BUFFER_LENGTH = 64 * ONE_KB;
 	/**
 	 * <p>UDP消息缓存大小：{@value}</p>
 	 */
@@ -167,11 +173,6 @@ public final class SystemConfig extends PropertiesConfig {
 	 * <p>任务列表刷新时间（秒）：{@value}</p>
 	 */
 	public static final int TASK_REFRESH_INTERVAL = 4;
-	/**
-	 * <p>用户工作目录</p>
-	 * <p>注意：初始化为常量（不能使用类变量：本类初始化时会使用）</p>
-	 */
-	private static final String USER_DIR = System.getProperty("user.dir");
 	
 	static {
 		LOGGER.debug("初始化系统配置：{}", SYSTEM_CONFIG);
@@ -255,6 +256,10 @@ public final class SystemConfig extends PropertiesConfig {
 	 * <p>BT服务端口（外网端口：Peer、DHT、UTP、STUN）</p>
 	 */
 	private int torrentPortExt = 0;
+	/**
+	 * <p>边下边播服务端口（本地端口：HTTP）</p>
+	 */
+	private int streamingPort;
 	/**
 	 * <p>单个任务Peer数量（同时下载）</p>
 	 */
@@ -264,13 +269,73 @@ public final class SystemConfig extends PropertiesConfig {
 	 */
 	private int trackerSize;
 	/**
-	 * <p>任务即将完成时可以重复下载的Piece数量</p>
+	 * <p>任务即将完成时（Endgame）同一个Slice最多请求的Peer数量</p>
 	 */
 	private int pieceRepeatSize;
 	/**
 	 * <p>HLS下载线程数量</p>
 	 */
 	private int hlsThreadSize;
+	/**
+	 * <p>TCP通道线程数量（客户端和服务端共用）（0：CPU核心数量）</p>
+	 */
+	private int netThreadSize;
+	/**
+	 * <p>TCP消息处理线程数量（处理可能阻塞的消息）（0：CPU核心数量 * 2）</p>
+	 */
+	private int netHandlerSize;
+	/**
+	 * <p>全局上传速度（KB）（0：不限速）</p>
+	 */
+	private int globalUploadBuffer;
+	/**
+	 * <p>全局下载速度（KB）（0：不限速）</p>
+	 */
+	private int globalDownloadBuffer;
+	/**
+	 * <p>单个Peer上传速度（KB）（0：不限速）</p>
+	 */
+	private int peerUploadBuffer;
+	/**
+	 * <p>单个Peer下载速度（KB）（0：不限速）</p>
+	 */
+	private int peerDownloadBuffer;
+	/**
+	 * <p>限速突发时间（毫秒）（允许短时间超过限速）</p>
+	 */
+	private int limitBurst;
+	/**
+	 * <p>BT下载完成文件是否使用内存映射</p>
+	 */
+	private boolean storageMapped;
+	/**
+	 * <p>BT写入缓存大小（所有任务）（MB）</p>
+	 */
+	private int storageCacheSize;
+	/**
+	 * <p>BT读取缓存大小（所有任务）（MB）（0：不使用）</p>
+	 */
+	private int storageReadSize;
+	/**
+	 * <p>BT文件校验并发数量（0：CPU核心数量）</p>
+	 */
+	private int storageVerifySize;
+	/**
+	 * <p>BT Piece缓冲区缓存大小（MB）</p>
+	 */
+	private int storageBufferSize;
+	/**
+	 * <p>BT Piece缓冲区是否使用直接内存</p>
+	 */
+	private boolean storageBufferDirect;
+	/**
+	 * <p>BT磁盘读写线程数量（每个磁盘）</p>
+	 */
+	private int storageDiskSize;
+	/**
+	 * <p>BT磁盘读写背压队列长度（每个磁盘）</p>
+	 */
+	private int storageDiskQueue;
 	/**
 	 * <p>DHT执行周期（秒）</p>
 	 */
@@ -330,10 +395,26 @@ public final class SystemConfig extends PropertiesConfig {
 		this.stunServer = this.getString("acgist.system.stun.server");
 		this.servicePort = this.getInteger("acgist.service.port", 16888);
 		this.torrentPort = this.getInteger("acgist.torrent.port", 18888);
+		this.streamingPort = this.getInteger("acgist.streaming.port", 18880);
 		this.peerSize = this.getInteger("acgist.peer.size", 20);
 		this.trackerSize = this.getInteger("acgist.tracker.size", 50);
 		this.pieceRepeatSize = this.getInteger("acgist.piece.repeat.size", 8);
 		this.hlsThreadSize = this.getInteger("acgist.hls.thread.size", 10);
+		this.netThreadSize = this.getInteger("acgist.net.thread.size", 0);
+		this.netHandlerSize = this.getInteger("acgist.net.handler.size", 0);
+		this.globalUploadBuffer = this.getInteger("acgist.limit.upload.buffer", 0);
+		this.globalDownloadBuffer = this.getInteger("acgist.limit.download.buffer", 0);
+		this.peerUploadBuffer = this.getInteger("acgist.limit.peer.upload.buffer", 0);
+		this.peerDownloadBuffer = this.getInteger("acgist.limit.peer.download.buffer", 0);
+		this.limitBurst = this.getInteger("acgist.limit.burst", 500);
+		this.storageMapped = this.getBoolean("acgist.storage.mapped", false);
+		this.storageCacheSize = this.getInteger("acgist.storage.cache.size", 64);
+		this.storageReadSize = this.getInteger("acgist.storage.read.size", 64);
+		this.storageVerifySize = this.getInteger("acgist.storage.verify.size", 0);
+		this.storageBufferSize = this.getInteger("acgist.storage.buffer.size", 64);
+		this.storageBufferDirect = this.getBoolean("acgist.storage.buffer.direct", false);
+		this.storageDiskSize = this.getInteger("acgist.storage.disk.size", 2);
+		this.storageDiskQueue = this.getInteger("acgist.storage.disk.queue", 64);
 		this.dhtInterval = this.getInteger("acgist.dht.interval", 120);
 		this.pexInterval = this.getInteger("acgist.pex.interval", 120);
 		this.lsdInterval = this.getInteger("acgist.lsd.interval", 120);
@@ -360,10 +441,26 @@ public final class SystemConfig extends PropertiesConfig {
 		LOGGER.debug("STUN服务器：{}", this.stunServer);
 		LOGGER.debug("系统服务端口（本地服务：启动检测）：{}", this.servicePort);
 		LOGGER.debug("BT服务端口（本地端口：Peer、DHT、UTP、STUN）：{}", this.torrentPort);
+		LOGGER.debug("边下边播服务端口（本地端口：HTTP）：{}", this.streamingPort);
 		LOGGER.debug("单个任务Peer数量（同时下载）：{}", this.peerSize);
 		LOGGER.debug("单个任务Tracker数量：{}", this.trackerSize);
-		LOGGER.debug("任务即将完成时可以重复下载的Piece数量：{}", this.pieceRepeatSize);
+		LOGGER.debug("任务即将完成时（Endgame）同一个Slice最多请求的Peer数量：{}", this.pieceRepeatSize);
 		LOGGER.debug("HLS下载线程数量：{}", this.hlsThreadSize);
+		LOGGER.debug("TCP通道线程数量（客户端和服务端共用）（0：CPU核心数量）：{}", this.netThreadSize);
+		LOGGER.debug("TCP消息处理线程数量（处理可能阻塞的消息）（0：CPU核心数量 * 2）：{}", this.netHandlerSize);
+		LOGGER.debug("全局上传速度（KB）（0：不限速）：{}", this.globalUploadBuffer);
+		LOGGER.debug("全局下载速度（KB）（0：不限速）：{}", this.globalDownloadBuffer);
+		LOGGER.debug("单个Peer上传速度（KB）（0：不限速）：{}", this.peerUploadBuffer);
+		LOGGER.debug("单个Peer下载速度（KB）（0：不限速）：{}", this.peerDownloadBuffer);
+		LOGGER.debug("限速突发时间（毫秒）（允许短时间超过限速）：{}", this.limitBurst);
+		LOGGER.debug("BT下载完成文件是否使用内存映射：{}", this.storageMapped);
+		LOGGER.debug("BT写入缓存大小（所有任务）（MB）：{}", this.storageCacheSize);
+		LOGGER.debug("BT读取缓存大小（所有任务）（MB）（0：不使用）：{}", this.storageReadSize);
+		LOGGER.debug("BT文件校验并发数量（0：CPU核心数量）：{}", this.storageVerifySize);
+		LOGGER.debug("BT Piece缓冲区缓存大小（MB）：{}", this.storageBufferSize);
+		LOGGER.debug("BT Piece缓冲区是否使用直接内存：{}", this.storageBufferDirect);
+		LOGGER.debug("BT磁盘读写线程数量（每个磁盘）：{}", this.storageDiskSize);
+		LOGGER.debug("BT磁盘读写背压队列长度（每个磁盘）：{}", this.storageDiskQueue);
 		LOGGER.debug("DHT执行周期（秒）：{}", this.dhtInterval);
 		LOGGER.debug("PEX执行周期（秒）：{}", this.pexInterval);
 		LOGGER.debug("本地发现执行周期（秒）：{}", this.lsdInterval);
@@ -505,6 +602,15 @@ public final class SystemConfig extends PropertiesConfig {
 		INSTANCE.torrentPortExt = torrentPortExt;
 	}
 	
+	/**
+	 * <p>获取边下边播服务端口（本地端口：HTTP）</p>
+	 * 
+	 * @return 边下边播服务端口（本地端口：HTTP）
+	 */
+	public static final int getStreamingPort() {
+		return INSTANCE.streamingPort;
+	}
+	
 	/**
 	 * <p>获取BT服务端口（外网端口：Peer、DHT、UTP、STUN）</p>
 	 * 
@@ -533,9 +639,9 @@ public final class SystemConfig extends PropertiesConfig {
 	}
 
 	/**
-	 * <p>获取任务即将完成时可以重复下载的Piece数量</p>
+	 * <p>获取任务即将完成时（Endgame）同一个Slice最多请求的Peer数量</p>
 	 * 
-	 * @return 任务即将完成时可以重复下载的Piece数量
+	 * @return 任务即将完成时（Endgame）同一个Slice最多请求的Peer数量
 	 */
 	public static final int getPieceRepeatSize() {
 		return INSTANCE.pieceRepeatSize;
@@ -549,6 +655,170 @@ public final class SystemConfig extends PropertiesConfig {
 	public static final int getHlsThreadSize() {
 		return INSTANCE.hlsThreadSize;
 	}
+	
+	/**
+	 * <p>获取TCP通道线程数量</p>
+	 * <p>客户端和服务端共用：0表示CPU核心数量</p>
+	 * 
+	 * @return TCP通道线程数量
+	 */
+	public static final int getNetThreadSize() {
+		return INSTANCE.netThreadSize;
+	}
+	
+	/**
+	 * <p>获取TCP消息处理线程数量</p>
+	 * <p>处理可能阻塞的消息：0表示CPU核心数量 * 2</p>
+	 * 
+	 * @return TCP消息处理线程数量
+	 */
+	public static final int getNetHandlerSize() {
+		return INSTANCE.netHandlerSize;
+	}
+	
+	/**
+	 * <p>获取全局上传速度（KB）（0：不限速）</p>
+	 * 
+	 * @return 全局上传速度（KB）（0：不限速）
+	 */
+	public static final int getGlobalUploadBuffer() {
+		return INSTANCE.globalUploadBuffer;
+	}
+	
+	/**
+	 * <p>获取全局下载速度（KB）（0：不限速）</p>
+	 * 
+	 * @return 全局下载速度（KB）（0：不限速）
+	 */
+	public static final int getGlobalDownloadBuffer() {
+		return INSTANCE.globalDownloadBuffer;
+	}
+	
+	/**
+	 * <p>获取单个Peer上传速度（KB）（0：不限速）</p>
+	 * 
+	 * @return 单个Peer上传速度（KB）（0：不限速）
+	 */
+	public static final int getPeerUploadBuffer() {
+		return INSTANCE.peerUploadBuffer;
+	}
+	
+	/**
+	 * <p>获取单个Peer下载速度（KB）（0：不限速）</p>
+	 * 
+	 * @return 单个Peer下载速度（KB）（0：不限速）
+	 */
+	public static final int getPeerDownloadBuffer() {
+		return INSTANCE.peerDownloadBuffer;
+	}
+	
+	/**
+	 * <p>获取限速突发时间（毫秒）（允许短时间超过限速）</p>
+	 * 
+	 * @return 限速突发时间（毫秒）（允许短时间超过限速）
+	 */
+	public static final int getLimitBurst() {
+		return INSTANCE.limitBurst;
+	}
+	
+	/**
+	 * <p>获取BT下载完成文件是否使用内存映射</p>
+	 * 
+	 * @return BT下载完成文件是否使用内存映射
+	 */
+	public static final boolean getStorageMapped() {
+		return INSTANCE.storageMapped;
+	}
+	
+	/**
+	 * <p>获取BT写入缓存大小（所有任务）（MB）</p>
+	 * 
+	 * @return BT写入缓存大小（所有任务）（MB）
+	 */
+	public static final int getStorageCacheSize() {
+		return INSTANCE.storageCacheSize;
+	}
+	
+	/**
+	 * <p>获取BT写入缓存大小（所有任务）（B）</p>
+	 * 
+	 * @return BT写入缓存大小（所有任务）（B）
+	 */
+	public static final long getStorageCacheSizeByte() {
+		return (long) INSTANCE.storageCacheSize * ONE_MB;
+	}
+	
+	/**
+	 * <p>获取BT读取缓存大小（所有任务）（MB）（0：不使用）</p>
+	 * 
+	 * @return BT读取缓存大小（所有任务）（MB）（0：不使用）
+	 */
+	public static final int getStorageReadSize() {
+		return INSTANCE.storageReadSize;
+	}
+	
+	/**
+	 * <p>获取BT读取缓存大小（所有任务）（B）</p>
+	 * 
+	 * @return BT读取缓存大小（所有任务）（B）
+	 */
+	public static final long getStorageReadSizeByte() {
+		return (long) INSTANCE.storageReadSize * ONE_MB;
+	}
+	
+	/**
+	 * <p>获取BT文件校验并发数量（0：CPU核心数量）</p>
+	 * 
+	 * @return BT文件校验并发数量（0：CPU核心数量）
+	 */
+	public static final int getStorageVerifySize() {
+		return INSTANCE.storageVerifySize;
+	}
+	
+	/**
+	 * <p>获取BT Piece缓冲区缓存大小（MB）</p>
+	 * 
+	 * @return BT Piece缓冲区缓存大小（MB）
+	 */
+	public static final int getStorageBufferSize() {
+		return INSTANCE.storageBufferSize;
+	}
+	
+	/**
+	 * <p>获取BT Piece缓冲区缓存大小（B）</p>
+	 * 
+	 * @return BT Piece缓冲区缓存大小（B）
+	 */
+	public static final long getStorageBufferSizeByte() {
+		return (long) INSTANCE.storageBufferSize * ONE_MB;
+	}
+	
+	/**
+	 * <p>获取BT Piece缓冲区是否使用直接内存</p>
+	 * 
+	 * @return BT Piece缓冲区是否使用直接内存
+	 */
+	public static final boolean getStorageBufferDirect() {
+		return INSTANCE.storageBufferDirect;
+	}
+	
+	/**
+	 * <p>获取BT磁盘读写线程数量（每个磁盘）</p>
+	 * 
+	 * @return BT磁盘读写线程数量（每个磁盘）
+	 */
+	public static final int getStorageDiskSize() {
+		return INSTANCE.storageDiskSize;
+	}
+	
+	/**
+	 * <p>获取BT磁盘读写背压队列长度（每个磁盘）</p>
+	 * 
+	 * @return BT磁盘读写背压队列长度（每个磁盘）
+	 */
+	public static final int getStorageDiskQueue() {
+		return INSTANCE.storageDiskQueue;
+	}
 
 	/**
 	 * <p>获取DHT执行周期（秒）</p>
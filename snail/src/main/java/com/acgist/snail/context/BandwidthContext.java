@@ -0,0 +1,217 @@
+package com.acgist.snail.context;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.acgist.snail.IContext;
+import com.acgist.snail.config.SystemConfig;
+import com.acgist.snail.pojo.session.BandwidthSession;
+import com.acgist.snail.pojo.session.LimitSession;
+import com.acgist.snail.pojo.session.LimitSession.Type;
+
+/**
+ * <p>带宽分配上下文</p>
+ * <p>系统限速时按照任务权重分配系统速度（加权公平），防止连接较多的任务占用所有带宽。</p>
+ * <p>分配顺序：保证速度、按照权重分配（满足需求的任务剩余速度继续分配给其他任务）、剩余速度按照权重分配</p>
+ * <p>任务需求：采样期间透支令牌或者速度接近分配速度表示需求没有满足，否则需求等于采样速度加上增长空间。</p>
+ * <p>任务需求不能超过单个任务限制速度：超过部分分配给其他任务</p>
+ * <p>空闲任务（采样期间没有数据）分配权重对应速度：开始传输时不用等待下次分配</p>
+ * <p>系统没有限速时不分配：只使用单个任务限制速度</p>
+ * 
+ * @author acgist
+ */
+public final class BandwidthContext implements IContext {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(BandwidthContext.class);
+	
+	private static final BandwidthContext INSTANCE = new BandwidthContext();
+	
+	public static final BandwidthContext getInstance() {
+		return INSTANCE;
+	}
+	
+	/**
+	 * <p>分配周期（秒）：{@value}</p>
+	 */
+	private static final int BALANCE_INTERVAL = 1;
+	/**
+	 * <p>最小分配速度（B/s）：{@value}</p>
+	 * <p>防止分配速度为零（零表示没有分配）</p>
+	 */
+	private static final long MIN_BUFFER = SystemConfig.ONE_KB;
+	/**
+	 * <p>需求没有满足比例：{@value}</p>
+	 * <p>采样速度超过分配速度的比例</p>
+	 */
+	private static final double HUNGRY_SCALE = 0.9D;
+	
+	/**
+	 * <p>任务带宽信息</p>
+	 * <p>任务回收后自动删除</p>
+	 */
+	private final Map<BandwidthSession, Boolean> sessions;
+	
+	private BandwidthContext() {
+		this.sessions = Collections.synchronizedMap(new WeakHashMap<>());
+		SystemThreadContext.timerFixedDelay(
+			BALANCE_INTERVAL,
+			BALANCE_INTERVAL,
+			TimeUnit.SECONDS,
+			this::balance
+		);
+	}
+	
+	/**
+	 * <p>注册任务带宽信息</p>
+	 * 
+	 * @param session 任务带宽信息
+	 */
+	public void register(BandwidthSession session) {
+		this.sessions.put(session, Boolean.TRUE);
+	}
+	
+	/**
+	 * <p>删除任务带宽信息</p>
+	 * 
+	 * @param session 任务带宽信息
+	 */
+	public void remove(BandwidthSession session) {
+		this.sessions.remove(session);
+	}
+	
+	/**
+	 * <p>分配带宽</p>
+	 */
+	public void balance() {
+		final List<BandwidthSession> list;
+		synchronized (this.sessions) {
+			list = new ArrayList<>(this.sessions.keySet());
+		}
+		try {
+			this.balance(list, Type.UPLOAD, SystemConfig.getGlobalUploadBuffer() * (long) SystemConfig.ONE_KB);
+			this.balance(list, Type.DOWNLOAD, SystemConfig.getGlobalDownloadBuffer() * (long) SystemConfig.ONE_KB);
+		} catch (Exception e) {
+			LOGGER.error("分配带宽异常", e);
+		}
+	}
+	
+	/**
+	 * <p>分配带宽</p>
+	 * 
+	 * @param list 任务带宽信息
+	 * @param type 限制类型
+	 * @param capacity 系统速度（B/s）：小于等于零不分配
+	 */
+	void balance(List<BandwidthSession> list, Type type, long capacity) {
+		final int size = list.size();
+		if(size == 0) {
+			return;
+		}
+		final int[] weights = new int[size];
+		final long[] demands = new long[size];
+		final long[] buffers = new long[size];
+		final boolean[] actives = new boolean[size];
+		final boolean[] capped = new boolean[size];
+		long totalWeight = 0L;
+		for (int index = 0; index < size; index++) {
+			final BandwidthSession session = list.get(index);
+			final LimitSession limitSession = session.limitSession(type);
+			final boolean limited = limitSession.limited();
+			final long speed = limitSession.sample() / BALANCE_INTERVAL;
+			weights[index] = session.weight();
+			totalWeight += weights[index];
+			actives[index] = limited || speed > 0L;
+			if(!actives[index]) {
+				demands[index] = 0L;
+			} else if(limited || speed >= session.buffer(type) * HUNGRY_SCALE) {
+				// 需求没有满足：分配越多使用越多
+				demands[index] = Long.MAX_VALUE;
+			} else {
+				// 需求已经满足：保留增长空间
+				demands[index] = speed + speed / 4;
+			}
+			// 单个任务限制速度：超过部分不能使用
+			final long maxBuffer = session.maxBuffer(type);
+			if(maxBuffer > 0L && demands[index] >= maxBuffer) {
+				demands[index] = maxBuffer;
+				capped[index] = true;
+			}
+		}
+		if(capacity <= 0L) {
+			list.forEach(session -> session.buffer(type, 0L));
+			return;
+		}
+		long remaining = capacity;
+		// 保证速度：超过系统速度按比例减少
+		long minBuffer = 0L;
+		for (int index = 0; index < size; index++) {
+			if(actives[index]) {
+				minBuffer += Math.min(list.get(index).minBuffer(type), demands[index]);
+			}
+		}
+		final double minScale = minBuffer > capacity ? (double) capacity / minBuffer : 1D;
+		for (int index = 0; index < size; index++) {
+			if(actives[index]) {
+				buffers[index] = (long) (Math.min(list.get(index).minBuffer(type), demands[index]) * minScale);
+				remaining -= buffers[index];
+			}
+		}
+		// 加权分配：满足需求的任务剩余速度继续分配
+		for (int loop = 0; loop < size && remaining > 0L; loop++) {
+			long hungryWeight = 0L;
+			for (int index = 0; index < size; index++) {
+				if(actives[index] && buffers[index] < demands[index]) {
+					hungryWeight += weights[index];
+				}
+			}
+			if(hungryWeight == 0L) {
+				break;
+			}
+			long used = 0L;
+			for (int index = 0; index < size; index++) {
+				if(actives[index] && buffers[index] < demands[index]) {
+					final long share = remaining * weights[index] / hungryWeight;
+					final long buffer = Math.min(share, demands[index] - buffers[index]);
+					buffers[index] += buffer;
+					used += buffer;
+				}
+			}
+			remaining -= used;
+			if(used == 0L) {
+				break;
+			}
+		}
+		// 剩余速度：按照权重分配给活动任务（增长空间），已经达到单个任务限制速度的任务除外。
+		long activeWeight = 0L;
+		for (int index = 0; index < size; index++) {
+			if(actives[index] && !capped[index]) {
+				activeWeight += weights[index];
+			}
+		}
+		for (int index = 0; index < size; index++) {
+			final BandwidthSession session = list.get(index);
+			long buffer;
+			if(actives[index]) {
+				buffer = buffers[index];
+				if(remaining > 0L && !capped[index]) {
+					buffer += remaining * weights[index] / activeWeight;
+				}
+			} else {
+				// 空闲任务：权重对应速度
+				buffer = Math.max(session.minBuffer(type), capacity * weights[index] / totalWeight);
+			}
+			session.buffer(type, Math.max(MIN_BUFFER, buffer));
+		}
+		if(LOGGER.isDebugEnabled()) {
+			LOGGER.debug("分配带宽（{}）：{}", type, list);
+		}
+	}
+
+}
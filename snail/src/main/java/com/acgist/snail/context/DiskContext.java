@@ -0,0 +1,185 @@
+package com.acgist.snail.context;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileStore;
+import java.nio.file.Files;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.acgist.snail.IContext;
+import com.acgist.snail.config.SystemConfig;
+
+/**
+ * <p>磁盘读写上下文</p>
+ * <p>BT任务保存Piece（校验、写入缓存、刷出文件）在磁盘读写线程执行，不阻塞Peer下载线程。</p>
+ * <p>每个磁盘使用独立的线程池：一个磁盘读写缓慢不会影响其他磁盘</p>
+ * <p>磁盘任务不会在提交任务线程（网络线程）执行：等待队列没有限制，队列超过高水位时Peer暂停选择新的Piece（背压）。</p>
+ * <p>背压不会阻塞线程：Peer请求调度判断磁盘繁忙后直接返回，由定时调度重试。</p>
+ * <p>文件完整分配使用独立的单线程线程池（每个磁盘）：顺序填充文件，不会占用系统线程池和磁盘读写线程。</p>
+ * 
+ * @author acgist
+ */
+public final class DiskContext implements IContext {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(DiskContext.class);
+	
+	private static final DiskContext INSTANCE = new DiskContext();
+	
+	public static final DiskContext getInstance() {
+		return INSTANCE;
+	}
+	
+	/**
+	 * <p>默认磁盘名称：{@value}</p>
+	 * <p>获取磁盘失败时使用</p>
+	 */
+	private static final String DEFAULT_DISK = "default";
+	/**
+	 * <p>高水位比例：{@value}</p>
+	 */
+	private static final int HIGH_WATER_SCALE = 75;
+	
+	/**
+	 * <p>磁盘线程池</p>
+	 * <p>磁盘名称=线程池</p>
+	 */
+	private final Map<String, ThreadPoolExecutor> executors;
+	/**
+	 * <p>文件分配线程池</p>
+	 * <p>磁盘名称=线程池</p>
+	 */
+	private final Map<String, ExecutorService> allocators;
+	
+	private DiskContext() {
+		this.executors = new ConcurrentHashMap<>();
+		this.allocators = new ConcurrentHashMap<>();
+	}
+	
+	/**
+	 * <p>获取文件所在磁盘名称</p>
+	 * <p>文件不存在时使用存在的上级目录</p>
+	 * 
+	 * @param path 文件路径
+	 * 
+	 * @return 磁盘名称
+	 */
+	public String disk(String path) {
+		File file = new File(path).getAbsoluteFile();
+		while(file != null && !file.exists()) {
+			file = file.getParentFile();
+		}
+		if(file == null) {
+			return DEFAULT_DISK;
+		}
+		try {
+			final FileStore store = Files.getFileStore(file.toPath());
+			return store.name() + ":" + store.type();
+		} catch (IOException e) {
+			LOGGER.error("获取磁盘名称异常：{}", path, e);
+		}
+		return DEFAULT_DISK;
+	}
+	
+	/**
+	 * <p>提交磁盘任务</p>
+	 * <p>不会在当前线程执行</p>
+	 * 
+	 * @param disk 磁盘名称
+	 * @param runnable 任务
+	 */
+	public void submit(String disk, Runnable runnable) {
+		this.executor(disk).execute(() -> {
+			try {
+				runnable.run();
+			} catch (Exception e) {
+				LOGGER.error("磁盘任务执行异常：{}", disk, e);
+			}
+		});
+	}
+	
+	/**
+	 * <p>提交文件分配任务</p>
+	 * <p>等待队列没有限制：任务不会被拒绝（线程池关闭除外）</p>
+	 * 
+	 * @param disk 磁盘名称
+	 * @param runnable 任务
+	 * 
+	 * @return 任务结果：用于取消没有开始执行的任务
+	 * 
+	 * @throws RejectedExecutionException 线程池已经关闭
+	 */
+	public Future<?> allocate(String disk, Runnable runnable) {
+		final ExecutorService executor = this.allocators.computeIfAbsent(disk, key -> {
+			LOGGER.debug("创建文件分配线程池：{}", key);
+			return SystemThreadContext.newExecutor(1, 1, Integer.MAX_VALUE, 60L, SystemThreadContext.SNAIL_THREAD_BT_ALLOCATE);
+		});
+		return executor.submit(runnable);
+	}
+	
+	/**
+	 * <p>判断磁盘是否繁忙</p>
+	 * <p>等待队列超过高水位</p>
+	 * 
+	 * @param disk 磁盘名称
+	 * 
+	 * @return 是否繁忙
+	 */
+	public boolean busy(String disk) {
+		final ThreadPoolExecutor executor = this.executors.get(disk);
+		if(executor == null) {
+			return false;
+		}
+		return executor.getQueue().size() >= SystemConfig.getStorageDiskQueue() * HIGH_WATER_SCALE / 100;
+	}
+	
+	/**
+	 * <p>获取磁盘等待任务数量</p>
+	 * 
+	 * @param disk 磁盘名称
+	 * 
+	 * @return 等待任务数量
+	 */
+	public int queueSize(String disk) {
+		final ThreadPoolExecutor executor = this.executors.get(disk);
+		return executor == null ? 0 : executor.getQueue().size();
+	}
+	
+	/**
+	 * <p>获取磁盘线程池</p>
+	 * 
+	 * @param disk 磁盘名称
+	 * 
+	 * @return 线程池
+	 */
+	private ThreadPoolExecutor executor(String disk) {
+		return this.executors.computeIfAbsent(disk, key -> {
+			LOGGER.debug("创建磁盘线程池：{}", key);
+			return SystemThreadContext.newFixedExecutor(
+				SystemConfig.getStorageDiskSize(),
+				SystemThreadContext.SNAIL_THREAD_BT_DISK
+			);
+		});
+	}
+	
+	/**
+	 * <p>关闭磁盘线程池</p>
+	 * <p>已经提交的任务继续执行</p>
+	 */
+	public void shutdown() {
+		LOGGER.debug("关闭磁盘线程池");
+		this.executors.values().forEach(SystemThreadContext::shutdown);
+		this.executors.clear();
+		// 文件分配没有执行完成直接取消：分配失败不影响下载
+		this.allocators.values().forEach(SystemThreadContext::shutdownNow);
+		this.allocators.clear();
+	}
+
+}
@@ -0,0 +1,51 @@
+package com.acgist.snail.context;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * <p>线程池工厂接口</p>
+ * <p>决定缓存线程池使用的线程类型：平台线程、虚拟线程</p>
+ * 
+ * @author acgist
+ * 
+ * @see SystemThreadContext#executorFactory(IExecutorFactory)
+ */
+public interface IExecutorFactory {
+
+	/**
+	 * <p>获取工厂名称</p>
+	 * 
+	 * @return 工厂名称
+	 */
+	String name();
+	
+	/**
+	 * <p>判断当前JVM是否支持</p>
+	 * 
+	 * @return 是否支持
+	 */
+	boolean available();
+	
+	/**
+	 * <p>创建线程工厂</p>
+	 * 
+	 * @param poolName 线程池名称
+	 * 
+	 * @return 线程工厂
+	 */
+	ThreadFactory newThreadFactory(String poolName);
+	
+	/**
+	 * <p>创建缓存线程池</p>
+	 * <p>任务提交后立即执行：不会排队等待</p>
+	 * 
+	 * @param minPoolSize 初始线程数量
+	 * @param keepAliveTime 线程空闲时间（秒）
+	 * @param threadFactory 线程工厂
+	 * 
+	 * @return 线程池
+	 */
+	ExecutorService newCacheExecutor(int minPoolSize, long keepAliveTime, ThreadFactory threadFactory);
+
+}
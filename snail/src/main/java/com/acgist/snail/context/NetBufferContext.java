@@ -0,0 +1,123 @@
+package com.acgist.snail.context;
+
+import java.nio.ByteBuffer;
+import java.util.Deque;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.acgist.snail.IContext;
+import com.acgist.snail.config.SystemConfig;
+
+/**
+ * <p>网络缓冲区上下文</p>
+ * <p>缓存TCP接收消息使用的直接内存缓冲区：每次读取借出，处理完成后归还，避免每次读取分配直接内存。</p>
+ * <p>后进先出：优先复用最近归还的缓冲区</p>
+ * <p>注意：归还后缓冲区（包括切片）不能继续使用</p>
+ * 
+ * @author acgist
+ */
+public final class NetBufferContext implements IContext {
+
+	private static final NetBufferContext INSTANCE = new NetBufferContext();
+	
+	public static final NetBufferContext getInstance() {
+		return INSTANCE;
+	}
+	
+	/**
+	 * <p>缓冲区大小：{@value}</p>
+	 */
+	public static final int BUFFER_LENGTH = SystemConfig.TCP_BUFFER_LENGTH;
+	/**
+	 * <p>最大空闲缓冲区数量：{@value}</p>
+	 * <p>超过数量直接丢弃：交给GC回收</p>
+	 */
+	private static final int MAX_IDLE_SIZE = 256;
+	
+	/**
+	 * <p>空闲缓冲区</p>
+	 */
+	private final Deque<ByteBuffer> buffers;
+	/**
+	 * <p>空闲缓冲区数量</p>
+	 */
+	private final AtomicInteger idleSize;
+	/**
+	 * <p>借出次数</p>
+	 */
+	private final AtomicLong borrowCount;
+	/**
+	 * <p>没有命中次数（新建缓冲区）</p>
+	 */
+	private final AtomicLong missCount;
+	
+	private NetBufferContext() {
+		this.buffers = new ConcurrentLinkedDeque<>();
+		this.idleSize = new AtomicInteger(0);
+		this.borrowCount = new AtomicLong(0);
+		this.missCount = new AtomicLong(0);
+	}
+	
+	/**
+	 * <p>借出缓冲区</p>
+	 * 
+	 * @return 缓冲区（已经清空）
+	 */
+	public ByteBuffer borrow() {
+		this.borrowCount.incrementAndGet();
+		final ByteBuffer buffer = this.buffers.pollFirst();
+		if(buffer != null) {
+			this.idleSize.decrementAndGet();
+			buffer.clear();
+			return buffer;
+		}
+		this.missCount.incrementAndGet();
+		return ByteBuffer.allocateDirect(BUFFER_LENGTH);
+	}
+	
+	/**
+	 * <p>归还缓冲区</p>
+	 * 
+	 * @param buffer 缓冲区
+	 */
+	public void giveBack(ByteBuffer buffer) {
+		if(buffer == null || buffer.capacity() != BUFFER_LENGTH) {
+			return;
+		}
+		if(this.idleSize.incrementAndGet() > MAX_IDLE_SIZE) {
+			// 超过最大数量：丢弃
+			this.idleSize.decrementAndGet();
+			return;
+		}
+		this.buffers.offerFirst(buffer);
+	}
+	
+	/**
+	 * <p>获取空闲缓冲区数量</p>
+	 * 
+	 * @return 空闲缓冲区数量
+	 */
+	public int idleSize() {
+		return this.idleSize.get();
+	}
+	
+	/**
+	 * <p>获取借出次数</p>
+	 * 
+	 * @return 借出次数
+	 */
+	public long borrowCount() {
+		return this.borrowCount.get();
+	}
+	
+	/**
+	 * <p>获取没有命中次数（新建缓冲区）</p>
+	 * 
+	 * @return 没有命中次数
+	 */
+	public long missCount() {
+		return this.missCount.get();
+	}
+
+}
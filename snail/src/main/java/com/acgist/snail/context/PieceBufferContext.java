@@ -0,0 +1,141 @@
+package com.acgist.snail.context;
+
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.acgist.snail.IContext;
+import com.acgist.snail.config.SystemConfig;
+
+/**
+ * <p>Piece缓冲区上下文</p>
+ * <p>按照Piece大小缓存归还的缓冲区，下载Piece时优先复用，减少大块内存分配和GC压力。</p>
+ * <p>空闲缓冲区超过缓存大小时直接丢弃：交给GC回收</p>
+ * 
+ * @author acgist
+ */
+public final class PieceBufferContext implements IContext {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(PieceBufferContext.class);
+	
+	private static final PieceBufferContext INSTANCE = new PieceBufferContext();
+	
+	public static final PieceBufferContext getInstance() {
+		return INSTANCE;
+	}
+	
+	/**
+	 * <p>空闲缓冲区</p>
+	 * <p>缓冲区大小=空闲缓冲区队列</p>
+	 */
+	private final Map<Integer, Queue<ByteBuffer>> buffers;
+	/**
+	 * <p>空闲缓冲区大小</p>
+	 */
+	private final AtomicLong idleSize;
+	/**
+	 * <p>使用中缓冲区大小</p>
+	 */
+	private final AtomicLong usedSize;
+	/**
+	 * <p>借出次数</p>
+	 */
+	private final AtomicLong borrowCount;
+	/**
+	 * <p>没有命中次数（新建缓冲区）</p>
+	 */
+	private final AtomicLong missCount;
+	
+	private PieceBufferContext() {
+		this.buffers = new ConcurrentHashMap<>();
+		this.idleSize = new AtomicLong(0);
+		this.usedSize = new AtomicLong(0);
+		this.borrowCount = new AtomicLong(0);
+		this.missCount = new AtomicLong(0);
+	}
+	
+	/**
+	 * <p>借出缓冲区</p>
+	 * <p>缓冲区内容没有清空：使用者需要覆盖写入</p>
+	 * 
+	 * @param capacity 缓冲区大小
+	 * 
+	 * @return 缓冲区
+	 */
+	public ByteBuffer borrow(int capacity) {
+		this.borrowCount.incrementAndGet();
+		this.usedSize.addAndGet(capacity);
+		final Queue<ByteBuffer> queue = this.buffers.get(capacity);
+		final ByteBuffer buffer = queue == null ? null : queue.poll();
+		if(buffer != null) {
+			this.idleSize.addAndGet(-capacity);
+			buffer.clear();
+			return buffer;
+		}
+		this.missCount.incrementAndGet();
+		if(SystemConfig.getStorageBufferDirect()) {
+			return ByteBuffer.allocateDirect(capacity);
+		}
+		return ByteBuffer.allocate(capacity);
+	}
+	
+	/**
+	 * <p>归还缓冲区</p>
+	 * 
+	 * @param buffer 缓冲区
+	 */
+	public void giveBack(ByteBuffer buffer) {
+		final int capacity = buffer.capacity();
+		this.usedSize.addAndGet(-capacity);
+		if(this.idleSize.addAndGet(capacity) > SystemConfig.getStorageBufferSizeByte()) {
+			// 超过缓存大小：丢弃
+			this.idleSize.addAndGet(-capacity);
+			LOGGER.debug("Piece缓冲区超过缓存大小（丢弃）：{}", capacity);
+			return;
+		}
+		this.buffers.computeIfAbsent(capacity, key -> new ConcurrentLinkedQueue<>()).offer(buffer);
+	}
+	
+	/**
+	 * <p>获取空闲缓冲区大小</p>
+	 * 
+	 * @return 空闲缓冲区大小
+	 */
+	public long idleSize() {
+		return this.idleSize.get();
+	}
+	
+	/**
+	 * <p>获取使用中缓冲区大小</p>
+	 * 
+	 * @return 使用中缓冲区大小
+	 */
+	public long usedSize() {
+		return this.usedSize.get();
+	}
+	
+	/**
+	 * <p>获取借出次数</p>
+	 * 
+	 * @return 借出次数
+	 */
+	public long borrowCount() {
+		return this.borrowCount.get();
+	}
+	
+	/**
+	 * <p>获取没有命中次数（新建缓冲区）</p>
+	 * 
+	 * @return 没有命中次数
+	 */
+	public long missCount() {
+		return this.missCount.get();
+	}
+
+}
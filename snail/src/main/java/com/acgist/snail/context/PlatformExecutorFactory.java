@@ -0,0 +1,61 @@
+package com.acgist.snail.context;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>平台线程池工厂</p>
+ * <p>所有线程都是守护线程</p>
+ * 
+ * @author acgist
+ */
+public final class PlatformExecutorFactory implements IExecutorFactory {
+
+	private static final PlatformExecutorFactory INSTANCE = new PlatformExecutorFactory();
+	
+	public static final PlatformExecutorFactory getInstance() {
+		return INSTANCE;
+	}
+	
+	/**
+	 * <p>禁止创建实例</p>
+	 */
+	private PlatformExecutorFactory() {
+	}
+	
+	@Override
+	public String name() {
+		return "platform";
+	}
+	
+	@Override
+	public boolean available() {
+		return true;
+	}
+	
+	@Override
+	public ThreadFactory newThreadFactory(String poolName) {
+		return runnable -> {
+			final Thread thread = new Thread(runnable);
+			thread.setName(poolName);
+			thread.setDaemon(true); // 守护线程
+			return thread;
+		};
+	}
+	
+	@Override
+	public ExecutorService newCacheExecutor(int minPoolSize, long keepAliveTime, ThreadFactory threadFactory) {
+		return new ThreadPoolExecutor(
+			minPoolSize,
+			Short.MAX_VALUE, // 最大线程数量
+			keepAliveTime,
+			TimeUnit.SECONDS,
+			new SynchronousQueue<Runnable>(), // 禁止添加队列
+			threadFactory
+		);
+	}
+	
+}
@@ -1,14 +1,16 @@
 package com.acgist.snail.context;
 
 import com.acgist.snail.IContext;
+import com.acgist.snail.config.SystemConfig;
 import com.acgist.snail.pojo.ISpeedGetter;
 import com.acgist.snail.pojo.StatisticsGetter;
+import com.acgist.snail.pojo.session.LimitSession;
 import com.acgist.snail.pojo.session.StatisticsSession;
 
 /**
  * <p>系统统计上下文</p>
  * <p>系统统计：累计下载、累计上传、速度采样</p>
- * <p>系统只限制单个任务的速度，如果需要限制整个系统的速度，可以打开{@link #statistics}限速。</p>
+ * <p>系统限速：所有任务共用（没有配置不限速）</p>
  * 
  * @author acgist
  */
@@ -21,7 +23,12 @@ public final class StatisticsContext extends StatisticsGetter implements IContex
 	}
 	
 	private StatisticsContext() {
-		super(new StatisticsSession());
+		super(new StatisticsSession(
+			new LimitSession(LimitSession.Type.UPLOAD, () -> SystemConfig.getGlobalUploadBuffer() * (long) SystemConfig.ONE_KB),
+			new LimitSession(LimitSession.Type.DOWNLOAD, () -> SystemConfig.getGlobalDownloadBuffer() * (long) SystemConfig.ONE_KB),
+			true,
+			null
+		));
 	}
 	
 	@Override
@@ -161,6 +161,7 @@ public final class SystemContext implements IContext {
 				TcpServer.shutdown();
 				UdpServer.shutdown();
 				GuiContext.getInstance().exit();
+				DiskContext.getInstance().shutdown();
 				SystemThreadContext.shutdown();
 				LOGGER.info("系统已关闭");
 				LoggerContext.shutdown();
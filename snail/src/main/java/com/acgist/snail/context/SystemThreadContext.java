@@ -1,26 +1,41 @@
 package com.acgist.snail.context;
 
+import java.io.IOException;
 import java.nio.channels.AsynchronousChannelGroup;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.RejectedExecutionHandler;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.ScheduledThreadPoolExecutor;
-import java.util.concurrent.SynchronousQueue;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.acgist.snail.IContext;
+import com.acgist.snail.config.SystemConfig;
 import com.acgist.snail.context.exception.TimerException;
+import com.acgist.snail.utils.BeanUtils;
 
 /**
  * <p>系统线程上下文</p>
  * <p>所有线程都是守护线程</p>
+ * <p>缓存线程池通过线程池工厂创建：JVM支持虚拟线程时默认使用虚拟线程</p>
+ * <p>记录所有线程池统计信息：线程数量、活动线程数量、队列长度、完成任务数量</p>
  * 
  * @author acgist
  */
@@ -52,6 +67,26 @@ public final class SystemThreadContext implements IContext {
 	 * <p>BT定时线程：{@value}</p>
 	 */
 	public static final String SNAIL_THREAD_BT_TIMER = SNAIL_THREAD_BT + "-Timer";
+	/**
+	 * <p>BT文件校验线程：{@value}</p>
+	 */
+	public static final String SNAIL_THREAD_BT_VERIFY = SNAIL_THREAD_BT + "-Verify";
+	/**
+	 * <p>BT磁盘读写线程：{@value}</p>
+	 */
+	public static final String SNAIL_THREAD_BT_DISK = SNAIL_THREAD_BT + "-Disk";
+	/**
+	 * <p>BT文件分配线程：{@value}</p>
+	 */
+	public static final String SNAIL_THREAD_BT_ALLOCATE = SNAIL_THREAD_BT + "-Allocate";
+	/**
+	 * <p>BT边下边播线程：{@value}</p>
+	 */
+	public static final String SNAIL_THREAD_BT_STREAMING = SNAIL_THREAD_BT + "-Streaming";
+	/**
+	 * <p>BT请求调度线程：{@value}</p>
+	 */
+	public static final String SNAIL_THREAD_BT_SCHEDULER = SNAIL_THREAD_BT + "-Scheduler";
 	/**
 	 * <p>UTP队列线程：{@value}</p>
 	 */
@@ -61,18 +96,30 @@ public final class SystemThreadContext implements IContext {
 	 */
 	public static final String SNAIL_THREAD_DOWNLOADER = SNAIL_THREAD + "-Downloader";
 	/**
-	 * <p>TCP客户端线程：{@value}</p>
+	 * <p>TCP通道线程（客户端和服务端共用）：{@value}</p>
 	 */
-	public static final String SNAIL_THREAD_TCP_CLIENT = SNAIL_THREAD + "-TCP-Client";
+	public static final String SNAIL_THREAD_TCP = SNAIL_THREAD + "-TCP";
 	/**
-	 * <p>TCP服务端线程：{@value}</p>
+	 * <p>TCP消息处理线程：{@value}</p>
 	 */
-	public static final String SNAIL_THREAD_TCP_SERVER = SNAIL_THREAD + "-TCP-Server";
+	public static final String SNAIL_THREAD_TCP_HANDLER = SNAIL_THREAD_TCP + "-Handler";
 	/**
 	 * <p>UDP服务端线程：{@value}</p>
 	 */
 	public static final String SNAIL_THREAD_UDP_SERVER = SNAIL_THREAD + "-UDP-Server";
 	
+	/**
+	 * <p>线程池统计信息</p>
+	 * <p>线程池=线程统计</p>
+	 * <p>线程池关闭或者回收后删除</p>
+	 */
+	private static final Map<ExecutorService, ThreadCounter> EXECUTORS = Collections.synchronizedMap(new WeakHashMap<>());
+	/**
+	 * <p>线程池工厂</p>
+	 * 
+	 * @see #newCacheExecutor(int, long, String)
+	 */
+	private static volatile IExecutorFactory executorFactory;
 	/**
 	 * <p>系统线程池：加快系统运行、防止卡顿</p>
 	 */
@@ -81,6 +128,19 @@ public final class SystemThreadContext implements IContext {
 	 * <p>系统定时线程池：定时任务</p>
 	 */
 	private static final ScheduledExecutorService EXECUTOR_TIMER;
+	/**
+	 * <p>TCP通道线程池：客户端和服务端共用</p>
+	 * <p>固定线程数量：线程数量不随连接数量增加</p>
+	 */
+	private static final AsynchronousChannelGroup TCP_GROUP;
+	/**
+	 * <p>TCP消息处理线程池：处理可能阻塞的消息（磁盘读取），防止阻塞TCP通道线程。</p>
+	 */
+	private static final ExecutorService TCP_HANDLER_EXECUTOR;
+	/**
+	 * <p>TCP消息处理线程池等待队列长度：{@value}</p>
+	 */
+	private static final int TCP_HANDLER_QUEUE_SIZE = 1024;
 	/**
 	 * <p>任务拒绝执行处理</p>
 	 */
@@ -88,8 +148,26 @@ public final class SystemThreadContext implements IContext {
 	
 	static {
 		LOGGER.debug("初始化系统线程池");
+		executorFactory = VirtualExecutorFactory.getInstance().available() ?
+			VirtualExecutorFactory.getInstance() :
+			PlatformExecutorFactory.getInstance();
+		LOGGER.debug("线程池工厂：{}", executorFactory.name());
 		EXECUTOR = newExecutor(4, 20, 1000, 60L, SNAIL_THREAD);
 		EXECUTOR_TIMER = newTimerExecutor(2, SNAIL_THREAD_TIMER);
+		final int processors = Runtime.getRuntime().availableProcessors();
+		final int tcpThreadSize = SystemConfig.getNetThreadSize() > 0 ? SystemConfig.getNetThreadSize() : processors;
+		final int tcpHandlerSize = SystemConfig.getNetHandlerSize() > 0 ? SystemConfig.getNetHandlerSize() : processors * 2;
+		LOGGER.debug("TCP通道线程数量：{}，TCP消息处理线程数量：{}", tcpThreadSize, tcpHandlerSize);
+		AsynchronousChannelGroup tcpGroup = null;
+		try {
+			// 平台线程：通道线程阻塞在系统调用
+			final ThreadFactory threadFactory = PlatformExecutorFactory.getInstance().newThreadFactory(SNAIL_THREAD_TCP);
+			tcpGroup = AsynchronousChannelGroup.withFixedThreadPool(tcpThreadSize, threadFactory);
+		} catch (IOException e) {
+			LOGGER.error("启动TCP Group异常", e);
+		}
+		TCP_GROUP = tcpGroup;
+		TCP_HANDLER_EXECUTOR = newBoundedExecutor(tcpHandlerSize, TCP_HANDLER_QUEUE_SIZE, SNAIL_THREAD_TCP_HANDLER);
 	}
 	
 	/**
@@ -98,6 +176,32 @@ public final class SystemThreadContext implements IContext {
 	private SystemThreadContext() {
 	}
 	
+	/**
+	 * <p>设置线程池工厂</p>
+	 * <p>只影响之后创建的缓存线程池</p>
+	 * 
+	 * @param factory 线程池工厂
+	 * 
+	 * @return 是否设置成功：JVM不支持返回false
+	 */
+	public static final boolean executorFactory(IExecutorFactory factory) {
+		if(factory == null || !factory.available()) {
+			return false;
+		}
+		LOGGER.debug("设置线程池工厂：{}", factory.name());
+		executorFactory = factory;
+		return true;
+	}
+	
+	/**
+	 * <p>获取线程池工厂</p>
+	 * 
+	 * @return 线程池工厂
+	 */
+	public static final IExecutorFactory executorFactory() {
+		return executorFactory;
+	}
+	
 	/**
 	 * <p>异步任务</p>
 	 * 
@@ -106,7 +210,35 @@ public final class SystemThreadContext implements IContext {
 	public static final void submit(Runnable runnable) {
 		EXECUTOR.submit(runnable);
 	}
-
+	
+	/**
+	 * <p>TCP消息处理任务</p>
+	 * <p>处理可能阻塞的消息：不能阻塞TCP通道线程</p>
+	 * <p>等待队列满时拒绝任务（不会由提交任务线程执行）：调用者需要自己处理拒绝任务（减慢消息接收速度）</p>
+	 * 
+	 * @param runnable 任务
+	 * 
+	 * @return 是否提交成功
+	 */
+	public static final boolean submitTcpHandler(Runnable runnable) {
+		try {
+			TCP_HANDLER_EXECUTOR.execute(runnable);
+			return true;
+		} catch (RejectedExecutionException e) {
+			LOGGER.debug("TCP消息处理任务拒绝执行：{}", runnable);
+			return false;
+		}
+	}
+	
+	/**
+	 * <p>获取TCP通道线程池</p>
+	 * 
+	 * @return TCP通道线程池
+	 */
+	public static final AsynchronousChannelGroup tcpGroup() {
+		return TCP_GROUP;
+	}
+	
 	/**
 	 * <p>定时任务（单次执行）</p>
 	 * 
@@ -167,34 +299,105 @@ public final class SystemThreadContext implements IContext {
 	 * @return 线程池
 	 */
 	public static final ExecutorService newExecutor(int minPoolSize, int maxPoolSize, int queueSize, long keepAliveTime, String name) {
-		return new ThreadPoolExecutor(
+		final ThreadCounter counter = new ThreadCounter(name, PlatformExecutorFactory.getInstance());
+		return register(new ThreadPoolExecutor(
 			minPoolSize,
 			maxPoolSize,
 			keepAliveTime,
 			TimeUnit.SECONDS,
 			new LinkedBlockingQueue<Runnable>(queueSize),
-			SystemThreadContext.newThreadFactory(name)
-		);
+			SystemThreadContext.newThreadFactory(counter)
+		), counter);
+	}
+	
+	/**
+	 * <p>创建有界线程池</p>
+	 * <p>等待队列满时拒绝任务：抛出{@link RejectedExecutionException}，提交任务线程不会执行任务。</p>
+	 * 
+	 * @param poolSize 线程数量
+	 * @param queueSize 等待线程队列长度
+	 * @param name 线程池名称
+	 * 
+	 * @return 线程池
+	 */
+	public static final ThreadPoolExecutor newBoundedExecutor(int poolSize, int queueSize, String name) {
+		final ThreadCounter counter = new ThreadCounter(name, PlatformExecutorFactory.getInstance());
+		return register(new ThreadPoolExecutor(
+			poolSize,
+			poolSize,
+			0L,
+			TimeUnit.SECONDS,
+			new ArrayBlockingQueue<Runnable>(queueSize),
+			SystemThreadContext.newThreadFactory(counter),
+			new ThreadPoolExecutor.AbortPolicy()
+		), counter);
+	}
+	
+	/**
+	 * <p>创建固定线程池</p>
+	 * <p>等待队列没有限制：任务不会被拒绝，也不会由提交任务线程执行。</p>
+	 * <p>调用者需要自己控制提交速度（背压）</p>
+	 * 
+	 * @param poolSize 线程数量
+	 * @param name 线程池名称
+	 * 
+	 * @return 线程池
+	 */
+	public static final ThreadPoolExecutor newFixedExecutor(int poolSize, String name) {
+		final ThreadCounter counter = new ThreadCounter(name, PlatformExecutorFactory.getInstance());
+		return register(new ThreadPoolExecutor(
+			poolSize,
+			poolSize,
+			0L,
+			TimeUnit.SECONDS,
+			new LinkedBlockingQueue<Runnable>(),
+			SystemThreadContext.newThreadFactory(counter)
+		), counter);
 	}
 	
 	/**
 	 * <p>创建缓存线程池</p>
+	 * <p>使用线程池工厂创建：虚拟线程池忽略初始线程数量和线程空闲时间</p>
 	 * 
 	 * @param minPoolSize 初始线程数量
 	 * @param keepAliveTime 线程空闲时间（秒）
 	 * @param name 线程池名称
 	 * 
 	 * @return 线程池
+	 * 
+	 * @see #executorFactory(IExecutorFactory)
 	 */
 	public static final ExecutorService newCacheExecutor(int minPoolSize, long keepAliveTime, String name) {
-		return new ThreadPoolExecutor(
-			minPoolSize,
-			Short.MAX_VALUE, // 最大线程数量
-			keepAliveTime,
-			TimeUnit.SECONDS,
-			new SynchronousQueue<Runnable>(), // 禁止添加队列
-			SystemThreadContext.newThreadFactory(name)
-		);
+		return newCacheExecutor(executorFactory, minPoolSize, keepAliveTime, name);
+	}
+	
+	/**
+	 * <p>创建平台线程缓存线程池</p>
+	 * <p>线程阻塞在系统调用（AIO、Selector）时使用：虚拟线程会占用平台线程</p>
+	 * 
+	 * @param minPoolSize 初始线程数量
+	 * @param keepAliveTime 线程空闲时间（秒）
+	 * @param name 线程池名称
+	 * 
+	 * @return 线程池
+	 */
+	public static final ExecutorService newPlatformExecutor(int minPoolSize, long keepAliveTime, String name) {
+		return newCacheExecutor(PlatformExecutorFactory.getInstance(), minPoolSize, keepAliveTime, name);
+	}
+	
+	/**
+	 * <p>创建缓存线程池</p>
+	 * 
+	 * @param factory 线程池工厂
+	 * @param minPoolSize 初始线程数量
+	 * @param keepAliveTime 线程空闲时间（秒）
+	 * @param name 线程池名称
+	 * 
+	 * @return 线程池
+	 */
+	private static final ExecutorService newCacheExecutor(IExecutorFactory factory, int minPoolSize, long keepAliveTime, String name) {
+		final ThreadCounter counter = new ThreadCounter(name, factory);
+		return register(factory.newCacheExecutor(minPoolSize, keepAliveTime, SystemThreadContext.newThreadFactory(counter)), counter);
 	}
 	
 	/**
@@ -206,26 +409,108 @@ public final class SystemThreadContext implements IContext {
 	 * @return 定时线程池
 	 */
 	public static final ScheduledExecutorService newTimerExecutor(int minPoolSize, String name) {
-		return new ScheduledThreadPoolExecutor(
+		final ThreadCounter counter = new ThreadCounter(name, PlatformExecutorFactory.getInstance());
+		return register(new ScheduledThreadPoolExecutor(
 			minPoolSize,
-			SystemThreadContext.newThreadFactory(name)
+			SystemThreadContext.newThreadFactory(counter)
+		), counter);
+	}
+	
+	/**
+	 * <p>创建ForkJoin线程池</p>
+	 * 
+	 * @param parallelism 并发数量
+	 * @param name 线程池名称
+	 * 
+	 * @return ForkJoin线程池
+	 */
+	public static final ForkJoinPool newForkJoinPool(int parallelism, String name) {
+		return new ForkJoinPool(
+			parallelism,
+			pool -> {
+				final ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+				thread.setName(name);
+				thread.setDaemon(true); // 守护线程
+				return thread;
+			},
+			null,
+			false
 		);
 	}
 	
 	/**
 	 * <p>创建线程池工厂</p>
+	 * <p>统计线程数量</p>
 	 * 
-	 * @param poolName 线程池名称
+	 * @param counter 线程统计
 	 * 
 	 * @return 线程池工厂
 	 */
-	private static final ThreadFactory newThreadFactory(String poolName) {
-		return runnable -> {
-			final Thread thread = new Thread(runnable);
-			thread.setName(poolName);
-			thread.setDaemon(true); // 守护线程
-			return thread;
-		};
+	private static final ThreadFactory newThreadFactory(ThreadCounter counter) {
+		final ThreadFactory threadFactory = counter.factory.newThreadFactory(counter.name);
+		return runnable -> threadFactory.newThread(() -> {
+			counter.threads.incrementAndGet();
+			try {
+				runnable.run();
+			} finally {
+				counter.threads.decrementAndGet();
+				counter.finished.incrementAndGet();
+			}
+		});
+	}
+	
+	/**
+	 * <p>记录线程池统计信息</p>
+	 * 
+	 * @param <T> 线程池类型
+	 * 
+	 * @param executor 线程池
+	 * @param counter 线程统计
+	 * 
+	 * @return 线程池
+	 */
+	private static final <T extends ExecutorService> T register(T executor, ThreadCounter counter) {
+		EXECUTORS.put(executor, counter);
+		return executor;
+	}
+	
+	/**
+	 * <p>获取所有线程池统计信息</p>
+	 * 
+	 * @return 线程池统计信息
+	 */
+	public static final List<ExecutorMetrics> metrics() {
+		final List<ExecutorMetrics> list = new ArrayList<>();
+		synchronized (EXECUTORS) {
+			EXECUTORS.forEach((executor, counter) -> {
+				if(executor.isShutdown()) {
+					return;
+				}
+				if(executor instanceof ThreadPoolExecutor) {
+					final ThreadPoolExecutor pool = (ThreadPoolExecutor) executor;
+					list.add(new ExecutorMetrics(
+						counter.name,
+						counter.factory.name(),
+						pool.getPoolSize(),
+						pool.getActiveCount(),
+						pool.getQueue().size(),
+						pool.getCompletedTaskCount()
+					));
+				} else {
+					// 每个任务一个线程：线程数量等于活动线程数量
+					final int threads = counter.threads.get();
+					list.add(new ExecutorMetrics(
+						counter.name,
+						counter.factory.name(),
+						threads,
+						threads,
+						0,
+						counter.finished.get()
+					));
+				}
+			});
+		}
+		return list;
 	}
 	
 	/**
@@ -235,6 +520,8 @@ public final class SystemThreadContext implements IContext {
 		LOGGER.debug("关闭系统线程池");
 		shutdown(EXECUTOR);
 		shutdown(EXECUTOR_TIMER);
+		shutdown(TCP_HANDLER_EXECUTOR);
+		shutdown(TCP_GROUP);
 	}
 	
 	/**
@@ -267,6 +554,7 @@ public final class SystemThreadContext implements IContext {
 		if(executor == null || executor.isShutdown()) {
 			return;
 		}
+		EXECUTORS.remove(executor);
 		try {
 			if(closeNow) {
 				executor.shutdownNow();
@@ -353,5 +641,153 @@ public final class SystemThreadContext implements IContext {
 			LOGGER.error("关闭异步通道线程池异常", e);
 		}
 	}
+	
+	/**
+	 * <p>线程统计</p>
+	 * 
+	 * @author acgist
+	 */
+	private static final class ThreadCounter {
+		
+		/**
+		 * <p>线程池名称</p>
+		 */
+		private final String name;
+		/**
+		 * <p>线程池工厂</p>
+		 */
+		private final IExecutorFactory factory;
+		/**
+		 * <p>运行中的线程数量</p>
+		 */
+		private final AtomicInteger threads;
+		/**
+		 * <p>结束的线程数量</p>
+		 */
+		private final AtomicLong finished;
+		
+		/**
+		 * @param name 线程池名称
+		 * @param factory 线程池工厂
+		 */
+		private ThreadCounter(String name, IExecutorFactory factory) {
+			this.name = name;
+			this.factory = factory;
+			this.threads = new AtomicInteger(0);
+			this.finished = new AtomicLong(0L);
+		}
+		
+	}
+	
+	/**
+	 * <p>线程池统计信息</p>
+	 * 
+	 * @author acgist
+	 */
+	public static final class ExecutorMetrics {
+		
+		/**
+		 * <p>线程池名称</p>
+		 */
+		private final String name;
+		/**
+		 * <p>线程池工厂名称</p>
+		 */
+		private final String factory;
+		/**
+		 * <p>线程数量</p>
+		 */
+		private final int poolSize;
+		/**
+		 * <p>活动线程数量</p>
+		 */
+		private final int activeCount;
+		/**
+		 * <p>等待队列长度</p>
+		 */
+		private final int queueSize;
+		/**
+		 * <p>完成任务数量</p>
+		 * <p>虚拟线程池：结束的线程数量</p>
+		 */
+		private final long completedTaskCount;
+		
+		/**
+		 * @param name 线程池名称
+		 * @param factory 线程池工厂名称
+		 * @param poolSize 线程数量
+		 * @param activeCount 活动线程数量
+		 * @param queueSize 等待队列长度
+		 * @param completedTaskCount 完成任务数量
+		 */
+		private ExecutorMetrics(String name, String factory, int poolSize, int activeCount, int queueSize, long completedTaskCount) {
+			this.name = name;
+			this.factory = factory;
+			this.poolSize = poolSize;
+			this.activeCount = activeCount;
+			this.queueSize = queueSize;
+			this.completedTaskCount = completedTaskCount;
+		}
+		
+		/**
+		 * <p>获取线程池名称</p>
+		 * 
+		 * @return 线程池名称
+		 */
+		public String getName() {
+			return this.name;
+		}
+		
+		/**
+		 * <p>获取线程池工厂名称</p>
+		 * 
+		 * @return 线程池工厂名称
+		 */
+		public String getFactory() {
+			return this.factory;
+		}
+		
+		/**
+		 * <p>获取线程数量</p>
+		 * 
+		 * @return 线程数量
+		 */
+		public int getPoolSize() {
+			return this.poolSize;
+		}
+		
+		/**
+		 * <p>获取活动线程数量</p>
+		 * 
+		 * @return 活动线程数量
+		 */
+		public int getActiveCount() {
+			return this.activeCount;
+		}
+		
+		/**
+		 * <p>获取等待队列长度</p>
+		 * 
+		 * @return 等待队列长度
+		 */
+		public int getQueueSize() {
+			return this.queueSize;
+		}
+		
+		/**
+		 * <p>获取完成任务数量</p>
+		 * 
+		 * @return 完成任务数量
+		 */
+		public long getCompletedTaskCount() {
+			return this.completedTaskCount;
+		}
+		
+		@Override
+		public String toString() {
+			return BeanUtils.toString(this, this.name, this.factory, this.poolSize, this.activeCount, this.queueSize, this.completedTaskCount);
+		}
+		
+	}
 
 }
@@ -0,0 +1,105 @@
+package com.acgist.snail.context;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>虚拟线程池工厂</p>
+ * <p>每个任务使用一个虚拟线程：阻塞代码不会占用平台线程</p>
+ * <p>编译版本不支持虚拟线程：通过反射调用，JVM不支持（或者没有开启预览功能）时不可用。</p>
+ * 
+ * @author acgist
+ */
+public final class VirtualExecutorFactory implements IExecutorFactory {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(VirtualExecutorFactory.class);
+	
+	private static final VirtualExecutorFactory INSTANCE = new VirtualExecutorFactory();
+	
+	public static final VirtualExecutorFactory getInstance() {
+		return INSTANCE;
+	}
+	
+	/**
+	 * <p>Thread.ofVirtual()</p>
+	 */
+	private final Method ofVirtual;
+	/**
+	 * <p>Thread.Builder.name(String)</p>
+	 */
+	private final Method name;
+	/**
+	 * <p>Thread.Builder.factory()</p>
+	 */
+	private final Method factory;
+	/**
+	 * <p>Executors.newThreadPerTaskExecutor(ThreadFactory)</p>
+	 */
+	private final Method newThreadPerTaskExecutor;
+	/**
+	 * <p>是否可用</p>
+	 */
+	private final boolean available;
+	
+	/**
+	 * <p>禁止创建实例</p>
+	 */
+	private VirtualExecutorFactory() {
+		Method ofVirtual = null;
+		Method name = null;
+		Method factory = null;
+		Method newThreadPerTaskExecutor = null;
+		boolean available = false;
+		try {
+			final Class<?> builderClazz = Class.forName("java.lang.Thread$Builder");
+			ofVirtual = Thread.class.getMethod("ofVirtual");
+			name = builderClazz.getMethod("name", String.class);
+			factory = builderClazz.getMethod("factory");
+			newThreadPerTaskExecutor = Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class);
+			// 预览版本没有开启预览功能：抛出异常
+			factory.invoke(ofVirtual.invoke(null));
+			available = true;
+		} catch (Exception e) {
+			LOGGER.debug("JVM不支持虚拟线程：{}", e.getMessage());
+		}
+		this.ofVirtual = ofVirtual;
+		this.name = name;
+		this.factory = factory;
+		this.newThreadPerTaskExecutor = newThreadPerTaskExecutor;
+		this.available = available;
+	}
+	
+	@Override
+	public String name() {
+		return "virtual";
+	}
+	
+	@Override
+	public boolean available() {
+		return this.available;
+	}
+	
+	@Override
+	public ThreadFactory newThreadFactory(String poolName) {
+		try {
+			return (ThreadFactory) this.factory.invoke(this.name.invoke(this.ofVirtual.invoke(null), poolName));
+		} catch (Exception e) {
+			throw new IllegalStateException("创建虚拟线程工厂失败", e);
+		}
+	}
+	
+	@Override
+	public ExecutorService newCacheExecutor(int minPoolSize, long keepAliveTime, ThreadFactory threadFactory) {
+		try {
+			return (ExecutorService) this.newThreadPerTaskExecutor.invoke(null, threadFactory);
+		} catch (Exception e) {
+			throw new IllegalStateException("创建虚拟线程池失败", e);
+		}
+	}
+	
+}
@@ -15,6 +15,7 @@ import com.acgist.snail.context.exception.DownloadException;
 import com.acgist.snail.context.exception.NetException;
 import com.acgist.snail.pojo.ITaskSession;
 import com.acgist.snail.utils.IoUtils;
+import com.acgist.snail.utils.ThreadUtils;
 
 /**
  * <p>单文件任务下载器</p>
@@ -73,7 +74,8 @@ public abstract class SingleFileDownloader extends Downloader {
 					this.output.write(buffer);
 					buffer.clear();
 					this.statistics.download(length);
-					this.statistics.downloadLimit(length);
+					// 下载线程：直接休眠
+					ThreadUtils.sleep(this.statistics.downloadLimit(length));
 					this.fastCheckTime = System.currentTimeMillis();
 				}
 				if(Downloader.checkFinish(length, this.taskSession.downloadSize(), fileSize)) {
@@ -77,6 +77,37 @@ public interface IMessageSender {
 	 */
 	void send(ByteBuffer buffer, int timeout) throws NetException;
 
+	/**
+	 * <p>延迟读取消息</p>
+	 * <p>限速使用：延迟发起下一次读取，不会阻塞线程。</p>
+	 * <p>默认忽略：不支持延迟读取</p>
+	 * 
+	 * @param delay 延迟时间（毫秒）
+	 */
+	default void delayRead(long delay) {
+	}
+	
+	/**
+	 * <p>延迟发送消息</p>
+	 * <p>限速使用：延迟发起下一次发送，消息依然加入发送队列，不会阻塞线程。</p>
+	 * <p>默认忽略：不支持延迟发送</p>
+	 * 
+	 * @param delay 延迟时间（毫秒）
+	 */
+	default void delayWrite(long delay) {
+	}
+	
+	/**
+	 * <p>判断是否可以发送消息</p>
+	 * <p>发送消息可能阻塞时返回false：调用者稍后重试，不会阻塞线程。</p>
+	 * <p>默认可以发送：发送消息不会阻塞</p>
+	 * 
+	 * @return 是否可以发送消息
+	 */
+	default boolean writable() {
+		return true;
+	}
+	
 	/**
 	 * <p>获取远程服务地址</p>
 	 * 
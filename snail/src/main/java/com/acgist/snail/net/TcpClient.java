@@ -2,12 +2,14 @@ package com.acgist.snail.net;
 
 import java.io.IOException;
 import java.net.StandardSocketOptions;
-import java.nio.channels.AsynchronousChannelGroup;
 import java.nio.channels.AsynchronousSocketChannel;
+import java.nio.channels.CompletionHandler;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.function.Consumer;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -27,22 +29,6 @@ public abstract class TcpClient<T extends TcpMessageHandler> extends Client<T> {
 
 	private static final Logger LOGGER = LoggerFactory.getLogger(TcpClient.class);
 	
-	/**
-	 * <p>客户端线程池</p>
-	 */
-	private static final AsynchronousChannelGroup GROUP;
-	
-	static {
-		AsynchronousChannelGroup group = null;
-		try {
-			final var executor = SystemThreadContext.newCacheExecutor(0, 60L, SystemThreadContext.SNAIL_THREAD_TCP_CLIENT);
-			group = AsynchronousChannelGroup.withThreadPool(executor);
-		} catch (IOException e) {
-			LOGGER.error("启动TCP Client Group异常", e);
-		}
-		GROUP = group;
-	}
-	
 	/**
 	 * <p>超时时间</p>
 	 */
@@ -81,10 +67,7 @@ public abstract class TcpClient<T extends TcpMessageHandler> extends Client<T> {
 		boolean success = true;
 		AsynchronousSocketChannel channel = null;
 		try {
-			channel = AsynchronousSocketChannel.open(GROUP);
-//			channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
-			channel.setOption(StandardSocketOptions.SO_REUSEADDR, true);
-			channel.setOption(StandardSocketOptions.SO_KEEPALIVE, true);
+			channel = this.openChannel();
 			final Future<Void> future = channel.connect(NetUtils.buildSocketAddress(host, port));
 			future.get(this.timeout, TimeUnit.SECONDS);
 			this.handler.handle(channel);
@@ -104,6 +87,67 @@ public abstract class TcpClient<T extends TcpMessageHandler> extends Client<T> {
 		return success;
 	}
 	
+	/**
+	 * <p>异步连接服务端</p>
+	 * <p>不会阻塞线程：连接成功或者失败后执行回调，超时关闭通道。</p>
+	 * 
+	 * @param host 服务端地址
+	 * @param port 服务端端口
+	 * @param callback 连接回调：是否连接成功
+	 */
+	protected void connect(final String host, final int port, final Consumer<Boolean> callback) {
+		final AsynchronousSocketChannel channel;
+		try {
+			channel = this.openChannel();
+		} catch (IOException e) {
+			LOGGER.error("TCP客户端连接异常：{}-{}", host, port, e);
+			this.close();
+			callback.accept(false);
+			return;
+		}
+		// AIO连接没有超时时间：超时关闭通道
+		final ScheduledFuture<?> timeout = SystemThreadContext.timer(this.timeout, TimeUnit.SECONDS, () -> IoUtils.close(channel));
+		try {
+			channel.connect(NetUtils.buildSocketAddress(host, port), channel, new CompletionHandler<Void, AsynchronousSocketChannel>() {
+				@Override
+				public void completed(Void result, AsynchronousSocketChannel channel) {
+					timeout.cancel(false);
+					TcpClient.this.handler.handle(channel);
+					callback.accept(true);
+				}
+				@Override
+				public void failed(Throwable throwable, AsynchronousSocketChannel channel) {
+					timeout.cancel(false);
+					LOGGER.debug("TCP客户端连接失败：{}-{}", host, port, throwable);
+					IoUtils.close(channel);
+					TcpClient.this.close();
+					callback.accept(false);
+				}
+			});
+		} catch (Exception e) {
+			LOGGER.error("TCP客户端连接异常：{}-{}", host, port, e);
+			timeout.cancel(false);
+			IoUtils.close(channel);
+			this.close();
+			callback.accept(false);
+		}
+	}
+	
+	/**
+	 * <p>打开通道</p>
+	 * 
+	 * @return 通道
+	 * 
+	 * @throws IOException IO异常
+	 */
+	private AsynchronousSocketChannel openChannel() throws IOException {
+		final AsynchronousSocketChannel channel = AsynchronousSocketChannel.open(SystemThreadContext.tcpGroup());
+//		channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+		channel.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+		channel.setOption(StandardSocketOptions.SO_KEEPALIVE, true);
+		return channel;
+	}
+	
 	@Override
 	public void close() {
 		LOGGER.debug("关闭TCP Client：{}", this.name);
@@ -112,10 +156,11 @@ public abstract class TcpClient<T extends TcpMessageHandler> extends Client<T> {
 
 	/**
 	 * <p>关闭TCP Client线程池</p>
+	 * <p>客户端和服务端共用线程池</p>
 	 */
 	public static final void shutdown() {
 		LOGGER.debug("关闭TCP Client线程池");
-		SystemThreadContext.shutdown(GROUP);
+		SystemThreadContext.shutdown(SystemThreadContext.tcpGroup());
 	}
 
 }
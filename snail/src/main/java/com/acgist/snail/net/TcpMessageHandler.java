@@ -5,61 +5,246 @@ import java.net.InetSocketAddress;
 import java.nio.ByteBuffer;
 import java.nio.channels.AsynchronousSocketChannel;
 import java.nio.channels.CompletionHandler;
-import java.util.concurrent.ExecutionException;
-import java.util.concurrent.Future;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.acgist.snail.config.SystemConfig;
+import com.acgist.snail.context.NetBufferContext;
+import com.acgist.snail.context.SystemThreadContext;
 import com.acgist.snail.context.exception.NetException;
 import com.acgist.snail.utils.IoUtils;
 
 /**
  * <p>TCP消息代理</p>
+ * <p>发送消息：消息加入发送队列后立即返回，同一时间只有一个异步写操作，写操作完成后合并队列中的消息（{@code write(ByteBuffer[])}）继续发送。</p>
+ * <p>发送队列超过高水位时发送失败，关闭连接时等待发送队列发送完成。</p>
+ * <p>注意：消息加入发送队列后不能修改</p>
+ * <p>接收消息：接收缓冲区从{@link NetBufferContext}借出，消息处理完成后归还，所以消息处理器不能保存接收缓冲区（包括切片）。</p>
+ * <p>限速：延迟发起下一次读写操作，不会阻塞通道线程。</p>
  * 
  * @author acgist
  */
 public abstract class TcpMessageHandler extends MessageHandler<AsynchronousSocketChannel> implements CompletionHandler<Integer, ByteBuffer> {
 
 	private static final Logger LOGGER = LoggerFactory.getLogger(TcpMessageHandler.class);
-
+	
+	/**
+	 * <p>发送队列高水位（字节）：{@value}</p>
+	 * <p>超过高水位发送失败</p>
+	 */
+	public static final int HIGH_WATER_MARK = SystemConfig.MAX_NET_BUFFER_LENGTH;
+	/**
+	 * <p>发送队列低水位（字节）：{@value}</p>
+	 * <p>等待发送队列低于低水位</p>
+	 * 
+	 * @see #awaitWritable()
+	 */
+	public static final int LOW_WATER_MARK = HIGH_WATER_MARK / 4;
+	/**
+	 * <p>单次合并发送最大消息数量：{@value}</p>
+	 */
+	private static final int MAX_GATHER_SIZE = 64;
+	/**
+	 * <p>关闭连接等待发送队列时间（秒）：{@value}</p>
+	 */
+	private static final int CLOSE_TIMEOUT = SystemConfig.CONNECT_TIMEOUT;
+	
+	/**
+	 * <p>发送队列</p>
+	 */
+	private final Queue<ByteBuffer> sendQueue = new ConcurrentLinkedQueue<>();
+	/**
+	 * <p>发送队列等待发送字节数量</p>
+	 */
+	private final AtomicLong queueSize = new AtomicLong(0L);
+	/**
+	 * <p>加入发送队列字节总数</p>
+	 */
+	private final AtomicLong offerSize = new AtomicLong(0L);
+	/**
+	 * <p>已经发送字节总数</p>
+	 */
+	private final AtomicLong sendSize = new AtomicLong(0L);
+	/**
+	 * <p>是否正在发送</p>
+	 */
+	private final AtomicBoolean writing = new AtomicBoolean(false);
+	/**
+	 * <p>发送消息处理器</p>
+	 */
+	private final WriteHandler writeHandler = new WriteHandler();
+	/**
+	 * <p>允许读取时间（毫秒）</p>
+	 * 
+	 * @see #delayRead(long)
+	 */
+	private final AtomicLong readTime = new AtomicLong(0L);
+	/**
+	 * <p>允许发送时间（毫秒）</p>
+	 * 
+	 * @see #delayWrite(long)
+	 */
+	private final AtomicLong writeTime = new AtomicLong(0L);
+	
 	@Override
 	public void handle(AsynchronousSocketChannel channel) {
 		this.channel = channel;
 		this.loopMessage();
 	}
 	
+	/**
+	 * {@inheritDoc}
+	 * 
+	 * <p>消息加入发送队列：不会阻塞线程</p>
+	 * <p>超时时间：超时没有发送完成关闭连接</p>
+	 */
 	@Override
 	public void send(ByteBuffer buffer, int timeout) throws NetException {
 		this.check(buffer);
-		// 阻塞线程（等待发送完成）：防止多线程同时写导致WritePendingException
-		synchronized (this.channel) {
-			try {
-				int size;
-				final Future<Integer> future = this.channel.write(buffer);
-				// 超时时间：超时异常导致数据没有发送完成但释放了锁从而引起一连串的WritePendingException
-				if(timeout <= SystemConfig.NONE_TIMEOUT) {
-					// 没有超时：除了连接消息（首条消息）以外所有消息都不使用超时时间
-					size = future.get();
-				} else {
-					// 超时时间：连接消息（首条消息）使用超时时间
-					size = future.get(timeout, TimeUnit.SECONDS);
+		final int length = buffer.remaining();
+		if(length <= 0) {
+			return;
+		}
+		final long size = this.queueSize.get();
+		// 发送队列为空时允许发送超过高水位的消息
+		if(size > 0 && size + length > HIGH_WATER_MARK) {
+			throw new NetException("消息发送失败：发送队列超过高水位（" + size + "）");
+		}
+		this.queueSize.addAndGet(length);
+		final long position = this.offerSize.addAndGet(length);
+		this.sendQueue.offer(buffer);
+		if(timeout > SystemConfig.NONE_TIMEOUT) {
+			// 超时时间：连接消息（首条消息）使用超时时间
+			SystemThreadContext.timer(timeout, TimeUnit.SECONDS, () -> {
+				if(this.sendSize.get() < position) {
+					LOGGER.debug("TCP消息发送超时：{}", this.channel);
+					this.closeChannel();
 				}
-				if(size <= 0) {
-					LOGGER.warn("TCP消息发送失败：{}-{}", this.channel, size);
+			});
+		}
+		this.flush();
+	}
+	
+	@Override
+	public void delayRead(long delay) {
+		if(delay > 0L) {
+			final long time = System.currentTimeMillis() + delay;
+			this.readTime.accumulateAndGet(time, Math::max);
+		}
+	}
+	
+	@Override
+	public void delayWrite(long delay) {
+		if(delay > 0L) {
+			final long time = System.currentTimeMillis() + delay;
+			this.writeTime.accumulateAndGet(time, Math::max);
+		}
+	}
+	
+	/**
+	 * <p>判断发送队列是否低于高水位</p>
+	 * 
+	 * @return 是否可以发送
+	 */
+	public boolean writable() {
+		return this.queueSize.get() < HIGH_WATER_MARK;
+	}
+	
+	/**
+	 * <p>等待发送队列低于低水位</p>
+	 * <p>大量发送数据时使用：防止超过高水位导致发送失败</p>
+	 * 
+	 * @throws InterruptedException 中断异常
+	 */
+	public void awaitWritable() throws InterruptedException {
+		synchronized (this.sendQueue) {
+			while(this.available() && this.queueSize.get() > LOW_WATER_MARK) {
+				this.sendQueue.wait(SystemConfig.ONE_SECOND_MILLIS);
+			}
+		}
+	}
+	
+	/**
+	 * <p>发送队列消息</p>
+	 * <p>没有正在发送的消息时合并队列中的消息发送</p>
+	 */
+	private void flush() {
+		while(this.writing.compareAndSet(false, true)) {
+			final long delay = this.writeTime.get() - System.currentTimeMillis();
+			if(delay > 0L && !this.close && !this.sendQueue.isEmpty()) {
+				// 限速：保持发送状态，延迟之后继续发送。
+				SystemThreadContext.timer(delay, TimeUnit.MILLISECONDS, () -> {
+					this.writing.set(false);
+					this.flush();
+				});
+				return;
+			}
+			final ByteBuffer[] buffers = this.poll();
+			if(buffers.length > 0) {
+				this.write(buffers, 0);
+				return;
+			}
+			this.writing.set(false);
+			// 释放发送状态期间加入的消息需要重新发送
+			if(this.sendQueue.isEmpty()) {
+				if(this.close) {
+					this.closeChannel();
 				}
-			} catch (InterruptedException e) {
-				Thread.currentThread().interrupt();
-				throw new NetException(e);
-			} catch (TimeoutException | ExecutionException e) {
-				throw new NetException(e);
+				return;
 			}
 		}
 	}
-
+	
+	/**
+	 * <p>获取发送队列消息</p>
+	 * 
+	 * @return 消息
+	 */
+	private ByteBuffer[] poll() {
+		int index = 0;
+		ByteBuffer buffer;
+		final ByteBuffer[] buffers = new ByteBuffer[MAX_GATHER_SIZE];
+		while(index < MAX_GATHER_SIZE && (buffer = this.sendQueue.poll()) != null) {
+			buffers[index++] = buffer;
+		}
+		if(index == MAX_GATHER_SIZE) {
+			return buffers;
+		}
+		final ByteBuffer[] array = new ByteBuffer[index];
+		System.arraycopy(buffers, 0, array, 0, index);
+		return array;
+	}
+	
+	/**
+	 * <p>合并发送消息</p>
+	 * 
+	 * @param buffers 消息
+	 * @param offset 开始消息索引
+	 */
+	private void write(ByteBuffer[] buffers, int offset) {
+		try {
+			this.channel.write(buffers, offset, buffers.length - offset, 0L, TimeUnit.SECONDS, buffers, this.writeHandler);
+		} catch (Exception e) {
+			LOGGER.error("TCP消息发送异常：{}", this.channel, e);
+			this.closeChannel();
+		}
+	}
+	
+	/**
+	 * <p>通知等待发送的线程</p>
+	 */
+	private void notifyWritable() {
+		synchronized (this.sendQueue) {
+			this.sendQueue.notifyAll();
+		}
+	}
+	
 	@Override
 	public InetSocketAddress remoteSocketAddress() {
 		try {
@@ -70,11 +255,31 @@ public abstract class TcpMessageHandler extends MessageHandler<AsynchronousSocke
 		return null;
 	}
 	
+	/**
+	 * {@inheritDoc}
+	 * 
+	 * <p>等待发送队列发送完成后关闭通道：超时直接关闭</p>
+	 */
 	@Override
 	public void close() {
 		LOGGER.debug("TCP连接关闭：{}", this.channel);
+		this.close = true;
+		if(this.writing.get() || !this.sendQueue.isEmpty()) {
+			SystemThreadContext.timer(CLOSE_TIMEOUT, TimeUnit.SECONDS, this::closeChannel);
+			this.flush();
+		} else {
+			this.closeChannel();
+		}
+	}
+	
+	/**
+	 * <p>关闭通道</p>
+	 */
+	private void closeChannel() {
 		this.close = true;
 		IoUtils.close(this.channel);
+		this.sendQueue.clear();
+		this.notifyWritable();
 	}
 	
 	@Override
@@ -90,12 +295,15 @@ public abstract class TcpMessageHandler extends MessageHandler<AsynchronousSocke
 		} else {
 			this.receive(buffer);
 		}
+		// 消息处理完成：归还缓冲区
+		NetBufferContext.getInstance().giveBack(buffer);
 		this.loopMessage();
 	}
 	
 	@Override
 	public void failed(Throwable throwable, ByteBuffer buffer) {
 		LOGGER.error("TCP消息处理异常：{}", this.channel, throwable);
+		NetBufferContext.getInstance().giveBack(buffer);
 		this.close();
 	}
 	
@@ -119,12 +327,61 @@ public abstract class TcpMessageHandler extends MessageHandler<AsynchronousSocke
 	 * <p>消息轮询</p>
 	 */
 	private void loopMessage() {
+		final long delay = this.readTime.get() - System.currentTimeMillis();
+		if(delay > 0L && this.available()) {
+			// 限速：延迟之后继续读取
+			SystemThreadContext.timer(delay, TimeUnit.MILLISECONDS, this::loopMessage);
+			return;
+		}
 		if(this.available()) {
-			final ByteBuffer buffer = ByteBuffer.allocateDirect(SystemConfig.TCP_BUFFER_LENGTH);
-			this.channel.read(buffer, buffer, this);
+			final ByteBuffer buffer = NetBufferContext.getInstance().borrow();
+			try {
+				this.channel.read(buffer, buffer, this);
+			} catch (Exception e) {
+				LOGGER.error("TCP消息轮询异常：{}", this.channel, e);
+				NetBufferContext.getInstance().giveBack(buffer);
+				this.close();
+			}
 		} else {
 			LOGGER.debug("TCP消息代理退出消息轮询");
 		}
 	}
+	
+	/**
+	 * <p>发送消息处理器</p>
+	 * 
+	 * @author acgist
+	 */
+	private final class WriteHandler implements CompletionHandler<Long, ByteBuffer[]> {
+		
+		@Override
+		public void completed(Long result, ByteBuffer[] buffers) {
+			if(result == null || result < 0) {
+				TcpMessageHandler.this.closeChannel();
+				return;
+			}
+			final long size = TcpMessageHandler.this.queueSize.addAndGet(-result);
+			TcpMessageHandler.this.sendSize.addAndGet(result);
+			if(size <= LOW_WATER_MARK && size + result > LOW_WATER_MARK) {
+				TcpMessageHandler.this.notifyWritable();
+			}
+			// 部分发送：继续发送剩余数据
+			for (int index = 0; index < buffers.length; index++) {
+				if(buffers[index].hasRemaining()) {
+					TcpMessageHandler.this.write(buffers, index);
+					return;
+				}
+			}
+			TcpMessageHandler.this.writing.set(false);
+			TcpMessageHandler.this.flush();
+		}
+		
+		@Override
+		public void failed(Throwable throwable, ByteBuffer[] buffers) {
+			LOGGER.error("TCP消息发送异常：{}", TcpMessageHandler.this.channel, throwable);
+			TcpMessageHandler.this.closeChannel();
+		}
+		
+	}
 
 }
@@ -2,7 +2,6 @@ package com.acgist.snail.net;
 
 import java.io.IOException;
 import java.net.StandardSocketOptions;
-import java.nio.channels.AsynchronousChannelGroup;
 import java.nio.channels.AsynchronousServerSocketChannel;
 
 import org.slf4j.Logger;
@@ -23,22 +22,6 @@ public abstract class TcpServer<T extends TcpMessageHandler> extends Server<Asyn
 
 	private static final Logger LOGGER = LoggerFactory.getLogger(TcpServer.class);
 	
-	/**
-	 * <p>服务端线程池</p>
-	 */
-	private static final AsynchronousChannelGroup GROUP;
-	
-	static {
-		AsynchronousChannelGroup group = null;
-		try {
-			final var executor = SystemThreadContext.newCacheExecutor(0, 60L, SystemThreadContext.SNAIL_THREAD_TCP_SERVER);
-			group = AsynchronousChannelGroup.withThreadPool(executor);
-		} catch (IOException e) {
-			LOGGER.error("启动TCP Server Group异常");
-		}
-		GROUP = group;
-	}
-	
 	/**
 	 * <p>消息代理类型</p>
 	 */
@@ -78,7 +61,7 @@ public abstract class TcpServer<T extends TcpMessageHandler> extends Server<Asyn
 		LOGGER.debug("启动TCP服务端：{}", this.name);
 		boolean success = true;
 		try {
-			this.channel = AsynchronousServerSocketChannel.open(GROUP);
+			this.channel = AsynchronousServerSocketChannel.open(SystemThreadContext.tcpGroup());
 			if(reuse) {
 				this.channel.setOption(StandardSocketOptions.SO_REUSEADDR, true);
 			}
@@ -107,10 +90,11 @@ public abstract class TcpServer<T extends TcpMessageHandler> extends Server<Asyn
 	
 	/**
 	 * <p>关闭TCP Server线程池</p>
+	 * <p>客户端和服务端共用线程池</p>
 	 */
 	public static final void shutdown() {
 		LOGGER.debug("关闭TCP Server线程池");
-		SystemThreadContext.shutdown(GROUP);
+		SystemThreadContext.shutdown(SystemThreadContext.tcpGroup());
 	}
 	
 }
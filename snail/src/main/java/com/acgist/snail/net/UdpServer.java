@@ -38,7 +38,7 @@ public abstract class UdpServer<T extends UdpAcceptHandler> extends Server<Datag
 	private static final ExecutorService EXECUTOR;
 	
 	static {
-		EXECUTOR = SystemThreadContext.newCacheExecutor(0, 60L, SystemThreadContext.SNAIL_THREAD_UDP_SERVER);
+		EXECUTOR = SystemThreadContext.newPlatformExecutor(0, 60L, SystemThreadContext.SNAIL_THREAD_UDP_SERVER);
 	}
 	
 	/**
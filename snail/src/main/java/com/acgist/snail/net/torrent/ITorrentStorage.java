@@ -0,0 +1,140 @@
+package com.acgist.snail.net.torrent;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * <p>文件存储接口</p>
+ * <p>所有读写操作使用绝对偏移（不会修改共享文件指针），实现必须线程安全，多个线程并发读取不会相互阻塞。</p>
+ * 
+ * @author acgist
+ */
+public interface ITorrentStorage {
+
+	/**
+	 * <p>存储模式</p>
+	 * 
+	 * @author acgist
+	 */
+	public enum Mode {
+		
+		/**
+		 * <p>文件通道：默认</p>
+		 * 
+		 * @see TorrentChannelStorage
+		 */
+		CHANNEL,
+		/**
+		 * <p>内存映射：下载完成（做种）文件</p>
+		 * 
+		 * @see TorrentMappedStorage
+		 */
+		MAPPED;
+	
+	}
+	
+	/**
+	 * <p>文件分配方式</p>
+	 * 
+	 * @author acgist
+	 */
+	public enum Allocation {
+		
+		/**
+		 * <p>不分配：写入数据时文件自动增长</p>
+		 */
+		NONE,
+		/**
+		 * <p>稀疏文件：创建文件时设置文件大小</p>
+		 */
+		SPARSE,
+		/**
+		 * <p>完整分配：后台线程使用空数据填充文件</p>
+		 */
+		FULL;
+		
+		/**
+		 * <p>通过配置获取文件分配方式</p>
+		 * 
+		 * @param value 配置
+		 * 
+		 * @return 文件分配方式（没有匹配：不分配）
+		 */
+		public static final Allocation of(String value) {
+			for (Allocation allocation : Allocation.values()) {
+				if(allocation.name().equalsIgnoreCase(value)) {
+					return allocation;
+				}
+			}
+			return NONE;
+		}
+	
+	}
+	
+	/**
+	 * <p>获取存储模式</p>
+	 * 
+	 * @return 存储模式
+	 */
+	Mode mode();
+	
+	/**
+	 * <p>读取数据</p>
+	 * <p>尽量读满缓冲区：读到文件结尾时返回实际读取长度</p>
+	 * 
+	 * @param buffer 缓冲区
+	 * @param position 文件偏移
+	 * 
+	 * @return 读取长度
+	 * 
+	 * @throws IOException IO异常
+	 */
+	int read(ByteBuffer buffer, long position) throws IOException;
+	
+	/**
+	 * <p>写入数据</p>
+	 * <p>写入缓冲区全部数据</p>
+	 * 
+	 * @param buffer 缓冲区
+	 * @param position 文件偏移
+	 * 
+	 * @return 写入长度
+	 * 
+	 * @throws IOException IO异常
+	 */
+	int write(ByteBuffer buffer, long position) throws IOException;
+	
+	/**
+	 * <p>写入数据（聚集写入）</p>
+	 * <p>多个缓冲区数据连续写入：写入缓冲区全部数据</p>
+	 * 
+	 * @param buffers 缓冲区
+	 * @param position 文件偏移
+	 * 
+	 * @return 写入长度
+	 * 
+	 * @throws IOException IO异常
+	 */
+	default long write(ByteBuffer[] buffers, long position) throws IOException {
+		long size = 0L;
+		for (ByteBuffer buffer : buffers) {
+			size += this.write(buffer, position + size);
+		}
+		return size;
+	}
+	
+	/**
+	 * <p>获取文件大小</p>
+	 * 
+	 * @return 文件大小
+	 * 
+	 * @throws IOException IO异常
+	 */
+	long size() throws IOException;
+	
+	/**
+	 * <p>关闭存储</p>
+	 */
+	void close();
+
+}
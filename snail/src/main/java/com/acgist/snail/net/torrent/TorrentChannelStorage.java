@@ -0,0 +1,136 @@
+package com.acgist.snail.net.torrent;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.acgist.snail.context.exception.DownloadException;
+import com.acgist.snail.utils.FileUtils;
+import com.acgist.snail.utils.IoUtils;
+
+/**
+ * <p>文件存储：文件通道</p>
+ * <p>使用{@link FileChannel#read(ByteBuffer, long)}和{@link FileChannel#write(ByteBuffer, long)}读写数据，不用加锁移动文件指针。</p>
+ * <p>聚集写入使用{@link FileChannel#write(ByteBuffer[])}：只有聚集写入加锁移动文件指针</p>
+ * 
+ * @author acgist
+ */
+public final class TorrentChannelStorage implements ITorrentStorage {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(TorrentChannelStorage.class);
+	
+	/**
+	 * <p>文件路径</p>
+	 */
+	private final String path;
+	/**
+	 * <p>文件通道</p>
+	 */
+	private final FileChannel channel;
+	
+	/**
+	 * @param path 文件路径
+	 * @param channel 文件通道
+	 */
+	private TorrentChannelStorage(String path, FileChannel channel) {
+		this.path = path;
+		this.channel = channel;
+	}
+	
+	/**
+	 * <p>创建文件存储</p>
+	 * <p>文件不存在时自动创建</p>
+	 * 
+	 * @param path 文件路径
+	 * 
+	 * @return 文件存储
+	 * 
+	 * @throws DownloadException 下载异常
+	 */
+	public static final TorrentChannelStorage newInstance(String path) throws DownloadException {
+		FileUtils.buildParentFolder(path);
+		try {
+			final FileChannel channel = FileChannel.open(
+				Paths.get(path),
+				StandardOpenOption.READ,
+				StandardOpenOption.WRITE,
+				StandardOpenOption.CREATE
+			);
+			return new TorrentChannelStorage(path, channel);
+		} catch (IOException e) {
+			throw new DownloadException("创建文件存储失败：" + path, e);
+		}
+	}
+	
+	@Override
+	public Mode mode() {
+		return Mode.CHANNEL;
+	}
+	
+	@Override
+	public int read(ByteBuffer buffer, long position) throws IOException {
+		int size = 0;
+		int length;
+		while(buffer.hasRemaining()) {
+			length = this.channel.read(buffer, position + size);
+			if(length < 0) {
+				// 文件结尾
+				break;
+			}
+			size += length;
+		}
+		return size;
+	}
+	
+	@Override
+	public int write(ByteBuffer buffer, long position) throws IOException {
+		int size = 0;
+		while(buffer.hasRemaining()) {
+			size += this.channel.write(buffer, position + size);
+		}
+		return size;
+	}
+	
+	@Override
+	public long write(ByteBuffer[] buffers, long position) throws IOException {
+		long size = 0L;
+		// 聚集写入需要移动文件指针：加锁防止多个线程同时移动
+		synchronized (this.channel) {
+			this.channel.position(position);
+			long remaining = 0L;
+			for (ByteBuffer buffer : buffers) {
+				remaining += buffer.remaining();
+			}
+			while(size < remaining) {
+				size += this.channel.write(buffers);
+			}
+		}
+		return size;
+	}
+	
+	@Override
+	public long size() throws IOException {
+		return this.channel.size();
+	}
+	
+	/**
+	 * <p>获取文件通道</p>
+	 * 
+	 * @return 文件通道
+	 */
+	public FileChannel channel() {
+		return this.channel;
+	}
+	
+	@Override
+	public void close() {
+		LOGGER.debug("关闭文件存储：{}", this.path);
+		IoUtils.close(this.channel);
+	}
+
+}
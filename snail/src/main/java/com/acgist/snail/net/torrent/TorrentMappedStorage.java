@@ -0,0 +1,144 @@
+package com.acgist.snail.net.torrent;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>文件存储：内存映射</p>
+ * <p>只用于下载完成（做种）文件：读取直接访问系统页缓存，写入（正常不会出现）交给文件通道。</p>
+ * <p>单个映射区域不能超过{@link Integer#MAX_VALUE}，所以大文件按照{@value #REGION_SIZE}分段映射，第一次读取时加载。</p>
+ * <p>注意：映射区域需要等待GC回收才会释放</p>
+ * 
+ * @author acgist
+ */
+public final class TorrentMappedStorage implements ITorrentStorage {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(TorrentMappedStorage.class);
+	
+	/**
+	 * <p>映射区域大小：{@value}</p>
+	 */
+	private static final int REGION_SIZE = 1 << 30;
+	
+	/**
+	 * <p>映射文件大小</p>
+	 */
+	private final long size;
+	/**
+	 * <p>文件通道存储</p>
+	 */
+	private final TorrentChannelStorage storage;
+	/**
+	 * <p>映射区域</p>
+	 */
+	private final AtomicReferenceArray<MappedByteBuffer> regions;
+	
+	/**
+	 * @param storage 文件通道存储
+	 * 
+	 * @throws IOException IO异常
+	 */
+	private TorrentMappedStorage(TorrentChannelStorage storage) throws IOException {
+		this.size = storage.size();
+		this.storage = storage;
+		this.regions = new AtomicReferenceArray<>((int) ((this.size + REGION_SIZE - 1) / REGION_SIZE));
+	}
+	
+	/**
+	 * <p>创建文件存储</p>
+	 * 
+	 * @param storage 文件通道存储
+	 * 
+	 * @return 文件存储
+	 * 
+	 * @throws IOException IO异常
+	 */
+	public static final TorrentMappedStorage newInstance(TorrentChannelStorage storage) throws IOException {
+		return new TorrentMappedStorage(storage);
+	}
+	
+	@Override
+	public Mode mode() {
+		return Mode.MAPPED;
+	}
+	
+	@Override
+	public int read(ByteBuffer buffer, long position) throws IOException {
+		int size = 0;
+		long pos = position;
+		while(buffer.hasRemaining() && pos < this.size) {
+			final int index = (int) (pos / REGION_SIZE);
+			final int offset = (int) (pos % REGION_SIZE);
+			// 复制视图：映射区域多线程共享不能修改原始位置
+			final ByteBuffer region = this.region(index).duplicate();
+			final int length = Math.min(buffer.remaining(), region.limit() - offset);
+			region.position(offset).limit(offset + length);
+			buffer.put(region);
+			size += length;
+			pos += length;
+		}
+		if(buffer.hasRemaining()) {
+			// 超过映射范围：文件通道读取
+			size += this.storage.read(buffer, pos);
+		}
+		return size;
+	}
+	
+	@Override
+	public int write(ByteBuffer buffer, long position) throws IOException {
+		return this.storage.write(buffer, position);
+	}
+	
+	@Override
+	public long size() throws IOException {
+		return this.storage.size();
+	}
+	
+	/**
+	 * <p>获取映射区域</p>
+	 * 
+	 * @param index 区域索引
+	 * 
+	 * @return 映射区域
+	 * 
+	 * @throws IOException IO异常
+	 */
+	private MappedByteBuffer region(int index) throws IOException {
+		MappedByteBuffer region = this.regions.get(index);
+		if(region == null) {
+			final long position = (long) index * REGION_SIZE;
+			final long length = Math.min(REGION_SIZE, this.size - position);
+			region = this.storage.channel().map(FileChannel.MapMode.READ_ONLY, position, length);
+			// 并发映射时使用先映射的区域
+			if(!this.regions.compareAndSet(index, null, region)) {
+				region = this.regions.get(index);
+			}
+		}
+		return region;
+	}
+	
+	/**
+	 * <p>获取文件通道存储</p>
+	 * 
+	 * @return 文件通道存储
+	 */
+	public TorrentChannelStorage storage() {
+		return this.storage;
+	}
+	
+	@Override
+	public void close() {
+		LOGGER.debug("关闭内存映射存储");
+		for (int index = 0; index < this.regions.length(); index++) {
+			this.regions.set(index, null);
+		}
+		this.storage.close();
+	}
+
+}
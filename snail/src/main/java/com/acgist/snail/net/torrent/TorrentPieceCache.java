@@ -0,0 +1,204 @@
+package com.acgist.snail.net.torrent;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.acgist.snail.config.SystemConfig;
+import com.acgist.snail.context.SystemThreadContext;
+import com.acgist.snail.pojo.bean.TorrentPiece;
+
+/**
+ * <p>Piece写入缓存</p>
+ * <p>所有BT任务共用内存预算：超过预算后台线程按照写入顺序刷出最旧的Piece，直到低于预算{@value #EVICT_SCALE}%。</p>
+ * <p>Piece数据保存在文件流中（按照Piece索引查找），这里只记录写入顺序和统计信息。</p>
+ * <p>文件流自己刷出的Piece不会立即从写入顺序中删除：淘汰时跳过，批量刷出后清理。</p>
+ * 
+ * @author acgist
+ */
+public final class TorrentPieceCache {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(TorrentPieceCache.class);
+	
+	private static final TorrentPieceCache INSTANCE = new TorrentPieceCache();
+	
+	public static final TorrentPieceCache getInstance() {
+		return INSTANCE;
+	}
+	
+	/**
+	 * <p>淘汰后剩余缓存比例：{@value}</p>
+	 */
+	private static final int EVICT_SCALE = 75;
+	
+	/**
+	 * <p>脏数据大小</p>
+	 */
+	private final AtomicLong dirtySize;
+	/**
+	 * <p>命中次数</p>
+	 */
+	private final AtomicLong hitCount;
+	/**
+	 * <p>没有命中次数</p>
+	 */
+	private final AtomicLong missCount;
+	/**
+	 * <p>是否正在淘汰</p>
+	 */
+	private final AtomicBoolean evicting;
+	/**
+	 * <p>写入顺序</p>
+	 */
+	private final Queue<CachePiece> pieces;
+	
+	private TorrentPieceCache() {
+		this.dirtySize = new AtomicLong(0);
+		this.hitCount = new AtomicLong(0);
+		this.missCount = new AtomicLong(0);
+		this.evicting = new AtomicBoolean(false);
+		this.pieces = new ConcurrentLinkedQueue<>();
+	}
+	
+	/**
+	 * <p>缓存Piece</p>
+	 * 
+	 * @author acgist
+	 */
+	private static final class CachePiece {
+		
+		/**
+		 * <p>文件流</p>
+		 */
+		private final TorrentStream stream;
+		/**
+		 * <p>Piece</p>
+		 */
+		private final TorrentPiece piece;
+		
+		/**
+		 * @param stream 文件流
+		 * @param piece Piece
+		 */
+		private CachePiece(TorrentStream stream, TorrentPiece piece) {
+			this.stream = stream;
+			this.piece = piece;
+		}
+		
+		/**
+		 * <p>判断是否还在缓存</p>
+		 * 
+		 * @return 是否还在缓存
+		 */
+		private boolean cached() {
+			return this.stream.cached(this.piece);
+		}
+		
+		/**
+		 * <p>刷出缓存</p>
+		 */
+		private void evict() {
+			this.stream.evict(this.piece);
+		}
+	
+	}
+	
+	/**
+	 * <p>添加缓存</p>
+	 * <p>超过内存预算时后台刷出：不阻塞下载线程</p>
+	 * 
+	 * @param stream 文件流
+	 * @param piece Piece
+	 */
+	void put(TorrentStream stream, TorrentPiece piece) {
+		this.pieces.offer(new CachePiece(stream, piece));
+		final long size = this.dirtySize.addAndGet(piece.getLength());
+		if(size > SystemConfig.getStorageCacheSizeByte() && this.evicting.compareAndSet(false, true)) {
+			SystemThreadContext.submit(this::evict);
+		}
+	}
+	
+	/**
+	 * <p>删除缓存</p>
+	 * <p>文件流刷出Piece后调用</p>
+	 * 
+	 * @param piece Piece
+	 */
+	void remove(TorrentPiece piece) {
+		this.dirtySize.addAndGet(-piece.getLength());
+	}
+	
+	/**
+	 * <p>缓存命中</p>
+	 */
+	void hit() {
+		this.hitCount.incrementAndGet();
+	}
+	
+	/**
+	 * <p>缓存没有命中</p>
+	 */
+	void miss() {
+		this.missCount.incrementAndGet();
+	}
+	
+	/**
+	 * <p>清理已经刷出的写入顺序</p>
+	 */
+	void purge() {
+		this.pieces.removeIf(cachePiece -> !cachePiece.cached());
+	}
+	
+	/**
+	 * <p>淘汰最旧的Piece</p>
+	 */
+	private void evict() {
+		try {
+			final long lowSize = SystemConfig.getStorageCacheSizeByte() * EVICT_SCALE / 100;
+			LOGGER.debug("Piece缓存超过预算开始刷出：{}-{}", this.dirtySize.get(), lowSize);
+			CachePiece cachePiece;
+			while(this.dirtySize.get() > lowSize && (cachePiece = this.pieces.poll()) != null) {
+				// 已经刷出的Piece直接跳过
+				if(cachePiece.cached()) {
+					cachePiece.evict();
+				}
+			}
+		} catch (Exception e) {
+			LOGGER.error("Piece缓存刷出异常", e);
+		} finally {
+			this.evicting.set(false);
+		}
+	}
+	
+	/**
+	 * <p>获取脏数据大小</p>
+	 * 
+	 * @return 脏数据大小
+	 */
+	public long dirtySize() {
+		return this.dirtySize.get();
+	}
+	
+	/**
+	 * <p>获取命中次数</p>
+	 * 
+	 * @return 命中次数
+	 */
+	public long hitCount() {
+		return this.hitCount.get();
+	}
+	
+	/**
+	 * <p>获取没有命中次数</p>
+	 * 
+	 * @return 没有命中次数
+	 */
+	public long missCount() {
+		return this.missCount.get();
+	}
+
+}
@@ -0,0 +1,221 @@
+package com.acgist.snail.net.torrent;
+
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.acgist.snail.config.SystemConfig;
+
+/**
+ * <p>Piece读取缓存</p>
+ * <p>做种时多个Peer请求相同Piece：第一次请求读取整个Piece，后续请求直接从缓存读取，减少读取硬盘。</p>
+ * <p>所有BT任务共用内存预算：超过预算按照最近最少使用淘汰</p>
+ * 
+ * @author acgist
+ */
+public final class TorrentReadCache {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(TorrentReadCache.class);
+	
+	private static final TorrentReadCache INSTANCE = new TorrentReadCache();
+	
+	public static final TorrentReadCache getInstance() {
+		return INSTANCE;
+	}
+	
+	/**
+	 * <p>缓存大小</p>
+	 */
+	private long size;
+	/**
+	 * <p>命中次数</p>
+	 */
+	private final AtomicLong hitCount;
+	/**
+	 * <p>没有命中次数</p>
+	 */
+	private final AtomicLong missCount;
+	/**
+	 * <p>Piece数据</p>
+	 * <p>按照访问顺序排序：最近最少使用的Piece在前面</p>
+	 */
+	private final Map<CacheKey, ByteBuffer> pieces;
+	
+	private TorrentReadCache() {
+		this.size = 0L;
+		this.hitCount = new AtomicLong(0);
+		this.missCount = new AtomicLong(0);
+		this.pieces = new LinkedHashMap<>(16, 0.75F, true);
+	}
+	
+	/**
+	 * <p>缓存Key</p>
+	 * 
+	 * @author acgist
+	 */
+	private static final class CacheKey {
+		
+		/**
+		 * <p>文件流组</p>
+		 */
+		private final TorrentStreamGroup group;
+		/**
+		 * <p>Piece索引</p>
+		 */
+		private final int index;
+		
+		/**
+		 * @param group 文件流组
+		 * @param index Piece索引
+		 */
+		private CacheKey(TorrentStreamGroup group, int index) {
+			this.group = group;
+			this.index = index;
+		}
+		
+		@Override
+		public int hashCode() {
+			return Objects.hash(System.identityHashCode(this.group), this.index);
+		}
+		
+		@Override
+		public boolean equals(Object object) {
+			if(this == object) {
+				return true;
+			}
+			if(object instanceof CacheKey) {
+				final CacheKey key = (CacheKey) object;
+				return this.group == key.group && this.index == key.index;
+			}
+			return false;
+		}
+	
+	}
+	
+	/**
+	 * <p>判断是否使用读取缓存</p>
+	 * 
+	 * @return 是否使用读取缓存
+	 */
+	public boolean available() {
+		return SystemConfig.getStorageReadSizeByte() > 0L;
+	}
+	
+	/**
+	 * <p>获取Piece数据</p>
+	 * 
+	 * @param group 文件流组
+	 * @param index Piece索引
+	 * 
+	 * @return Piece数据（只读）；没有缓存：null
+	 */
+	ByteBuffer get(TorrentStreamGroup group, int index) {
+		final ByteBuffer buffer;
+		synchronized (this) {
+			buffer = this.pieces.get(new CacheKey(group, index));
+		}
+		if(buffer == null) {
+			this.missCount.incrementAndGet();
+			return null;
+		}
+		this.hitCount.incrementAndGet();
+		return buffer.duplicate();
+	}
+	
+	/**
+	 * <p>缓存Piece数据</p>
+	 * <p>超过内存预算淘汰最近最少使用的Piece</p>
+	 * 
+	 * @param group 文件流组
+	 * @param index Piece索引
+	 * @param buffer Piece数据
+	 */
+	void put(TorrentStreamGroup group, int index, ByteBuffer buffer) {
+		final long maxSize = SystemConfig.getStorageReadSizeByte();
+		final ByteBuffer value = buffer.asReadOnlyBuffer();
+		synchronized (this) {
+			final ByteBuffer old = this.pieces.put(new CacheKey(group, index), value);
+			if(old != null) {
+				this.size -= old.capacity();
+			}
+			this.size += value.capacity();
+			final Iterator<ByteBuffer> iterator = this.pieces.values().iterator();
+			while(this.size > maxSize && iterator.hasNext()) {
+				this.size -= iterator.next().capacity();
+				iterator.remove();
+			}
+		}
+	}
+	
+	/**
+	 * <p>删除Piece数据</p>
+	 * <p>Piece校验失败时调用</p>
+	 * 
+	 * @param group 文件流组
+	 * @param index Piece索引
+	 */
+	void remove(TorrentStreamGroup group, int index) {
+		synchronized (this) {
+			final ByteBuffer old = this.pieces.remove(new CacheKey(group, index));
+			if(old != null) {
+				this.size -= old.capacity();
+			}
+		}
+	}
+	
+	/**
+	 * <p>删除文件流组所有Piece数据</p>
+	 * <p>释放文件流组时调用</p>
+	 * 
+	 * @param group 文件流组
+	 */
+	void remove(TorrentStreamGroup group) {
+		synchronized (this) {
+			final var iterator = this.pieces.entrySet().iterator();
+			while(iterator.hasNext()) {
+				final var entry = iterator.next();
+				if(entry.getKey().group == group) {
+					this.size -= entry.getValue().capacity();
+					iterator.remove();
+				}
+			}
+		}
+		LOGGER.debug("Piece读取缓存命中次数：{}，没有命中次数：{}", this.hitCount.get(), this.missCount.get());
+	}
+	
+	/**
+	 * <p>获取缓存大小</p>
+	 * 
+	 * @return 缓存大小
+	 */
+	public long size() {
+		synchronized (this) {
+			return this.size;
+		}
+	}
+	
+	/**
+	 * <p>获取命中次数</p>
+	 * 
+	 * @return 命中次数
+	 */
+	public long hitCount() {
+		return this.hitCount.get();
+	}
+	
+	/**
+	 * <p>获取没有命中次数</p>
+	 * 
+	 * @return 没有命中次数
+	 */
+	public long missCount() {
+		return this.missCount.get();
+	}
+
+}
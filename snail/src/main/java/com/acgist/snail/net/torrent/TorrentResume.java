@@ -0,0 +1,213 @@
+package com.acgist.snail.net.torrent;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.acgist.snail.format.BEncodeDecoder;
+import com.acgist.snail.format.BEncodeEncoder;
+
+/**
+ * <p>快速恢复</p>
+ * <p>保存已经写入文件的Piece位图和文件信息（大小、修改时间），重启任务时文件信息没有改变直接信任Piece位图，不用读取文件校验。</p>
+ * <p>Piece下载完成后才会写入文件（没有写入部分Piece），所以不用保存Piece内部分数据信息。</p>
+ * <p>先写入临时文件然后替换：保存过程中退出不会损坏原有记录</p>
+ * 
+ * @author acgist
+ */
+public final class TorrentResume {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(TorrentResume.class);
+	
+	/**
+	 * <p>快速恢复文件后缀：{@value}</p>
+	 */
+	public static final String RESUME_SUFFIX = ".resume";
+	/**
+	 * <p>临时文件后缀：{@value}</p>
+	 */
+	private static final String TEMP_SUFFIX = ".tmp";
+	/**
+	 * <p>Piece位图：{@value}</p>
+	 */
+	private static final String KEY_PIECES = "pieces";
+	/**
+	 * <p>文件列表：{@value}</p>
+	 */
+	private static final String KEY_FILES = "files";
+	/**
+	 * <p>文件路径：{@value}</p>
+	 */
+	private static final String KEY_PATH = "path";
+	/**
+	 * <p>文件大小：{@value}</p>
+	 */
+	private static final String KEY_SIZE = "size";
+	/**
+	 * <p>文件修改时间：{@value}</p>
+	 */
+	private static final String KEY_MODIFIED = "modified";
+	
+	/**
+	 * <p>快速恢复文件路径</p>
+	 */
+	private final String path;
+	/**
+	 * <p>已经写入文件的Piece位图</p>
+	 */
+	private final BitSet pieces;
+	/**
+	 * <p>文件信息</p>
+	 * <p>文件路径=[文件大小, 文件修改时间]</p>
+	 */
+	private final Map<String, long[]> files;
+	
+	/**
+	 * @param path 快速恢复文件路径
+	 */
+	private TorrentResume(String path) {
+		this.path = path;
+		this.pieces = new BitSet();
+		this.files = new HashMap<>();
+	}
+	
+	/**
+	 * <p>创建快速恢复</p>
+	 * <p>快速恢复文件存在时加载记录</p>
+	 * 
+	 * @param path 快速恢复文件路径
+	 * 
+	 * @return 快速恢复
+	 */
+	public static final TorrentResume newInstance(String path) {
+		final TorrentResume resume = new TorrentResume(path);
+		resume.load();
+		return resume;
+	}
+	
+	/**
+	 * <p>加载快速恢复文件</p>
+	 * <p>文件不存在或者格式错误时忽略：所有文件按照原来方式校验</p>
+	 */
+	private void load() {
+		final File file = new File(this.path);
+		if(!file.exists()) {
+			return;
+		}
+		try {
+			final var decoder = BEncodeDecoder.newInstance(Files.readAllBytes(file.toPath()));
+			final var map = decoder.nextMap();
+			final byte[] pieces = BEncodeDecoder.getBytes(map, KEY_PIECES);
+			if(pieces != null) {
+				this.pieces.or(BitSet.valueOf(pieces));
+			}
+			final List<Object> files = BEncodeDecoder.getList(map, KEY_FILES);
+			for (Object object : files) {
+				final Map<?, ?> value = (Map<?, ?>) object;
+				this.files.put(
+					BEncodeDecoder.getString(value, KEY_PATH),
+					new long[] {BEncodeDecoder.getLong(value, KEY_SIZE), BEncodeDecoder.getLong(value, KEY_MODIFIED)}
+				);
+			}
+			LOGGER.debug("加载快速恢复文件：{}-{}", this.path, this.files.size());
+		} catch (Exception e) {
+			LOGGER.error("加载快速恢复文件异常：{}", this.path, e);
+			this.pieces.clear();
+			this.files.clear();
+		}
+	}
+	
+	/**
+	 * <p>判断文件是否可以信任</p>
+	 * <p>文件大小和修改时间和记录一致</p>
+	 * 
+	 * @param filePath 文件路径
+	 * 
+	 * @return 是否可以信任
+	 */
+	public boolean trusted(String filePath) {
+		final long[] value = this.files.get(filePath);
+		if(value == null) {
+			return false;
+		}
+		final long[] current = fileInfo(filePath);
+		return current != null && current[0] == value[0] && current[1] == value[1];
+	}
+	
+	/**
+	 * <p>判断Piece是否已经写入文件</p>
+	 * 
+	 * @param index Piece索引
+	 * 
+	 * @return 是否已经写入文件
+	 */
+	public boolean hasPiece(int index) {
+		return this.pieces.get(index);
+	}
+	
+	/**
+	 * <p>保存快速恢复文件</p>
+	 * 
+	 * @param pieces 已经写入文件的Piece位图
+	 * @param filePaths 文件路径
+	 */
+	public synchronized void store(BitSet pieces, List<String> filePaths) {
+		final List<Object> files = new ArrayList<>(filePaths.size());
+		for (String filePath : filePaths) {
+			final long[] current = fileInfo(filePath);
+			if(current == null) {
+				continue;
+			}
+			final Map<String, Object> value = new LinkedHashMap<>();
+			value.put(KEY_PATH, filePath);
+			value.put(KEY_SIZE, current[0]);
+			value.put(KEY_MODIFIED, current[1]);
+			files.add(value);
+		}
+		final Map<String, Object> map = new LinkedHashMap<>();
+		map.put(KEY_PIECES, pieces.toByteArray());
+		map.put(KEY_FILES, files);
+		final Path target = Paths.get(this.path);
+		final Path temp = Paths.get(this.path + TEMP_SUFFIX);
+		try {
+			Files.write(temp, BEncodeEncoder.encodeMap(map));
+			try {
+				Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			} catch (AtomicMoveNotSupportedException e) {
+				LOGGER.debug("快速恢复文件不支持原子替换：{}", this.path);
+				Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+			}
+		} catch (IOException e) {
+			LOGGER.error("保存快速恢复文件异常：{}", this.path, e);
+		}
+	}
+	
+	/**
+	 * <p>获取文件信息</p>
+	 * 
+	 * @param filePath 文件路径
+	 * 
+	 * @return [文件大小, 文件修改时间]；文件不存在：null
+	 */
+	private static final long[] fileInfo(String filePath) {
+		final File file = new File(filePath);
+		if(!file.isFile()) {
+			return null;
+		}
+		return new long[] {file.length(), file.lastModified()};
+	}
+
+}
@@ -1,25 +1,31 @@
 package com.acgist.snail.net.torrent;
 
-import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
 import java.security.MessageDigest;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.BitSet;
-import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicLong;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.acgist.snail.config.DownloadConfig;
 import com.acgist.snail.config.SystemConfig;
+import com.acgist.snail.context.DiskContext;
 import com.acgist.snail.context.exception.DownloadException;
 import com.acgist.snail.pojo.bean.TorrentPiece;
 import com.acgist.snail.utils.BeanUtils;
 import com.acgist.snail.utils.DigestUtils;
-import com.acgist.snail.utils.FileUtils;
 import com.acgist.snail.utils.StringUtils;
 
 /**
@@ -33,14 +39,94 @@ public final class TorrentStream {
 	private static final Logger LOGGER = LoggerFactory.getLogger(TorrentStream.class);
 	
 	/**
-	 * <p>文件流模式：{@value}</p>
+	 * <p>完整分配填充数据大小：{@value}</p>
 	 */
-	private static final String STREAM_MODE = "rw";
-
+	private static final int ALLOCATE_BUFFER_LENGTH = SystemConfig.ONE_MB;
+	
+	/**
+	 * <p>文件下载优先级</p>
+	 * <p>优先选择等级高的Piece：等级相同时稀有优先选择</p>
+	 * 
+	 * @author acgist
+	 */
+	public enum Priority {
+		
+		/**
+		 * <p>跳过：不下载</p>
+		 */
+		SKIP(0),
+		/**
+		 * <p>低</p>
+		 */
+		LOW(1),
+		/**
+		 * <p>普通：默认</p>
+		 */
+		NORMAL(2),
+		/**
+		 * <p>高</p>
+		 */
+		HIGH(3),
+		/**
+		 * <p>首尾优先：第一块和最后一块Piece优先级最高，其他Piece普通优先级。</p>
+		 * <p>媒体文件头部和尾部数据（索引）优先下载：方便预览</p>
+		 */
+		FIRST_LAST(NORMAL.level);
+		
+		/**
+		 * <p>最高等级：{@value}</p>
+		 * <p>首尾优先文件第一块和最后一块Piece等级</p>
+		 */
+		public static final int MAX_LEVEL = 4;
+		
+		/**
+		 * <p>等级</p>
+		 */
+		private final int level;
+		
+		/**
+		 * @param level 等级
+		 */
+		private Priority(int level) {
+			this.level = level;
+		}
+		
+		/**
+		 * <p>获取等级</p>
+		 * 
+		 * @return 等级
+		 */
+		public int level() {
+			return this.level;
+		}
+		
+		/**
+		 * <p>通过名称获取文件下载优先级</p>
+		 * 
+		 * @param value 名称
+		 * 
+		 * @return 文件下载优先级（没有匹配：普通）
+		 */
+		public static final Priority of(String value) {
+			for (Priority priority : Priority.values()) {
+				if(priority.name().equalsIgnoreCase(value)) {
+					return priority;
+				}
+			}
+			return NORMAL;
+		}
+		
+	}
+	
 	/**
 	 * <p>文件是否选择下载</p>
 	 */
 	private volatile boolean selected;
+	/**
+	 * <p>文件下载优先级</p>
+	 * <p>运行时修改不用重新加载文件流</p>
+	 */
+	private volatile Priority priority = Priority.NORMAL;
 	/**
 	 * <p>Piece大小</p>
 	 */
@@ -99,14 +185,44 @@ public final class TorrentStream {
 	 */
 	private final BitSet downloadPieces;
 	/**
-	 * <p>Piece缓存队列</p>
+	 * <p>Piece缓存</p>
+	 * <p>Piece索引=Piece</p>
+	 * 
+	 * @see TorrentPieceCache
+	 */
+	private final Map<Integer, TorrentPiece> cachePieces;
+	/**
+	 * <p>文件存储</p>
+	 * <p>默认使用文件通道，下载完成后可以切换为内存映射。</p>
+	 * <p>读写使用绝对偏移：读取数据不用加锁</p>
 	 */
-	private final BlockingQueue<TorrentPiece> cachePieces;
+	private volatile ITorrentStorage storage;
 	/**
-	 * <p>文件流</p>
-	 * <p>不用使用NIO（FileChannel）没有性能提升</p>
+	 * <p>是否正在完整分配文件</p>
 	 */
-	private final RandomAccessFile fileStream;
+	private volatile boolean allocating;
+	/**
+	 * <p>完整分配文件锁</p>
+	 * <p>只有释放资源时等待分配停止：分配期间Piece正常写入文件</p>
+	 */
+	private final CountDownLatch allocateLatch;
+	/**
+	 * <p>完整分配文件任务</p>
+	 */
+	private volatile Future<?> allocateFuture;
+	/**
+	 * <p>分配锁</p>
+	 * <p>是否已经开始分配文件：开始下载时分配，只会分配一次。</p>
+	 * <p>完整分配文件时填充数据和写入Piece使用分配锁互斥：防止空数据覆盖Piece数据</p>
+	 * 
+	 * @see #allocate()
+	 */
+	private final AtomicBoolean allocateLock;
+	/**
+	 * <p>刷出锁</p>
+	 * <p>同一时间只有一个线程刷出缓存，不使用文件流锁。</p>
+	 */
+	private final Object flushLock;
 	/**
 	 * <p>文件流组</p>
 	 */
@@ -148,11 +264,19 @@ public final class TorrentStream {
 		this.pieces = new BitSet();
 		this.pausePieces = new BitSet();
 		this.downloadPieces = new BitSet();
-		this.cachePieces = new LinkedBlockingQueue<>();
-		this.fileStream = this.buildFileStream();
+		this.cachePieces = new ConcurrentHashMap<>();
+		this.storage = this.buildStorage();
+		this.allocating = false;
+		this.allocateLatch = new CountDownLatch(1);
+		this.allocateLock = new AtomicBoolean(false);
+		this.flushLock = new Object();
 		this.torrentStreamGroup = torrentStreamGroup;
 		this.buildPieces(completed);
 		this.buildFileDownloadSize();
+		if(this.completed()) {
+			this.allocateLatch.countDown();
+			this.buildMappedStorage();
+		}
 	}
 	
 	/**
@@ -191,21 +315,184 @@ public final class TorrentStream {
 	}
 	
 	/**
-	 * <p>创建文件流</p>
+	 * <p>创建文件存储</p>
 	 * 
-	 * @return 文件流
+	 * @return 文件存储
 	 * 
 	 * @throws DownloadException 下载异常
 	 */
-	private RandomAccessFile buildFileStream() throws DownloadException {
-		FileUtils.buildParentFolder(this.filePath);
+	private ITorrentStorage buildStorage() throws DownloadException {
+		return TorrentChannelStorage.newInstance(this.filePath);
+	}
+	
+	/**
+	 * <p>获取文件需要分配的磁盘空间</p>
+	 * <p>文件大小减去已经存在的文件大小：已经分配的空间不用重复计算</p>
+	 * 
+	 * @return 需要分配的磁盘空间
+	 */
+	public long allocateSize() {
+		if(this.completed()) {
+			return 0L;
+		}
 		try {
-			return new RandomAccessFile(this.filePath, STREAM_MODE);
-		} catch (FileNotFoundException e) {
-			throw new DownloadException("创建文件流失败：" + this.filePath, e);
+			return Math.max(0L, this.fileSize - this.storage.size());
+		} catch (IOException e) {
+			LOGGER.error("获取文件大小异常：{}", this.filePath, e);
+		}
+		return this.fileSize;
+	}
+	
+	/**
+	 * <p>分配文件</p>
+	 * <p>开始下载时调用（检测磁盘剩余空间之后）：重复调用忽略</p>
+	 * <p>分配失败不影响下载：写入数据时文件自动增长</p>
+	 * 
+	 * @see DownloadConfig#getAllocation()
+	 */
+	public void allocate() {
+		synchronized (this.allocateLock) {
+			if(!this.allocateLock.compareAndSet(false, true) || this.allocated()) {
+				return;
+			}
+			this.allocateStorage();
+		}
+	}
+	
+	/**
+	 * <p>分配文件存储</p>
+	 * 
+	 * @see #allocate()
+	 */
+	private void allocateStorage() {
+		final ITorrentStorage.Allocation allocation = ITorrentStorage.Allocation.of(DownloadConfig.getAllocation());
+		try {
+			final long size = this.storage.size();
+			if(allocation == ITorrentStorage.Allocation.NONE || size >= this.fileSize) {
+				this.allocateLatch.countDown();
+			} else if(allocation == ITorrentStorage.Allocation.SPARSE) {
+				LOGGER.debug("文件分配（稀疏文件）：{}-{}", this.filePath, this.fileSize);
+				// 写入最后一个字节：等价设置文件大小
+				this.storage.write(ByteBuffer.allocate(1), this.fileSize - 1);
+				this.allocateLatch.countDown();
+			} else {
+				LOGGER.debug("文件分配（完整分配）：{}-{}", this.filePath, this.fileSize);
+				this.allocating = true;
+				this.allocateFuture = DiskContext.getInstance().allocate(this.torrentStreamGroup.disk(), () -> this.allocateFull(size));
+			}
+		} catch (IOException e) {
+			LOGGER.error("文件分配异常：{}", this.filePath, e);
+			this.allocating = false;
+			this.allocateLatch.countDown();
+		} catch (RejectedExecutionException e) {
+			LOGGER.error("文件分配任务拒绝执行：{}", this.filePath, e);
+			this.allocating = false;
+			this.allocateLatch.countDown();
+		}
+	}
+	
+	/**
+	 * <p>完整分配文件</p>
+	 * <p>从文件结尾开始填充空数据，释放文件流时停止填充。</p>
+	 * <p>分配期间Piece可以写入文件：每次填充只从当前文件结尾开始（跳过已经写入的数据），已经写入数据之前没有填充的空间不再填充。</p>
+	 * 
+	 * @param position 开始偏移
+	 */
+	private void allocateFull(long position) {
+		final ByteBuffer buffer = ByteBuffer.allocateDirect(ALLOCATE_BUFFER_LENGTH);
+		try {
+			long pos = position;
+			while(this.allocating) {
+				synchronized (this.allocateLock) {
+					// 跳过已经写入的数据
+					pos = Math.max(pos, this.storage.size());
+					if(pos >= this.fileSize) {
+						break;
+					}
+					buffer.clear();
+					buffer.limit((int) Math.min(ALLOCATE_BUFFER_LENGTH, this.fileSize - pos));
+					pos += this.storage.write(buffer, pos);
+				}
+			}
+			LOGGER.debug("文件分配完成：{}-{}", this.filePath, pos);
+		} catch (IOException e) {
+			LOGGER.error("文件分配异常：{}", this.filePath, e);
+		} finally {
+			this.allocating = false;
+			this.allocateLatch.countDown();
+		}
+	}
+	
+	/**
+	 * <p>判断文件是否分配完成</p>
+	 * 
+	 * @return 是否分配完成
+	 */
+	private boolean allocated() {
+		return this.allocateLatch.getCount() == 0L;
+	}
+	
+	/**
+	 * <p>停止完整分配文件并等待分配线程退出</p>
+	 * <p>没有开始分配或者任务没有开始执行直接取消，正在执行的任务写完当前数据块后退出。</p>
+	 * <p>不能持有文件流锁调用</p>
+	 */
+	private void stopAllocate() {
+		synchronized (this.allocateLock) {
+			this.allocating = false;
+			if(this.allocateLock.compareAndSet(false, true)) {
+				// 没有开始分配
+				this.allocateLatch.countDown();
+				return;
+			}
+			if(this.allocated()) {
+				return;
+			}
+			final Future<?> future = this.allocateFuture;
+			if(future != null && future.cancel(false)) {
+				this.allocateLatch.countDown();
+				return;
+			}
+		}
+		try {
+			this.allocateLatch.await();
+		} catch (InterruptedException e) {
+			LOGGER.debug("线程等待异常", e);
+			Thread.currentThread().interrupt();
+		}
+	}
+	
+	/**
+	 * <p>下载完成文件切换内存映射存储</p>
+	 * <p>只有配置开启时切换，切换失败继续使用文件通道。</p>
+	 * 
+	 * @see SystemConfig#getStorageMapped()
+	 */
+	private void buildMappedStorage() {
+		if(!SystemConfig.getStorageMapped()) {
+			return;
+		}
+		final ITorrentStorage oldStorage = this.storage;
+		if(oldStorage instanceof TorrentChannelStorage) {
+			try {
+				// 共用文件通道：正在读取的线程不受影响
+				this.storage = TorrentMappedStorage.newInstance((TorrentChannelStorage) oldStorage);
+				LOGGER.debug("文件存储切换内存映射：{}", this.filePath);
+			} catch (IOException e) {
+				LOGGER.error("文件存储切换内存映射异常：{}", this.filePath, e);
+			}
 		}
 	}
 	
+	/**
+	 * <p>获取文件存储模式</p>
+	 * 
+	 * @return 文件存储模式
+	 */
+	public ITorrentStorage.Mode storageMode() {
+		return this.storage.mode();
+	}
+	
 	/**
 	 * <p>加载文件流</p>
 	 */
@@ -222,11 +509,31 @@ public final class TorrentStream {
 	
 	/**
 	 * <p>判断是否选择下载</p>
+	 * <p>优先级跳过的文件不算选择下载</p>
 	 * 
 	 * @return 是否选择下载
 	 */
 	public boolean selected() {
-		return this.selected;
+		return this.selected && this.priority != Priority.SKIP;
+	}
+	
+	/**
+	 * <p>获取文件下载优先级</p>
+	 * 
+	 * @return 文件下载优先级
+	 */
+	public Priority priority() {
+		return this.priority;
+	}
+	
+	/**
+	 * <p>设置文件下载优先级</p>
+	 * 
+	 * @param priority 文件下载优先级
+	 */
+	public void priority(Priority priority) {
+		LOGGER.debug("设置文件下载优先级：{}-{}", this.filePath, priority);
+		this.priority = priority == null ? Priority.NORMAL : priority;
 	}
 	
 	/**
@@ -246,6 +553,9 @@ public final class TorrentStream {
 	 * @param selectPieces 选择下载Piece
 	 */
 	public void buildSelectPieces(final BitSet selectPieces) {
+		if(this.priority == Priority.SKIP) {
+			return;
+		}
 		selectPieces.set(this.fileBeginPieceIndex, this.fileEndPieceIndex + 1);
 	}
 	
@@ -280,30 +590,105 @@ public final class TorrentStream {
 				LOGGER.debug("选择Piece（没有匹配）：{}-{}-{}-{}", index, piecePos, this.fileBeginPieceIndex, this.fileEndPieceIndex);
 				return null;
 			}
-			LOGGER.debug("选择Piece（选中）：{}-{}", index, this.downloadPieces);
-			// 设置下载中
-			this.downloadPieces.set(index);
-			// Piece开始内偏移
-			int begin = 0;
-			// 是否验证：第一块和最后一块不用校验
-			boolean verify = true;
-			// 第一块获取开始偏移
-			if(index == this.fileBeginPieceIndex) {
-				verify = false;
-				begin = this.firstPiecePos();
-			}
-			// Piece结束内偏移
-			int end = (int) this.pieceLength;
-			// 最后一块获取结束偏移
-			if(index == this.fileEndPieceIndex) {
-				verify = false;
-				end = this.lastPiecePos();
-			}
-			// 交易Hash数据
-			final byte[] hash = this.torrentStreamGroup.pieceHash(index);
-			// 快速循环挑选Piece时：创建Piece数据块消耗性能
-			return TorrentPiece.newInstance(this.pieceLength, index, begin, end, hash, verify);
+			return this.buildPiece(index);
+		}
+	}
+	
+	/**
+	 * <p>选择可以下载的Piece位图</p>
+	 * <p>只返回文件范围内的Piece</p>
+	 * 
+	 * @param peerPieces Peer已下载Piece位图
+	 * @param suggestPieces Peer推荐Piece位图：优先使用
+	 * 
+	 * @return 可以下载的Piece位图
+	 * 
+	 * @see #pickPieces(BitSet, BitSet)
+	 */
+	public BitSet candidatePieces(final BitSet peerPieces, final BitSet suggestPieces) {
+		if(
+			(peerPieces.isEmpty() && suggestPieces.isEmpty()) ||
+			this.completed()
+		) {
+			return new BitSet();
+		}
+		synchronized (this) {
+			return this.pickPieces(peerPieces, suggestPieces).get(this.fileBeginPieceIndex, this.fileEndPieceIndex + 1);
+		}
+	}
+	
+	/**
+	 * <p>按照优先级等级分组可以下载的Piece</p>
+	 * 
+	 * @param pickPieces 可以下载的Piece位图（文件范围内）
+	 * @param levelPieces 等级Piece位图（索引：等级）
+	 * 
+	 * @see Priority#level()
+	 */
+	public void levelPieces(final BitSet pickPieces, final BitSet[] levelPieces) {
+		final Priority priority = this.priority;
+		if(priority == Priority.FIRST_LAST) {
+			final BitSet firstLastPieces = new BitSet();
+			firstLastPieces.set(this.fileBeginPieceIndex);
+			firstLastPieces.set(this.fileEndPieceIndex);
+			firstLastPieces.and(pickPieces);
+			levelPieces[Priority.MAX_LEVEL].or(firstLastPieces);
+			pickPieces.andNot(firstLastPieces);
+		}
+		levelPieces[priority.level()].or(pickPieces);
+	}
+	
+	/**
+	 * <p>选择指定Piece</p>
+	 * 
+	 * @param index Piece索引
+	 * 
+	 * @return Piece；不在文件范围或者已经下载：null
+	 */
+	public TorrentPiece pick(int index) {
+		if(index < this.fileBeginPieceIndex || index > this.fileEndPieceIndex) {
+			return null;
+		}
+		synchronized (this) {
+			if(this.hasPiece(index)) {
+				return null;
+			}
+			return this.buildPiece(index);
+		}
+	}
+	
+	/**
+	 * <p>创建下载Piece</p>
+	 * <p>设置下载中Piece位图</p>
+	 * 
+	 * @param index Piece索引
+	 * 
+	 * @return Piece
+	 */
+	private TorrentPiece buildPiece(int index) {
+		LOGGER.debug("选择Piece（选中）：{}-{}", index, this.downloadPieces);
+		// 设置下载中
+		this.downloadPieces.set(index);
+		// Piece开始内偏移
+		int begin = 0;
+		// 是否验证：第一块和最后一块不用校验
+		boolean verify = true;
+		// 第一块获取开始偏移
+		if(index == this.fileBeginPieceIndex) {
+			verify = false;
+			begin = this.firstPiecePos();
 		}
+		// Piece结束内偏移
+		int end = (int) this.pieceLength;
+		// 最后一块获取结束偏移
+		if(index == this.fileEndPieceIndex) {
+			verify = false;
+			end = this.lastPiecePos();
+		}
+		// 交易Hash数据
+		final byte[] hash = this.torrentStreamGroup.pieceHash(index);
+		// 快速循环挑选Piece时：创建Piece数据块消耗性能
+		return TorrentPiece.newInstance(this.pieceLength, index, begin, end, hash, verify);
 	}
 
 	/**
@@ -340,11 +725,6 @@ public final class TorrentStream {
 			if(remainingPieceSize == 0) {
 				// 任务已经完成
 				LOGGER.debug("选择Piece：没有可选Piece");
-			} else if(remainingPieceSize <= SystemConfig.getPieceRepeatSize()) {
-				// 任务接近完成：重复挑选下载中的Piece
-				LOGGER.debug("选择Piece：任务接近完成重复选择下载中的Piece");
-				pickPieces.or(peerPieces);
-				pickPieces.andNot(this.pieces);
 			} else {
 				// 任务正常：排除暂停Piece位图
 				LOGGER.debug("选择Piece：排除暂停Piece");
@@ -373,6 +753,7 @@ public final class TorrentStream {
 		if(!piece.contain(this.fileBeginPos, this.fileEndPos)) {
 			return false;
 		}
+		final boolean completed;
 		synchronized (this) {
 			final int index = piece.getIndex();
 			if(this.hasPiece(index)) {
@@ -380,25 +761,27 @@ public final class TorrentStream {
 				LOGGER.debug("Piece已经下载完成（忽略）：{}", index);
 				return false;
 			}
-			// 加入缓存队列
-			if(this.cachePieces.offer(piece)) {
-				LOGGER.debug("保存Piece：{}", index);
-				this.done(index);
-				// 更新缓存大小
-				this.fileBufferSize.addAndGet(piece.getLength());
-				// 设置已下载大小
-				this.buildFileDownloadSize();
-				// 下载完成数据刷出
-				if(this.completed()) {
-					this.flush();
-					// 可以将文件流变为读取模式
-				}
-				return true;
-			} else {
-				LOGGER.warn("保存Piece失败：{}", index);
+			// 加入缓存：增加引用写入文件后释放
+			if(!piece.retain()) {
+				LOGGER.warn("保存Piece失败（已经释放）：{}", index);
 				return false;
 			}
+			LOGGER.debug("保存Piece：{}", index);
+			this.cachePieces.put(index, piece);
+			this.done(index);
+			// 更新缓存大小
+			this.fileBufferSize.addAndGet(piece.getLength());
+			TorrentPieceCache.getInstance().put(this, piece);
+			// 设置已下载大小
+			this.buildFileDownloadSize();
+			completed = this.completed();
 		}
+		// 下载完成数据刷出：不用持有文件流锁写入文件
+		if(completed) {
+			this.flush();
+			this.buildMappedStorage();
+		}
+		return true;
 	}
 	
 	/**
@@ -443,15 +826,14 @@ public final class TorrentStream {
 	 * @see #read(int, int, int, boolean)
 	 */
 	public byte[] read(int index, int size, int pos) {
-		synchronized (this) {
-			return this.read(index, size, pos, false);
-		}
+		return this.read(index, size, pos, false);
 	}
 	
 	/**
 	 * <p>读取Piece数据</p>
 	 * <p>如果选择的Piece不在文件范围内返回：null</p>
 	 * <p>如果读取数据只有部分符合文件的范围，只读取符合部分数据返回。</p>
+	 * <p>只在判断Piece状态时加锁：文件读取使用绝对偏移，多个线程读取不会相互阻塞。</p>
 	 * 
 	 * @param index Piece索引
 	 * @param size 数据大小
@@ -462,14 +844,24 @@ public final class TorrentStream {
 	 */
 	private byte[] read(int index, int size, int pos, boolean ignoreHasPiece) {
 		// 判断Piece数据是否已经下载
-		if(!ignoreHasPiece && !this.hasPiece(index)) {
-			return null;
+		if(!ignoreHasPiece) {
+			synchronized (this) {
+				if(!this.hasPiece(index)) {
+					return null;
+				}
+			}
 		}
-		// 从Piece缓存中读取数据
-		final TorrentPiece cachePiece = this.cachePiece(index);
+		// 从Piece缓存中读取数据：刷出时先写入文件再移除缓存
+		final TorrentPiece cachePiece = this.cachePieces.get(index);
 		if(cachePiece != null) {
-			return cachePiece.read(pos, size);
+			// 读取时Piece可能已经写入文件并且释放缓冲区：读取文件
+			final byte[] bytes = cachePiece.read(pos, size);
+			if(bytes != null) {
+				TorrentPieceCache.getInstance().hit();
+				return bytes;
+			}
 		}
+		TorrentPieceCache.getInstance().miss();
 		// 从文件中读取数据
 		long seek = 0L; // 文件偏移
 		final long beginPos = this.pieceLength * index + pos; // 开始偏移
@@ -493,9 +885,7 @@ public final class TorrentStream {
 		}
 		try {
 			final byte[] bytes = new byte[size];
-			// 注意线程安全
-			this.fileStream.seek(seek);
-			this.fileStream.read(bytes);
+			this.storage.read(ByteBuffer.wrap(bytes), seek);
 			return bytes;
 		} catch (IOException e) {
 			LOGGER.error("Piece读取异常：{}-{}-{}-{}", index, seek, size, pos, e);
@@ -503,6 +893,74 @@ public final class TorrentStream {
 		return null;
 	}
 	
+	/**
+	 * <p>读取Piece数据到缓冲区</p>
+	 * <p>数据直接从Piece缓存或者文件写入缓冲区：不用创建中间数组</p>
+	 * <p>如果读取数据只有部分符合文件的范围，只读取符合部分数据。</p>
+	 * 
+	 * @param index Piece索引
+	 * @param size 数据大小
+	 * @param pos 数据偏移
+	 * @param buffer 缓冲区
+	 * 
+	 * @return 读取数据大小；没有数据：-1
+	 */
+	public int read(int index, int size, int pos, ByteBuffer buffer) {
+		synchronized (this) {
+			if(!this.hasPiece(index)) {
+				return -1;
+			}
+		}
+		// 从Piece缓存中读取数据：刷出时先写入文件再移除缓存
+		final TorrentPiece cachePiece = this.cachePieces.get(index);
+		if(cachePiece != null) {
+			// 读取时Piece可能已经写入文件并且释放缓冲区：读取文件
+			final int length = cachePiece.read(pos, size, buffer);
+			if(length >= 0) {
+				TorrentPieceCache.getInstance().hit();
+				return length;
+			}
+		}
+		TorrentPieceCache.getInstance().miss();
+		// 从文件中读取数据
+		long seek = 0L; // 文件偏移
+		final long beginPos = this.pieceLength * index + pos; // 开始偏移
+		final long endPos = beginPos + size; // 结束偏移
+		if(beginPos >= this.fileEndPos) {
+			return -1;
+		}
+		if(endPos <= this.fileBeginPos) {
+			return -1;
+		}
+		if(beginPos <= this.fileBeginPos) {
+			// Piece包含文件开始
+			size = (int) (size - (this.fileBeginPos - beginPos));
+		} else {
+			// 文件包含Piece开始
+			seek = beginPos - this.fileBeginPos;
+		}
+		// Piece包含文件结束
+		if(endPos >= this.fileEndPos) {
+			size = (int) (size - (endPos - this.fileEndPos));
+		}
+		final int position = buffer.position();
+		final int limit = buffer.limit();
+		try {
+			buffer.limit(position + size);
+			final int length = this.storage.read(buffer, seek);
+			if(length == size) {
+				return length;
+			}
+			LOGGER.warn("Piece读取数据不完整：{}-{}-{}-{}", index, seek, size, length);
+		} catch (IOException e) {
+			LOGGER.error("Piece读取异常：{}-{}-{}-{}", index, seek, size, pos, e);
+		} finally {
+			buffer.limit(limit);
+		}
+		buffer.position(position);
+		return -1;
+	}
+	
 	/**
 	 * <p>获取文件已下载大小</p>
 	 * 
@@ -563,27 +1021,26 @@ public final class TorrentStream {
 	
 	/**
 	 * <p>释放资源</p>
-	 * <p>将Piece缓存写入文件、关闭文件流</p>
+	 * <p>将Piece缓存写入文件、关闭文件存储</p>
 	 */
 	public void release() {
+		// 停止完整分配：不用等待分配完成
+		this.stopAllocate();
 		this.flush();
-		try {
-			this.fileStream.close();
-		} catch (IOException e) {
-			LOGGER.error("TorrentStream关闭异常", e);
-		}
+		this.storage.close();
 	}
 
 	/**
 	 * <p>校验Piece数据</p>
 	 * <p>第一块和最后一块Piece数据不验证Hash：直接验证是有含有数据</p>
+	 * <p>不用加锁：多个线程可以同时校验不同Piece</p>
 	 * 
 	 * @param index Piece索引
 	 * @param digest SHA-1算法工具
 	 * 
 	 * @return 是否校验成功
 	 */
-	private boolean verify(int index, MessageDigest digest) {
+	boolean verify(int index, MessageDigest digest) {
 		int pos = 0;
 		int length = 0;
 		boolean verify = true; // 是否校验
@@ -619,6 +1076,7 @@ public final class TorrentStream {
 	 * <p>校验文件</p>
 	 * <p>使用种子Hash校验文件</p>
 	 * <p>校验文件重新设置已下载文件信息</p>
+	 * <p>单个线程校验：任务校验使用{@link TorrentVerifier}</p>
 	 * 
 	 * @return 校验结果
 	 * 
@@ -626,23 +1084,14 @@ public final class TorrentStream {
 	 */
 	public boolean verify() throws IOException {
 		int verifyFailCount = 0; // 失败计数
-		final boolean empty = this.fileStream.length() == 0; // 文件没有数据
-		synchronized (this) {
-			final MessageDigest digest = DigestUtils.sha1();
-			for (int index = this.fileBeginPieceIndex; index <= this.fileEndPieceIndex; index++) {
-				if(empty) {
-					verifyFailCount++;
-					this.undone(index);
-					continue;
-				}
-				if(this.verify(index, digest)) {
-					this.done(index);
-				} else {
-					verifyFailCount++;
-					this.undone(index);
-				}
+		final boolean empty = this.empty(); // 文件没有数据
+		final MessageDigest digest = DigestUtils.sha1();
+		for (int index = this.fileBeginPieceIndex; index <= this.fileEndPieceIndex; index++) {
+			final boolean success = !empty && this.verify(index, digest);
+			if(!success) {
+				verifyFailCount++;
 			}
-			this.buildFileDownloadSize();
+			this.verify(index, success);
 		}
 		if(LOGGER.isDebugEnabled()) {
 			LOGGER.debug("当前文件流已下载Piece数量：{}，剩余下载Piece数量：{}",
@@ -653,27 +1102,264 @@ public final class TorrentStream {
 		return verifyFailCount == 0;
 	}
 	
+	/**
+	 * <p>设置Piece校验结果</p>
+	 * 
+	 * @param index Piece索引
+	 * @param success 是否校验成功
+	 */
+	void verify(int index, boolean success) {
+		synchronized (this) {
+			if(success) {
+				this.done(index);
+			} else {
+				this.undone(index);
+			}
+			this.buildFileDownloadSize();
+		}
+	}
+	
+	/**
+	 * <p>判断文件是否没有数据</p>
+	 * 
+	 * @return 是否没有数据
+	 * 
+	 * @throws IOException IO异常
+	 */
+	boolean empty() throws IOException {
+		return this.storage.size() == 0;
+	}
+	
+	/**
+	 * <p>获取文件Piece开始索引</p>
+	 * 
+	 * @return 文件Piece开始索引
+	 */
+	int fileBeginPieceIndex() {
+		return this.fileBeginPieceIndex;
+	}
+	
+	/**
+	 * <p>获取文件Piece结束索引</p>
+	 * 
+	 * @return 文件Piece结束索引
+	 */
+	int fileEndPieceIndex() {
+		return this.fileEndPieceIndex;
+	}
+	
+	/**
+	 * <p>获取文件路径</p>
+	 * 
+	 * @return 文件路径
+	 */
+	String filePath() {
+		return this.filePath;
+	}
+	
+	/**
+	 * <p>获取文件大小</p>
+	 * 
+	 * @return 文件大小
+	 */
+	long fileSize() {
+		return this.fileSize;
+	}
+	
+	/**
+	 * <p>获取文件偏移所在Piece索引</p>
+	 * 
+	 * @param position 文件偏移
+	 * 
+	 * @return Piece索引
+	 */
+	int pieceIndex(long position) {
+		return (int) ((this.fileBeginPos + position) / this.pieceLength);
+	}
+	
+	/**
+	 * <p>读取文件数据到缓冲区</p>
+	 * <p>每次最多读取到Piece结束：Piece没有下载完成时返回-1</p>
+	 * 
+	 * @param position 文件偏移
+	 * @param buffer 缓冲区
+	 * 
+	 * @return 读取数据大小；没有数据：-1
+	 * 
+	 * @see #read(int, int, int, ByteBuffer)
+	 */
+	int read(long position, ByteBuffer buffer) {
+		if(position < 0 || position >= this.fileSize) {
+			return -1;
+		}
+		final long beginPos = this.fileBeginPos + position;
+		final int index = (int) (beginPos / this.pieceLength);
+		final int pos = (int) (beginPos % this.pieceLength);
+		final long size = Math.min(
+			Math.min(buffer.remaining(), this.pieceLength - pos),
+			this.fileSize - position
+		);
+		return this.read(index, (int) size, pos, buffer);
+	}
+	
+	/**
+	 * <p>清除没有写入文件的Piece</p>
+	 * 
+	 * @param pieces Piece位图
+	 */
+	void clearCachePieces(BitSet pieces) {
+		for (Integer index : this.cachePieces.keySet()) {
+			pieces.clear(index);
+		}
+	}
+	
 	/**
 	 * <p>将Piece缓存写入文件</p>
+	 * <p>先写入文件再移除缓存：没有加锁的读取线程不会读到没有写入的数据</p>
+	 * <p>使用刷出锁：写入文件时不会阻塞选择Piece和判断Piece状态</p>
 	 */
 	public void flush() {
-		synchronized (this) {
-			final var list = new ArrayList<TorrentPiece>();
-			this.cachePieces.drainTo(list);
-			list.forEach(this::flush);
+		synchronized (this.flushLock) {
+			final List<TorrentPiece> list = new ArrayList<>(this.cachePieces.values());
+			if(list.isEmpty()) {
+				return;
+			}
+			// 按照文件偏移排序：合并相邻Piece连续写入
+			list.sort(Comparator.comparingInt(TorrentPiece::getIndex));
+			final List<TorrentPiece> pieces = new ArrayList<>();
+			final List<ByteBuffer> buffers = new ArrayList<>();
+			long seek = 0L; // 连续数据开始偏移
+			long position = 0L; // 连续数据结束偏移
+			for (TorrentPiece piece : list) {
+				if(!this.cached(piece)) {
+					continue;
+				}
+				final long pieceSeek = this.seek(piece);
+				if(!pieces.isEmpty() && pieceSeek != position) {
+					// 不连续：写入已经合并的数据
+					this.evict(pieces, buffers, seek);
+				}
+				// 增加引用：防止写入过程中其他线程刷出释放缓冲区
+				if(!piece.retain()) {
+					continue;
+				}
+				final ByteBuffer buffer = this.buffer(piece);
+				if(buffer == null) {
+					piece.release();
+					continue;
+				}
+				if(pieces.isEmpty()) {
+					seek = pieceSeek;
+				}
+				pieces.add(piece);
+				buffers.add(buffer);
+				position = pieceSeek + buffer.remaining();
+			}
+			if(!pieces.isEmpty()) {
+				this.evict(pieces, buffers, seek);
+			}
 		}
 	}
 	
 	/**
-	 * <p>将Piece数据写入文件</p>
+	 * <p>判断Piece是否还在缓存</p>
+	 * 
+	 * @param piece Piece
+	 * 
+	 * @return 是否还在缓存
+	 */
+	boolean cached(TorrentPiece piece) {
+		return this.cachePieces.get(piece.getIndex()) == piece;
+	}
+	
+	/**
+	 * <p>将缓存Piece写入文件并移除缓存</p>
+	 * <p>不用加锁：文件写入使用绝对偏移，同时刷出同一个Piece只有一个线程移除缓存。</p>
+	 * 
+	 * @param piece Piece
+	 */
+	void evict(TorrentPiece piece) {
+		if(!this.cached(piece)) {
+			return;
+		}
+		// 增加引用：防止写入过程中其他线程刷出释放缓冲区
+		if(!piece.retain()) {
+			return;
+		}
+		try {
+			final ByteBuffer buffer = this.buffer(piece);
+			if(buffer == null) {
+				LOGGER.warn("Piece写入文件失败（没有数据）：{}", piece.getIndex());
+				return;
+			}
+			this.flush(new ByteBuffer[] {buffer}, this.seek(piece));
+		} finally {
+			piece.release();
+		}
+		this.remove(piece);
+	}
+	
+	/**
+	 * <p>将连续Piece写入文件并移除缓存</p>
+	 * <p>写入完成后清空列表：Piece已经增加引用，写入完成后减少引用。</p>
+	 * 
+	 * @param pieces Piece列表
+	 * @param buffers Piece数据列表
+	 * @param seek 文件偏移
+	 */
+	private void evict(List<TorrentPiece> pieces, List<ByteBuffer> buffers, long seek) {
+		LOGGER.debug("Piece合并写入文件：{}-{}", pieces.get(0).getIndex(), pieces.size());
+		try {
+			this.flush(buffers.toArray(ByteBuffer[]::new), seek);
+		} finally {
+			for (TorrentPiece piece : pieces) {
+				piece.release();
+				this.remove(piece);
+			}
+			pieces.clear();
+			buffers.clear();
+		}
+	}
+	
+	/**
+	 * <p>移除缓存Piece</p>
+	 * 
+	 * @param piece Piece
+	 */
+	private void remove(TorrentPiece piece) {
+		if(this.cachePieces.remove(piece.getIndex(), piece)) {
+			this.fileBufferSize.addAndGet(-piece.getLength());
+			TorrentPieceCache.getInstance().remove(piece);
+			piece.release();
+		}
+	}
+	
+	/**
+	 * <p>获取Piece在文件中的偏移</p>
+	 * 
+	 * @param piece Piece
+	 * 
+	 * @return 文件偏移
+	 */
+	private long seek(TorrentPiece piece) {
+		final long beginPos = piece.beginPos();
+		if(beginPos <= this.fileBeginPos) {
+			// Piece包含文件开始
+			return 0L;
+		}
+		// 文件包含Piece开始
+		return beginPos - this.fileBeginPos;
+	}
+	
+	/**
+	 * <p>获取Piece在文件范围内的数据</p>
+	 * 
+	 * @param piece Piece
 	 * 
-	 * @param piece Piece数据
+	 * @return Piece数据；没有数据：null
 	 */
-	private void flush(TorrentPiece piece) {
-		final int index = piece.getIndex();
-		LOGGER.debug("Piece写入文件：{}", index);
+	private ByteBuffer buffer(TorrentPiece piece) {
 		int offset = 0; // 数据偏移
-		long seek = 0L; // 文件偏移
 		int length = piece.getLength(); // Piece数据长度：计算写入长度
 		final long beginPos = piece.beginPos(); // 开始偏移
 		final long endPos = piece.endPos(); // 结束偏移
@@ -681,41 +1367,33 @@ public final class TorrentStream {
 			// Piece包含文件开始
 			offset = (int) (this.fileBeginPos - beginPos);
 			length = length - offset;
-		} else {
-			// 文件包含Piece开始
-			seek = beginPos - this.fileBeginPos;
 		}
 		if(endPos >= this.fileEndPos) {
 			// Piece包含文件结束
 			length = (int) (length - (endPos - this.fileEndPos));
 		}
-		try {
-			final byte[] bytes = piece.getData();
-			// 注意线程安全
-			this.fileStream.seek(seek);
-			this.fileStream.write(bytes, offset, length);
-		} catch (IOException e) {
-			LOGGER.error("Piece写入文件异常：{}-{}-{}-{}", index, seek, offset, length, e);
-		}
+		return piece.buffer(offset, length);
 	}
 	
 	/**
-	 * <p>读取缓存中的Piece数据</p>
-	 * 
-	 * @param index Piece索引
+	 * <p>将Piece数据写入文件</p>
 	 * 
-	 * @return Piece数据
+	 * @param buffers Piece数据
+	 * @param seek 文件偏移
 	 */
-	private TorrentPiece cachePiece(int index) {
-		TorrentPiece torrentPiece;
-		final var iterator = this.cachePieces.iterator();
-		while(iterator.hasNext()) {
-			torrentPiece = iterator.next();
-			if(torrentPiece.getIndex() == index) {
-				return torrentPiece;
+	private void flush(ByteBuffer[] buffers, long seek) {
+		try {
+			if(this.allocated()) {
+				this.storage.write(buffers, seek);
+			} else {
+				// 正在完整分配文件：和填充数据互斥
+				synchronized (this.allocateLock) {
+					this.storage.write(buffers, seek);
+				}
 			}
+		} catch (IOException e) {
+			LOGGER.error("Piece写入文件异常：{}-{}", seek, buffers.length, e);
 		}
-		return null;
 	}
 	
 	/**
@@ -725,18 +1403,16 @@ public final class TorrentStream {
 	 */
 	private void buildPieces(boolean completed) {
 		final MessageDigest digest = DigestUtils.sha1();
+		final TorrentResume resume = this.torrentStreamGroup.resume();
+		// 文件信息没有改变：第一块和最后一块直接使用快速恢复记录
+		final boolean trusted = !completed && resume.trusted(this.filePath);
 		for (int index = this.fileBeginPieceIndex; index <= this.fileEndPieceIndex; index++) {
 			if(completed) {
 				// 任务完成
 				this.done(index);
-			} else if(index == this.fileBeginPieceIndex) {
-				// 第一块文件
-				if(this.verify(index, digest)) {
-					this.done(index);
-				}
-			} else if(index == this.fileEndPieceIndex) {
-				// 最后一块文件
-				if(this.verify(index, digest)) {
+			} else if(index == this.fileBeginPieceIndex || index == this.fileEndPieceIndex) {
+				// 第一块文件和最后一块文件
+				if(trusted ? resume.hasPiece(index) : this.verify(index, digest)) {
 					this.done(index);
 				}
 			} else if(this.torrentStreamGroup.hasPiece(index)) {
@@ -5,6 +5,10 @@ import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.BitSet;
 import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReadWriteLock;
@@ -16,8 +20,11 @@ import org.slf4j.LoggerFactory;
 import com.acgist.snail.config.DownloadConfig;
 import com.acgist.snail.config.PeerConfig;
 import com.acgist.snail.config.SystemConfig;
+import com.acgist.snail.context.DiskContext;
+import com.acgist.snail.context.SystemThreadContext;
 import com.acgist.snail.context.exception.NetException;
 import com.acgist.snail.context.exception.PacketSizeException;
+import com.acgist.snail.net.torrent.TorrentStream.Priority;
 import com.acgist.snail.pojo.bean.Torrent;
 import com.acgist.snail.pojo.bean.TorrentFile;
 import com.acgist.snail.pojo.bean.TorrentPiece;
@@ -40,7 +47,7 @@ public final class TorrentStreamGroup {
 	 * <p>默认按照顺序从零开始下载</p>
 	 * <p>选择Piece时优先选择该索引后面的Piece</p>
 	 * 
-	 * @see #pick(BitSet, BitSet)
+	 * @see #pick(BitSet, BitSet, long)
 	 */
 	private volatile int piecePos = 0;
 	/**
@@ -69,9 +76,49 @@ public final class TorrentStreamGroup {
 	private final BitSet fullPieces;
 	/**
 	 * <p>Piece缓存大小</p>
-	 * <p>所有文件流中Piece缓存队列数据大小</p>
+	 * <p>所有文件流中Piece缓存数据大小</p>
 	 */
 	private final AtomicLong fileBufferSize;
+	/**
+	 * <p>是否正在刷出缓存</p>
+	 * <p>缓存超过任务缓冲大小时后台刷出：同时只有一个刷出任务</p>
+	 */
+	private final AtomicBoolean flushing;
+	/**
+	 * <p>文件校验</p>
+	 * <p>没有校验：null</p>
+	 */
+	private volatile TorrentVerifier verifier;
+	/**
+	 * <p>快速恢复</p>
+	 */
+	private final TorrentResume resume;
+	/**
+	 * <p>下载目录所在磁盘名称</p>
+	 * 
+	 * @see DiskContext#disk(String)
+	 */
+	private volatile String disk;
+	/**
+	 * <p>没有完成的磁盘任务数量</p>
+	 */
+	private final AtomicInteger diskTasks;
+	/**
+	 * <p>是否分配文件</p>
+	 * <p>开始下载后新加载的文件直接分配</p>
+	 * 
+	 * @see #allocate()
+	 */
+	private volatile boolean allocatable;
+	/**
+	 * <p>Piece可用数量</p>
+	 * <p>连接Peer中拥有Piece的数量：稀有优先选择Piece</p>
+	 */
+	private final AtomicIntegerArray availability;
+	/**
+	 * <p>边下边播</p>
+	 */
+	private final TorrentStreaming streaming;
 	/**
 	 * <p>种子信息</p>
 	 */
@@ -117,6 +164,11 @@ public final class TorrentStreamGroup {
 		this.fullPieces = new BitSet();
 		this.fullPieces(this.pieces);
 		this.fileBufferSize = new AtomicLong(0);
+		this.flushing = new AtomicBoolean(false);
+		this.diskTasks = new AtomicInteger(0);
+		this.availability = new AtomicIntegerArray(torrent.getInfo().pieceSize());
+		this.streaming = TorrentStreaming.newInstance(torrent.getInfo().getPieceLength(), this);
+		this.resume = TorrentResume.newInstance(torrentSession.taskSession().getTorrent() + TorrentResume.RESUME_SUFFIX);
 		this.torrent = torrent;
 		this.streams = new ArrayList<>();
 		this.torrentSession = torrentSession;
@@ -172,6 +224,7 @@ public final class TorrentStreamGroup {
 		}
 		this.full = false; // 健康度重新检测
 		this.selectPieces.clear(); // 清除所有已选择Piece
+		this.disk = DiskContext.getInstance().disk(folder);
 		this.writeLock.lock();
 		try {
 			final long startTime = System.currentTimeMillis();
@@ -196,6 +249,9 @@ public final class TorrentStreamGroup {
 							this.streams.add(newStream);
 							newStream.buildSelectPieces(this.selectPieces);
 							newStream.install();
+							if(this.allocatable) {
+								newStream.allocate();
+							}
 							sortList.add(newStream);
 						} else {
 							LOGGER.debug("文件选择下载（重载）：{}", filePath);
@@ -205,6 +261,9 @@ public final class TorrentStreamGroup {
 							}
 							oldStream.buildSelectPieces(this.selectPieces);
 							oldStream.install();
+							if(this.allocatable) {
+								oldStream.allocate();
+							}
 							sortList.add(oldStream);
 						}
 					} else {
@@ -254,6 +313,71 @@ public final class TorrentStreamGroup {
 		return null;
 	}
 	
+	/**
+	 * <p>获取选择下载文件的文件流</p>
+	 * 
+	 * @param path 文件路径
+	 * 
+	 * @return 文件流（null-没有加载或者没有选择下载）
+	 */
+	TorrentStream stream(String path) {
+		this.readLock.lock();
+		try {
+			final TorrentStream torrentStream = this.oldStream(path);
+			if(torrentStream == null || !torrentStream.selected()) {
+				return null;
+			}
+			return torrentStream;
+		} finally {
+			this.readLock.unlock();
+		}
+	}
+	
+	/**
+	 * <p>获取边下边播</p>
+	 * 
+	 * @return 边下边播
+	 */
+	public TorrentStreaming streaming() {
+		return this.streaming;
+	}
+	
+	/**
+	 * <p>设置播放位置</p>
+	 * <p>开启边下边播：优先下载播放位置后面的Piece</p>
+	 * 
+	 * @param path 文件路径
+	 * @param position 文件偏移
+	 * 
+	 * @return 是否设置成功
+	 * 
+	 * @see TorrentStreaming#playhead(TorrentStream, long)
+	 */
+	public boolean playhead(String path, long position) {
+		final TorrentStream torrentStream = this.stream(path);
+		if(torrentStream == null) {
+			LOGGER.debug("设置播放位置失败（文件没有选择下载）：{}", path);
+			return false;
+		}
+		this.streaming.playhead(torrentStream, position);
+		return true;
+	}
+	
+	/**
+	 * <p>删除播放位置（边下边播）</p>
+	 * 
+	 * @param path 文件路径
+	 * @param position 文件偏移（最后设置的播放位置）
+	 * 
+	 * @see TorrentStreaming#removePlayhead(TorrentStream, long)
+	 */
+	public void removePlayhead(String path, long position) {
+		final TorrentStream torrentStream = this.stream(path);
+		if(torrentStream != null) {
+			this.streaming.removePlayhead(torrentStream, position);
+		}
+	}
+	
 	/**
 	 * <p>发送have消息</p>
 	 * 
@@ -285,15 +409,27 @@ public final class TorrentStreamGroup {
 	
 	/**
 	 * <p>挑选下载Piece</p>
+	 * <p>开启边下边播：优先选择截止时间Piece</p>
+	 * <p>指定下载Piece索引：从指定索引开始顺序选择</p>
+	 * <p>没有指定下载Piece索引：稀有优先选择</p>
 	 * 
 	 * @param peerPieces Peer已下载Piece位图
 	 * @param suggestPieces Peer推荐Piece位图
+	 * @param rate Peer下载速度（B/S）
 	 * 
 	 * @return 下载Piece
 	 * 
 	 * @see TorrentStream#pick(int, BitSet, BitSet)
+	 * @see #pickStreaming(BitSet, BitSet, long)
+	 * @see #pickRarest(BitSet, BitSet)
 	 */
-	public TorrentPiece pick(final BitSet peerPieces, final BitSet suggestPieces) {
+	public TorrentPiece pick(final BitSet peerPieces, final BitSet suggestPieces, final long rate) {
+		if(this.streaming.streaming()) {
+			return this.pickStreaming(peerPieces, suggestPieces, rate);
+		}
+		if(this.piecePos == 0) {
+			return this.pickRarest(peerPieces, suggestPieces);
+		}
 		TorrentPiece pickPiece = null;
 		this.readLock.lock();
 		try {
@@ -312,11 +448,223 @@ public final class TorrentStreamGroup {
 		// 清空指定下载Piece索引
 		if(pickPiece == null && this.piecePos != 0) {
 			this.piecePos = 0;
-			pickPiece = this.pick(peerPieces, suggestPieces);
+			pickPiece = this.pickRarest(peerPieces, suggestPieces);
 		}
 		return pickPiece;
 	}
 	
+	/**
+	 * <p>稀有优先挑选下载Piece</p>
+	 * <p>所有选择下载文件可以下载的Piece中选择优先级等级最高的Piece，然后选择可用数量最少的Piece，可用数量相同时随机选择。</p>
+	 * 
+	 * @param peerPieces Peer已下载Piece位图
+	 * @param suggestPieces Peer推荐Piece位图
+	 * 
+	 * @return 下载Piece
+	 * 
+	 * @see TorrentStream#candidatePieces(BitSet, BitSet)
+	 * @see TorrentStream#pick(int)
+	 */
+	private TorrentPiece pickRarest(final BitSet peerPieces, final BitSet suggestPieces) {
+		this.readLock.lock();
+		try {
+			return this.pick(this.rarest(this.priorityPieces(this.candidatePieces(peerPieces, suggestPieces))));
+		} finally {
+			this.readLock.unlock();
+		}
+	}
+	
+	/**
+	 * <p>边下边播挑选下载Piece</p>
+	 * <p>优先选择截止时间Piece（忽略文件下载优先级），没有选择时按照文件下载优先级稀有优先选择其他Piece。</p>
+	 * 
+	 * @param peerPieces Peer已下载Piece位图
+	 * @param suggestPieces Peer推荐Piece位图
+	 * @param rate Peer下载速度（B/S）
+	 * 
+	 * @return 下载Piece
+	 * 
+	 * @see TorrentStreaming#pick(BitSet, long)
+	 */
+	private TorrentPiece pickStreaming(final BitSet peerPieces, final BitSet suggestPieces, final long rate) {
+		this.readLock.lock();
+		try {
+			final BitSet[] levelPieces = this.candidatePieces(peerPieces, suggestPieces);
+			final BitSet pickPieces = new BitSet();
+			for (BitSet pieces : levelPieces) {
+				pickPieces.or(pieces);
+			}
+			final int index = this.streaming.pick(pickPieces, rate);
+			if(index >= 0) {
+				return this.pick(index);
+			}
+			// 速度低于平均速度的Peer已经排除截止时间Piece
+			for (BitSet pieces : levelPieces) {
+				pieces.and(pickPieces);
+			}
+			return this.pick(this.rarest(this.priorityPieces(levelPieces)));
+		} finally {
+			this.readLock.unlock();
+		}
+	}
+	
+	/**
+	 * <p>获取所有选择下载文件可以下载的Piece位图</p>
+	 * <p>按照文件下载优先级等级分组：一个Piece属于多个文件时可能出现在多个等级</p>
+	 * <p>需要持有读锁</p>
+	 * 
+	 * @param peerPieces Peer已下载Piece位图
+	 * @param suggestPieces Peer推荐Piece位图
+	 * 
+	 * @return 可以下载的Piece位图（索引：等级）
+	 * 
+	 * @see TorrentStream#candidatePieces(BitSet, BitSet)
+	 * @see TorrentStream#levelPieces(BitSet, BitSet[])
+	 */
+	private BitSet[] candidatePieces(final BitSet peerPieces, final BitSet suggestPieces) {
+		final BitSet[] levelPieces = new BitSet[Priority.MAX_LEVEL + 1];
+		for (int level = 0; level < levelPieces.length; level++) {
+			levelPieces[level] = new BitSet();
+		}
+		for (TorrentStream torrentStream : this.streams) {
+			if(torrentStream.selected()) {
+				torrentStream.levelPieces(torrentStream.candidatePieces(peerPieces, suggestPieces), levelPieces);
+			}
+		}
+		return levelPieces;
+	}
+	
+	/**
+	 * <p>获取等级最高的可以下载的Piece位图</p>
+	 * 
+	 * @param levelPieces 可以下载的Piece位图（索引：等级）
+	 * 
+	 * @return 可以下载的Piece位图
+	 */
+	private BitSet priorityPieces(final BitSet[] levelPieces) {
+		for (int level = levelPieces.length - 1; level > Priority.SKIP.level(); level--) {
+			if(!levelPieces[level].isEmpty()) {
+				return levelPieces[level];
+			}
+		}
+		return new BitSet();
+	}
+	
+	/**
+	 * <p>设置文件下载优先级</p>
+	 * <p>运行时修改：不用重新加载文件流，重新计算选择下载Piece位图。</p>
+	 * 
+	 * @param path 文件路径
+	 * @param priority 文件下载优先级
+	 * 
+	 * @return 是否设置成功
+	 * 
+	 * @see TorrentStream#priority(Priority)
+	 */
+	public boolean priority(String path, Priority priority) {
+		this.writeLock.lock();
+		try {
+			final TorrentStream torrentStream = this.oldStream(path);
+			if(torrentStream == null) {
+				LOGGER.debug("设置文件下载优先级失败（文件没有加载）：{}", path);
+				return false;
+			}
+			torrentStream.priority(priority);
+			this.full = false; // 健康度重新检测
+			this.selectPieces.clear();
+			for (TorrentStream stream : this.streams) {
+				if(stream.selected()) {
+					stream.buildSelectPieces(this.selectPieces);
+				}
+			}
+		} finally {
+			this.writeLock.unlock();
+		}
+		this.torrentSession.downloadSize(this.downloadSize());
+		this.fullPieces(this.pieces);
+		return true;
+	}
+	
+	/**
+	 * <p>选择指定Piece</p>
+	 * <p>需要持有读锁</p>
+	 * 
+	 * @param index Piece索引
+	 * 
+	 * @return 下载Piece；没有选择：null
+	 * 
+	 * @see TorrentStream#pick(int)
+	 */
+	private TorrentPiece pick(final int index) {
+		if(index < 0) {
+			return null;
+		}
+		for (TorrentStream torrentStream : this.streams) {
+			if(torrentStream.selected()) {
+				final TorrentPiece pickPiece = torrentStream.pick(index);
+				if(pickPiece != null) {
+					return pickPiece;
+				}
+			}
+		}
+		return null;
+	}
+	
+	/**
+	 * <p>选择可用数量最少的Piece</p>
+	 * <p>可用数量相同时随机选择：防止所有Peer下载相同Piece</p>
+	 * 
+	 * @param pickPieces 可以下载的Piece位图
+	 * 
+	 * @return Piece索引；没有可以下载的Piece：-1
+	 */
+	private int rarest(final BitSet pickPieces) {
+		int index = -1;
+		int count = 0;
+		int min = Integer.MAX_VALUE;
+		final var random = ThreadLocalRandom.current();
+		for (int pos = pickPieces.nextSetBit(0); pos >= 0; pos = pickPieces.nextSetBit(pos + 1)) {
+			final int value = pos < this.availability.length() ? this.availability.get(pos) : 0;
+			if(value < min) {
+				min = value;
+				index = pos;
+				count = 1;
+			} else if(value == min && random.nextInt(++count) == 0) {
+				// 蓄水池抽样：相同数量等概率选择
+				index = pos;
+			}
+		}
+		return index;
+	}
+	
+	/**
+	 * <p>更新Piece可用数量</p>
+	 * <p>Peer发送Piece位图、have、haveAll、haveNone消息和断开连接时调用</p>
+	 * 
+	 * @param pieces Piece位图
+	 * @param delta 变化数量
+	 */
+	public void availability(final BitSet pieces, final int delta) {
+		final int length = this.availability.length();
+		for (int index = pieces.nextSetBit(0); index >= 0 && index < length; index = pieces.nextSetBit(index + 1)) {
+			this.availability.getAndUpdate(index, value -> Math.max(0, value + delta));
+		}
+	}
+	
+	/**
+	 * <p>获取Piece可用数量</p>
+	 * 
+	 * @param index Piece索引
+	 * 
+	 * @return Piece可用数量
+	 */
+	public int availability(final int index) {
+		if(index < 0 || index >= this.availability.length()) {
+			return 0;
+		}
+		return this.availability.get(index);
+	}
+	
 	/**
 	 * <p>读取Piece数据</p>
 	 * 
@@ -328,31 +676,121 @@ public final class TorrentStreamGroup {
 	 * 
 	 * @throws NetException 网络异常
 	 * 
-	 * @see TorrentStream#read(int, int, int)
+	 * @see #read(int, int, int, ByteBuffer)
 	 */
 	public byte[] read(final int index, final int begin, final int length) throws NetException {
 		PacketSizeException.verify(length);
 		final ByteBuffer buffer = ByteBuffer.allocate(length);
+		if(this.read(index, begin, length, buffer)) {
+			return buffer.array();
+		}
+		return null;
+	}
+	
+	/**
+	 * <p>读取Piece数据到缓冲区</p>
+	 * <p>数据直接写入缓冲区：上传数据时不用多次复制</p>
+	 * <p>读取失败时缓冲区位置不变</p>
+	 * 
+	 * @param index Piece索引
+	 * @param begin Piece偏移
+	 * @param length 数据长度
+	 * @param buffer 缓冲区
+	 * 
+	 * @return 是否读取成功
+	 * 
+	 * @throws NetException 网络异常
+	 * 
+	 * @see TorrentStream#read(int, int, int, ByteBuffer)
+	 */
+	public boolean read(final int index, final int begin, final int length, final ByteBuffer buffer) throws NetException {
+		PacketSizeException.verify(length);
+		if(buffer.remaining() < length) {
+			throw new NetException("读取Piece数据缓冲区空间不足：" + length + "-" + buffer.remaining());
+		}
+		final int position = buffer.position();
+		final int limit = buffer.limit();
+		buffer.limit(position + length);
 		this.readLock.lock();
 		try {
-			// 如果跨越多个文件则合并返回
+			if(this.readCache(index, begin, length, buffer)) {
+				return true;
+			}
+			// 如果跨越多个文件则依次写入
 			for (TorrentStream torrentStream : this.streams) {
-				final byte[] bytes = torrentStream.read(index, length, begin);
-				if(bytes != null) {
-					buffer.put(bytes);
-					if(buffer.position() >= length) {
-						break;
-					}
+				if(torrentStream.read(index, length, begin, buffer) >= 0 && !buffer.hasRemaining()) {
+					break;
 				}
 			}
 		} finally {
 			this.readLock.unlock();
+			buffer.limit(limit);
 		}
-		if(buffer.position() < length) {
+		if(buffer.position() < position + length) {
 			LOGGER.warn("读取Piece数据错误：{}-{}-{}", index, length, buffer);
-			return null;
+			buffer.position(position);
+			return false;
 		}
-		return buffer.array();
+		return true;
+	}
+	
+	/**
+	 * <p>从读取缓存读取Piece数据</p>
+	 * <p>没有缓存时读取整个Piece放入缓存（预读）：后续请求同一个Piece的其他数据直接从缓存读取</p>
+	 * 
+	 * @param index Piece索引
+	 * @param begin Piece偏移
+	 * @param length 数据长度
+	 * @param buffer 缓冲区
+	 * 
+	 * @return 是否读取成功
+	 * 
+	 * @see TorrentReadCache
+	 */
+	private boolean readCache(final int index, final int begin, final int length, final ByteBuffer buffer) {
+		final TorrentReadCache readCache = TorrentReadCache.getInstance();
+		if(begin < 0 || !readCache.available() || !this.hasPiece(index)) {
+			return false;
+		}
+		ByteBuffer piece = readCache.get(this, index);
+		if(piece == null) {
+			piece = this.readPiece(index);
+			if(piece == null) {
+				return false;
+			}
+			readCache.put(this, index, piece);
+		}
+		if(begin + length > piece.limit()) {
+			return false;
+		}
+		piece.limit(begin + length).position(begin);
+		buffer.put(piece);
+		return true;
+	}
+	
+	/**
+	 * <p>读取整个Piece数据</p>
+	 * <p>Piece包含的任意文件没有数据时不能预读：返回null</p>
+	 * 
+	 * @param index Piece索引
+	 * 
+	 * @return Piece数据
+	 */
+	private ByteBuffer readPiece(final int index) {
+		final ByteBuffer buffer = ByteBuffer.allocate(this.torrent.getInfo().getPieceLength().intValue());
+		for (TorrentStream torrentStream : this.streams) {
+			if(index < torrentStream.fileBeginPieceIndex() || index > torrentStream.fileEndPieceIndex()) {
+				continue;
+			}
+			if(torrentStream.read(index, buffer.capacity(), 0, buffer) < 0) {
+				return null;
+			}
+			if(!buffer.hasRemaining()) {
+				break;
+			}
+		}
+		buffer.flip();
+		return buffer;
 	}
 
 	/**
@@ -377,14 +815,19 @@ public final class TorrentStreamGroup {
 		} finally {
 			this.readLock.unlock();
 		}
-		// 判断是否刷出缓存
-		final long oldValue = this.fileBufferSize.get();
+		// 判断是否刷出缓存：后台刷出不阻塞下载线程
 		if(
-			oldValue > DownloadConfig.getMemoryBufferByte() &&
-			this.fileBufferSize.compareAndSet(oldValue, 0)
+			this.fileBufferSize.get() > DownloadConfig.getMemoryBufferByte() &&
+			this.flushing.compareAndSet(false, true)
 		) {
 			LOGGER.debug("缓冲区被占满");
-			this.flush();
+			SystemThreadContext.submit(() -> {
+				try {
+					this.flush();
+				} finally {
+					this.flushing.set(false);
+				}
+			});
 		}
 		// 保存成功发送have消息
 		if(success) {
@@ -399,6 +842,68 @@ public final class TorrentStreamGroup {
 		return success;
 	}
 	
+	/**
+	 * <p>提交磁盘任务</p>
+	 * <p>在磁盘读写线程执行：不阻塞Peer下载线程</p>
+	 * 
+	 * @param runnable 任务
+	 * 
+	 * @see DiskContext#submit(String, Runnable)
+	 */
+	public void submit(Runnable runnable) {
+		this.diskTasks.incrementAndGet();
+		DiskContext.getInstance().submit(this.disk, () -> {
+			try {
+				runnable.run();
+			} finally {
+				if(this.diskTasks.decrementAndGet() <= 0) {
+					synchronized (this.diskTasks) {
+						this.diskTasks.notifyAll();
+					}
+				}
+			}
+		});
+	}
+	
+	/**
+	 * <p>获取下载目录所在磁盘名称</p>
+	 * 
+	 * @return 磁盘名称
+	 */
+	public String disk() {
+		return this.disk;
+	}
+	
+	/**
+	 * <p>判断磁盘是否繁忙（背压）</p>
+	 * 
+	 * @return 是否繁忙
+	 * 
+	 * @see DiskContext#busy(String)
+	 */
+	public boolean diskBusy() {
+		return DiskContext.getInstance().busy(this.disk);
+	}
+	
+	/**
+	 * <p>等待磁盘任务完成</p>
+	 * <p>释放资源前调用：防止文件流关闭后写入数据</p>
+	 * <p>保存快速恢复前调用：防止保存之后写入数据修改文件时间（快速恢复失效）</p>
+	 */
+	public void awaitDiskTasks() {
+		synchronized (this.diskTasks) {
+			while(this.diskTasks.get() > 0) {
+				try {
+					this.diskTasks.wait(SystemConfig.ONE_SECOND_MILLIS);
+				} catch (InterruptedException e) {
+					LOGGER.debug("线程等待异常", e);
+					Thread.currentThread().interrupt();
+					break;
+				}
+			}
+		}
+	}
+	
 	/**
 	 * <p>判断Piece是否已经下载</p>
 	 * 
@@ -424,6 +929,7 @@ public final class TorrentStreamGroup {
 		synchronized (this.pieces) {
 			this.pieces.set(index);
 		}
+		this.streaming.done(index);
 	}
 	
 	/**
@@ -436,6 +942,7 @@ public final class TorrentStreamGroup {
 		synchronized (this.pieces) {
 			this.pieces.clear(index);
 		}
+		TorrentReadCache.getInstance().remove(this, index);
 	}
 	
 	/**
@@ -549,23 +1056,44 @@ public final class TorrentStreamGroup {
 
 	/**
 	 * <p>校验文件</p>
+	 * <p>并发校验所有选择下载的文件流</p>
+	 * 
+	 * @return 是否校验成功
 	 * 
 	 * @throws IOException IO异常
+	 * 
+	 * @see TorrentVerifier
 	 */
 	public boolean verify() throws IOException {
-		int verifyFailCount = 0;
 		this.readLock.lock();
 		try {
+			final List<TorrentStream> list = new ArrayList<>();
 			for (TorrentStream torrentStream : this.streams) {
-				if(torrentStream.selected() && !torrentStream.verify()) {
-					verifyFailCount++;
+				if(torrentStream.selected()) {
+					list.add(torrentStream);
 				}
 			}
-			this.torrentSession.downloadSize(this.downloadSize());
+			final TorrentVerifier torrentVerifier = TorrentVerifier.newInstance(list, this.torrentSession);
+			this.verifier = torrentVerifier;
+			try {
+				return torrentVerifier.verify();
+			} finally {
+				this.verifier = null;
+				this.storeResume();
+			}
 		} finally {
 			this.readLock.unlock();
 		}
-		return verifyFailCount == 0;
+	}
+	
+	/**
+	 * <p>取消校验文件</p>
+	 */
+	public void cancelVerify() {
+		final TorrentVerifier torrentVerifier = this.verifier;
+		if(torrentVerifier != null) {
+			torrentVerifier.cancel();
+		}
 	}
 	
 	/**
@@ -595,10 +1123,45 @@ public final class TorrentStreamGroup {
 		} finally {
 			this.readLock.unlock();
 		}
+		// 清理全局缓存写入顺序
+		TorrentPieceCache.getInstance().purge();
+		// 保存快速恢复
+		this.storeResume();
 		// 更新Piece信息
 		this.torrentSession.updatePieces(false);
 	}
 	
+	/**
+	 * <p>获取快速恢复</p>
+	 * 
+	 * @return 快速恢复
+	 */
+	TorrentResume resume() {
+		return this.resume;
+	}
+	
+	/**
+	 * <p>保存快速恢复</p>
+	 * <p>先复制Piece位图再清除缓存中的Piece：保存的Piece一定已经写入文件</p>
+	 */
+	private void storeResume() {
+		final BitSet storePieces;
+		synchronized (this.pieces) {
+			storePieces = (BitSet) this.pieces.clone();
+		}
+		final List<String> filePaths = new ArrayList<>();
+		this.readLock.lock();
+		try {
+			for (TorrentStream torrentStream : this.streams) {
+				torrentStream.clearCachePieces(storePieces);
+				filePaths.add(torrentStream.filePath());
+			}
+		} finally {
+			this.readLock.unlock();
+		}
+		this.resume.store(storePieces, filePaths);
+	}
+	
 	/**
 	 * <p>获取任务已下载大小</p>
 	 * 
@@ -621,6 +1184,48 @@ public final class TorrentStreamGroup {
 		return downloadSize;
 	}
 	
+	/**
+	 * <p>获取任务需要分配的磁盘空间</p>
+	 * 
+	 * @return 任务需要分配的磁盘空间
+	 * 
+	 * @see TorrentStream#allocateSize()
+	 */
+	public long allocateSize() {
+		long allocateSize = 0L;
+		this.readLock.lock();
+		try {
+			for (TorrentStream torrentStream : this.streams) {
+				if(torrentStream.selected()) {
+					allocateSize += torrentStream.allocateSize();
+				}
+			}
+		} finally {
+			this.readLock.unlock();
+		}
+		return allocateSize;
+	}
+	
+	/**
+	 * <p>分配选择下载文件</p>
+	 * <p>开始下载时调用（检测磁盘剩余空间之后）：之后新加载的文件直接分配</p>
+	 * 
+	 * @see TorrentStream#allocate()
+	 */
+	public void allocate() {
+		this.readLock.lock();
+		try {
+			this.allocatable = true;
+			for (TorrentStream torrentStream : this.streams) {
+				if(torrentStream.selected()) {
+					torrentStream.allocate();
+				}
+			}
+		} finally {
+			this.readLock.unlock();
+		}
+	}
+	
 	/**
 	 * <p>检测任务是否下载完成</p>
 	 * <p>完成：所有选择下载文件下载完成</p>
@@ -643,9 +1248,12 @@ public final class TorrentStreamGroup {
 
 	/**
 	 * <p>资源释放</p>
+	 * <p>文件流释放时刷出缓存：释放完成后保存快速恢复</p>
 	 */
 	public void release() {
 		LOGGER.debug("释放TorrentStreamGroup");
+		this.cancelVerify();
+		this.awaitDiskTasks();
 		this.readLock.lock();
 		try {
 			for (TorrentStream torrentStream : this.streams) {
@@ -654,6 +1262,9 @@ public final class TorrentStreamGroup {
 		} finally {
 			this.readLock.unlock();
 		}
+		this.storeResume();
+		this.streaming.release();
+		TorrentReadCache.getInstance().remove(this);
 	}
 
 }
@@ -0,0 +1,350 @@
+package com.acgist.snail.net.torrent;
+
+import java.nio.ByteBuffer;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.acgist.snail.config.SystemConfig;
+
+/**
+ * <p>边下边播</p>
+ * <p>每个文件记录播放位置，播放位置后面窗口内的Piece设置截止时间（越靠近播放位置截止时间越早）。</p>
+ * <p>截止时间Piece只分配给速度不低于平均速度的Peer，其他Peer继续稀有优先选择其他Piece。</p>
+ * <p>截止时间即将到达的Piece（风险Piece）允许多个Peer重复请求：参考Endgame</p>
+ * 
+ * @author acgist
+ */
+public final class TorrentStreaming {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(TorrentStreaming.class);
+	
+	/**
+	 * <p>截止时间窗口大小（字节）：{@value}</p>
+	 */
+	private static final long WINDOW_LENGTH = 8L * SystemConfig.ONE_MB;
+	/**
+	 * <p>截止时间窗口最小Piece数量：{@value}</p>
+	 */
+	private static final int MIN_WINDOW_SIZE = 4;
+	/**
+	 * <p>截止时间窗口最大Piece数量：{@value}</p>
+	 */
+	private static final int MAX_WINDOW_SIZE = 64;
+	/**
+	 * <p>相邻Piece截止时间间隔（毫秒）：{@value}</p>
+	 * <p>播放码率未知：使用固定间隔</p>
+	 */
+	private static final long DEADLINE_INTERVAL = SystemConfig.ONE_SECOND_MILLIS;
+	/**
+	 * <p>风险时间（毫秒）：{@value}</p>
+	 * <p>距离截止时间小于风险时间的Piece允许重复请求</p>
+	 */
+	private static final long RISK_TIME = 2L * SystemConfig.ONE_SECOND_MILLIS;
+	/**
+	 * <p>等待Piece下载完成最长时间（毫秒）：{@value}</p>
+	 * <p>超时后重新判断：防止丢失通知</p>
+	 */
+	private static final long AWAIT_TIMEOUT = SystemConfig.ONE_SECOND_MILLIS;
+	
+	/**
+	 * <p>是否可用</p>
+	 * <p>释放后等待数据的线程直接返回</p>
+	 */
+	private volatile boolean available;
+	/**
+	 * <p>是否开启边下边播</p>
+	 */
+	private volatile boolean streaming;
+	/**
+	 * <p>Peer平均下载速度（B/S）</p>
+	 * <p>定时根据下载中的Peer计算：排除没有速度的Peer</p>
+	 * 
+	 * @see #rate(long)
+	 */
+	private volatile long rate;
+	/**
+	 * <p>下载完成Piece次数</p>
+	 * <p>等待数据时判断是否有新的Piece下载完成：防止丢失通知</p>
+	 */
+	private long doneCount;
+	/**
+	 * <p>截止时间窗口Piece数量</p>
+	 */
+	private final int windowSize;
+	/**
+	 * <p>播放位置</p>
+	 * <p>文件流=文件偏移</p>
+	 */
+	private final Map<TorrentStream, Long> playheads;
+	/**
+	 * <p>Piece截止时间</p>
+	 * <p>Piece索引=截止时间</p>
+	 */
+	private final Map<Integer, Long> deadlines;
+	/**
+	 * <p>文件流组</p>
+	 */
+	private final TorrentStreamGroup torrentStreamGroup;
+	
+	/**
+	 * @param pieceLength Piece大小
+	 * @param torrentStreamGroup 文件流组
+	 */
+	private TorrentStreaming(long pieceLength, TorrentStreamGroup torrentStreamGroup) {
+		this.available = true;
+		this.streaming = false;
+		this.windowSize = (int) Math.max(MIN_WINDOW_SIZE, Math.min(MAX_WINDOW_SIZE, WINDOW_LENGTH / Math.max(1L, pieceLength)));
+		this.playheads = new HashMap<>();
+		this.deadlines = new HashMap<>();
+		this.torrentStreamGroup = torrentStreamGroup;
+	}
+	
+	/**
+	 * <p>创建边下边播</p>
+	 * 
+	 * @param pieceLength Piece大小
+	 * @param torrentStreamGroup 文件流组
+	 * 
+	 * @return 边下边播
+	 */
+	public static final TorrentStreaming newInstance(long pieceLength, TorrentStreamGroup torrentStreamGroup) {
+		return new TorrentStreaming(pieceLength, torrentStreamGroup);
+	}
+	
+	/**
+	 * <p>判断是否开启边下边播</p>
+	 * 
+	 * @return 是否开启边下边播
+	 */
+	public boolean streaming() {
+		return this.streaming;
+	}
+	
+	/**
+	 * <p>设置播放位置</p>
+	 * <p>重新计算截止时间：已经设置的截止时间只会提前不会推后</p>
+	 * 
+	 * @param torrentStream 文件流
+	 * @param position 文件偏移
+	 */
+	void playhead(TorrentStream torrentStream, long position) {
+		final long now = System.currentTimeMillis();
+		synchronized (this) {
+			this.playheads.put(torrentStream, this.position(torrentStream, position));
+			this.buildDeadlines(now);
+		}
+		LOGGER.debug("设置播放位置：{}-{}", torrentStream.filePath(), position);
+	}
+	
+	/**
+	 * <p>删除播放位置</p>
+	 * <p>播放位置已经被其他请求修改时不删除</p>
+	 * <p>重新计算截止时间：没有播放位置时关闭边下边播</p>
+	 * 
+	 * @param torrentStream 文件流
+	 * @param position 文件偏移（最后设置的播放位置）
+	 */
+	void removePlayhead(TorrentStream torrentStream, long position) {
+		final long now = System.currentTimeMillis();
+		synchronized (this) {
+			if(!this.playheads.remove(torrentStream, this.position(torrentStream, position))) {
+				return;
+			}
+			this.buildDeadlines(now);
+		}
+		LOGGER.debug("删除播放位置：{}-{}", torrentStream.filePath(), position);
+	}
+	
+	/**
+	 * <p>获取文件范围内的播放位置</p>
+	 * 
+	 * @param torrentStream 文件流
+	 * @param position 文件偏移
+	 * 
+	 * @return 播放位置
+	 */
+	private long position(TorrentStream torrentStream, long position) {
+		return Math.max(0L, Math.min(position, torrentStream.fileSize() - 1));
+	}
+	
+	/**
+	 * <p>计算截止时间</p>
+	 * <p>使用边下边播锁</p>
+	 * 
+	 * @param now 当前时间
+	 */
+	private void buildDeadlines(long now) {
+		final Map<Integer, Long> deadlines = new HashMap<>();
+		this.playheads.forEach((stream, pos) -> {
+			final int beginIndex = stream.pieceIndex(pos);
+			final int endIndex = Math.min(stream.fileEndPieceIndex(), beginIndex + this.windowSize - 1);
+			for (int index = beginIndex; index <= endIndex; index++) {
+				if(this.torrentStreamGroup.hasPiece(index)) {
+					continue;
+				}
+				final long deadline = now + (index - beginIndex + 1) * DEADLINE_INTERVAL;
+				final Long old = this.deadlines.get(index);
+				deadlines.merge(index, old == null ? deadline : Math.min(old, deadline), Math::min);
+			}
+		});
+		this.deadlines.clear();
+		this.deadlines.putAll(deadlines);
+		this.streaming = !this.playheads.isEmpty();
+	}
+	
+	/**
+	 * <p>设置Peer平均下载速度</p>
+	 * <p>请求调度定时计算</p>
+	 * 
+	 * @param rate Peer平均下载速度（B/S）
+	 */
+	public void rate(long rate) {
+		this.rate = rate;
+	}
+	
+	/**
+	 * <p>挑选截止时间Piece</p>
+	 * <p>速度不低于平均速度的Peer：选择截止时间最早的Piece</p>
+	 * <p>速度低于平均速度的Peer：排除截止时间Piece（排除后没有可以下载的Piece时保留）</p>
+	 * 
+	 * @param pickPieces 可以下载的Piece位图（速度低于平均速度时可能修改）
+	 * @param rate Peer下载速度（B/S）
+	 * 
+	 * @return Piece索引；没有选择：-1
+	 */
+	int pick(final BitSet pickPieces, final long rate) {
+		final boolean fast = this.fast(rate);
+		synchronized (this) {
+			if(this.deadlines.isEmpty()) {
+				return -1;
+			}
+			if(fast) {
+				int index = -1;
+				long min = Long.MAX_VALUE;
+				for (Map.Entry<Integer, Long> entry : this.deadlines.entrySet()) {
+					if(pickPieces.get(entry.getKey()) && entry.getValue() < min) {
+						min = entry.getValue();
+						index = entry.getKey();
+					}
+				}
+				return index;
+			}
+			final BitSet slowPieces = (BitSet) pickPieces.clone();
+			this.deadlines.keySet().forEach(slowPieces::clear);
+			if(!slowPieces.isEmpty()) {
+				pickPieces.and(slowPieces);
+			}
+			return -1;
+		}
+	}
+	
+	/**
+	 * <p>判断Peer是否可以请求截止时间Piece</p>
+	 * 
+	 * @param rate Peer下载速度（B/S）
+	 * 
+	 * @return 是否可以请求
+	 */
+	private boolean fast(long rate) {
+		return rate >= this.rate;
+	}
+	
+	/**
+	 * <p>判断Peer是否需要重复请求风险Piece</p>
+	 * 
+	 * @param rate Peer下载速度（B/S）
+	 * 
+	 * @return 是否需要重复请求
+	 */
+	public boolean urgent(long rate) {
+		return this.streaming && this.fast(rate) && !this.riskPieces().isEmpty();
+	}
+	
+	/**
+	 * <p>获取风险Piece位图</p>
+	 * 
+	 * @return 风险Piece位图
+	 */
+	public BitSet riskPieces() {
+		final BitSet riskPieces = new BitSet();
+		if(!this.streaming) {
+			return riskPieces;
+		}
+		final long riskTime = System.currentTimeMillis() + RISK_TIME;
+		synchronized (this) {
+			this.deadlines.forEach((index, deadline) -> {
+				if(deadline <= riskTime) {
+					riskPieces.set(index);
+				}
+			});
+		}
+		return riskPieces;
+	}
+	
+	/**
+	 * <p>Piece下载完成</p>
+	 * <p>删除截止时间，唤醒等待数据的线程。</p>
+	 * 
+	 * @param index Piece索引
+	 */
+	void done(int index) {
+		synchronized (this) {
+			this.doneCount++;
+			this.deadlines.remove(index);
+			this.notifyAll();
+		}
+	}
+	
+	/**
+	 * <p>读取文件数据</p>
+	 * <p>Piece没有下载完成时阻塞等待</p>
+	 * 
+	 * @param torrentStream 文件流
+	 * @param position 文件偏移
+	 * @param buffer 缓冲区
+	 * 
+	 * @return 读取数据大小；已经释放：-1
+	 * 
+	 * @throws InterruptedException 中断异常
+	 * 
+	 * @see TorrentStream#read(long, ByteBuffer)
+	 */
+	int read(TorrentStream torrentStream, long position, ByteBuffer buffer) throws InterruptedException {
+		while(this.available) {
+			final long doneCount;
+			synchronized (this) {
+				doneCount = this.doneCount;
+			}
+			// 读取数据时不能持有锁：文件流保存Piece时持有文件流锁通知下载完成
+			final int length = torrentStream.read(position, buffer);
+			if(length >= 0) {
+				return length;
+			}
+			synchronized (this) {
+				if(this.available && doneCount == this.doneCount) {
+					this.wait(AWAIT_TIMEOUT);
+				}
+			}
+		}
+		return -1;
+	}
+	
+	/**
+	 * <p>释放资源</p>
+	 * <p>唤醒等待数据的线程</p>
+	 */
+	void release() {
+		synchronized (this) {
+			this.available = false;
+			this.streaming = false;
+			this.playheads.clear();
+			this.deadlines.clear();
+			this.notifyAll();
+		}
+	}
+
+}
@@ -0,0 +1,282 @@
+package com.acgist.snail.net.torrent;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.acgist.snail.config.SymbolConfig;
+import com.acgist.snail.config.SystemConfig;
+import com.acgist.snail.context.TorrentContext;
+import com.acgist.snail.context.exception.NetException;
+import com.acgist.snail.net.TcpMessageHandler;
+import com.acgist.snail.net.codec.IMessageDecoder;
+import com.acgist.snail.net.codec.LineMessageCodec;
+import com.acgist.snail.net.codec.MultilineMessageCodec;
+import com.acgist.snail.net.codec.StringMessageCodec;
+import com.acgist.snail.pojo.session.TorrentSession;
+import com.acgist.snail.pojo.wrapper.HeaderWrapper;
+import com.acgist.snail.pojo.wrapper.HttpHeaderWrapper;
+import com.acgist.snail.utils.StringUtils;
+
+/**
+ * <p>边下边播消息代理</p>
+ * <p>请求地址：/InfoHashHex/文件索引</p>
+ * <p>支持GET、HEAD和Range请求：数据所在Piece下载校验完成后发送，没有下载完成时阻塞等待。</p>
+ * <p>每个连接只处理一个请求：发送完成后关闭连接</p>
+ * 
+ * @author acgist
+ */
+public final class TorrentStreamingMessageHandler extends TcpMessageHandler implements IMessageDecoder<String> {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(TorrentStreamingMessageHandler.class);
+	
+	/**
+	 * <p>头部信息结束正则表达式（空行）：{@value}</p>
+	 */
+	private static final String HEADER_END_REGEX = "";
+	/**
+	 * <p>每次发送数据最大长度：{@value}</p>
+	 */
+	private static final int SEND_LENGTH = 64 * SystemConfig.ONE_KB;
+	/**
+	 * <p>协议：{@value}</p>
+	 */
+	private static final String PROTOCOL = "HTTP/1.1";
+	/**
+	 * <p>GET请求：{@value}</p>
+	 */
+	private static final String METHOD_GET = "GET";
+	/**
+	 * <p>HEAD请求：{@value}</p>
+	 */
+	private static final String METHOD_HEAD = "HEAD";
+	
+	/**
+	 * <p>是否已经收到请求</p>
+	 */
+	private final AtomicBoolean request = new AtomicBoolean(false);
+	/**
+	 * <p>最后设置的播放位置</p>
+	 * <p>发送完成删除播放位置</p>
+	 */
+	private volatile long playhead = -1L;
+	
+	public TorrentStreamingMessageHandler() {
+		final var multilineMessageCodec = new MultilineMessageCodec(this, SymbolConfig.LINE_SEPARATOR_COMPAT, HEADER_END_REGEX);
+		final var lineMessageCodec = new LineMessageCodec(multilineMessageCodec, SymbolConfig.LINE_SEPARATOR_COMPAT);
+		final var stringMessageCodec = new StringMessageCodec(lineMessageCodec);
+		this.messageDecoder = stringMessageCodec;
+	}
+	
+	@Override
+	public void onMessage(String message) {
+		if(!this.request.compareAndSet(false, true)) {
+			LOGGER.debug("边下边播请求重复（忽略）：{}", message);
+			return;
+		}
+		final HeaderWrapper headers = HeaderWrapper.newInstance(message);
+		final String protocol = headers.protocol();
+		final String[] values = protocol == null ? new String[0] : protocol.split(SymbolConfig.Symbol.SPACE.toString());
+		if(values.length < 2) {
+			LOGGER.warn("边下边播请求错误：{}", protocol);
+			this.response(400, "Bad Request");
+			return;
+		}
+		final String method = values[0];
+		if(!METHOD_GET.equalsIgnoreCase(method) && !METHOD_HEAD.equalsIgnoreCase(method)) {
+			this.response(405, "Method Not Allowed");
+			return;
+		}
+		// 地址：/InfoHashHex/文件索引
+		final String[] paths = values[1].split(SymbolConfig.Symbol.SLASH.toString());
+		if(paths.length != 3 || !StringUtils.isNumeric(paths[2])) {
+			this.response(404, "Not Found");
+			return;
+		}
+		final int fileIndex = Integer.parseInt(paths[2]);
+		final TorrentSession torrentSession = TorrentContext.getInstance().torrentSession(paths[1]);
+		final TorrentStreamGroup torrentStreamGroup = torrentSession == null ? null : torrentSession.torrentStreamGroup();
+		final String path = torrentSession == null ? null : torrentSession.filePath(fileIndex);
+		final TorrentStream torrentStream = path == null || torrentStreamGroup == null ? null : torrentStreamGroup.stream(path);
+		if(torrentStream == null) {
+			this.response(404, "Not Found");
+			return;
+		}
+		final long fileSize = torrentStream.fileSize();
+		final long[] range = this.range(headers.header(HttpHeaderWrapper.HEADER_RANGE), fileSize);
+		if(range == null) {
+			final HeaderWrapper builder = HeaderWrapper.newBuilder(PROTOCOL + " 416 Range Not Satisfiable");
+			builder.header(HttpHeaderWrapper.HEADER_CONTENT_RANGE, HttpHeaderWrapper.HEADER_VALUE_BYTES + " */" + fileSize);
+			this.response(builder);
+			return;
+		}
+		final boolean partial = headers.header(HttpHeaderWrapper.HEADER_RANGE) != null;
+		final HeaderWrapper builder = HeaderWrapper.newBuilder(PROTOCOL + (partial ? " 206 Partial Content" : " 200 OK"));
+		builder
+			.header(HttpHeaderWrapper.HEADER_CONTENT_TYPE, "application/octet-stream")
+			.header(HttpHeaderWrapper.HEADER_CONTENT_LENGTH, String.valueOf(range[1] - range[0] + 1))
+			.header(HttpHeaderWrapper.HEADER_ACCEPT_RANGES, HttpHeaderWrapper.HEADER_VALUE_BYTES);
+		if(partial) {
+			builder.header(HttpHeaderWrapper.HEADER_CONTENT_RANGE, HttpHeaderWrapper.HEADER_VALUE_BYTES + " " + range[0] + "-" + range[1] + "/" + fileSize);
+		}
+		final boolean body = METHOD_GET.equalsIgnoreCase(method);
+		final boolean success = TorrentStreamingServer.getInstance().submit(() -> {
+			try {
+				this.send(this.build(builder));
+				if(body) {
+					this.send(torrentSession, fileIndex, torrentStreamGroup.streaming(), torrentStream, range[0], range[1]);
+				}
+			} catch (NetException e) {
+				LOGGER.debug("边下边播发送数据异常", e);
+			} catch (InterruptedException e) {
+				LOGGER.debug("边下边播等待数据异常", e);
+				Thread.currentThread().interrupt();
+			} finally {
+				if(this.playhead >= 0L) {
+					torrentSession.removePlayhead(fileIndex, this.playhead);
+				}
+				this.close();
+			}
+		});
+		if(!success) {
+			this.close();
+		}
+	}
+	
+	/**
+	 * <p>发送文件数据</p>
+	 * <p>发送数据同时更新播放位置</p>
+	 * 
+	 * @param torrentSession BT任务信息
+	 * @param fileIndex 文件索引
+	 * @param streaming 边下边播
+	 * @param torrentStream 文件流
+	 * @param begin 开始偏移（包含）
+	 * @param end 结束偏移（包含）
+	 * 
+	 * @throws NetException 网络异常
+	 * @throws InterruptedException 中断异常
+	 */
+	private void send(
+		TorrentSession torrentSession, int fileIndex, TorrentStreaming streaming,
+		TorrentStream torrentStream, long begin, long end
+	) throws NetException, InterruptedException {
+		int pieceIndex = -1;
+		long position = begin;
+		while(position <= end && this.available()) {
+			// 进入新的Piece更新播放位置
+			if(pieceIndex != torrentStream.pieceIndex(position)) {
+				pieceIndex = torrentStream.pieceIndex(position);
+				if(torrentSession.playhead(fileIndex, position)) {
+					this.playhead = position;
+				}
+			}
+			// 防止超过发送队列高水位
+			this.awaitWritable();
+			// 消息加入发送队列后不能修改：每次创建缓冲
+			final ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(SEND_LENGTH, end - position + 1));
+			final int length = streaming.read(torrentStream, position, buffer);
+			if(length <= 0) {
+				LOGGER.debug("边下边播读取数据失败：{}-{}", fileIndex, position);
+				break;
+			}
+			buffer.flip();
+			this.send(buffer);
+			position += length;
+		}
+	}
+	
+	/**
+	 * <p>解析请求范围</p>
+	 * <p>格式：bytes=开始-结束、bytes=开始-、bytes=-长度</p>
+	 * 
+	 * @param value 请求范围
+	 * @param fileSize 文件大小
+	 * 
+	 * @return [开始偏移, 结束偏移]（包含结束偏移）；范围错误：null
+	 */
+	long[] range(String value, long fileSize) {
+		if(fileSize <= 0L) {
+			return null;
+		}
+		if(StringUtils.isEmpty(value)) {
+			return new long[] { 0L, fileSize - 1 };
+		}
+		final String prefix = HttpHeaderWrapper.HEADER_VALUE_BYTES + SymbolConfig.Symbol.EQUALS.toString();
+		if(!StringUtils.startsWith(value, prefix)) {
+			return null;
+		}
+		final String content = value.substring(prefix.length()).trim();
+		final int index = content.indexOf(SymbolConfig.Symbol.MINUS.toChar());
+		if(index < 0 || content.indexOf(SymbolConfig.Symbol.COMMA.toChar()) >= 0) {
+			// 不支持多段范围
+			return null;
+		}
+		final String beginValue = content.substring(0, index).trim();
+		final String endValue = content.substring(index + 1).trim();
+		final long begin;
+		final long end;
+		if(StringUtils.isEmpty(beginValue)) {
+			if(!StringUtils.isNumeric(endValue)) {
+				return null;
+			}
+			begin = Math.max(0L, fileSize - Long.parseLong(endValue));
+			end = fileSize - 1;
+		} else {
+			if(!StringUtils.isNumeric(beginValue)) {
+				return null;
+			}
+			begin = Long.parseLong(beginValue);
+			if(StringUtils.isEmpty(endValue)) {
+				end = fileSize - 1;
+			} else if(StringUtils.isNumeric(endValue)) {
+				end = Math.min(fileSize - 1, Long.parseLong(endValue));
+			} else {
+				return null;
+			}
+		}
+		if(begin >= fileSize || begin > end) {
+			return null;
+		}
+		return new long[] { begin, end };
+	}
+	
+	/**
+	 * <p>发送响应并关闭连接</p>
+	 * 
+	 * @param code 状态码
+	 * @param message 状态信息
+	 */
+	private void response(int code, String message) {
+		this.response(HeaderWrapper.newBuilder(PROTOCOL + " " + code + " " + message));
+	}
+	
+	/**
+	 * <p>发送响应并关闭连接</p>
+	 * 
+	 * @param builder 头部信息
+	 */
+	private void response(HeaderWrapper builder) {
+		try {
+			this.send(this.build(builder.header(HttpHeaderWrapper.HEADER_CONTENT_LENGTH, "0")));
+		} catch (NetException e) {
+			LOGGER.debug("边下边播发送响应异常", e);
+		} finally {
+			this.close();
+		}
+	}
+	
+	/**
+	 * <p>创建响应头部信息</p>
+	 * 
+	 * @param builder 头部信息
+	 * 
+	 * @return 响应头部信息
+	 */
+	private String build(HeaderWrapper builder) {
+		return builder.header("Connection", "close").build() + SymbolConfig.LINE_SEPARATOR_COMPAT;
+	}
+
+}
@@ -0,0 +1,99 @@
+package com.acgist.snail.net.torrent;
+
+import java.util.concurrent.ExecutorService;
+
+import com.acgist.snail.config.SymbolConfig;
+import com.acgist.snail.config.SystemConfig;
+import com.acgist.snail.context.SystemThreadContext;
+import com.acgist.snail.net.TcpServer;
+import com.acgist.snail.utils.NetUtils;
+
+/**
+ * <p>边下边播服务端</p>
+ * <p>只监听本机环回地址：第一次获取边下边播地址时启动</p>
+ * <p>读取数据可能阻塞等待Piece下载完成：使用独立线程池发送数据</p>
+ * 
+ * @author acgist
+ */
+public final class TorrentStreamingServer extends TcpServer<TorrentStreamingMessageHandler> {
+
+	private static final TorrentStreamingServer INSTANCE = new TorrentStreamingServer();
+	
+	public static final TorrentStreamingServer getInstance() {
+		return INSTANCE;
+	}
+	
+	/**
+	 * <p>是否已经监听</p>
+	 */
+	private volatile boolean listen = false;
+	/**
+	 * <p>发送数据线程池</p>
+	 */
+	private ExecutorService executor;
+	
+	private TorrentStreamingServer() {
+		super("Torrent Streaming Server", TorrentStreamingMessageHandler.class);
+	}
+	
+	@Override
+	public boolean listen() {
+		synchronized (this) {
+			if(!this.listen) {
+				this.listen = this.listen(NetUtils.LOOPBACK_HOST_ADDRESS, SystemConfig.getStreamingPort(), ADDR_UNREUSE);
+				if(this.listen) {
+					this.executor = SystemThreadContext.newCacheExecutor(0, 60L, SystemThreadContext.SNAIL_THREAD_BT_STREAMING);
+				}
+			}
+			return this.listen;
+		}
+	}
+	
+	/**
+	 * <p>获取边下边播地址</p>
+	 * <p>格式：http://127.0.0.1:port/InfoHashHex/文件索引</p>
+	 * 
+	 * @param infoHashHex InfoHashHex
+	 * @param fileIndex 文件索引
+	 * 
+	 * @return 边下边播地址；启动失败：null
+	 */
+	public String url(String infoHashHex, int fileIndex) {
+		if(!this.listen()) {
+			return null;
+		}
+		final String slash = SymbolConfig.Symbol.SLASH.toString();
+		return "http://" + NetUtils.LOOPBACK_HOST_ADDRESS + SymbolConfig.Symbol.COLON.toString() + SystemConfig.getStreamingPort() +
+			slash + infoHashHex + slash + fileIndex;
+	}
+	
+	/**
+	 * <p>提交发送数据任务</p>
+	 * 
+	 * @param runnable 任务
+	 * 
+	 * @return 是否提交成功
+	 */
+	boolean submit(Runnable runnable) {
+		synchronized (this) {
+			if(this.executor == null) {
+				return false;
+			}
+			this.executor.submit(runnable);
+			return true;
+		}
+	}
+	
+	@Override
+	public void close() {
+		synchronized (this) {
+			this.listen = false;
+			super.close();
+			if(this.executor != null) {
+				SystemThreadContext.shutdownNow(this.executor);
+				this.executor = null;
+			}
+		}
+	}
+
+}
@@ -0,0 +1,258 @@
+package com.acgist.snail.net.torrent;
+
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.acgist.snail.config.SystemConfig;
+import com.acgist.snail.context.SystemThreadContext;
+import com.acgist.snail.pojo.session.TorrentSession;
+import com.acgist.snail.utils.DigestUtils;
+
+/**
+ * <p>文件校验</p>
+ * <p>使用ForkJoin线程池按照Piece范围并发校验所有文件流</p>
+ * <p>每个线程同时只读取一个Piece：同时读取数量和内存占用（并发数量 * Piece大小）受到并发数量限制</p>
+ * <p>校验过程中更新任务已下载大小（进度），可以取消校验：没有校验的Piece保持原来状态。</p>
+ * 
+ * @author acgist
+ */
+public final class TorrentVerifier {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(TorrentVerifier.class);
+	
+	/**
+	 * <p>不再拆分的Piece数量：{@value}</p>
+	 */
+	private static final int THRESHOLD = 8;
+	/**
+	 * <p>更新进度时间间隔（毫秒）：{@value}</p>
+	 */
+	private static final long PROGRESS_INTERVAL = 1000L;
+	
+	/**
+	 * <p>是否取消</p>
+	 */
+	private volatile boolean cancel;
+	/**
+	 * <p>失败数量</p>
+	 */
+	private final AtomicInteger failCount;
+	/**
+	 * <p>已校验数量</p>
+	 */
+	private final AtomicInteger verifyCount;
+	/**
+	 * <p>上次更新进度时间</p>
+	 */
+	private final AtomicLong progressTime;
+	/**
+	 * <p>校验文件流</p>
+	 */
+	private final List<TorrentStream> streams;
+	/**
+	 * <p>BT任务信息</p>
+	 */
+	private final TorrentSession torrentSession;
+	
+	/**
+	 * @param streams 校验文件流
+	 * @param torrentSession BT任务信息
+	 */
+	private TorrentVerifier(List<TorrentStream> streams, TorrentSession torrentSession) {
+		this.cancel = false;
+		this.failCount = new AtomicInteger(0);
+		this.verifyCount = new AtomicInteger(0);
+		this.progressTime = new AtomicLong(System.currentTimeMillis());
+		this.streams = streams;
+		this.torrentSession = torrentSession;
+	}
+	
+	/**
+	 * <p>创建文件校验</p>
+	 * 
+	 * @param streams 校验文件流
+	 * @param torrentSession BT任务信息
+	 * 
+	 * @return 文件校验
+	 */
+	public static final TorrentVerifier newInstance(List<TorrentStream> streams, TorrentSession torrentSession) {
+		return new TorrentVerifier(streams, torrentSession);
+	}
+	
+	/**
+	 * <p>校验文件</p>
+	 * 
+	 * @return 是否校验成功：取消校验返回false
+	 * 
+	 * @throws IOException IO异常
+	 */
+	public boolean verify() throws IOException {
+		final long begin = System.currentTimeMillis();
+		final List<VerifyTask> tasks = new ArrayList<>(this.streams.size());
+		for (TorrentStream stream : this.streams) {
+			if(stream.empty()) {
+				// 文件没有数据：不用读取
+				for (int index = stream.fileBeginPieceIndex(); index <= stream.fileEndPieceIndex(); index++) {
+					this.verify(stream, index, false);
+				}
+			} else {
+				tasks.add(new VerifyTask(stream, stream.fileBeginPieceIndex(), stream.fileEndPieceIndex() + 1));
+			}
+		}
+		if(!tasks.isEmpty()) {
+			final ForkJoinPool pool = SystemThreadContext.newForkJoinPool(this.parallelism(), SystemThreadContext.SNAIL_THREAD_BT_VERIFY);
+			try {
+				pool.invoke(new RecursiveAction() {
+					
+					private static final long serialVersionUID = 1L;
+					
+					@Override
+					protected void compute() {
+						ForkJoinTask.invokeAll(tasks);
+					}
+				
+				});
+			} finally {
+				SystemThreadContext.shutdownNow(pool);
+			}
+		}
+		this.progress(true);
+		LOGGER.debug(
+			"文件校验完成，校验Piece数量：{}，失败Piece数量：{}，是否取消：{}，耗时：{}",
+			this.verifyCount.get(),
+			this.failCount.get(),
+			this.cancel,
+			System.currentTimeMillis() - begin
+		);
+		return !this.cancel && this.failCount.get() == 0;
+	}
+	
+	/**
+	 * <p>取消校验</p>
+	 */
+	public void cancel() {
+		LOGGER.debug("取消文件校验");
+		this.cancel = true;
+	}
+	
+	/**
+	 * <p>获取并发数量</p>
+	 * 
+	 * @return 并发数量
+	 * 
+	 * @see SystemConfig#getStorageVerifySize()
+	 */
+	private int parallelism() {
+		final int size = SystemConfig.getStorageVerifySize();
+		if(size > 0) {
+			return size;
+		}
+		return Runtime.getRuntime().availableProcessors();
+	}
+	
+	/**
+	 * <p>设置Piece校验结果</p>
+	 * 
+	 * @param stream 文件流
+	 * @param index Piece索引
+	 * @param success 是否校验成功
+	 */
+	private void verify(TorrentStream stream, int index, boolean success) {
+		stream.verify(index, success);
+		this.verifyCount.incrementAndGet();
+		if(!success) {
+			this.failCount.incrementAndGet();
+		}
+		this.progress(false);
+	}
+	
+	/**
+	 * <p>更新任务已下载大小</p>
+	 * <p>不用文件流组计算：文件流组读锁被校验线程持有</p>
+	 * 
+	 * @param force 是否强制更新
+	 */
+	private void progress(boolean force) {
+		final long now = System.currentTimeMillis();
+		final long oldTime = this.progressTime.get();
+		if(
+			force ||
+			(now - oldTime > PROGRESS_INTERVAL && this.progressTime.compareAndSet(oldTime, now))
+		) {
+			long downloadSize = 0L;
+			for (TorrentStream stream : this.streams) {
+				downloadSize += stream.downloadSize();
+			}
+			this.torrentSession.downloadSize(downloadSize);
+		}
+	}
+	
+	/**
+	 * <p>校验任务</p>
+	 * <p>Piece范围：开始索引（包含）-结束索引（不包含）</p>
+	 * 
+	 * @author acgist
+	 */
+	private final class VerifyTask extends RecursiveAction {
+		
+		private static final long serialVersionUID = 1L;
+		
+		/**
+		 * <p>文件流</p>
+		 */
+		private final transient TorrentStream stream;
+		/**
+		 * <p>开始索引（包含）</p>
+		 */
+		private final int begin;
+		/**
+		 * <p>结束索引（不包含）</p>
+		 */
+		private final int end;
+		
+		/**
+		 * @param stream 文件流
+		 * @param begin 开始索引（包含）
+		 * @param end 结束索引（不包含）
+		 */
+		private VerifyTask(TorrentStream stream, int begin, int end) {
+			this.stream = stream;
+			this.begin = begin;
+			this.end = end;
+		}
+		
+		@Override
+		protected void compute() {
+			if(TorrentVerifier.this.cancel) {
+				return;
+			}
+			if(this.end - this.begin <= THRESHOLD) {
+				final MessageDigest digest = DigestUtils.sha1();
+				for (int index = this.begin; index < this.end; index++) {
+					if(TorrentVerifier.this.cancel) {
+						return;
+					}
+					TorrentVerifier.this.verify(this.stream, index, this.stream.verify(index, digest));
+				}
+			} else {
+				final int middle = (this.begin + this.end) >>> 1;
+				ForkJoinTask.invokeAll(
+					new VerifyTask(this.stream, this.begin, middle),
+					new VerifyTask(this.stream, middle, this.end)
+				);
+			}
+		}
+	
+	}
+
+}
@@ -1,5 +1,12 @@
 package com.acgist.snail.net.torrent.peer;
 
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 
@@ -26,20 +33,9 @@ public abstract class PeerConnect implements IPeerConnect {
 	
 	private static final Logger LOGGER = LoggerFactory.getLogger(PeerConnect.class);
 
-	/**
-	 * <p>SLICE请求数量：{@value}</p>
-	 * <p>注：过大会导致UTP信号量阻塞</p>
-	 * 
-	 * TODO：根据速度优化
-	 */
-	private static final int SLICE_REQUEST_SIZE = 2;
-	/**
-	 * <p>SLICE最大请求数量：{@value}</p>
-	 * <p>超过这个数量跳出请求</p>
-	 */
-	private static final int SLICE_REQUEST_MAX_SIZE = 4;
 	/**
 	 * <p>SLICE请求等待时间：{@value}</p>
+	 * <p>请求队列已满并且超过时间没有收到响应：放弃请求中的Piece</p>
 	 */
 	private static final int SLICE_TIMEOUT = 10 * SystemConfig.ONE_SECOND_MILLIS;
 	/**
@@ -60,23 +56,54 @@ public abstract class PeerConnect implements IPeerConnect {
 	 */
 	private volatile boolean downloading = false;
 	/**
-	 * <p>当前下载Piece信息</p>
+	 * <p>下载中的Piece</p>
+	 * <p>请求队列可以包含多个Piece：自己选择的Piece和加入其他Peer下载中的Piece</p>
+	 * <p>同时作为请求锁：收到响应时唤醒请求线程</p>
+	 * 
+	 * @see PeerEndgame
 	 */
-	private TorrentPiece downloadPiece;
+	private final List<TorrentPiece> downloadPieces = new ArrayList<>();
 	/**
-	 * <p>slice锁</p>
+	 * <p>没有响应的请求</p>
+	 * <p>Slice标识=数据长度</p>
+	 * <p>使用downloadPieces加锁</p>
 	 * 
-	 * @see #SLICE_TIMEOUT
-	 * @see #SLICE_REQUEST_SIZE
-	 * @see #SLICE_REQUEST_MAX_SIZE
+	 * @see PeerEndgame#key(int, int)
 	 */
-	private final AtomicInteger sliceLock = new AtomicInteger(0);
+	private final Map<Long, Integer> requests = new HashMap<>();
 	/**
-	 * <p>完成锁</p>
+	 * <p>最后收到响应时间</p>
+	 * <p>使用downloadPieces加锁</p>
+	 */
+	private long responseTime = 0L;
+	/**
+	 * <p>请求管道</p>
+	 */
+	private final PeerRequestPipeline pipeline;
+	/**
+	 * <p>等待下载中的Piece完成开始时间</p>
+	 * <p>只在调度任务中访问</p>
+	 */
+	private long awaitTime = 0L;
+	/**
+	 * <p>调度事件数量</p>
+	 * <p>没有事件时提交调度任务，调度期间收到的事件合并后重新调度。</p>
+	 * 
+	 * @see PeerRequestScheduler
+	 */
+	private final AtomicInteger events = new AtomicInteger(0);
+	/**
+	 * <p>是否等待重新调度</p>
+	 * <p>连接不能发送消息时延迟重新调度：只保留一个重新调度任务</p>
 	 * 
-	 * @see #COMPLETED_TIMEOUT
+	 * @see PeerRequestScheduler#retry(Runnable)
 	 */
-	private final AtomicBoolean completedLock = new AtomicBoolean(false);
+	private final AtomicBoolean retrying = new AtomicBoolean(false);
+	/**
+	 * <p>完成锁</p>
+	 * <p>请求调度是否结束</p>
+	 */
+	private final AtomicBoolean completedLock = new AtomicBoolean(true);
 	/**
 	 * <p>释放锁</p>
 	 * 
@@ -117,6 +144,11 @@ public abstract class PeerConnect implements IPeerConnect {
 		this.torrentSession = torrentSession;
 		this.peerConnectSession = new PeerConnectSession();
 		this.peerSubMessageHandler = peerSubMessageHandler;
+		this.pipeline = PeerRequestPipeline.newInstance(
+			peerSubMessageHandler.connectType() == IPeerConnect.ConnectType.UTP ?
+			PeerRequestPipeline.MAX_UTP_DEPTH :
+			PeerRequestPipeline.MAX_DEPTH
+		);
 	}
 
 	/**
@@ -216,13 +248,14 @@ public abstract class PeerConnect implements IPeerConnect {
 	
 	/**
 	 * <p>Peer上传计分</p>
+	 * <p>上传限速：延迟下一次发送</p>
 	 * 
 	 * @param buffer 上传大小
 	 */
 	public final void uploadMark(int buffer) {
 		this.peerConnectSession.upload(buffer);
 		this.statisticsSession.upload(buffer);
-		this.statisticsSession.uploadLimit(buffer);
+		this.peerSubMessageHandler.delayWrite(this.statisticsSession.uploadLimit(buffer));
 	}
 	
 	/**
@@ -236,12 +269,13 @@ public abstract class PeerConnect implements IPeerConnect {
 	
 	/**
 	 * <p>Peer下载计分</p>
+	 * <p>下载限速：延迟下一次读取</p>
 	 * 
 	 * @param buffer 下载大小
 	 */
 	public final void downloadMark(int buffer) {
 		this.peerConnectSession.download(buffer);
-		this.statisticsSession.downloadLimit(buffer);
+		this.peerSubMessageHandler.delayRead(this.statisticsSession.downloadLimit(buffer));
 	}
 	
 	/**
@@ -252,43 +286,144 @@ public abstract class PeerConnect implements IPeerConnect {
 	public final long downloadMark() {
 		return this.peerConnectSession.downloadMark();
 	}
+	
+	/**
+	 * <p>获取下载速度（B/S）</p>
+	 * 
+	 * @return 下载速度
+	 */
+	final long rate() {
+		return this.pipeline.rate();
+	}
 
 	/**
 	 * <p>开始下载</p>
+	 * <p>已经开始下载：重新调度</p>
 	 */
 	public void download() {
 		if(!this.downloading) {
 			synchronized (this) {
 				if(!this.downloading) {
+					LOGGER.debug("开始请求下载：{}", this.peerSession);
 					this.downloading = true;
-					this.torrentSession.submit(this::requests);
+					this.awaitTime = 0L;
+					this.completedLock.set(false);
+					PeerRequestScheduler.getInstance().register(this);
 				}
 			}
 		}
+		this.schedule();
+	}
+	
+	/**
+	 * <p>提交调度任务</p>
+	 * <p>调度任务正在执行时只记录事件：调度结束后重新调度</p>
+	 */
+	final void schedule() {
+		if(this.events.getAndIncrement() == 0) {
+			PeerRequestScheduler.getInstance().submit(this::execute);
+		}
+	}
+	
+	/**
+	 * <p>延迟重新调度</p>
+	 */
+	private void retry() {
+		if(this.retrying.compareAndSet(false, true)) {
+			PeerRequestScheduler.getInstance().retry(() -> {
+				this.retrying.set(false);
+				this.schedule();
+			});
+		}
+	}
+	
+	/**
+	 * <p>执行调度任务</p>
+	 */
+	private void execute() {
+		int count;
+		do {
+			count = this.events.get();
+			try {
+				this.dispatch();
+			} catch (Exception e) {
+				LOGGER.error("Peer请求异常", e);
+			}
+		} while(this.events.addAndGet(-count) > 0);
 	}
 	
 	/**
 	 * <p>保存Piece数据</p>
+	 * <p>Piece下载完成提交磁盘任务保存</p>
 	 * 
 	 * @param index Piece索引
 	 * @param begin Piece偏移
-	 * @param bytes Piece数据
+	 * @param bytes Piece数据（读取所有剩余数据）
 	 */
-	public final void piece(int index, int begin, byte[] bytes) {
+	public final void piece(int index, int begin, ByteBuffer bytes) {
 		// 数据不完整抛弃当前Piece：重新选择下载Piece
-		if(bytes == null || this.downloadPiece == null) {
+		if(bytes == null) {
 			return;
 		}
-		if(index != this.downloadPiece.getIndex()) {
-			LOGGER.warn("下载Piece索引和当前Piece索引不符：{}-{}", index, this.downloadPiece.getIndex());
-			return;
+		final int length = bytes.remaining();
+		final TorrentPiece piece;
+		final boolean completed;
+		synchronized (this.downloadPieces) {
+			piece = this.downloadPiece(index, begin);
+			if(piece == null) {
+				// 请求超时或者已经放弃的Piece
+				LOGGER.debug("下载Piece不在请求队列：{}-{}", index, begin);
+				return;
+			}
+			final Integer requestLength = this.requests.remove(PeerEndgame.key(index, begin));
+			if(requestLength == null || requestLength != length) {
+				// 没有请求、已经取消或者数据大小错误
+				LOGGER.debug("下载Piece不是请求数据：{}-{}-{}", index, begin, length);
+				return;
+			}
+			this.responseTime = System.currentTimeMillis();
+			// 写入和移除必须原子操作：防止下载完成的Piece被其他线程释放
+			synchronized (piece) {
+				// 记录最先到达的数据来源：SmartBan
+				if(!piece.hasSlice(begin)) {
+					this.torrentSession.smartBan().source(piece, begin, this.peerSession);
+				}
+				completed = piece.write(begin, bytes);
+			}
+			if(completed) {
+				this.downloadPieces.remove(piece);
+			}
 		}
-		// 释放slice锁
-		this.unlockSlice();
-		final boolean completed = this.downloadPiece.write(begin, bytes);
-		// 下载完成：释放完成锁
+		this.pipeline.response(length);
+		final PeerEndgame endgame = this.torrentSession.endgame();
+		// 取消其他Peer请求
+		endgame.piece(this, piece, begin, length);
 		if(completed) {
-			this.unlockCompleted();
+			endgame.unregister(piece);
+			this.submit(piece);
+		}
+		this.schedule();
+	}
+	
+	/**
+	 * <p>取消请求</p>
+	 * <p>Endgame其他Peer已经下载Slice时调用</p>
+	 * 
+	 * @param index Piece索引
+	 * @param begin Piece偏移
+	 * @param length 数据长度
+	 * 
+	 * @see PeerEndgame#piece(PeerConnect, TorrentPiece, int, int)
+	 */
+	public final void cancel(int index, int begin, int length) {
+		final boolean cancel;
+		synchronized (this.downloadPieces) {
+			cancel = this.requests.remove(PeerEndgame.key(index, begin)) != null;
+		}
+		if(cancel) {
+			LOGGER.debug("取消请求：{}-{}", index, begin);
+			this.peerSubMessageHandler.cancel(index, begin, length);
+			this.schedule();
 		}
 	}
 
@@ -306,199 +441,415 @@ public abstract class PeerConnect implements IPeerConnect {
 	}
 	
 	/**
-	 * <p>请求下载</p>
-	 * <p>跳出请求循环：设置完成状态、释放下载资源、完成检测、验证Piece状态</p>
+	 * <p>调度请求</p>
+	 * <p>请求队列深度根据下载速度和往返时间计算，请求队列没有达到深度时继续发送请求，不会阻塞等待响应。</p>
+	 * <p>没有可以请求的Slice时等待下载中的Piece完成：收到所有响应或者超过{@value #COMPLETED_TIMEOUT}毫秒放弃下载中的Piece，然后重新选择。</p>
+	 * <p>没有下载中的Piece并且没有可以选择的Piece时结束下载</p>
+	 * <p>不能阻塞调度线程：连接不能发送消息（UTP发送窗口已满）时延迟重新调度</p>
+	 * 
+	 * @see PeerRequestPipeline#depth()
 	 */
-	private void requests() {
-		LOGGER.debug("开始请求下载：{}", this.peerSession);
-		boolean success = true;
-		while(success) {
-			try {
-				success = this.request();
-			} catch (Exception e) {
-				LOGGER.error("Peer请求异常", e);
+	private void dispatch() {
+		if(!this.downloading || !this.available()) {
+			this.completed();
+			return;
+		}
+		if(!this.torrentSession.downloadable()) {
+			LOGGER.debug("释放Peer：任务不可下载");
+			this.completed();
+			return;
+		}
+		final int depth = this.pipeline.depth();
+		if(this.timeout(depth)) {
+			this.undone();
+		}
+		while(this.downloading && this.available()) {
+			final boolean downloading;
+			final boolean requesting;
+			synchronized (this.downloadPieces) {
+				if(this.requests.size() >= depth) {
+					return;
+				}
+				downloading = !this.downloadPieces.isEmpty();
+				requesting = !this.requests.isEmpty();
+			}
+			if(!this.peerSubMessageHandler.writable()) {
+				this.retry();
+				return;
+			}
+			final RequestSlice slice = this.nextSlice();
+			if(slice != null) {
+				this.awaitTime = 0L;
+				this.request(slice);
+				continue;
+			}
+			if(this.torrentSession.diskBusy()) {
+				// 磁盘繁忙：定时调度重试
+				return;
+			}
+			if(!downloading) {
+				LOGGER.debug("释放Peer：没有匹配Piece下载");
+				this.peerSubMessageHandler.notInterested(); // 发送不感兴趣消息
+				this.completed();
+				return;
+			}
+			final long now = System.currentTimeMillis();
+			if(requesting) {
+				if(this.awaitTime == 0L) {
+					this.awaitTime = now;
+				}
+				if(now - this.awaitTime < COMPLETED_TIMEOUT) {
+					// 等待响应：收到数据或者定时调度
+					return;
+				}
+			}
+			// 已经收到所有响应还没有完成：数据丢失或者其他Peer正在下载
+			this.awaitTime = 0L;
+			this.undone();
+		}
+	}
+	
+	/**
+	 * <p>判断请求是否超时</p>
+	 * <p>请求队列已满并且超过{@value #SLICE_TIMEOUT}毫秒没有收到响应</p>
+	 * 
+	 * @param depth 请求队列深度
+	 * 
+	 * @return 是否超时
+	 */
+	private boolean timeout(int depth) {
+		synchronized (this.downloadPieces) {
+			if(
+				this.requests.size() < depth ||
+				System.currentTimeMillis() - this.responseTime < SLICE_TIMEOUT
+			) {
+				return false;
+			}
+		}
+		LOGGER.debug("请求超时放弃请求中的Piece：{}", this.peerSession);
+		return true;
+	}
+	
+	/**
+	 * <p>结束下载</p>
+	 * <p>放弃没有下载完成的Piece：下载完成的Piece已经提交保存</p>
+	 */
+	private void completed() {
+		synchronized (this) {
+			this.downloading = false;
+			if(!PeerRequestScheduler.getInstance().unregister(this)) {
+				return;
 			}
 		}
+		this.undone();
 		this.completedLock.set(true);
-		this.releaseDownload();
+		this.unlockRelease();
 		this.torrentSession.checkCompletedAndDone();
-		// 验证最后选择的Piece是否下载完成
-		if(this.downloadPiece != null && !this.downloadPiece.completedAndVerify()) {
-			this.undone();
-		}
 		LOGGER.debug("结束请求下载：{}", this.peerSession);
 	}
 	
 	/**
-	 * <p>请求数据</p>
-	 * <p>每次发送{@value #SLICE_REQUEST_SIZE}个请求，然后进入等待，当全部数据响应后，又开始发送请求，直到Piece下载完成。</p>
-	 * <p>请求发送完成后必须进入完成等待</p>
-	 * <p>请求等待队列数量超过{@value #SLICE_REQUEST_MAX_SIZE}个时跳出循环</p>
+	 * <p>获取请求Slice</p>
+	 * <p>Slice请求顺序：下载中的Piece、加入其他Peer下载中的Piece（协作下载、Endgame）、选择新的Piece</p>
+	 * <p>边下边播存在风险Piece时优先重复请求风险Piece没有下载的Slice</p>
 	 * 
-	 * @return 是否可以继续下载
+	 * @return 请求Slice；没有可以请求的Slice：null
 	 */
-	private boolean request() {
-		if(!this.available()) {
-			return false;
+	private RequestSlice nextSlice() {
+		RequestSlice slice = null;
+		if(this.torrentSession.urgent(this.pipeline.rate())) {
+			slice = this.joinSlice();
 		}
-		if(!this.torrentSession.downloadable()) {
-			LOGGER.debug("释放Peer：任务不可下载");
-			return false;
-		}
-		this.pick(); // 挑选Piece
-		if(this.downloadPiece == null) {
-			LOGGER.debug("释放Peer：没有匹配Piece下载");
-			this.peerSubMessageHandler.notInterested(); // 发送不感兴趣消息
-			return false;
-		}
-		final int index = this.downloadPiece.getIndex();
-		while(this.available()) {
-			// 超过slice请求数量进入等待
-			if (this.sliceLock.get() >= SLICE_REQUEST_SIZE) {
-				this.lockSlice();
-			}
-			// 超过slice最大请求数量跳出循环
-			if (this.sliceLock.get() >= SLICE_REQUEST_MAX_SIZE) {
-				LOGGER.debug("超过slice最大请求数量跳出循环：{}-{}", this.downloadPiece.getIndex(), this.sliceLock.get());
-				break;
+		if(slice == null) {
+			slice = this.downloadSlice();
+		}
+		if(slice == null) {
+			slice = this.joinSlice();
+		}
+		if(slice == null) {
+			slice = this.pickSlice();
+		}
+		return slice;
+	}
+	
+	/**
+	 * <p>发送请求</p>
+	 * 
+	 * @param slice 请求Slice
+	 */
+	private void request(RequestSlice slice) {
+		final int index = slice.piece.getIndex();
+		synchronized (this.downloadPieces) {
+			if(this.requests.isEmpty()) {
+				this.responseTime = System.currentTimeMillis();
 			}
-			this.sliceLock.incrementAndGet();
-			// 顺序不能调换：position、length
-			final int begin = this.downloadPiece.position();
-			final int length = this.downloadPiece.length();
-			this.peerSubMessageHandler.request(index, begin, length);
-			// 是否还有更多SLICE
-			if(!this.downloadPiece.hasMoreSlice()) {
-				break;
+			this.requests.put(PeerEndgame.key(index, slice.begin), slice.length);
+		}
+		this.pipeline.request();
+		this.peerSubMessageHandler.request(index, slice.begin, slice.length);
+	}
+	
+	/**
+	 * <p>获取下载中的Piece请求Slice</p>
+	 * <p>优先请求最先加入请求队列的Piece</p>
+	 * 
+	 * @return 请求Slice；没有可以请求的Slice：null
+	 */
+	private RequestSlice downloadSlice() {
+		this.purge();
+		final List<TorrentPiece> pieces;
+		synchronized (this.downloadPieces) {
+			pieces = new ArrayList<>(this.downloadPieces);
+		}
+		for (TorrentPiece piece : pieces) {
+			final RequestSlice slice = this.requestSlice(piece);
+			if(slice != null) {
+				return slice;
 			}
 		}
-		// 添加完成锁
-		this.lockCompleted();
-		// 释放释放锁
-		this.unlockRelease();
-		return true;
+		return null;
 	}
 	
 	/**
-	 * <p>选择下载Piece</p>
-	 * <p>如果上个Piece没有完成：标记失败</p>
-	 */
-	private void pick() {
-		if(this.downloadPiece == null) {
-			// 没有Piece
-		} else if(this.downloadPiece.completed()) {
-			if(this.downloadPiece.verify()) {
-				final boolean success = this.torrentSession.write(this.downloadPiece);
-				if(success) {
-					// 统计下载有效数据
-					this.statisticsSession.download(this.downloadPiece.getLength());
-				} else {
-					LOGGER.debug("Piece保存失败：{}", this.downloadPiece.getIndex());
-					this.undone();
+	 * <p>加入其他Peer下载中的Piece请求Slice</p>
+	 * 
+	 * @return 请求Slice；没有可以请求的Slice：null
+	 * 
+	 * @see PeerEndgame#join(PeerConnect, BitSet, java.util.Collection)
+	 */
+	private RequestSlice joinSlice() {
+		final BitSet peerPieces;
+		if(this.peerConnectSession.isPeerUnchoked()) {
+			peerPieces = this.peerSession.availablePieces();
+		} else {
+			peerPieces = this.peerSession.allowedPieces();
+		}
+		final List<TorrentPiece> exclude;
+		synchronized (this.downloadPieces) {
+			exclude = new ArrayList<>(this.downloadPieces);
+		}
+		final TorrentPiece piece = this.torrentSession.endgame().join(this, peerPieces, exclude);
+		if(piece == null) {
+			return null;
+		}
+		synchronized (this.downloadPieces) {
+			this.downloadPieces.add(piece);
+		}
+		return this.requestSlice(piece);
+	}
+	
+	/**
+	 * <p>选择新的Piece请求Slice</p>
+	 * 
+	 * @return 请求Slice；没有可以选择的Piece：null
+	 */
+	private RequestSlice pickSlice() {
+		final TorrentPiece piece = this.pick();
+		if(piece == null) {
+			return null;
+		}
+		this.torrentSession.endgame().register(this, piece);
+		synchronized (this.downloadPieces) {
+			this.downloadPieces.add(piece);
+		}
+		return this.requestSlice(piece);
+	}
+	
+	/**
+	 * <p>请求Piece没有下载的Slice</p>
+	 * 
+	 * @param piece Piece
+	 * 
+	 * @return 请求Slice；没有可以请求的Slice：null
+	 * 
+	 * @see PeerEndgame#request(PeerConnect, TorrentPiece)
+	 */
+	private RequestSlice requestSlice(TorrentPiece piece) {
+		final int slice = this.torrentSession.endgame().request(this, piece);
+		if(slice < 0) {
+			return null;
+		}
+		return new RequestSlice(piece, piece.sliceBegin(slice), piece.sliceLength(slice));
+	}
+	
+	/**
+	 * <p>移除其他Peer已经下载完成的Piece</p>
+	 */
+	private void purge() {
+		final List<TorrentPiece> pieces = new ArrayList<>();
+		synchronized (this.downloadPieces) {
+			final Iterator<TorrentPiece> iterator = this.downloadPieces.iterator();
+			while(iterator.hasNext()) {
+				final TorrentPiece piece = iterator.next();
+				if(piece.completed()) {
+					iterator.remove();
+					this.requests.keySet().removeIf(key -> this.contain(piece, key));
+					pieces.add(piece);
 				}
-			} else {
-				LOGGER.warn("Piece校验失败：{}", this.downloadPiece.getIndex());
-				this.peerSession.badPieces(this.downloadPiece.getIndex());
-				this.undone();
 			}
-		} else {
-			LOGGER.debug("Piece没有下载完成：{}", this.downloadPiece.getIndex());
-			this.undone();
 		}
+		pieces.forEach(TorrentPiece::release);
+	}
+	
+	/**
+	 * <p>选择下载Piece</p>
+	 * <p>磁盘繁忙时不选择新的Piece（背压）：定时调度重试</p>
+	 * 
+	 * @return 下载Piece
+	 */
+	private TorrentPiece pick() {
+		if(this.torrentSession.diskBusy()) {
+			LOGGER.debug("选择下载Piece：磁盘繁忙");
+			return null;
+		}
+		final TorrentPiece piece;
 		if(this.peerConnectSession.isPeerUnchoked()) {
 			LOGGER.debug("选择下载Piece：解除阻塞");
-			this.downloadPiece = this.torrentSession.pick(this.peerSession.availablePieces(), this.peerSession.suggestPieces());
+			piece = this.torrentSession.pick(this.peerSession.availablePieces(), this.peerSession.suggestPieces(), this.pipeline.rate());
 		} else {
 			LOGGER.debug("选择下载Piece：快速允许");
-			this.downloadPiece = this.torrentSession.pick(this.peerSession.allowedPieces(), this.peerSession.allowedPieces());
+			piece = this.torrentSession.pick(this.peerSession.allowedPieces(), this.peerSession.allowedPieces(), this.pipeline.rate());
 		}
-		if(this.downloadPiece != null) {
-			LOGGER.debug("选取Piece：{}-{}-{}", this.downloadPiece.getIndex(), this.downloadPiece.getBegin(), this.downloadPiece.getEnd());
+		if(piece != null) {
+			LOGGER.debug("选取Piece：{}-{}-{}", piece.getIndex(), piece.getBegin(), piece.getEnd());
 		}
-		// 设置状态
-		this.sliceLock.set(0);
-		this.completedLock.set(false);
+		return piece;
 	}
 	
 	/**
-	 * <p>下载失败</p>
+	 * <p>获取下载中的Piece</p>
+	 * <p>使用downloadPieces加锁</p>
+	 * 
+	 * @param index Piece索引
+	 * @param begin Piece偏移
 	 * 
-	 * TODO：发送cancel
+	 * @return Piece
 	 */
-	private void undone() {
-		LOGGER.debug("Piece下载失败：{}", this.downloadPiece.getIndex());
-		this.torrentSession.undone(this.downloadPiece);
+	private TorrentPiece downloadPiece(int index, int begin) {
+		for (TorrentPiece piece : this.downloadPieces) {
+			// 文件交接处的Piece会被分为两个Piece
+			if(piece.getIndex() == index && begin >= piece.getBegin() && begin < piece.getEnd()) {
+				return piece;
+			}
+		}
+		return null;
 	}
 	
 	/**
-	 * <p>PeerConnect释放下载</p>
+	 * <p>判断Slice是否属于Piece</p>
+	 * 
+	 * @param piece Piece
+	 * @param key Slice标识
+	 * 
+	 * @return 是否属于Piece
 	 */
-	protected final void releaseDownload() {
-		if(this.downloading) {
-			LOGGER.debug("PeerConnect释放下载：{}-{}", this.peerSession.host(), this.peerSession.port());
-			this.downloading = false;
-			// 没有完成：等待下载完成
-			if(!this.completedLock.get()) {
-				this.lockRelease();
-			}
-		}
+	private boolean contain(TorrentPiece piece, long key) {
+		final int index = (int) (key >>> 32);
+		final int begin = (int) key;
+		return piece.getIndex() == index && begin >= piece.getBegin() && begin < piece.getEnd();
 	}
 	
 	/**
-	 * <p>添加slice锁</p>
+	 * <p>提交磁盘任务保存Piece</p>
+	 * <p>校验、写入文件不阻塞Peer下载线程</p>
+	 * 
+	 * @param piece Piece
 	 */
-	private void lockSlice() {
-		synchronized (this.sliceLock) {
+	private void submit(TorrentPiece piece) {
+		this.torrentSession.submitDisk(() -> {
 			try {
-				this.sliceLock.wait(SLICE_TIMEOUT);
-			} catch (InterruptedException e) {
-				Thread.currentThread().interrupt();
-				LOGGER.debug("线程等待异常", e);
+				this.save(piece);
+			} finally {
+				// 磁盘任务持有引用：保存完成后释放
+				piece.release();
 			}
-		}
+		});
 	}
 	
 	/**
-	 * <p>释放slice锁</p>
+	 * <p>保存Piece</p>
+	 * <p>磁盘读写线程执行：没有完成、校验失败或者保存失败标记下载失败</p>
+	 * 
+	 * @param piece Piece
 	 */
-	private void unlockSlice() {
-		// 请求数据下载完成：释放锁
-		if (this.sliceLock.decrementAndGet() <= 0) {
-			synchronized (this.sliceLock) {
-				this.sliceLock.notifyAll();
+	private void save(TorrentPiece piece) {
+		if(piece.completed()) {
+			if(piece.verify()) {
+				final boolean success = this.torrentSession.write(piece);
+				if(success) {
+					this.torrentSession.smartBan().success(piece);
+					// 统计下载有效数据
+					this.statisticsSession.download(piece.getLength());
+					// 最后的Piece可能在请求循环结束后保存完成
+					this.torrentSession.checkCompletedAndDone();
+				} else {
+					LOGGER.debug("Piece保存失败：{}", piece.getIndex());
+					this.undone(piece);
+				}
+			} else {
+				LOGGER.warn("Piece校验失败：{}", piece.getIndex());
+				this.torrentSession.smartBan().fail(piece);
+				this.peerSession.badPieces(piece.getIndex());
+				this.undone(piece);
 			}
+		} else {
+			LOGGER.debug("Piece没有下载完成：{}", piece.getIndex());
+			this.undone(piece);
 		}
 	}
 	
 	/**
-	 * <p>添加完成锁</p>
-	 * <p>无论是否有数据返回都需要进行结束等待，防止数据小于{@value #SLICE_REQUEST_SIZE}个slice时直接跳出了slice wait（sliceLock）导致响应还没有收到就直接结束了。</p>
+	 * <p>放弃请求队列中所有Piece</p>
+	 * <p>没有响应的请求发送cancel消息，离开所有下载中的Piece（请求中的Slice其他Peer可以继续请求）。</p>
+	 * <p>没有其他下载Peer并且没有下载完成的Piece标记下载失败，然后释放所有Piece。</p>
 	 */
-	private void lockCompleted() {
-		if(!this.completedLock.get()) {
-			synchronized (this.completedLock) {
-				if(!this.completedLock.get()) {
-					try {
-						this.completedLock.wait(COMPLETED_TIMEOUT);
-					} catch (InterruptedException e) {
-						Thread.currentThread().interrupt();
-						LOGGER.debug("线程等待异常", e);
-					}
-				}
-			}
+	private void undone() {
+		final List<TorrentPiece> pieces;
+		final Map<Long, Integer> cancels;
+		synchronized (this.downloadPieces) {
+			pieces = new ArrayList<>(this.downloadPieces);
+			cancels = new HashMap<>(this.requests);
+			this.downloadPieces.clear();
+			this.requests.clear();
 		}
+		this.pipeline.reset();
+		if(this.available()) {
+			cancels.forEach((key, length) -> this.peerSubMessageHandler.cancel((int) (key >>> 32), (int) key.longValue(), length));
+		}
+		final PeerEndgame endgame = this.torrentSession.endgame();
+		pieces.forEach(piece -> {
+			if(endgame.leave(this, piece) && !piece.completed()) {
+				this.undone(piece);
+			}
+			piece.release();
+		});
+	}
+	
+	/**
+	 * <p>下载失败</p>
+	 * 
+	 * @param piece Piece
+	 */
+	private void undone(TorrentPiece piece) {
+		LOGGER.debug("Piece下载失败：{}", piece.getIndex());
+		this.torrentSession.undone(piece);
 	}
 	
 	/**
-	 * <p>释放完成锁</p>
+	 * <p>PeerConnect释放下载</p>
 	 */
-	private void unlockCompleted() {
-		synchronized (this.completedLock) {
-			this.completedLock.set(true);
-			this.completedLock.notifyAll();
+	protected final void releaseDownload() {
+		if(this.downloading) {
+			LOGGER.debug("PeerConnect释放下载：{}-{}", this.peerSession.host(), this.peerSession.port());
+			this.downloading = false;
+			// 没有完成：调度结束下载并等待调度结束
+			if(!this.completedLock.get()) {
+				this.schedule();
+				this.lockRelease();
+			}
 		}
 	}
-
+	
 	/**
 	 * <p>添加释放锁</p>
 	 */
@@ -538,4 +889,37 @@ public abstract class PeerConnect implements IPeerConnect {
 		return BeanUtils.toString(this, this.peerSession);
 	}
 	
+	/**
+	 * <p>请求Slice</p>
+	 * 
+	 * @author acgist
+	 */
+	private static final class RequestSlice {
+		
+		/**
+		 * <p>Piece</p>
+		 */
+		private final TorrentPiece piece;
+		/**
+		 * <p>Piece偏移</p>
+		 */
+		private final int begin;
+		/**
+		 * <p>数据长度</p>
+		 */
+		private final int length;
+		
+		/**
+		 * @param piece Piece
+		 * @param begin Piece偏移
+		 * @param length 数据长度
+		 */
+		private RequestSlice(TorrentPiece piece, int begin, int length) {
+			this.piece = piece;
+			this.begin = begin;
+			this.length = length;
+		}
+		
+	}
+	
 }
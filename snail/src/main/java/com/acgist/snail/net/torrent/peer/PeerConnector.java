@@ -0,0 +1,439 @@
+package com.acgist.snail.net.torrent.peer;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.acgist.snail.config.PeerConfig;
+import com.acgist.snail.config.SystemConfig;
+import com.acgist.snail.context.SystemThreadContext;
+import com.acgist.snail.net.Client;
+import com.acgist.snail.net.torrent.utp.UtpClient;
+import com.acgist.snail.pojo.session.PeerSession;
+import com.acgist.snail.pojo.session.TorrentSession;
+
+/**
+ * <p>Peer连接器</p>
+ * <p>异步建立Peer连接：连接期间不会阻塞线程，允许大量半开连接同时进行。</p>
+ * <p>全局限制：最大半开连接数量、每秒发起连接数量</p>
+ * <p>TCP/uTP竞速：优先协议先发起连接，超过竞速延迟没有成功时发起另一个协议连接，最先成功的连接有效，另一个连接关闭。</p>
+ * <p>失败缓存：连接失败的Peer地址在缓存时间内不再连接，连续失败缓存时间加倍。</p>
+ * <p>直接连接失败时使用holepunch协议连接</p>
+ * 
+ * @author acgist
+ */
+public final class PeerConnector {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(PeerConnector.class);
+	
+	private static final PeerConnector INSTANCE = new PeerConnector();
+	
+	public static final PeerConnector getInstance() {
+		return INSTANCE;
+	}
+	
+	/**
+	 * <p>最大半开连接数量：{@value}</p>
+	 */
+	private static final int MAX_HALF_OPEN = 256;
+	/**
+	 * <p>每秒最大发起连接数量：{@value}</p>
+	 */
+	private static final int CONNECT_RATE = 64;
+	/**
+	 * <p>TCP/uTP竞速延迟（毫秒）：{@value}</p>
+	 */
+	private static final long RACE_DELAY = 300L;
+	/**
+	 * <p>失败缓存时间（毫秒）：{@value}</p>
+	 */
+	private static final long FAIL_CACHE_TIME = SystemConfig.ONE_MINUTE_MILLIS;
+	/**
+	 * <p>最大失败缓存时间（毫秒）：{@value}</p>
+	 */
+	private static final long MAX_FAIL_CACHE_TIME = 30 * SystemConfig.ONE_MINUTE_MILLIS;
+	/**
+	 * <p>最大失败缓存数量：{@value}</p>
+	 */
+	private static final int MAX_FAIL_CACHE_SIZE = 4096;
+	
+	/**
+	 * <p>半开连接数量</p>
+	 */
+	private final AtomicInteger halfOpen;
+	/**
+	 * <p>失败缓存</p>
+	 * <p>Peer地址=失败记录</p>
+	 */
+	private final Map<String, FailRecord> fails;
+	/**
+	 * <p>剩余发起连接数量</p>
+	 */
+	private double tokens;
+	/**
+	 * <p>剩余发起连接数量更新时间</p>
+	 */
+	private long tokenTime;
+	
+	private PeerConnector() {
+		this.halfOpen = new AtomicInteger(0);
+		this.fails = new LinkedHashMap<>(16, 0.75F, true) {
+			
+			private static final long serialVersionUID = 1L;
+			
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, FailRecord> eldest) {
+				return this.size() > MAX_FAIL_CACHE_SIZE;
+			}
+		
+		};
+		this.tokens = CONNECT_RATE;
+		this.tokenTime = System.currentTimeMillis();
+	}
+	
+	/**
+	 * <p>异步连接Peer</p>
+	 * <p>连接成功发送握手后回调PeerDownloader，连接失败回调null。</p>
+	 * 
+	 * @param peerSession Peer信息
+	 * @param torrentSession BT任务信息
+	 * @param callback 连接回调
+	 * 
+	 * @return 是否发起连接：超过半开连接数量或者发起连接速度返回false（没有执行回调）
+	 */
+	public boolean connect(PeerSession peerSession, TorrentSession torrentSession, Consumer<PeerDownloader> callback) {
+		if(this.failed(peerSession)) {
+			LOGGER.debug("Peer连接失败（失败缓存）：{}-{}", peerSession.host(), peerSession.port());
+			callback.accept(null);
+			return true;
+		}
+		if(!this.acquire()) {
+			return false;
+		}
+		new Race(this, peerSession, torrentSession, callback).start();
+		return true;
+	}
+	
+	/**
+	 * <p>获取半开连接数量</p>
+	 * 
+	 * @return 半开连接数量
+	 */
+	public int halfOpen() {
+		return this.halfOpen.get();
+	}
+	
+	/**
+	 * <p>获取发起连接许可</p>
+	 * 
+	 * @return 是否获取成功
+	 */
+	private boolean acquire() {
+		synchronized (this) {
+			final long now = System.currentTimeMillis();
+			this.tokens = Math.min(CONNECT_RATE, this.tokens + (now - this.tokenTime) * CONNECT_RATE / (double) SystemConfig.ONE_SECOND_MILLIS);
+			this.tokenTime = now;
+			if(this.tokens < 1D) {
+				return false;
+			}
+			if(this.halfOpen.incrementAndGet() > MAX_HALF_OPEN) {
+				this.halfOpen.decrementAndGet();
+				return false;
+			}
+			this.tokens--;
+			return true;
+		}
+	}
+	
+	/**
+	 * <p>释放半开连接</p>
+	 */
+	private void release() {
+		this.halfOpen.decrementAndGet();
+	}
+	
+	/**
+	 * <p>判断Peer地址是否处于失败缓存</p>
+	 * 
+	 * @param peerSession Peer信息
+	 * 
+	 * @return 是否处于失败缓存
+	 */
+	private boolean failed(PeerSession peerSession) {
+		final String key = key(peerSession);
+		synchronized (this.fails) {
+			final FailRecord record = this.fails.get(key);
+			return record != null && record.expire > System.currentTimeMillis();
+		}
+	}
+	
+	/**
+	 * <p>记录连接失败</p>
+	 * 
+	 * @param peerSession Peer信息
+	 */
+	private void fail(PeerSession peerSession) {
+		final String key = key(peerSession);
+		synchronized (this.fails) {
+			final FailRecord record = this.fails.computeIfAbsent(key, value -> new FailRecord());
+			record.times++;
+			final long cacheTime = FAIL_CACHE_TIME << Math.min(record.times - 1, 5);
+			record.expire = System.currentTimeMillis() + Math.min(cacheTime, MAX_FAIL_CACHE_TIME);
+		}
+	}
+	
+	/**
+	 * <p>记录连接成功</p>
+	 * 
+	 * @param peerSession Peer信息
+	 */
+	private void success(PeerSession peerSession) {
+		final String key = key(peerSession);
+		synchronized (this.fails) {
+			this.fails.remove(key);
+		}
+	}
+	
+	/**
+	 * <p>生成Peer地址</p>
+	 * 
+	 * @param peerSession Peer信息
+	 * 
+	 * @return Peer地址
+	 */
+	private static final String key(PeerSession peerSession) {
+		return peerSession.host() + ":" + peerSession.port();
+	}
+	
+	/**
+	 * <p>连接失败记录</p>
+	 * 
+	 * @author acgist
+	 */
+	private static final class FailRecord {
+		
+		/**
+		 * <p>连续失败次数</p>
+		 */
+		private int times;
+		/**
+		 * <p>缓存过期时间</p>
+		 */
+		private long expire;
+	
+	}
+	
+	/**
+	 * <p>TCP/uTP连接竞速</p>
+	 * <p>每个协议使用独立的Peer消息代理：竞速成功的消息代理用于创建PeerDownloader</p>
+	 * 
+	 * @author acgist
+	 */
+	private static final class Race {
+		
+		/**
+		 * <p>Peer连接器</p>
+		 */
+		private final PeerConnector connector;
+		/**
+		 * <p>Peer信息</p>
+		 */
+		private final PeerSession peerSession;
+		/**
+		 * <p>BT任务信息</p>
+		 */
+		private final TorrentSession torrentSession;
+		/**
+		 * <p>连接回调</p>
+		 */
+		private final Consumer<PeerDownloader> callback;
+		/**
+		 * <p>优先使用uTP连接</p>
+		 */
+		private final boolean utp;
+		/**
+		 * <p>是否完成竞速</p>
+		 */
+		private final AtomicBoolean done;
+		/**
+		 * <p>是否发起第二个协议连接</p>
+		 */
+		private final AtomicBoolean second;
+		/**
+		 * <p>连接中的协议数量</p>
+		 */
+		private final AtomicInteger pending;
+		/**
+		 * <p>竞速定时任务</p>
+		 */
+		private volatile ScheduledFuture<?> raceTimer;
+		
+		/**
+		 * @param connector Peer连接器
+		 * @param peerSession Peer信息
+		 * @param torrentSession BT任务信息
+		 * @param callback 连接回调
+		 */
+		private Race(PeerConnector connector, PeerSession peerSession, TorrentSession torrentSession, Consumer<PeerDownloader> callback) {
+			this.connector = connector;
+			this.peerSession = peerSession;
+			this.torrentSession = torrentSession;
+			this.callback = callback;
+			this.utp = peerSession.utp();
+			this.done = new AtomicBoolean(false);
+			this.second = new AtomicBoolean(false);
+			this.pending = new AtomicInteger(0);
+		}
+		
+		/**
+		 * <p>开始竞速</p>
+		 */
+		private void start() {
+			this.pending.incrementAndGet();
+			this.raceTimer = SystemThreadContext.timer(RACE_DELAY, TimeUnit.MILLISECONDS, this::second);
+			this.connect(this.utp);
+		}
+		
+		/**
+		 * <p>发起第二个协议连接</p>
+		 */
+		private void second() {
+			if(this.done.get() || !this.second.compareAndSet(false, true)) {
+				return;
+			}
+			this.pending.incrementAndGet();
+			this.connect(!this.utp);
+		}
+		
+		/**
+		 * <p>发起连接</p>
+		 * 
+		 * @param utp 是否使用uTP
+		 */
+		private void connect(boolean utp) {
+			final PeerSubMessageHandler peerSubMessageHandler = PeerSubMessageHandler.newInstance(this.peerSession, this.torrentSession);
+			if(utp) {
+				LOGGER.debug("Peer连接（uTP）：{}-{}", this.peerSession.host(), this.peerSession.port());
+				final UtpClient client = UtpClient.newInstance(this.peerSession, peerSubMessageHandler);
+				client.connect(success -> this.complete(success, true, client, peerSubMessageHandler));
+			} else {
+				LOGGER.debug("Peer连接（TCP）：{}-{}", this.peerSession.host(), this.peerSession.port());
+				final PeerClient client = PeerClient.newInstance(this.peerSession, peerSubMessageHandler);
+				client.connect(success -> this.complete(success, false, client, peerSubMessageHandler));
+			}
+		}
+		
+		/**
+		 * <p>协议连接完成</p>
+		 * <p>连接成功：竞速成功创建PeerDownloader，竞速失败关闭连接。</p>
+		 * <p>连接失败：立即发起第二个协议连接，所有协议失败后使用holepunch协议连接。</p>
+		 * 
+		 * @param success 是否连接成功
+		 * @param utp 是否使用uTP
+		 * @param client 客户端
+		 * @param peerSubMessageHandler Peer消息代理
+		 */
+		private void complete(boolean success, boolean utp, Client<?> client, PeerSubMessageHandler peerSubMessageHandler) {
+			if(success) {
+				if(this.done.compareAndSet(false, true)) {
+					this.raceTimer.cancel(false);
+					if(utp) {
+						this.peerSession.flags(PeerConfig.PEX_UTP); // UTP
+						this.peerSession.flags(PeerConfig.PEX_OUTGO); // 直接连接
+					}
+					SystemThreadContext.submit(() -> this.success(peerSubMessageHandler));
+				} else {
+					LOGGER.debug("Peer连接竞速失败：{}-{}-{}", this.peerSession.host(), this.peerSession.port(), utp);
+					client.close();
+				}
+				return;
+			}
+			this.second();
+			if(this.pending.decrementAndGet() == 0 && this.done.compareAndSet(false, true)) {
+				this.raceTimer.cancel(false);
+				SystemThreadContext.submit(this::holepunch);
+			}
+		}
+		
+		/**
+		 * <p>使用holepunch协议连接</p>
+		 * <p>Peer不可以直接连接时通过已经连接的中继（PEX来源）连接</p>
+		 */
+		private void holepunch() {
+			boolean success = false;
+			PeerSubMessageHandler peerSubMessageHandler = null;
+			try {
+				final PeerSession pexSource = this.peerSession.pexSource(); // Pex来源：中继
+				if(
+					!this.peerSession.outgo() && // Peer不可以直接连接
+					pexSource != null &&
+					pexSource.holepunch() && // 中继支持holepunch
+					pexSource.connected() && // 中继已经连接
+					this.peerSession.holepunch() // 目标支持holepunch
+				) {
+					final var peerConnect = pexSource.peerConnect();
+					if(peerConnect != null) {
+						if(!this.peerSession.holeunchConnect()) { // 是否已经连接
+							// 向中继发送rendezvous消息
+							peerConnect.holepunchRendezvous(this.peerSession);
+						}
+						// 已经收到holepunch连接消息使用UTP协议连接
+						if(this.peerSession.holeunchConnect()) {
+							LOGGER.debug("Peer连接（uTP）（holepunch）：{}-{}", this.peerSession.host(), this.peerSession.port());
+							peerSubMessageHandler = PeerSubMessageHandler.newInstance(this.peerSession, this.torrentSession);
+							success = UtpClient.newInstance(this.peerSession, peerSubMessageHandler).connect();
+						} else {
+							LOGGER.debug("Peer连接（uTP）（holepunch）：连接失败");
+						}
+					}
+				}
+			} catch (Exception e) {
+				LOGGER.error("Peer连接（holepunch）异常", e);
+			}
+			if(success) {
+				this.success(peerSubMessageHandler);
+			} else {
+				this.fail();
+			}
+		}
+		
+		/**
+		 * <p>连接成功：发送握手</p>
+		 * 
+		 * @param peerSubMessageHandler Peer消息代理
+		 */
+		private void success(PeerSubMessageHandler peerSubMessageHandler) {
+			this.connector.success(this.peerSession);
+			this.connector.release();
+			final PeerDownloader peerDownloader = PeerDownloader.newInstance(this.peerSession, this.torrentSession, peerSubMessageHandler);
+			try {
+				peerDownloader.handshake();
+			} catch (Exception e) {
+				LOGGER.error("Peer握手异常", e);
+				peerDownloader.release();
+				this.callback.accept(null);
+				return;
+			}
+			this.callback.accept(peerDownloader);
+		}
+		
+		/**
+		 * <p>连接失败</p>
+		 */
+		private void fail() {
+			this.peerSession.incrementFailTimes();
+			this.connector.fail(this.peerSession);
+			this.connector.release();
+			this.callback.accept(null);
+		}
+	
+	}
+
+}
@@ -2,8 +2,8 @@ package com.acgist.snail.net.torrent.peer;
 
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.LinkedBlockingQueue;
-import java.util.concurrent.Semaphore;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -24,6 +24,7 @@ import com.acgist.snail.utils.ThreadUtils;
  * 	<dd>创建PeerDownloader</dd>
  * 	<dd>剔除劣质PeerDownloader</dd>
  * </dl>
+ * <p>PeerDownloader通过{@link PeerConnector}异步创建：不会阻塞线程等待连接</p>
  * 
  * @author acgist
  */
@@ -32,10 +33,10 @@ public final class PeerDownloaderGroup {
 	private static final Logger LOGGER = LoggerFactory.getLogger(PeerDownloaderGroup.class);
 	
 	/**
-	 * <p>同时创建PeerDownloader数量：{@value}</p>
-	 * <p>如果TorrentSession线程池是固定线程池，请不要超过线程池大小。</p>
+	 * <p>同时连接Peer倍数：{@value}</p>
+	 * <p>同时连接Peer数量：缺少PeerDownloader数量 * 倍数（大部分Peer不能连接）</p>
 	 */
-	private static final int BUILD_SIZE = 3;
+	private static final int BUILD_FACTOR = 4;
 	/**
 	 * <p>单次创建PeerDownloader最大数量：{@value}</p>
 	 * <p>包含失败次数</p>
@@ -43,13 +44,13 @@ public final class PeerDownloaderGroup {
 	private static final int MAX_BUILD_SIZE = 64;
 	
 	/**
-	 * <p>是否继续创建PeerDownloader</p>
+	 * <p>是否已经释放</p>
 	 */
-	private final AtomicBoolean build = new AtomicBoolean(false);
+	private final AtomicBoolean released = new AtomicBoolean(false);
 	/**
-	 * <p>创建PeerDownloader信号量</p>
+	 * <p>连接中的Peer数量</p>
 	 */
-	private final Semaphore buildSemaphore = new Semaphore(BUILD_SIZE);
+	private final AtomicInteger connecting = new AtomicInteger(0);
 	/**
 	 * <p>PeerDownloader队列</p>
 	 */
@@ -105,8 +106,8 @@ public final class PeerDownloaderGroup {
 	 */
 	public void release() {
 		LOGGER.debug("释放PeerDownloaderGroup");
-		// 解除信号量：防止暂停任务时正在执行优化任务导致获取不到锁进而卡死暂停任务操作
-		this.release(false);
+		// 连接中的Peer连接成功后直接释放
+		this.released.set(true);
 		synchronized (this.peerDownloaders) {
 			this.peerDownloaders.forEach(downloader -> {
 				SystemThreadContext.submit(downloader::release);
@@ -134,34 +135,41 @@ public final class PeerDownloaderGroup {
 	
 	/**
 	 * <p>创建PeerDownloader列表</p>
-	 * <p>创建数量达到最大Peer连接数量或者创建次数超过{@link #MAX_BUILD_SIZE}时退出创建</p>
+	 * <p>从Peer队列尾部拿出Peer异步连接：连接成功加入下载队列，失败后插入Peer队列头部。</p>
+	 * <dl>
+	 * 	<dt>跳出创建循环条件</dt>
+	 * 	<dd>任务不处于下载状态</dd>
+	 * 	<dd>连接中的Peer数量达到限制</dd>
+	 * 	<dd>不能查找到更多的Peer</dd>
+	 * 	<dd>超过全局连接限制</dd>
+	 * 	<dd>创建次数超过{@link #MAX_BUILD_SIZE}</dd>
+	 * </dl>
 	 */
 	private void buildPeerDownloaders() {
 		LOGGER.debug("创建PeerDownloader");
 		int size = 0;
-		// 重置创建状态
-		this.build.set(true);
-		// 重置信号量
-		this.buildSemaphore.drainPermits();
-		this.buildSemaphore.release(BUILD_SIZE);
-		while(this.build.get()) {
-			this.acquire();
-			if(!this.build.get()) {
-				LOGGER.debug("不能继续创建PeerDownloader：退出循环");
+		final PeerContext peerContext = PeerContext.getInstance();
+		final PeerConnector peerConnector = PeerConnector.getInstance();
+		final String infoHashHex = this.torrentSession.infoHashHex();
+		while(size++ < MAX_BUILD_SIZE) {
+			if(!this.taskSession.statusDownload()) {
 				break;
 			}
-			this.torrentSession.submit(() -> {
-				boolean success = true;
-				try {
-					success = this.buildPeerDownloader();
-				} catch (Exception e) {
-					LOGGER.error("创建PeerDownloader异常", e);
-				} finally {
-					this.release(success);
-				}
-			});
-			if(++size >= MAX_BUILD_SIZE) {
-				LOGGER.debug("超过PeerDownloader单次最大创建数量：退出循环");
+			final int buildSize = (SystemConfig.getPeerSize() - this.peerDownloaders.size()) * BUILD_FACTOR;
+			if(this.connecting.get() >= buildSize) {
+				break;
+			}
+			final PeerSession peerSession = peerContext.pick(infoHashHex);
+			if(peerSession == null) {
+				LOGGER.debug("没有可用Peer进行下载");
+				break;
+			}
+			this.connecting.incrementAndGet();
+			if(!peerConnector.connect(peerSession, this.torrentSession, peerDownloader -> this.buildPeerDownloader(peerSession, peerDownloader))) {
+				this.connecting.decrementAndGet();
+				// 没有连接：放回队列尾部
+				peerContext.preference(infoHashHex, peerSession);
+				LOGGER.debug("超过Peer连接限制：退出循环");
 				break;
 			}
 		}
@@ -169,39 +177,34 @@ public final class PeerDownloaderGroup {
 	
 	/**
 	 * <p>创建PeerDownloader</p>
-	 * <p>从Peer队列尾部拿出一个Peer创建下载，失败后插入Peer队列头部。</p>
-	 * <dl>
-	 * 	<dt>跳出创建循环条件</dt>
-	 * 	<dd>任务不处于下载状态</dd>
-	 * 	<dd>下载队列的Peer数量大于等于配置的最大数量</dd>
-	 * 	<dd>不能查找到更多的Peer</dd>
-	 * </dl>
+	 * <p>Peer连接回调：连接成功加入下载队列，连接失败插入Peer队列头部。</p>
+	 * <p>任务已经停止或者下载队列已满：释放PeerDownloader并插入Peer队列尾部</p>
 	 * 
-	 * @return 创建状态：true-继续；false-停止；
+	 * @param peerSession Peer信息
+	 * @param peerDownloader PeerDownloader（连接失败：null）
 	 */
-	private boolean buildPeerDownloader() {
-		if(!this.taskSession.statusDownload()) {
-			return false;
-		}
-		if(this.peerDownloaders.size() >= SystemConfig.getPeerSize()) {
-			return false;
+	private void buildPeerDownloader(PeerSession peerSession, PeerDownloader peerDownloader) {
+		this.connecting.decrementAndGet();
+		final String infoHashHex = this.torrentSession.infoHashHex();
+		if(peerDownloader == null) {
+			// 失败后需要放回队列
+			PeerContext.getInstance().inferior(infoHashHex, peerSession);
+			return;
 		}
-		final PeerSession peerSession = PeerContext.getInstance().pick(this.torrentSession.infoHashHex());
-		if(peerSession != null) {
-			final PeerDownloader peerDownloader = PeerDownloader.newInstance(peerSession, this.torrentSession);
-			final boolean success = peerDownloader.handshake();
-			if(success) {
+		synchronized (this.peerDownloaders) {
+			if(
+				!this.released.get() &&
+				this.taskSession.statusDownload() &&
+				this.peerDownloaders.size() < SystemConfig.getPeerSize()
+			) {
 				peerSession.status(PeerConfig.STATUS_DOWNLOAD);
 				this.offer(peerDownloader);
-			} else {
-				// 失败后需要放回队列
-				PeerContext.getInstance().inferior(this.torrentSession.infoHashHex(), peerSession);
+				return;
 			}
-			return true;
-		} else {
-			LOGGER.debug("没有可用Peer进行下载");
-			return false;
 		}
+		LOGGER.debug("释放PeerDownloader（不需要下载）：{}-{}", peerSession.host(), peerSession.port());
+		SystemThreadContext.submit(peerDownloader::release);
+		PeerContext.getInstance().preference(infoHashHex, peerSession);
 	}
 	
 	/**
@@ -286,27 +289,5 @@ public final class PeerDownloaderGroup {
 			PeerContext.getInstance().inferior(this.torrentSession.infoHashHex(), peerSession);
 		}
 	}
-	
-	/**
-	 * <p>获取信号量</p>
-	 */
-	private void acquire() {
-		try {
-			this.buildSemaphore.acquire();
-		} catch (InterruptedException e) {
-			Thread.currentThread().interrupt();
-			LOGGER.debug("信号量获取异常", e);
-		}
-	}
-	
-	/**
-	 * <p>释放信号量：设置创建状态</p>
-	 * 
-	 * @param build 是否继续创建
-	 */
-	private void release(boolean build) {
-		this.build.set(build);
-		this.buildSemaphore.release();
-	}
 
 }
@@ -0,0 +1,321 @@
+package com.acgist.snail.net.torrent.peer;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.acgist.snail.config.SystemConfig;
+import com.acgist.snail.pojo.bean.TorrentPiece;
+import com.acgist.snail.pojo.session.TorrentSession;
+
+/**
+ * <p>下载中Piece共享表（协作下载、Endgame）</p>
+ * <p>记录所有下载中的Piece和每个Slice状态：没有请求、已经请求（请求Peer）、已经下载（{@link TorrentPiece#hasSlice(int)}）。</p>
+ * <p>多个Peer可以同时下载同一个Piece的不同Slice：所有Slice下载完成后由收到最后数据的Peer提交校验保存。</p>
+ * <p>协作下载：Peer可以加入下载速度低于自己的Peer下载中的Piece，只能请求没有请求的Slice。</p>
+ * <p>Endgame：没有可以选择的Piece时Peer加入其他Peer下载中的Piece，同一个Slice允许{@link SystemConfig#getPieceRepeatSize()}个Peer重复请求。</p>
+ * <p>同一个Slice最先到达的数据有效，然后向其他请求这个Slice的Peer发送cancel消息。</p>
+ * <p>边下边播：风险Piece没有进入Endgame也允许重复请求</p>
+ * 
+ * @author acgist
+ */
+public final class PeerEndgame {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(PeerEndgame.class);
+	
+	/**
+	 * <p>下载中的Piece</p>
+	 * <p>Piece=Piece下载状态</p>
+	 */
+	private final Map<TorrentPiece, PieceState> pieces;
+	/**
+	 * <p>BT任务信息</p>
+	 */
+	private final TorrentSession torrentSession;
+	
+	/**
+	 * @param torrentSession BT任务信息
+	 */
+	private PeerEndgame(TorrentSession torrentSession) {
+		this.pieces = new HashMap<>();
+		this.torrentSession = torrentSession;
+	}
+	
+	/**
+	 * <p>创建下载中Piece共享表</p>
+	 * 
+	 * @param torrentSession BT任务信息
+	 * 
+	 * @return 下载中Piece共享表
+	 */
+	public static final PeerEndgame newInstance(TorrentSession torrentSession) {
+		return new PeerEndgame(torrentSession);
+	}
+	
+	/**
+	 * <p>生成Slice标识</p>
+	 * 
+	 * @param index Piece索引
+	 * @param begin Piece偏移
+	 * 
+	 * @return Slice标识
+	 */
+	public static final long key(int index, int begin) {
+		return ((long) index << 32) | (begin & 0xFFFFFFFFL);
+	}
+	
+	/**
+	 * <p>添加下载中的Piece</p>
+	 * 
+	 * @param peerConnect 选择Piece的Peer
+	 * @param piece Piece
+	 */
+	public void register(PeerConnect peerConnect, TorrentPiece piece) {
+		synchronized (this) {
+			this.pieces.computeIfAbsent(piece, key -> new PieceState()).peers.put(peerConnect, Boolean.FALSE);
+		}
+	}
+	
+	/**
+	 * <p>删除下载中的Piece</p>
+	 * <p>Piece下载完成时调用</p>
+	 * 
+	 * @param piece Piece
+	 */
+	public void unregister(TorrentPiece piece) {
+		synchronized (this) {
+			this.pieces.remove(piece);
+		}
+	}
+	
+	/**
+	 * <p>加入下载中的Piece</p>
+	 * <p>选择Peer拥有、没有加入并且含有可以请求Slice的Piece，优先选择可以请求Slice最多的Piece。</p>
+	 * <p>Endgame或者边下边播风险Piece：允许重复请求</p>
+	 * <p>其他Piece：所有下载Peer速度低于加入Peer时才能加入，只能请求没有请求的Slice。</p>
+	 * 
+	 * @param peerConnect 加入Peer
+	 * @param peerPieces Peer已下载Piece位图
+	 * @param exclude 已经加入的Piece
+	 * 
+	 * @return Piece（增加引用）；没有可以加入的Piece：null
+	 */
+	public TorrentPiece join(PeerConnect peerConnect, BitSet peerPieces, Collection<TorrentPiece> exclude) {
+		final long rate = peerConnect.rate();
+		synchronized (this) {
+			final long downloadSize = this.pieces.keySet().stream().mapToInt(TorrentPiece::getIndex).distinct().count();
+			if(downloadSize == 0) {
+				return null;
+			}
+			// 没有可以选择的Piece：进入Endgame
+			final boolean endgame = this.torrentSession.remainingPieceSize() <= downloadSize;
+			final BitSet riskPieces = endgame ? null : this.torrentSession.riskPieces();
+			final int repeatSize = SystemConfig.getPieceRepeatSize();
+			TorrentPiece joinPiece = null;
+			boolean joinRepeat = false;
+			int joinSize = 0;
+			for (Map.Entry<TorrentPiece, PieceState> entry : this.pieces.entrySet()) {
+				final TorrentPiece piece = entry.getKey();
+				final PieceState state = entry.getValue();
+				if(
+					state.peers.containsKey(peerConnect) ||
+					exclude.contains(piece) ||
+					!peerPieces.get(piece.getIndex())
+				) {
+					continue;
+				}
+				final boolean repeat = endgame || riskPieces.get(piece.getIndex());
+				if(!repeat && state.maxRate() >= rate) {
+					continue;
+				}
+				final int size = state.requestableSize(piece, repeat ? repeatSize : 1);
+				if(size > joinSize) {
+					joinSize = size;
+					joinPiece = piece;
+					joinRepeat = repeat;
+				}
+			}
+			if(joinPiece == null || !joinPiece.retain()) {
+				return null;
+			}
+			this.pieces.get(joinPiece).peers.put(peerConnect, joinRepeat);
+			LOGGER.debug("加入下载中的Piece：{}-{}-{}", joinPiece.getIndex(), joinSize, joinRepeat);
+			return joinPiece;
+		}
+	}
+	
+	/**
+	 * <p>请求Slice</p>
+	 * <p>优先选择没有请求的Slice，允许重复请求时选择请求Peer数量没有超过{@link SystemConfig#getPieceRepeatSize()}的Slice。</p>
+	 * 
+	 * @param peerConnect 请求Peer
+	 * @param piece Piece
+	 * 
+	 * @return Slice索引；没有可以请求的Slice：-1
+	 * 
+	 * @see TorrentPiece#sliceBegin(int)
+	 * @see TorrentPiece#sliceLength(int)
+	 */
+	public int request(PeerConnect peerConnect, TorrentPiece piece) {
+		if(piece.completed()) {
+			return -1;
+		}
+		final BitSet slices = piece.missingSlices();
+		synchronized (this) {
+			final PieceState state = this.pieces.get(piece);
+			if(state == null) {
+				return -1;
+			}
+			final Boolean repeat = state.peers.get(peerConnect);
+			if(repeat == null) {
+				return -1;
+			}
+			int select = -1;
+			int selectSize = repeat ? SystemConfig.getPieceRepeatSize() : 1;
+			for (int slice = slices.nextSetBit(0); slice >= 0; slice = slices.nextSetBit(slice + 1)) {
+				final List<PeerConnect> list = state.requests.get(slice);
+				if(list == null) {
+					select = slice;
+					break;
+				}
+				if(list.size() < selectSize && !list.contains(peerConnect)) {
+					select = slice;
+					selectSize = list.size();
+				}
+			}
+			if(select >= 0) {
+				state.requests.computeIfAbsent(select, key -> new ArrayList<>()).add(peerConnect);
+			}
+			return select;
+		}
+	}
+	
+	/**
+	 * <p>收到Slice数据</p>
+	 * <p>最先到达的数据有效：取消其他Peer请求</p>
+	 * 
+	 * @param peerConnect 发送数据Peer
+	 * @param piece Piece
+	 * @param begin Piece偏移
+	 * @param length 数据长度
+	 */
+	public void piece(PeerConnect peerConnect, TorrentPiece piece, int begin, int length) {
+		final List<PeerConnect> list;
+		synchronized (this) {
+			final PieceState state = this.pieces.get(piece);
+			if(state == null) {
+				return;
+			}
+			list = state.requests.remove((begin - piece.getBegin()) / TorrentPiece.SLICE_LENGTH);
+		}
+		if(list == null) {
+			return;
+		}
+		list.stream()
+			.filter(cancel -> cancel != peerConnect)
+			.forEach(cancel -> cancel.cancel(piece.getIndex(), begin, length));
+	}
+	
+	/**
+	 * <p>离开下载中的Piece</p>
+	 * <p>Peer放弃下载时调用：请求中的Slice其他Peer可以继续请求</p>
+	 * 
+	 * @param peerConnect 离开Peer
+	 * @param piece Piece
+	 * 
+	 * @return 是否没有其他下载Peer（需要标记下载失败）
+	 */
+	public boolean leave(PeerConnect peerConnect, TorrentPiece piece) {
+		synchronized (this) {
+			final PieceState state = this.pieces.get(piece);
+			if(state == null) {
+				return false;
+			}
+			state.peers.remove(peerConnect);
+			state.requests.values().removeIf(list -> {
+				list.remove(peerConnect);
+				return list.isEmpty();
+			});
+			if(state.peers.isEmpty()) {
+				this.pieces.remove(piece);
+				return true;
+			}
+			return false;
+		}
+	}
+	
+	/**
+	 * <p>释放资源</p>
+	 */
+	public void release() {
+		LOGGER.debug("释放下载中Piece共享表：{}", this.torrentSession.infoHashHex());
+		synchronized (this) {
+			this.pieces.clear();
+		}
+	}
+	
+	/**
+	 * <p>Piece下载状态</p>
+	 * 
+	 * @author acgist
+	 */
+	private static final class PieceState {
+		
+		/**
+		 * <p>下载Peer</p>
+		 * <p>下载Peer=是否允许重复请求</p>
+		 */
+		private final Map<PeerConnect, Boolean> peers;
+		/**
+		 * <p>请求中的Slice</p>
+		 * <p>Slice索引=请求Peer</p>
+		 */
+		private final Map<Integer, List<PeerConnect>> requests;
+		
+		private PieceState() {
+			this.peers = new LinkedHashMap<>();
+			this.requests = new HashMap<>();
+		}
+		
+		/**
+		 * <p>获取下载Peer最大下载速度</p>
+		 * 
+		 * @return 最大下载速度
+		 */
+		private long maxRate() {
+			return this.peers.keySet().stream()
+				.mapToLong(PeerConnect::rate)
+				.max()
+				.orElse(0L);
+		}
+		
+		/**
+		 * <p>获取可以请求的Slice数量</p>
+		 * 
+		 * @param piece Piece
+		 * @param repeatSize 每个Slice最大请求Peer数量
+		 * 
+		 * @return 可以请求的Slice数量
+		 */
+		private int requestableSize(TorrentPiece piece, int repeatSize) {
+			int size = 0;
+			final BitSet slices = piece.missingSlices();
+			for (int slice = slices.nextSetBit(0); slice >= 0; slice = slices.nextSetBit(slice + 1)) {
+				final List<PeerConnect> list = this.requests.get(slice);
+				if(list == null || list.size() < repeatSize) {
+					size++;
+				}
+			}
+			return size;
+		}
+	
+	}
+
+}
@@ -52,8 +52,11 @@ public final class PeerMessageHandler extends TcpMessageHandler implements IMess
 	
 	@Override
 	public void sendEncrypt(ByteBuffer buffer, int timeout) throws NetException {
-		this.messageEncoder.encode(buffer);
-		this.send(buffer, timeout);
+		// 加密和加入发送队列必须原子执行：多个线程发送消息时保证加密顺序和发送顺序一致
+		synchronized (this.messageEncoder) {
+			this.messageEncoder.encode(buffer);
+			this.send(buffer, timeout);
+		}
 	}
 	
 	@Override
@@ -0,0 +1,201 @@
+package com.acgist.snail.net.torrent.peer;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+import com.acgist.snail.config.SystemConfig;
+import com.acgist.snail.pojo.bean.TorrentPiece;
+
+/**
+ * <p>Peer请求管道</p>
+ * <p>根据下载速度和往返时间（带宽时延积）计算请求队列深度：保证Piece切换时请求队列不会出现空闲</p>
+ * <p>往返时间使用窗口内最小值：排除Peer排队时间，防止队列越长往返时间越大。</p>
+ * 
+ * @author acgist
+ */
+public final class PeerRequestPipeline {
+
+	/**
+	 * <p>最小队列深度：{@value}</p>
+	 */
+	public static final int MIN_DEPTH = 2;
+	/**
+	 * <p>最大队列深度：{@value}</p>
+	 */
+	public static final int MAX_DEPTH = 64;
+	/**
+	 * <p>UTP最大队列深度：{@value}</p>
+	 * <p>注：过大会导致UTP信号量阻塞</p>
+	 */
+	public static final int MAX_UTP_DEPTH = 16;
+	/**
+	 * <p>队列深度放大比例：{@value}</p>
+	 * <p>队列深度限制下载速度：放大后下次统计速度可以继续增长</p>
+	 */
+	private static final int DEPTH_SCALE = 150;
+	/**
+	 * <p>速度统计间隔（毫秒）：{@value}</p>
+	 */
+	private static final long RATE_INTERVAL = SystemConfig.ONE_SECOND_MILLIS;
+	/**
+	 * <p>往返时间统计窗口（次数）：{@value}</p>
+	 */
+	private static final int RTT_WINDOW = 64;
+	
+	/**
+	 * <p>最大队列深度</p>
+	 */
+	private final int maxDepth;
+	/**
+	 * <p>请求发送时间</p>
+	 * <p>Peer按照请求顺序响应</p>
+	 */
+	private final Deque<Long> requestTimes;
+	/**
+	 * <p>往返时间（毫秒）</p>
+	 */
+	private long rtt;
+	/**
+	 * <p>当前窗口最小往返时间（毫秒）</p>
+	 */
+	private long windowRtt;
+	/**
+	 * <p>当前窗口统计次数</p>
+	 */
+	private int windowSize;
+	/**
+	 * <p>下载速度（B/S）</p>
+	 */
+	private long rate;
+	/**
+	 * <p>当前速度统计开始时间</p>
+	 */
+	private long rateTime;
+	/**
+	 * <p>当前速度统计数据大小</p>
+	 */
+	private long rateSize;
+	
+	/**
+	 * @param maxDepth 最大队列深度
+	 */
+	private PeerRequestPipeline(int maxDepth) {
+		this.maxDepth = Math.max(MIN_DEPTH, maxDepth);
+		this.requestTimes = new ArrayDeque<>();
+		this.windowRtt = Long.MAX_VALUE;
+	}
+	
+	/**
+	 * <p>创建Peer请求管道</p>
+	 * 
+	 * @param maxDepth 最大队列深度
+	 * 
+	 * @return Peer请求管道
+	 */
+	public static final PeerRequestPipeline newInstance(int maxDepth) {
+		return new PeerRequestPipeline(maxDepth);
+	}
+	
+	/**
+	 * <p>记录发送请求</p>
+	 */
+	public void request() {
+		this.request(System.currentTimeMillis());
+	}
+	
+	/**
+	 * <p>记录发送请求</p>
+	 * 
+	 * @param time 发送时间
+	 */
+	synchronized void request(long time) {
+		this.requestTimes.offer(time);
+	}
+	
+	/**
+	 * <p>记录收到响应</p>
+	 * 
+	 * @param length 数据大小
+	 */
+	public void response(int length) {
+		this.response(length, System.currentTimeMillis());
+	}
+	
+	/**
+	 * <p>记录收到响应</p>
+	 * 
+	 * @param length 数据大小
+	 * @param time 收到时间
+	 */
+	synchronized void response(int length, long time) {
+		final Long requestTime = this.requestTimes.poll();
+		if(requestTime != null) {
+			final long sample = Math.max(1L, time - requestTime);
+			if(this.rtt == 0L) {
+				this.rtt = sample;
+			}
+			this.windowRtt = Math.min(this.windowRtt, sample);
+			if(++this.windowSize >= RTT_WINDOW) {
+				this.rtt = this.windowRtt;
+				this.windowRtt = Long.MAX_VALUE;
+				this.windowSize = 0;
+			} else {
+				this.rtt = Math.min(this.rtt, this.windowRtt);
+			}
+		}
+		if(this.rateTime == 0L) {
+			this.rateTime = time;
+		}
+		this.rateSize += length;
+		final long interval = time - this.rateTime;
+		if(interval >= RATE_INTERVAL) {
+			final long sample = this.rateSize * SystemConfig.ONE_SECOND_MILLIS / interval;
+			// 平滑速度
+			this.rate = this.rate == 0L ? sample : (this.rate * 3 + sample) / 4;
+			this.rateTime = time;
+			this.rateSize = 0L;
+		}
+	}
+	
+	/**
+	 * <p>重置请求</p>
+	 * <p>请求超时或者丢弃请求后调用：已经发送的请求不再统计往返时间</p>
+	 */
+	public synchronized void reset() {
+		this.requestTimes.clear();
+	}
+	
+	/**
+	 * <p>获取队列深度</p>
+	 * <p>队列深度 = 下载速度 * 往返时间 / Slice大小</p>
+	 * 
+	 * @return 队列深度
+	 */
+	public synchronized int depth() {
+		if(this.rate == 0L || this.rtt == 0L) {
+			return MIN_DEPTH;
+		}
+		final long bdp = this.rate * this.rtt / SystemConfig.ONE_SECOND_MILLIS;
+		final long depth = bdp * DEPTH_SCALE / 100 / TorrentPiece.SLICE_LENGTH + 1;
+		return (int) Math.max(MIN_DEPTH, Math.min(this.maxDepth, depth));
+	}
+	
+	/**
+	 * <p>获取往返时间（毫秒）</p>
+	 * 
+	 * @return 往返时间
+	 */
+	public synchronized long rtt() {
+		return this.rtt;
+	}
+	
+	/**
+	 * <p>获取下载速度（B/S）</p>
+	 * 
+	 * @return 下载速度
+	 */
+	public synchronized long rate() {
+		return this.rate;
+	}
+
+}
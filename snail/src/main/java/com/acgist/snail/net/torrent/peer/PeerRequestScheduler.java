@@ -0,0 +1,142 @@
+package com.acgist.snail.net.torrent.peer;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.acgist.snail.config.SystemConfig;
+import com.acgist.snail.context.SystemThreadContext;
+import com.acgist.snail.pojo.session.TorrentSession;
+
+/**
+ * <p>Peer请求调度器</p>
+ * <p>收到piece、unchoke、have等消息时提交调度任务，由固定数量的调度线程决定发送哪些请求，不会阻塞等待响应。</p>
+ * <p>同一个Peer同一时间只有一个调度任务执行，调度期间收到的事件合并后重新调度。</p>
+ * <p>定时调度所有下载中的Peer：检查请求超时、等待超时和磁盘繁忙重试</p>
+ * <p>定时计算每个任务下载中的Peer平均下载速度：边下边播选择截止时间Piece</p>
+ * <p>调度任务不能阻塞：连接不能发送消息（UTP发送窗口已满）时延迟重新调度</p>
+ * <p>调度线程数量固定：不会随Peer数量增加</p>
+ * 
+ * @author acgist
+ */
+public final class PeerRequestScheduler {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(PeerRequestScheduler.class);
+	
+	private static final PeerRequestScheduler INSTANCE = new PeerRequestScheduler();
+	
+	public static final PeerRequestScheduler getInstance() {
+		return INSTANCE;
+	}
+	
+	/**
+	 * <p>定时调度时间（毫秒）：{@value}</p>
+	 */
+	private static final long TICK_INTERVAL = SystemConfig.ONE_SECOND_MILLIS;
+	/**
+	 * <p>重新调度时间（毫秒）：{@value}</p>
+	 */
+	private static final long RETRY_INTERVAL = 50L;
+	
+	/**
+	 * <p>调度线程池</p>
+	 * <p>线程数量：CPU核心数量（最少两个）</p>
+	 */
+	private final ExecutorService executor;
+	/**
+	 * <p>定时调度线程池</p>
+	 */
+	private final ScheduledExecutorService timer;
+	/**
+	 * <p>下载中的Peer</p>
+	 */
+	private final Set<PeerConnect> peerConnects;
+	
+	private PeerRequestScheduler() {
+		final int poolSize = Math.max(2, Runtime.getRuntime().availableProcessors());
+		LOGGER.debug("启动Peer请求调度器：{}", poolSize);
+		this.executor = SystemThreadContext.newExecutor(poolSize, poolSize, Short.MAX_VALUE, 60L, SystemThreadContext.SNAIL_THREAD_BT_SCHEDULER);
+		this.timer = SystemThreadContext.newTimerExecutor(1, SystemThreadContext.SNAIL_THREAD_BT_SCHEDULER);
+		this.peerConnects = ConcurrentHashMap.newKeySet();
+		this.timer.scheduleWithFixedDelay(this::tick, TICK_INTERVAL, TICK_INTERVAL, TimeUnit.MILLISECONDS);
+	}
+	
+	/**
+	 * <p>添加下载中的Peer</p>
+	 * 
+	 * @param peerConnect Peer连接
+	 */
+	void register(PeerConnect peerConnect) {
+		this.peerConnects.add(peerConnect);
+	}
+	
+	/**
+	 * <p>删除下载中的Peer</p>
+	 * 
+	 * @param peerConnect Peer连接
+	 * 
+	 * @return 是否删除成功：已经删除返回false
+	 */
+	boolean unregister(PeerConnect peerConnect) {
+		return this.peerConnects.remove(peerConnect);
+	}
+	
+	/**
+	 * <p>提交调度任务</p>
+	 * 
+	 * @param runnable 调度任务
+	 */
+	void submit(Runnable runnable) {
+		this.executor.submit(runnable);
+	}
+	
+	/**
+	 * <p>延迟重新调度</p>
+	 * 
+	 * @param runnable 重新调度任务
+	 */
+	void retry(Runnable runnable) {
+		this.timer.schedule(runnable, RETRY_INTERVAL, TimeUnit.MILLISECONDS);
+	}
+	
+	/**
+	 * <p>定时调度所有下载中的Peer</p>
+	 */
+	private void tick() {
+		try {
+			// 任务=[Peer速度总和, 有速度的Peer数量]
+			final Map<TorrentSession, long[]> rates = new HashMap<>();
+			this.peerConnects.forEach(peerConnect -> {
+				peerConnect.schedule();
+				final long[] value = rates.computeIfAbsent(peerConnect.torrentSession, key -> new long[2]);
+				final long rate = peerConnect.rate();
+				if(rate > 0L) {
+					value[0] += rate;
+					value[1]++;
+				}
+			});
+			// 边下边播：Peer平均下载速度
+			rates.forEach((torrentSession, value) -> torrentSession.streamingRate(value[1] == 0L ? 0L : value[0] / value[1]));
+		} catch (Exception e) {
+			LOGGER.error("Peer定时调度异常", e);
+		}
+	}
+	
+	/**
+	 * <p>关闭Peer请求调度器</p>
+	 */
+	public void shutdown() {
+		LOGGER.debug("关闭Peer请求调度器");
+		SystemThreadContext.shutdownNow(this.timer);
+		SystemThreadContext.shutdown(this.executor);
+		this.peerConnects.clear();
+	}
+
+}
@@ -0,0 +1,221 @@
+package com.acgist.snail.net.torrent.peer;
+
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.acgist.snail.pojo.bean.TorrentPiece;
+import com.acgist.snail.pojo.session.PeerSession;
+import com.acgist.snail.pojo.session.TorrentSession;
+import com.acgist.snail.utils.DigestUtils;
+
+/**
+ * <p>SmartBan（错误数据Peer禁用）</p>
+ * <p>下载时记录每个Slice数据来源Peer，Piece校验失败时记录每个Slice数据Hash。</p>
+ * <p>重新下载Piece校验成功后比较Slice数据Hash：Hash不一致的Slice来源Peer发送了错误数据，禁用这个Peer并关闭连接。</p>
+ * 
+ * @author acgist
+ */
+public final class PeerSmartBan {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(PeerSmartBan.class);
+	
+	/**
+	 * <p>下载中的Piece数据来源</p>
+	 * <p>Piece索引=Slice来源Peer</p>
+	 */
+	private final Map<Integer, PeerSession[]> sources;
+	/**
+	 * <p>校验失败的Piece</p>
+	 * <p>Piece索引=校验失败Piece</p>
+	 */
+	private final Map<Integer, BadPiece> badPieces;
+	/**
+	 * <p>BT任务信息</p>
+	 */
+	private final TorrentSession torrentSession;
+	
+	/**
+	 * @param torrentSession BT任务信息
+	 */
+	private PeerSmartBan(TorrentSession torrentSession) {
+		this.sources = new HashMap<>();
+		this.badPieces = new HashMap<>();
+		this.torrentSession = torrentSession;
+	}
+	
+	/**
+	 * <p>创建SmartBan</p>
+	 * 
+	 * @param torrentSession BT任务信息
+	 * 
+	 * @return SmartBan
+	 */
+	public static final PeerSmartBan newInstance(TorrentSession torrentSession) {
+		return new PeerSmartBan(torrentSession);
+	}
+	
+	/**
+	 * <p>记录Slice数据来源</p>
+	 * <p>只记录最先到达的数据：调用者需要保证Slice没有下载</p>
+	 * 
+	 * @param piece Piece
+	 * @param begin Piece偏移
+	 * @param peerSession 来源Peer
+	 */
+	public void source(TorrentPiece piece, int begin, PeerSession peerSession) {
+		final int slice = (begin - piece.getBegin()) / TorrentPiece.SLICE_LENGTH;
+		synchronized (this) {
+			final PeerSession[] array = this.sources.computeIfAbsent(piece.getIndex(), index -> new PeerSession[sliceSize(piece)]);
+			if(slice >= 0 && slice < array.length) {
+				array[slice] = peerSession;
+			}
+		}
+	}
+	
+	/**
+	 * <p>Piece校验失败</p>
+	 * <p>记录每个Slice数据来源和数据Hash</p>
+	 * 
+	 * @param piece Piece
+	 */
+	public void fail(TorrentPiece piece) {
+		final PeerSession[] array;
+		synchronized (this) {
+			array = this.sources.remove(piece.getIndex());
+		}
+		if(array == null) {
+			return;
+		}
+		final byte[][] hashes = this.hashes(piece);
+		if(hashes == null) {
+			return;
+		}
+		synchronized (this) {
+			// 多次校验失败：保留第一次记录
+			this.badPieces.putIfAbsent(piece.getIndex(), new BadPiece(array, hashes));
+		}
+	}
+	
+	/**
+	 * <p>Piece校验成功</p>
+	 * <p>比较校验失败时记录的Slice数据Hash：禁用发送错误数据的Peer</p>
+	 * 
+	 * @param piece Piece
+	 */
+	public void success(TorrentPiece piece) {
+		final BadPiece badPiece;
+		synchronized (this) {
+			this.sources.remove(piece.getIndex());
+			badPiece = this.badPieces.remove(piece.getIndex());
+		}
+		if(badPiece == null) {
+			return;
+		}
+		final byte[][] hashes = this.hashes(piece);
+		if(hashes == null || hashes.length != badPiece.hashes.length) {
+			return;
+		}
+		for (int slice = 0; slice < hashes.length; slice++) {
+			final PeerSession peerSession = badPiece.sources[slice];
+			if(peerSession != null && !Arrays.equals(hashes[slice], badPiece.hashes[slice])) {
+				this.ban(peerSession, piece.getIndex());
+			}
+		}
+	}
+	
+	/**
+	 * <p>禁用Peer</p>
+	 * 
+	 * @param peerSession Peer信息
+	 * @param index Piece索引
+	 */
+	private void ban(PeerSession peerSession, int index) {
+		if(peerSession.banned()) {
+			return;
+		}
+		LOGGER.info("禁用Peer（发送错误数据）：{}-{}", peerSession, index);
+		peerSession.ban();
+		final PeerConnect peerConnect = peerSession.peerConnect();
+		if(peerConnect != null) {
+			peerConnect.release();
+		}
+	}
+	
+	/**
+	 * <p>计算每个Slice数据Hash</p>
+	 * 
+	 * @param piece Piece
+	 * 
+	 * @return Slice数据Hash；没有数据：null
+	 */
+	private byte[][] hashes(TorrentPiece piece) {
+		final int sliceSize = sliceSize(piece);
+		final byte[][] hashes = new byte[sliceSize][];
+		final MessageDigest digest = DigestUtils.sha1();
+		for (int slice = 0; slice < sliceSize; slice++) {
+			final ByteBuffer buffer = piece.buffer(slice * TorrentPiece.SLICE_LENGTH, piece.sliceLength(slice));
+			if(buffer == null) {
+				return null;
+			}
+			digest.update(buffer);
+			hashes[slice] = digest.digest();
+		}
+		return hashes;
+	}
+	
+	/**
+	 * <p>获取Piece的Slice数量</p>
+	 * 
+	 * @param piece Piece
+	 * 
+	 * @return Slice数量
+	 */
+	private static final int sliceSize(TorrentPiece piece) {
+		return (piece.getLength() + TorrentPiece.SLICE_LENGTH - 1) / TorrentPiece.SLICE_LENGTH;
+	}
+	
+	/**
+	 * <p>释放资源</p>
+	 */
+	public void release() {
+		LOGGER.debug("释放SmartBan：{}", this.torrentSession.infoHashHex());
+		synchronized (this) {
+			this.sources.clear();
+			this.badPieces.clear();
+		}
+	}
+	
+	/**
+	 * <p>校验失败Piece</p>
+	 * 
+	 * @author acgist
+	 */
+	private static final class BadPiece {
+		
+		/**
+		 * <p>Slice来源Peer</p>
+		 */
+		private final PeerSession[] sources;
+		/**
+		 * <p>Slice数据Hash</p>
+		 */
+		private final byte[][] hashes;
+		
+		/**
+		 * @param sources Slice来源Peer
+		 * @param hashes Slice数据Hash
+		 */
+		private BadPiece(PeerSession[] sources, byte[][] hashes) {
+			this.sources = sources;
+			this.hashes = hashes;
+		}
+	
+	}
+
+}
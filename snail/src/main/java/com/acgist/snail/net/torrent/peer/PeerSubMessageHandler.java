@@ -12,6 +12,7 @@ import com.acgist.snail.config.PeerConfig;
 import com.acgist.snail.config.PeerConfig.Type;
 import com.acgist.snail.config.SystemConfig;
 import com.acgist.snail.context.PeerContext;
+import com.acgist.snail.context.SystemThreadContext;
 import com.acgist.snail.context.TorrentContext;
 import com.acgist.snail.context.exception.NetException;
 import com.acgist.snail.net.codec.IMessageDecoder;
@@ -51,6 +52,10 @@ public final class PeerSubMessageHandler implements IMessageDecoder<ByteBuffer>,
 	 * <p>最大检查是否使用次数</p>
 	 */
 	private static final int MAX_USELESS_CHECK = 3;
+	/**
+	 * <p>TCP消息处理线程池繁忙延迟读取时间（毫秒）：{@value}</p>
+	 */
+	private static final long HANDLER_BUSY_DELAY = 200L;
 	
 	/**
 	 * <p>检查是否使用次数</p>
@@ -100,6 +105,13 @@ public final class PeerSubMessageHandler implements IMessageDecoder<ByteBuffer>,
 	 * <p>DHT扩展消息代理</p>
 	 */
 	private DhtExtensionMessageHandler dhtExtensionMessageHandler;
+	/**
+	 * <p>已经统计可用数量的Piece位图</p>
+	 * <p>断开连接时减少可用数量</p>
+	 * 
+	 * @see TorrentSession#availability(BitSet, int)
+	 */
+	private final BitSet availabilityPieces = new BitSet();
 	
 	/**
 	 * <p>服务端</p>
@@ -192,6 +204,10 @@ public final class PeerSubMessageHandler implements IMessageDecoder<ByteBuffer>,
 			null,
 			PeerConfig.Source.CONNECT
 		);
+		if(peerSession.banned()) {
+			LOGGER.debug("Peer接入失败：Peer已经禁用");
+			return false;
+		}
 		final PeerUploader peerUploader = torrentSession.newPeerUploader(peerSession, this);
 		if(peerUploader == null) {
 			return false;
@@ -619,8 +635,13 @@ public final class PeerSubMessageHandler implements IMessageDecoder<ByteBuffer>,
 		final int index = buffer.getInt();
 		LOGGER.debug("处理have消息：{}", index);
 		this.peerSession.piece(index);
+		final BitSet pieces = new BitSet();
+		pieces.set(index);
+		this.availability(pieces);
 		if(!this.torrentSession.hasPiece(index)) {
 			this.interested();
+			// 新的Piece可以下载：重新调度
+			this.unchokeDownload();
 		}
 	}
 
@@ -654,6 +675,7 @@ public final class PeerSubMessageHandler implements IMessageDecoder<ByteBuffer>,
 		LOGGER.debug("处理haveAll消息");
 		final BitSet allPieces = this.torrentSession.allPieces();
 		this.peerSession.pieces(allPieces);
+		this.availability(allPieces);
 		this.torrentSession.fullPieces();
 		if(!this.torrentSession.completed()) { // 任务没有完成发送感兴趣消息
 			this.interested();
@@ -677,6 +699,7 @@ public final class PeerSubMessageHandler implements IMessageDecoder<ByteBuffer>,
 	private void haveNone(ByteBuffer buffer) {
 		LOGGER.debug("处理haveAll消息");
 		this.peerSession.cleanPieces(); // 清空Peer所有Piece
+		this.unavailability();
 	}
 	
 	/**
@@ -883,6 +906,7 @@ public final class PeerSubMessageHandler implements IMessageDecoder<ByteBuffer>,
 		final BitSet pieces = BitfieldUtils.toBitSet(bytes); // Peer已下载Piece位图
 		LOGGER.debug("处理Piece位图消息：{}", pieces);
 		this.peerSession.pieces(pieces);
+		this.availability(pieces);
 		this.torrentSession.fullPieces(pieces);
 		final BitSet notHave = new BitSet(); // 没有下载的Piece位图
 		notHave.or(pieces);
@@ -953,11 +977,19 @@ public final class PeerSubMessageHandler implements IMessageDecoder<ByteBuffer>,
 		}
 		LOGGER.debug("处理request消息：{}-{}-{}", index, begin, length);
 		if(this.torrentSession.hasPiece(index)) {
-			try {
-				final byte[] bytes = this.torrentSession.read(index, begin, length);
-				this.piece(index, begin, bytes);
-			} catch (NetException e) {
-				LOGGER.error("处理request消息异常", e);
+			// 读取数据可能阻塞：不能阻塞通道线程
+			final boolean submit = SystemThreadContext.submitTcpHandler(() -> {
+				try {
+					this.piece(index, begin, length);
+				} catch (NetException e) {
+					LOGGER.error("处理request消息异常", e);
+				}
+			});
+			if(!submit) {
+				// 线程池繁忙：拒绝请求并且暂停读取消息，等待线程池处理完成。
+				LOGGER.debug("处理request消息：线程池繁忙");
+				this.rejectRequest(index, begin, length);
+				this.delayRead(HANDLER_BUSY_DELAY);
 			}
 		}
 	}
@@ -970,29 +1002,43 @@ public final class PeerSubMessageHandler implements IMessageDecoder<ByteBuffer>,
 	 * begin：Piece内偏移
 	 * X：block长度（默认16KB）
 	 * </pre>
+	 * <p>消息头部和Piece数据写入同一个缓冲区，Piece数据直接从缓存或者文件读取，不用多次复制。</p>
+	 * <p>TCP连接消息加入发送队列、UTP连接消息被窗口保存（重传），所以每次创建新的缓冲区。</p>
+	 * <p>读取数据可能阻塞：使用TCP消息处理线程池执行</p>
 	 * 
 	 * @param index Piece索引
 	 * @param begin Piece内偏移
-	 * @param bytes Piece数据
+	 * @param length 数据长度
+	 * 
+	 * @throws NetException 网络异常
 	 */
-	private void piece(int index, int begin, byte[] bytes) {
+	private void piece(int index, int begin, int length) throws NetException {
 		if(!this.torrentSession.uploadable()) {
 			LOGGER.debug("发送piece消息：任务不可上传");
 			return;
 		}
-		if(ArrayUtils.isEmpty(bytes)) {
+		if(length <= 0) {
 			LOGGER.debug("发送piece消息：数据为空");
 			return;
 		}
 		LOGGER.debug("发送piece消息：{}-{}", index, begin);
-		this.peerConnect.uploadMark(bytes.length);
-		final ByteBuffer buffer = ByteBuffer.allocate(8 + bytes.length);
+		// length_prefix + message_id + index + begin
+		final int capacity = 4 + 1 + 4 + 4 + length;
+		// 消息加入发送队列后不能修改：每条消息使用独立缓冲区
+		final ByteBuffer buffer = ByteBuffer.allocate(capacity);
+		buffer.putInt(capacity - 4);
+		buffer.put(PeerConfig.Type.PIECE.id());
 		buffer.putInt(index);
 		buffer.putInt(begin);
-		buffer.put(bytes);
-		this.pushMessage(PeerConfig.Type.PIECE, buffer.array());
+		if(!this.torrentSession.read(index, begin, length, buffer)) {
+			LOGGER.debug("发送piece消息：读取数据失败");
+			return;
+		}
+		buffer.flip();
+		this.peerConnect.uploadMark(length);
+		this.sendEncrypt(buffer);
 	}
-
+	
 	/**
 	 * <p>处理piece消息</p>
 	 * 
@@ -1006,13 +1052,10 @@ public final class PeerSubMessageHandler implements IMessageDecoder<ByteBuffer>,
 		final int index = buffer.getInt();
 		final int begin = buffer.getInt();
 		LOGGER.debug("处理piece消息：{}-{}", index, begin);
-		if(buffer.hasRemaining()) {
-			final byte[] bytes = new byte[buffer.remaining()];
-			buffer.get(bytes);
-			if(this.peerConnect != null) {
-				this.peerConnect.downloadMark(bytes.length);
-				this.peerConnect.piece(index, begin, bytes);
-			}
+		// 直接使用消息缓冲区：Slice数据只复制一次（写入Piece缓冲区）
+		if(buffer.hasRemaining() && this.peerConnect != null) {
+			this.peerConnect.downloadMark(buffer.remaining());
+			this.peerConnect.piece(index, begin, buffer);
 		}
 	}
 
@@ -1190,9 +1233,45 @@ public final class PeerSubMessageHandler implements IMessageDecoder<ByteBuffer>,
 	 * @see IMessageEncryptSender#close()
 	 */
 	public void close() {
+		this.unavailability();
 		this.messageEncryptSender.close();
 	}
 	
+	/**
+	 * <p>增加Piece可用数量</p>
+	 * <p>每个Piece每个连接只统计一次</p>
+	 * 
+	 * @param pieces Peer已下载Piece位图
+	 */
+	private void availability(BitSet pieces) {
+		if(this.torrentSession == null) {
+			return;
+		}
+		final BitSet newPieces = new BitSet();
+		synchronized (this.availabilityPieces) {
+			newPieces.or(pieces);
+			newPieces.andNot(this.availabilityPieces);
+			this.availabilityPieces.or(newPieces);
+		}
+		this.torrentSession.availability(newPieces, 1);
+	}
+	
+	/**
+	 * <p>减少Piece可用数量</p>
+	 * <p>Peer发送haveNone消息或者断开连接时调用</p>
+	 */
+	private void unavailability() {
+		if(this.torrentSession == null) {
+			return;
+		}
+		final BitSet oldPieces = new BitSet();
+		synchronized (this.availabilityPieces) {
+			oldPieces.or(this.availabilityPieces);
+			this.availabilityPieces.clear();
+		}
+		this.torrentSession.availability(oldPieces, -1);
+	}
+	
 	/**
 	 * <p>是否可用</p>
 	 * 
@@ -1204,6 +1283,39 @@ public final class PeerSubMessageHandler implements IMessageDecoder<ByteBuffer>,
 		return this.messageEncryptSender.available();
 	}
 	
+	/**
+	 * <p>判断是否可以发送消息（不会阻塞）</p>
+	 * 
+	 * @return 是否可以发送消息
+	 * 
+	 * @see IMessageEncryptSender#writable()
+	 */
+	public boolean writable() {
+		return this.messageEncryptSender.writable();
+	}
+	
+	/**
+	 * <p>延迟读取消息</p>
+	 * 
+	 * @param delay 延迟时间（毫秒）
+	 * 
+	 * @see IMessageEncryptSender#delayRead(long)
+	 */
+	public void delayRead(long delay) {
+		this.messageEncryptSender.delayRead(delay);
+	}
+	
+	/**
+	 * <p>延迟发送消息</p>
+	 * 
+	 * @param delay 延迟时间（毫秒）
+	 * 
+	 * @see IMessageEncryptSender#delayWrite(long)
+	 */
+	public void delayWrite(long delay) {
+		this.messageEncryptSender.delayWrite(delay);
+	}
+	
 	/**
 	 * <p>发送消息</p>
 	 * 
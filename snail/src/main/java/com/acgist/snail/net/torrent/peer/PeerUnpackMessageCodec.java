@@ -45,18 +45,21 @@ public final class PeerUnpackMessageCodec extends MessageCodec<ByteBuffer, ByteB
 		this.lengthStick = ByteBuffer.allocate(INT_BYTE_LENGTH);
 	}
 	
+	/**
+	 * {@inheritDoc}
+	 * 
+	 * <p>完整消息直接使用接收缓冲区切片（不复制），不完整消息复制到消息缓存等待后续数据。</p>
+	 * <p>注意：消息处理完成后接收缓冲区会被复用，消息处理器不能保存消息。</p>
+	 */
 	@Override
 	public void doDecode(ByteBuffer buffer, InetSocketAddress address) throws NetException {
 		// 消息数据长度
 		int length = 0;
-		while(true) {
+		while(buffer.hasRemaining()) {
 			if(this.buffer == null) {
 				if(this.peerSubMessageHandler.handshakeRecv()) {
-					for (int index = 0; index < buffer.limit() && buffer.hasRemaining(); index++) {
+					while(buffer.hasRemaining() && this.lengthStick.position() < INT_BYTE_LENGTH) {
 						this.lengthStick.put(buffer.get());
-						if(this.lengthStick.position() == INT_BYTE_LENGTH) {
-							break;
-						}
 					}
 					if(this.lengthStick.position() == INT_BYTE_LENGTH) {
 						this.lengthStick.flip();
@@ -73,46 +76,44 @@ public final class PeerUnpackMessageCodec extends MessageCodec<ByteBuffer, ByteB
 				// 心跳消息
 				if(length <= 0) {
 					this.peerSubMessageHandler.keepAlive();
-					if(buffer.hasRemaining()) {
-						// 还有消息：继续处理
-						continue;
-					} else {
-						// 没有消息：跳出循环
-						break;
-					}
+					continue;
 				}
 				PacketSizeException.verify(length);
+				if(buffer.remaining() >= length) {
+					// 包含一条完整消息：直接使用切片处理
+					final ByteBuffer message = this.slice(buffer, length);
+					this.doNext(message, address);
+					continue;
+				}
 				this.buffer = ByteBuffer.allocate(length);
-			} else {
-				// 上次消息没有读取完成：计算剩余消息数据长度
-				length = this.buffer.capacity() - this.buffer.position();
 			}
-			final int remaining = buffer.remaining();
-			if(remaining > length) {
-				// 包含一条完整消息：处理完成后继续读取
-				final byte[] bytes = new byte[length];
-				buffer.get(bytes);
-				this.buffer.put(bytes);
-				this.buffer.flip();
-				this.doNext(this.buffer, address);
-				this.buffer = null;
-			} else if(remaining == length) {
-				// 刚好一条完整消息：处理完成后跳出循环
-				final byte[] bytes = new byte[length];
-				buffer.get(bytes);
-				this.buffer.put(bytes);
-				this.buffer.flip();
-				this.doNext(this.buffer, address);
-				this.buffer = null;
-				break;
-			} else if(remaining < length) {
-				// 不是一条完整消息：跳出循环等待后续数据
-				final byte[] bytes = new byte[remaining];
-				buffer.get(bytes);
-				this.buffer.put(bytes);
+			// 不是一条完整消息：复制到消息缓存
+			this.buffer.put(this.slice(buffer, Math.min(this.buffer.remaining(), buffer.remaining())));
+			if(this.buffer.hasRemaining()) {
+				// 等待后续数据
 				break;
 			}
+			final ByteBuffer message = this.buffer;
+			this.buffer = null;
+			message.flip();
+			this.doNext(message, address);
 		}
 	}
+	
+	/**
+	 * <p>获取切片</p>
+	 * <p>切片和缓冲区共享数据，缓冲区跳过切片数据。</p>
+	 * 
+	 * @param buffer 缓冲区
+	 * @param length 切片长度
+	 * 
+	 * @return 切片
+	 */
+	private ByteBuffer slice(ByteBuffer buffer, int length) {
+		final ByteBuffer slice = buffer.slice();
+		slice.limit(length);
+		buffer.position(buffer.position() + length);
+		return slice;
+	}
 
 }
@@ -4,14 +4,20 @@ import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.nio.ByteBuffer;
 import java.util.List;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.acgist.snail.config.SystemConfig;
 import com.acgist.snail.config.UtpConfig;
+import com.acgist.snail.context.SystemThreadContext;
 import com.acgist.snail.context.exception.NetException;
 import com.acgist.snail.net.UdpMessageHandler;
 import com.acgist.snail.net.codec.IMessageEncoder;
@@ -61,6 +67,11 @@ public final class UtpMessageHandler extends UdpMessageHandler implements IMessa
 	 * <p>UTP扩展消息最小长度：{@value}</p>
 	 */
 	private static final int UTP_EXT_MIN_LENGTH = 2;
+	/**
+	 * <p>限速最大延迟时间（毫秒）：{@value}</p>
+	 * <p>延迟响应和延迟发送不能超过超时时间：防止对方或者自己重传</p>
+	 */
+	private static final long MAX_LIMIT_DELAY = 200L;
 	
 	/**
 	 * <p>是否连接</p>
@@ -95,6 +106,34 @@ public final class UtpMessageHandler extends UdpMessageHandler implements IMessa
 	 * <p>连接锁</p>
 	 */
 	private final AtomicBoolean connectLock;
+	/**
+	 * <p>异步连接回调</p>
+	 */
+	private final AtomicReference<Consumer<Boolean>> connectCallback;
+	/**
+	 * <p>异步连接超时任务</p>
+	 */
+	private volatile ScheduledFuture<?> connectTimeout;
+	/**
+	 * <p>允许响应时间（毫秒）</p>
+	 * 
+	 * @see #delayRead(long)
+	 */
+	private final AtomicLong readTime;
+	/**
+	 * <p>允许发送时间（毫秒）</p>
+	 * 
+	 * @see #delayWrite(long)
+	 */
+	private final AtomicLong writeTime;
+	/**
+	 * <p>是否存在延迟响应</p>
+	 */
+	private final AtomicBoolean ackDelay;
+	/**
+	 * <p>延迟响应时间戳</p>
+	 */
+	private volatile int ackTimestamp;
 	/**
 	 * <p>消息编码器</p>
 	 */
@@ -143,6 +182,10 @@ public final class UtpMessageHandler extends UdpMessageHandler implements IMessa
 		this.recvWindow = UtpWindow.newRecvInstance(this.messageDecoder);
 		this.ackLossTimes = new AtomicInteger(0);
 		this.connectLock = new AtomicBoolean(false);
+		this.connectCallback = new AtomicReference<>();
+		this.readTime = new AtomicLong(0L);
+		this.writeTime = new AtomicLong(0L);
+		this.ackDelay = new AtomicBoolean(false);
 		if(server) {
 			this.sendId = connectionId;
 			this.recvId = (short) (this.sendId + 1);
@@ -230,8 +273,47 @@ public final class UtpMessageHandler extends UdpMessageHandler implements IMessa
 	
 	@Override
 	public void sendEncrypt(ByteBuffer buffer, int timeout) throws NetException {
-		this.messageEncoder.encode(buffer);
-		this.sendPacket(buffer);
+		// 加密和发送必须原子执行：多个线程发送消息时保证加密顺序和发送顺序一致
+		synchronized (this.messageEncoder) {
+			this.messageEncoder.encode(buffer);
+			this.sendPacket(buffer);
+		}
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * 
+	 * <p>延迟响应：对方发送窗口没有释放不能继续发送数据</p>
+	 */
+	@Override
+	public void delayRead(long delay) {
+		if(delay > 0L) {
+			final long time = System.currentTimeMillis() + Math.min(delay, MAX_LIMIT_DELAY);
+			this.readTime.accumulateAndGet(time, Math::max);
+		}
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * 
+	 * <p>延迟发送数据包：数据包已经加入发送窗口，发送窗口占满后不能继续发送数据。</p>
+	 */
+	@Override
+	public void delayWrite(long delay) {
+		if(delay > 0L) {
+			final long time = System.currentTimeMillis() + Math.min(delay, MAX_LIMIT_DELAY);
+			this.writeTime.accumulateAndGet(time, Math::max);
+		}
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * 
+	 * <p>发送窗口已满时不能发送：发送数据需要等待窗口释放</p>
+	 */
+	@Override
+	public boolean writable() {
+		return this.sendWindow.writable();
 	}
 	
 	@Override
@@ -259,7 +341,13 @@ public final class UtpMessageHandler extends UdpMessageHandler implements IMessa
 			}
 			buffer.get(bytes);
 			final UtpWindowData windowData = this.sendWindow.build(bytes);
-			this.data(windowData);
+			final long delay = this.writeTime.get() - System.currentTimeMillis();
+			if(delay > 0L) {
+				// 限速：延迟发送
+				SystemThreadContext.timer(delay, TimeUnit.MILLISECONDS, () -> this.data(windowData));
+			} else {
+				this.data(windowData);
+			}
 		}
 	}
 	
@@ -280,6 +368,39 @@ public final class UtpMessageHandler extends UdpMessageHandler implements IMessa
 		return this.connect;
 	}
 	
+	/**
+	 * <p>异步连接</p>
+	 * <p>不会阻塞线程：收到响应或者超时后执行回调</p>
+	 * 
+	 * @param callback 连接回调：是否连接成功
+	 */
+	public void connect(Consumer<Boolean> callback) {
+		this.connect = false;
+		this.connectCallback.set(callback);
+		this.connectTimeout = SystemThreadContext.timer(SystemConfig.CONNECT_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS, this::connectCallback);
+		this.syn();
+	}
+	
+	/**
+	 * <p>执行异步连接回调</p>
+	 * <p>连接失败关闭连接</p>
+	 */
+	private void connectCallback() {
+		final Consumer<Boolean> callback = this.connectCallback.getAndSet(null);
+		if(callback == null) {
+			return;
+		}
+		final ScheduledFuture<?> timeout = this.connectTimeout;
+		if(timeout != null) {
+			timeout.cancel(false);
+		}
+		final boolean success = this.connect;
+		if(!success) {
+			this.close();
+		}
+		callback.accept(success);
+	}
+	
 	/**
 	 * <p>超时数据包重新发送</p>
 	 * 
@@ -336,7 +457,28 @@ public final class UtpMessageHandler extends UdpMessageHandler implements IMessa
 		} catch (IOException e) {
 			throw new NetException(e);
 		} finally {
+			this.ack(timestamp);
+		}
+	}
+	
+	/**
+	 * <p>响应数据消息</p>
+	 * <p>限速：延迟响应（合并多个数据消息响应）</p>
+	 * 
+	 * @param timestamp 时间戳
+	 */
+	private void ack(int timestamp) {
+		final long delay = this.readTime.get() - System.currentTimeMillis();
+		if(delay <= 0L) {
 			this.state(timestamp, this.recvWindow.seqnr()); // 最后一次处理的接收请求编号
+			return;
+		}
+		this.ackTimestamp = timestamp;
+		if(this.ackDelay.compareAndSet(false, true)) {
+			SystemThreadContext.timer(delay, TimeUnit.MILLISECONDS, () -> {
+				this.ackDelay.set(false);
+				this.state(this.ackTimestamp, this.recvWindow.seqnr());
+			});
 		}
 	}
 	
@@ -377,6 +519,7 @@ public final class UtpMessageHandler extends UdpMessageHandler implements IMessa
 			}
 			// 释放连接锁
 			this.unlockConnect();
+			this.connectCallback();
 		}
 		// 快速重传
 		final boolean loss = this.sendWindow.ack(acknr, wndSize); // 是否可能丢包
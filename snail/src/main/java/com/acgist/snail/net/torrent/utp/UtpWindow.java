@@ -449,6 +449,16 @@ public final class UtpWindow {
 		}
 	}
 	
+	/**
+	 * <p>判断是否可以发送数据</p>
+	 * <p>不会阻塞：窗口已满时发送数据需要等待信号量</p>
+	 * 
+	 * @return 是否可以发送数据
+	 */
+	public boolean writable() {
+		return this.close || this.semaphore.availablePermits() > 0;
+	}
+	
 	/**
 	 * <p>释放信号量</p>
 	 */
@@ -24,17 +24,23 @@ public interface IStatisticsSession extends ISpeedGetter, IStatisticsGetter {
 	
 	/**
 	 * <p>上传限速</p>
+	 * <p>不会阻塞线程：调用者根据等待时间延迟下一次发送</p>
 	 * 
 	 * @param buffer 上传数据大小
+	 * 
+	 * @return 等待时间（毫秒）：所有层级（上级）最大等待时间
 	 */
-	void uploadLimit(int buffer);
+	long uploadLimit(int buffer);
 	
 	/**
 	 * <p>下载限速</p>
+	 * <p>不会阻塞线程：调用者根据等待时间延迟下一次读取</p>
 	 * 
 	 * @param buffer 下载数据大小
+	 * 
+	 * @return 等待时间（毫秒）：所有层级（上级）最大等待时间
 	 */
-	void downloadLimit(int buffer);
+	long downloadLimit(int buffer);
 	
 	/**
 	 * <p>设置累计上传大小</p>
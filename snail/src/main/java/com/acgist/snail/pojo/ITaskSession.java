@@ -6,6 +6,7 @@ import java.util.Map;
 
 import com.acgist.snail.context.exception.DownloadException;
 import com.acgist.snail.downloader.IDownloader;
+import com.acgist.snail.pojo.session.BandwidthSession;
 
 /**
  * <p>任务信息接口</p>
@@ -88,6 +89,14 @@ public interface ITaskSession extends ITaskSessionStatus, ITaskSessionEntity, IT
 	 */
 	IDownloader downloader();
 	
+	/**
+	 * <p>获取任务带宽信息</p>
+	 * <p>可以随时修改权重和保证速度</p>
+	 * 
+	 * @return 任务带宽信息
+	 */
+	BandwidthSession bandwidthSession();
+	
 	/**
 	 * <p>创建下载器</p>
 	 * 
@@ -1,13 +1,19 @@
 package com.acgist.snail.pojo.bean;
 
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
 import java.util.Arrays;
+import java.util.BitSet;
 
 import com.acgist.snail.config.SystemConfig;
+import com.acgist.snail.context.PieceBufferContext;
 import com.acgist.snail.utils.DigestUtils;
 
 /**
  * <p>Piece下载信息</p>
  * <p>BT任务基于文件下载，当某个Piece处于两个文件交接处时会被分为两次下载。</p>
+ * <p>数据缓冲区第一次写入时从{@link PieceBufferContext}借出，引用计数为零时归还：选择Piece没有下载不用分配内存。</p>
+ * <p>创建时引用计数为一（下载Peer持有），文件流缓存Piece时增加引用，写入文件后减少引用。</p>
  * 
  * @author acgist
  */
@@ -40,8 +46,9 @@ public final class TorrentPiece {
 	private final int length;
 	/**
 	 * <p>数据</p>
+	 * <p>没有写入数据或者已经归还：null</p>
 	 */
-	private final byte[] data;
+	private ByteBuffer data;
 	/**
 	 * <p>校验数据</p>
 	 */
@@ -54,10 +61,19 @@ public final class TorrentPiece {
 	 * <p>已下载数据大小</p>
 	 */
 	private int size;
+	/**
+	 * <p>已下载Slice位图</p>
+	 * <p>多个Peer请求同一个Slice时忽略重复数据</p>
+	 */
+	private final BitSet slices;
 	/**
 	 * <p>Piece数据内偏移</p>
 	 */
 	private int position;
+	/**
+	 * <p>引用计数</p>
+	 */
+	private int reference;
 	
 	/**
 	 * @param pieceLength Piece大小
@@ -75,9 +91,11 @@ public final class TorrentPiece {
 		this.hash = hash;
 		this.verify = verify;
 		this.length = end - begin;
-		this.data = new byte[this.length];
+		this.data = null;
 		this.size = 0;
+		this.slices = new BitSet();
 		this.position = 0;
+		this.reference = 1;
 	}
 
 	/**
@@ -141,9 +159,68 @@ public final class TorrentPiece {
 	 * @return 是否还有更多的数据请求
 	 */
 	public boolean hasMoreSlice() {
+		synchronized (this) {
+			// 跳过已经下载的Slice：其他Peer已经下载
+			while(this.position < this.length && this.slices.get(this.position / SLICE_LENGTH)) {
+				this.position += SLICE_LENGTH;
+			}
+		}
 		return this.position < this.length;
 	}
 	
+	/**
+	 * <p>判断Slice是否已经下载</p>
+	 * 
+	 * @param begin Piece内开始偏移
+	 * 
+	 * @return 是否已经下载
+	 */
+	public boolean hasSlice(int begin) {
+		synchronized (this) {
+			return this.slices.get((begin - this.begin) / SLICE_LENGTH);
+		}
+	}
+	
+	/**
+	 * <p>获取没有下载的Slice位图</p>
+	 * 
+	 * @return 没有下载的Slice位图
+	 * 
+	 * @see #sliceBegin(int)
+	 * @see #sliceLength(int)
+	 */
+	public BitSet missingSlices() {
+		final int sliceSize = (this.length + SLICE_LENGTH - 1) / SLICE_LENGTH;
+		final BitSet missingSlices = new BitSet(sliceSize);
+		missingSlices.set(0, sliceSize);
+		synchronized (this) {
+			missingSlices.andNot(this.slices);
+		}
+		return missingSlices;
+	}
+	
+	/**
+	 * <p>获取Slice在Piece内开始偏移</p>
+	 * 
+	 * @param slice Slice索引
+	 * 
+	 * @return Piece内开始偏移
+	 */
+	public int sliceBegin(int slice) {
+		return this.begin + slice * SLICE_LENGTH;
+	}
+	
+	/**
+	 * <p>获取Slice数据大小</p>
+	 * 
+	 * @param slice Slice索引
+	 * 
+	 * @return 数据大小
+	 */
+	public int sliceLength(int slice) {
+		return Math.min(SLICE_LENGTH, this.length - slice * SLICE_LENGTH);
+	}
+	
 	/**
 	 * <p>判断是否下载完成</p>
 	 * 
@@ -188,12 +265,51 @@ public final class TorrentPiece {
 	 * @param begin Piece内开始偏移
 	 * @param bytes Slice数据
 	 * 
-	 * @return 是否下载完成
+	 * @return 是否下载完成：重复数据返回false
 	 */
 	public boolean write(final int begin, final byte[] bytes) {
+		return this.write(begin, ByteBuffer.wrap(bytes));
+	}
+	
+	/**
+	 * <p>写入Slice数据</p>
+	 * <p>直接从消息缓冲区复制到Piece缓冲区：读取缓冲区所有剩余数据</p>
+	 * <p>开始偏移必须对齐Slice并且数据大小必须等于Slice数据大小：否则忽略数据</p>
+	 * 
+	 * @param begin Piece内开始偏移
+	 * @param bytes Slice数据
+	 * 
+	 * @return 是否下载完成：重复数据和无效数据返回false
+	 */
+	public boolean write(final int begin, final ByteBuffer bytes) {
+		final int offset = begin - this.begin;
+		if(offset < 0 || offset >= this.length || offset % SLICE_LENGTH != 0) {
+			// 偏移没有对齐Slice
+			return false;
+		}
+		final int slice = offset / SLICE_LENGTH;
+		if(bytes.remaining() != this.sliceLength(slice)) {
+			// 数据大小错误
+			return false;
+		}
 		synchronized (this) {
-			System.arraycopy(bytes, 0, this.data, begin - this.begin, bytes.length);
-			this.size += bytes.length;
+			if(this.reference <= 0) {
+				// 已经释放：忽略过期数据
+				return false;
+			}
+			if(this.slices.get(slice)) {
+				// 重复数据：只有最先到达的数据有效
+				return false;
+			}
+			if(this.data == null) {
+				this.data = PieceBufferContext.getInstance().borrow((int) this.pieceLength);
+			}
+			final ByteBuffer buffer = this.data.duplicate();
+			buffer.position(offset);
+			final int length = bytes.remaining();
+			buffer.put(bytes);
+			this.slices.set(slice);
+			this.size += length;
 			return this.completed();
 		}
 	}
@@ -207,6 +323,59 @@ public final class TorrentPiece {
 	 * @return Slice数据
 	 */
 	public byte[] read(final int begin, final int size) {
+		final int[] range = this.range(begin, size);
+		if(range == null) {
+			return null;
+		}
+		final byte[] bytes = new byte[range[1] - range[0]];
+		synchronized (this) {
+			if(this.data == null) {
+				// 没有数据或者已经释放
+				return null;
+			}
+			final ByteBuffer buffer = this.data.duplicate();
+			buffer.position(range[0]);
+			buffer.get(bytes);
+		}
+		return bytes;
+	}
+	
+	/**
+	 * <p>读取Slice数据到缓冲区</p>
+	 * <p>持有锁复制数据：防止复制过程中缓冲区被释放复用</p>
+	 * 
+	 * @param begin Piece内开始偏移
+	 * @param size 长度
+	 * @param target 缓冲区
+	 * 
+	 * @return 读取数据长度；没有数据、已经释放或者缓冲区空间不足：-1
+	 */
+	public int read(final int begin, final int size, final ByteBuffer target) {
+		final int[] range = this.range(begin, size);
+		if(range == null || target.remaining() < range[1] - range[0]) {
+			return -1;
+		}
+		synchronized (this) {
+			if(this.data == null) {
+				// 没有数据或者已经释放
+				return -1;
+			}
+			final ByteBuffer buffer = this.data.duplicate();
+			buffer.limit(range[1]).position(range[0]);
+			target.put(buffer);
+		}
+		return range[1] - range[0];
+	}
+	
+	/**
+	 * <p>计算读取数据在当前数据中的范围</p>
+	 * 
+	 * @param begin Piece内开始偏移
+	 * @param size 长度
+	 * 
+	 * @return [开始偏移, 结束偏移]；没有数据：null
+	 */
+	private int[] range(final int begin, final int size) {
 		if(begin >= this.end) {
 			return null;
 		}
@@ -221,14 +390,10 @@ public final class TorrentPiece {
 		}
 		// 当前数据结束偏移
 		int endPos = end - this.begin;
-		if (endPos > this.data.length) {
-			endPos = this.data.length;
+		if (endPos > this.length) {
+			endPos = this.length;
 		}
-		// 读取数据真实长度
-		final int length = endPos - beginPos;
-		final byte[] bytes = new byte[length];
-		System.arraycopy(this.data, beginPos, bytes, 0, length);
-		return bytes;
+		return new int[] {beginPos, endPos};
 	}
 	
 	/**
@@ -238,11 +403,48 @@ public final class TorrentPiece {
 	 */
 	public boolean verify() {
 		if(this.verify) {
-			return Arrays.equals(DigestUtils.sha1(this.data), this.hash);
+			final ByteBuffer buffer = this.buffer(0, this.length);
+			if(buffer == null) {
+				return false;
+			}
+			final MessageDigest digest = DigestUtils.sha1();
+			digest.update(buffer);
+			return Arrays.equals(digest.digest(), this.hash);
 		}
 		return true;
 	}
 	
+	/**
+	 * <p>增加引用</p>
+	 * 
+	 * @return 是否成功：已经释放返回false
+	 */
+	public boolean retain() {
+		synchronized (this) {
+			if(this.reference <= 0) {
+				return false;
+			}
+			this.reference++;
+			return true;
+		}
+	}
+	
+	/**
+	 * <p>减少引用</p>
+	 * <p>引用计数为零时归还缓冲区</p>
+	 */
+	public void release() {
+		synchronized (this) {
+			if(this.reference <= 0) {
+				return;
+			}
+			if(--this.reference == 0 && this.data != null) {
+				PieceBufferContext.getInstance().giveBack(this.data);
+				this.data = null;
+			}
+		}
+	}
+	
 	/**
 	 * <p>判断是否下载完成并且校验成功</p>
 	 * 
@@ -293,11 +495,22 @@ public final class TorrentPiece {
 
 	/**
 	 * <p>获取数据</p>
+	 * <p>返回数据视图：调用者需要持有引用</p>
+	 * 
+	 * @param offset 数据偏移
+	 * @param length 数据长度
 	 * 
-	 * @return 数据
+	 * @return 数据（没有数据或者已经释放：null）
 	 */
-	public byte[] getData() {
-		return this.data;
+	public ByteBuffer buffer(int offset, int length) {
+		synchronized (this) {
+			if(this.data == null) {
+				return null;
+			}
+			final ByteBuffer buffer = this.data.duplicate();
+			buffer.limit(offset + length).position(offset);
+			return buffer;
+		}
 	}
 
 }
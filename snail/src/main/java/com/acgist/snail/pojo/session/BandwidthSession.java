@@ -0,0 +1,206 @@
+package com.acgist.snail.pojo.session;
+
+import java.util.function.LongSupplier;
+
+import com.acgist.snail.config.DownloadConfig;
+import com.acgist.snail.context.BandwidthContext;
+import com.acgist.snail.pojo.session.LimitSession.Type;
+import com.acgist.snail.utils.BeanUtils;
+
+/**
+ * <p>任务带宽信息</p>
+ * <p>权重、保证速度、分配速度</p>
+ * <p>任务限速：单个任务限制速度和{@link BandwidthContext}分配速度的较小值</p>
+ * <p>权重和保证速度可以随时修改：下次分配生效</p>
+ * 
+ * @author acgist
+ */
+public final class BandwidthSession {
+
+	/**
+	 * <p>最小权重：{@value}</p>
+	 */
+	public static final int MIN_WEIGHT = 1;
+	/**
+	 * <p>最大权重：{@value}</p>
+	 */
+	public static final int MAX_WEIGHT = 100;
+	/**
+	 * <p>默认权重：{@value}</p>
+	 */
+	public static final int DEFAULT_WEIGHT = 10;
+	
+	/**
+	 * <p>权重</p>
+	 */
+	private volatile int weight;
+	/**
+	 * <p>保证上传速度（B/s）</p>
+	 */
+	private volatile long minUploadBuffer;
+	/**
+	 * <p>保证下载速度（B/s）</p>
+	 */
+	private volatile long minDownloadBuffer;
+	/**
+	 * <p>分配上传速度（B/s）</p>
+	 * <p>小于等于零表示没有分配：只使用单个任务限制速度</p>
+	 */
+	private volatile long uploadBuffer;
+	/**
+	 * <p>分配下载速度（B/s）</p>
+	 * <p>小于等于零表示没有分配：只使用单个任务限制速度</p>
+	 */
+	private volatile long downloadBuffer;
+	/**
+	 * <p>单个任务限制上传速度（B/s）</p>
+	 * <p>每次获取：设置限速实时生效（小于等于零不限速）</p>
+	 */
+	private final LongSupplier maxUploadBuffer;
+	/**
+	 * <p>单个任务限制下载速度（B/s）</p>
+	 * <p>每次获取：设置限速实时生效（小于等于零不限速）</p>
+	 */
+	private final LongSupplier maxDownloadBuffer;
+	/**
+	 * <p>上传限速</p>
+	 */
+	private final LimitSession uploadLimit;
+	/**
+	 * <p>下载限速</p>
+	 */
+	private final LimitSession downloadLimit;
+	
+	/**
+	 * <p>任务带宽信息</p>
+	 * <p>单个任务限制速度使用下载配置</p>
+	 */
+	public BandwidthSession() {
+		this(DownloadConfig::getUploadBufferByte, DownloadConfig::getDownloadBufferByte);
+	}
+	
+	/**
+	 * @param maxUploadBuffer 单个任务限制上传速度（B/s）
+	 * @param maxDownloadBuffer 单个任务限制下载速度（B/s）
+	 */
+	public BandwidthSession(LongSupplier maxUploadBuffer, LongSupplier maxDownloadBuffer) {
+		this.weight = DEFAULT_WEIGHT;
+		this.maxUploadBuffer = maxUploadBuffer;
+		this.maxDownloadBuffer = maxDownloadBuffer;
+		this.uploadLimit = new LimitSession(Type.UPLOAD, () -> limitBuffer(this.maxUploadBuffer.getAsLong(), this.uploadBuffer));
+		this.downloadLimit = new LimitSession(Type.DOWNLOAD, () -> limitBuffer(this.maxDownloadBuffer.getAsLong(), this.downloadBuffer));
+	}
+	
+	/**
+	 * <p>计算限制速度</p>
+	 * 
+	 * @param maxBuffer 单个任务限制速度
+	 * @param buffer 分配速度
+	 * 
+	 * @return 限制速度
+	 */
+	private static final long limitBuffer(long maxBuffer, long buffer) {
+		if(buffer <= 0L) {
+			return maxBuffer;
+		}
+		if(maxBuffer <= 0L) {
+			return buffer;
+		}
+		return Math.min(maxBuffer, buffer);
+	}
+	
+	/**
+	 * <p>获取权重</p>
+	 * 
+	 * @return 权重
+	 */
+	public int weight() {
+		return this.weight;
+	}
+	
+	/**
+	 * <p>设置权重</p>
+	 * <p>超出范围使用边界值：{@link #MIN_WEIGHT}~{@link #MAX_WEIGHT}</p>
+	 * 
+	 * @param weight 权重
+	 */
+	public void weight(int weight) {
+		this.weight = Math.max(MIN_WEIGHT, Math.min(MAX_WEIGHT, weight));
+	}
+	
+	/**
+	 * <p>设置保证速度</p>
+	 * <p>所有任务保证速度超过系统速度时按比例减少</p>
+	 * 
+	 * @param minUploadBuffer 保证上传速度（B/s）
+	 * @param minDownloadBuffer 保证下载速度（B/s）
+	 */
+	public void minBuffer(long minUploadBuffer, long minDownloadBuffer) {
+		this.minUploadBuffer = Math.max(0L, minUploadBuffer);
+		this.minDownloadBuffer = Math.max(0L, minDownloadBuffer);
+	}
+	
+	/**
+	 * <p>获取保证速度</p>
+	 * 
+	 * @param type 限制类型
+	 * 
+	 * @return 保证速度（B/s）
+	 */
+	public long minBuffer(Type type) {
+		return type == Type.UPLOAD ? this.minUploadBuffer : this.minDownloadBuffer;
+	}
+	
+	/**
+	 * <p>获取单个任务限制速度</p>
+	 * 
+	 * @param type 限制类型
+	 * 
+	 * @return 单个任务限制速度（B/s）：小于等于零不限速
+	 */
+	public long maxBuffer(Type type) {
+		return type == Type.UPLOAD ? this.maxUploadBuffer.getAsLong() : this.maxDownloadBuffer.getAsLong();
+	}
+	
+	/**
+	 * <p>获取分配速度</p>
+	 * 
+	 * @param type 限制类型
+	 * 
+	 * @return 分配速度（B/s）
+	 */
+	public long buffer(Type type) {
+		return type == Type.UPLOAD ? this.uploadBuffer : this.downloadBuffer;
+	}
+	
+	/**
+	 * <p>设置分配速度</p>
+	 * 
+	 * @param type 限制类型
+	 * @param buffer 分配速度（B/s）
+	 */
+	public void buffer(Type type, long buffer) {
+		if(type == Type.UPLOAD) {
+			this.uploadBuffer = buffer;
+		} else {
+			this.downloadBuffer = buffer;
+		}
+	}
+	
+	/**
+	 * <p>获取限速</p>
+	 * 
+	 * @param type 限制类型
+	 * 
+	 * @return 限速
+	 */
+	public LimitSession limitSession(Type type) {
+		return type == Type.UPLOAD ? this.uploadLimit : this.downloadLimit;
+	}
+	
+	@Override
+	public String toString() {
+		return BeanUtils.toString(this, this.weight, this.uploadBuffer, this.downloadBuffer);
+	}
+
+}
@@ -17,6 +17,7 @@ import com.acgist.snail.net.hls.HlsClient;
 import com.acgist.snail.pojo.IStatisticsSession;
 import com.acgist.snail.pojo.ITaskSession;
 import com.acgist.snail.pojo.bean.M3u8;
+import com.acgist.snail.utils.ThreadUtils;
 
 /**
  * <p>HSL任务信息</p>
@@ -151,12 +152,13 @@ public final class HlsSession {
 	
 	/**
 	 * <p>统计下载数据</p>
+	 * <p>下载限速：HLS下载线程直接休眠</p>
 	 * 
 	 * @param buffer 下载大小
 	 */
 	public void download(int buffer) {
 		this.statistics.download(buffer);
-		this.statistics.downloadLimit(buffer);
+		ThreadUtils.sleep(this.statistics.downloadLimit(buffer));
 	}
 	
 	/**
@@ -1,13 +1,16 @@
 package com.acgist.snail.pojo.session;
 
-import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
 
 import com.acgist.snail.config.DownloadConfig;
 import com.acgist.snail.config.SystemConfig;
-import com.acgist.snail.utils.ThreadUtils;
 
 /**
  * <p>限速信息</p>
+ * <p>令牌桶：按照限制速度生成令牌，数据消耗令牌，令牌不足时返回需要等待的时间。</p>
+ * <p>不会阻塞线程：调用者根据等待时间延迟下一次读写</p>
+ * <p>令牌可以透支：透支的令牌通过等待时间偿还，最多透支令牌桶容量（防止没有延迟读写的连接导致透支无限增长，其他连接等待时间过长）。</p>
+ * <p>突发：令牌桶容量等于突发时间生成的令牌数量，空闲之后允许短时间超过限速。</p>
  * 
  * @author acgist
  */
@@ -28,74 +31,139 @@ public final class LimitSession {
 		 * <p>下载</p>
 		 */
 		DOWNLOAD;
-		
+	
 	}
 	
+	/**
+	 * <p>一秒纳秒数量</p>
+	 */
+	private static final long ONE_SECOND_NANOS = 1_000_000_000L;
+	
 	/**
 	 * <p>限制类型</p>
 	 */
 	private final Type type;
 	/**
-	 * <p>限速采样</p>
+	 * <p>限制速度（B/s）</p>
+	 * <p>每次获取：设置限速实时生效（小于等于零不限速）</p>
+	 */
+	private final LongSupplier maxLimitBuffer;
+	/**
+	 * <p>令牌数量（负数表示透支）</p>
+	 */
+	private double tokens;
+	/**
+	 * <p>是否已经初始化令牌</p>
+	 * <p>首次使用装满令牌桶</p>
 	 */
-	private final AtomicLong limitBuffer;
+	private boolean init;
 	/**
-	 * <p>最后一次采样时间</p>
+	 * <p>最后一次生成令牌时间（纳秒）</p>
 	 */
-	private volatile long limitBufferTime;
+	private long tokensTime;
+	/**
+	 * <p>采样数据大小</p>
+	 * 
+	 * @see #sample()
+	 */
+	private long sampleBuffer;
+	/**
+	 * <p>采样期间是否透支令牌</p>
+	 * 
+	 * @see #limited()
+	 */
+	private boolean sampleLimit;
 	
 	/**
+	 * <p>任务限速</p>
+	 * 
 	 * @param type 限制类型
 	 */
 	public LimitSession(Type type) {
+		this(type, type == Type.UPLOAD ? DownloadConfig::getUploadBufferByte : DownloadConfig::getDownloadBufferByte);
+	}
+	
+	/**
+	 * @param type 限制类型
+	 * @param maxLimitBuffer 限制速度（B/s）
+	 */
+	public LimitSession(Type type, LongSupplier maxLimitBuffer) {
 		this.type = type;
-		this.limitBuffer = new AtomicLong(0);
-		this.limitBufferTime = System.currentTimeMillis();
+		this.maxLimitBuffer = maxLimitBuffer;
+		this.tokens = 0D;
+		this.tokensTime = System.nanoTime();
+		this.init = false;
+	}
+	
+	/**
+	 * <p>获取限制类型</p>
+	 * 
+	 * @return 限制类型
+	 */
+	public Type type() {
+		return this.type;
 	}
 	
 	/**
 	 * <p>限制速度</p>
+	 * <p>消耗令牌：不会阻塞线程</p>
 	 * 
 	 * @param buffer 数据大小
+	 * 
+	 * @return 等待时间（毫秒）：令牌足够返回零
 	 */
-	public void limit(long buffer) {
-		final long interval = System.currentTimeMillis() - this.limitBufferTime;
-		final long maxLimitBuffer = this.maxLimitBuffer();
-		final long limitBufferValue = this.limitBuffer.addAndGet(buffer);
-		if(limitBufferValue >= maxLimitBuffer || interval >= SystemConfig.ONE_SECOND_MILLIS) {
-			// 限速控制
-			synchronized (this.limitBuffer) {
-				// 双重验证
-				if(limitBufferValue == this.limitBuffer.get()) {
-					// 通过实际下载大小计算：不能直接使用一秒如果缓存较大就会出现误差
-					final long expectTime = limitBufferValue * SystemConfig.ONE_SECOND_MILLIS / maxLimitBuffer;
-					if(interval < expectTime) {
-						// 限速时间
-						ThreadUtils.sleep(expectTime - interval);
-					}
-					// 清零：不能在休眠前清零
-					this.limitBuffer.set(0);
-					this.limitBufferTime = System.currentTimeMillis();
-				} else {
-					// 防止误差：阻塞后再计算
-					this.limitBuffer.addAndGet(buffer);
-				}
+	public long limit(long buffer) {
+		final long maxLimitBuffer = this.maxLimitBuffer.getAsLong();
+		// 令牌桶容量：至少容纳十分之一秒生成的令牌
+		final double capacity = Math.max(maxLimitBuffer / 10D, (double) maxLimitBuffer * SystemConfig.getLimitBurst() / SystemConfig.ONE_SECOND_MILLIS);
+		final double tokens;
+		synchronized (this) {
+			this.sampleBuffer += buffer;
+			if(maxLimitBuffer <= 0L) {
+				return 0L;
 			}
+			final long now = System.nanoTime();
+			if(this.init) {
+				// 生成令牌：超过容量丢弃
+				this.tokens = Math.min(capacity, this.tokens + (double) (now - this.tokensTime) * maxLimitBuffer / ONE_SECOND_NANOS);
+			} else {
+				this.init = true;
+				this.tokens = capacity;
+			}
+			this.tokensTime = now;
+			this.tokens = Math.max(-capacity, this.tokens - buffer);
+			tokens = this.tokens;
+			if(tokens < 0D) {
+				this.sampleLimit = true;
+			}
+		}
+		if(tokens >= 0D) {
+			return 0L;
 		}
+		// 偿还透支令牌需要的时间
+		return (long) Math.ceil(-tokens * SystemConfig.ONE_SECOND_MILLIS / maxLimitBuffer);
 	}
 	
 	/**
-	 * <p>获取限制速度</p>
-	 * <p>不能初始化成常量：设置限速实时生效</p>
+	 * <p>判断上次采样之后是否透支令牌（限速）</p>
 	 * 
-	 * @return 限制速度
+	 * @return 是否透支令牌
 	 */
-	private long maxLimitBuffer() {
-		if(this.type == Type.UPLOAD) {
-			return DownloadConfig.getUploadBufferByte();
-		} else {
-			return DownloadConfig.getDownloadBufferByte();
-		}
+	public synchronized boolean limited() {
+		return this.sampleLimit;
 	}
 	
+	/**
+	 * <p>采样</p>
+	 * <p>获取上次采样之后的数据大小（包括没有限速的数据），然后重置采样。</p>
+	 * 
+	 * @return 数据大小
+	 */
+	public synchronized long sample() {
+		final long buffer = this.sampleBuffer;
+		this.sampleBuffer = 0L;
+		this.sampleLimit = false;
+		return buffer;
+	}
+
 }
@@ -14,6 +14,7 @@ import org.slf4j.LoggerFactory;
 
 import com.acgist.snail.config.PeerConfig;
 import com.acgist.snail.config.PeerConfig.Source;
+import com.acgist.snail.config.SystemConfig;
 import com.acgist.snail.net.torrent.IPeerConnect;
 import com.acgist.snail.net.torrent.peer.PeerConnect;
 import com.acgist.snail.net.torrent.peer.PeerDownloader;
@@ -60,6 +61,11 @@ public final class PeerSession extends StatisticsGetter implements IPeerConnect
 	 * <p>连接失败次数</p>
 	 */
 	private volatile byte failTimes = 0;
+	/**
+	 * <p>是否禁用</p>
+	 * <p>发送错误数据的Peer禁止连接</p>
+	 */
+	private volatile boolean ban = false;
 	/**
 	 * <p>Peer地址</p>
 	 */
@@ -132,7 +138,12 @@ public final class PeerSession extends StatisticsGetter implements IPeerConnect
 	 * @param port Peer端口
 	 */
 	private PeerSession(IStatisticsSession parent, String host, Integer port) {
-		super(new StatisticsSession(false, false, parent));
+		super(new StatisticsSession(
+			new LimitSession(LimitSession.Type.UPLOAD, () -> SystemConfig.getPeerUploadBuffer() * (long) SystemConfig.ONE_KB),
+			new LimitSession(LimitSession.Type.DOWNLOAD, () -> SystemConfig.getPeerDownloadBuffer() * (long) SystemConfig.ONE_KB),
+			false,
+			parent
+		));
 		this.host = host;
 		this.port = port;
 		this.pieces = new BitSet();
@@ -402,6 +413,22 @@ public final class PeerSession extends StatisticsGetter implements IPeerConnect
 		this.failTimes++;
 	}
 	
+	/**
+	 * <p>禁用Peer</p>
+	 */
+	public void ban() {
+		this.ban = true;
+	}
+	
+	/**
+	 * <p>判断是否禁用</p>
+	 * 
+	 * @return 是否禁用
+	 */
+	public boolean banned() {
+		return this.ban;
+	}
+	
 	/**
 	 * <p>判断是否可用</p>
 	 * 
@@ -409,11 +436,13 @@ public final class PeerSession extends StatisticsGetter implements IPeerConnect
 	 * 
 	 * @see #port
 	 * @see #failTimes
+	 * @see #ban
 	 * @see PeerConfig#MAX_FAIL_TIMES
 	 */
 	public boolean available() {
 		return
 			this.port != null &&
+			!this.ban &&
 			this.failTimes < PeerConfig.MAX_FAIL_TIMES;
 	}
 	
@@ -9,6 +9,7 @@ import com.acgist.snail.pojo.IStatisticsSession;
  * <p>速度、限速、统计等</p>
  * <p>统计下载大小必须统计有效下载数据，因为任务大小获取需要使用。</p>
  * <p>速度统计和速度限制使用实时下载数据，这样数据平滑具有实时性。</p>
+ * <p>分层限速：系统、任务、Peer逐级限速，等待时间取所有层级最大值。</p>
  * <p>由于下载大小统计有效数据，但是速度统计可能存在无效数据，所以下载时间预估不会非常准确。</p>
  * <p>无效数据：Piece按照Slice下载和速度统计，但是Piece可能下载失败和验证失败，导致产生无效数据。</p>
  * 
@@ -16,10 +17,6 @@ import com.acgist.snail.pojo.IStatisticsSession;
  */
 public final class StatisticsSession implements IStatisticsSession {
 
-	/**
-	 * <p>限速开关</p>
-	 */
-	private final boolean limit;
 	/**
 	 * <p>速度统计开关</p>
 	 */
@@ -79,18 +76,29 @@ public final class StatisticsSession implements IStatisticsSession {
 	 * @param parent 上级统计信息
 	 */
 	public StatisticsSession(boolean limit, boolean speed, IStatisticsSession parent) {
-		this.limit = limit;
+		this(
+			limit ? new LimitSession(LimitSession.Type.UPLOAD) : null,
+			limit ? new LimitSession(LimitSession.Type.DOWNLOAD) : null,
+			speed,
+			parent
+		);
+	}
+	
+	/**
+	 * <p>统计信息</p>
+	 * 
+	 * @param uploadLimit 上传限速（没有限速：null）
+	 * @param downloadLimit 下载限速（没有限速：null）
+	 * @param speed 是否统计速度
+	 * @param parent 上级统计信息
+	 */
+	public StatisticsSession(LimitSession uploadLimit, LimitSession downloadLimit, boolean speed, IStatisticsSession parent) {
 		this.speed = speed;
 		this.parent = parent;
 		this.uploadSize = new AtomicLong(0);
 		this.downloadSize = new AtomicLong(0);
-		if(limit) {
-			this.uploadLimit = new LimitSession(LimitSession.Type.UPLOAD);
-			this.downloadLimit = new LimitSession(LimitSession.Type.DOWNLOAD);
-		} else {
-			this.uploadLimit = null;
-			this.downloadLimit = null;
-		}
+		this.uploadLimit = uploadLimit;
+		this.downloadLimit = downloadLimit;
 		if(speed) {
 			this.uploadSpeed = new SpeedSession();
 			this.downloadSpeed = new SpeedSession();
@@ -122,29 +130,33 @@ public final class StatisticsSession implements IStatisticsSession {
 	}
 
 	@Override
-	public void uploadLimit(int buffer) {
+	public long uploadLimit(int buffer) {
+		long delay = 0L;
 		if(this.parent != null) {
-			this.parent.uploadLimit(buffer);
+			delay = this.parent.uploadLimit(buffer);
 		}
-		if(this.limit) {
-			this.uploadLimit.limit(buffer);
+		if(this.uploadLimit != null) {
+			delay = Math.max(delay, this.uploadLimit.limit(buffer));
 		}
 		if(this.speed) {
 			this.uploadSpeed.buffer(buffer);
 		}
+		return delay;
 	}
 	
 	@Override
-	public void downloadLimit(int buffer) {
+	public long downloadLimit(int buffer) {
+		long delay = 0L;
 		if(this.parent != null) {
-			this.parent.downloadLimit(buffer);
+			delay = this.parent.downloadLimit(buffer);
 		}
-		if(this.limit) {
-			this.downloadLimit.limit(buffer);
+		if(this.downloadLimit != null) {
+			delay = Math.max(delay, this.downloadLimit.limit(buffer));
 		}
 		if(this.speed) {
 			this.downloadSpeed.buffer(buffer);
 		}
+		return delay;
 	}
 	
 	@Override
@@ -13,6 +13,7 @@ import org.slf4j.LoggerFactory;
 
 import com.acgist.snail.config.SymbolConfig;
 import com.acgist.snail.config.SystemConfig;
+import com.acgist.snail.context.BandwidthContext;
 import com.acgist.snail.context.EntityContext;
 import com.acgist.snail.context.GuiContext;
 import com.acgist.snail.context.ProtocolContext;
@@ -63,14 +64,33 @@ public final class TaskSession extends StatisticsGetter implements ITaskSession
 	 * <p>删除锁</p>
 	 */
 	private final AtomicBoolean deleteLock;
+	/**
+	 * <p>任务带宽信息</p>
+	 */
+	private final BandwidthSession bandwidthSession;
 	
 	/**
 	 * @param entity 任务
 	 */
 	private TaskSession(TaskEntity entity) {
-		super(new StatisticsSession(true, StatisticsContext.getInstance().statistics()));
+		this(entity, new BandwidthSession());
+	}
+	
+	/**
+	 * @param entity 任务
+	 * @param bandwidthSession 任务带宽信息
+	 */
+	private TaskSession(TaskEntity entity, BandwidthSession bandwidthSession) {
+		super(new StatisticsSession(
+			bandwidthSession.limitSession(LimitSession.Type.UPLOAD),
+			bandwidthSession.limitSession(LimitSession.Type.DOWNLOAD),
+			true,
+			StatisticsContext.getInstance().statistics()
+		));
 		this.entity = entity;
 		this.deleteLock = new AtomicBoolean(false);
+		this.bandwidthSession = bandwidthSession;
+		BandwidthContext.getInstance().register(bandwidthSession);
 	}
 	
 	/**
@@ -94,6 +114,11 @@ public final class TaskSession extends StatisticsGetter implements ITaskSession
 		return this.downloader;
 	}
 	
+	@Override
+	public BandwidthSession bandwidthSession() {
+		return this.bandwidthSession;
+	}
+	
 	@Override
 	public IDownloader buildDownloader() throws DownloadException {
 		if(this.downloader != null) {
@@ -320,6 +345,8 @@ public final class TaskSession extends StatisticsGetter implements ITaskSession
 		}
 		// 删除下载任务
 		TaskContext.getInstance().remove(this);
+		// 删除带宽信息
+		BandwidthContext.getInstance().remove(this.bandwidthSession);
 		// 删除旧下载器
 		this.downloader = null;
 		// 删除实体
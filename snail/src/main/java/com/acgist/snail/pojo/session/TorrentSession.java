@@ -1,6 +1,7 @@
 package com.acgist.snail.pojo.session;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.BitSet;
 import java.util.List;
 import java.util.concurrent.ExecutorService;
@@ -19,9 +20,14 @@ import com.acgist.snail.context.TorrentContext;
 import com.acgist.snail.context.exception.DownloadException;
 import com.acgist.snail.context.exception.NetException;
 import com.acgist.snail.context.exception.TimerException;
+import com.acgist.snail.net.torrent.TorrentStream.Priority;
 import com.acgist.snail.net.torrent.TorrentStreamGroup;
+import com.acgist.snail.net.torrent.TorrentStreaming;
+import com.acgist.snail.net.torrent.TorrentStreamingServer;
 import com.acgist.snail.net.torrent.dht.DhtLauncher;
 import com.acgist.snail.net.torrent.peer.PeerDownloaderGroup;
+import com.acgist.snail.net.torrent.peer.PeerEndgame;
+import com.acgist.snail.net.torrent.peer.PeerSmartBan;
 import com.acgist.snail.net.torrent.peer.PeerSubMessageHandler;
 import com.acgist.snail.net.torrent.peer.PeerUploader;
 import com.acgist.snail.net.torrent.peer.PeerUploaderGroup;
@@ -98,6 +104,14 @@ public final class TorrentSession {
 	 * <p>文件流组</p>
 	 */
 	private TorrentStreamGroup torrentStreamGroup;
+	/**
+	 * <p>Endgame</p>
+	 */
+	private PeerEndgame peerEndgame;
+	/**
+	 * <p>SmartBan</p>
+	 */
+	private PeerSmartBan peerSmartBan;
 	/**
 	 * <p>Tracker执行器组</p>
 	 */
@@ -219,6 +233,8 @@ public final class TorrentSession {
 		this.taskSession = taskSession;
 		this.loadExecutorTimer();
 		this.loadTorrentStreamGroup();
+		this.loadPeerEndgame();
+		this.loadPeerSmartBan();
 		this.loadPeerUploaderGroup();
 		this.loadPeerUploaderGroupTimer();
 		this.useable = true;
@@ -263,6 +279,8 @@ public final class TorrentSession {
 		if(this.checkCompleted()) {
 			return true;
 		}
+		this.checkFreeSpace();
+		this.torrentStreamGroup.allocate();
 		this.loadExecutor();
 		final boolean privateTorrent = this.privateTorrent();
 		if(findPeer) {
@@ -288,6 +306,21 @@ public final class TorrentSession {
 		return false;
 	}
 
+	/**
+	 * <p>检测磁盘剩余空间</p>
+	 * <p>剩余空间不足直接失败：防止下载过程中写入文件失败</p>
+	 * <p>分配文件之前检测：只计算没有分配的空间（已经存在的文件大小不用计算）</p>
+	 * 
+	 * @throws DownloadException 下载异常
+	 */
+	private void checkFreeSpace() throws DownloadException {
+		final long allocateSize = this.torrentStreamGroup.allocateSize();
+		final long usableSpace = this.taskSession.downloadFolder().getUsableSpace();
+		if(usableSpace > 0L && allocateSize > usableSpace) {
+			throw new DownloadException("磁盘空间不足：" + FileUtils.formatSize(allocateSize) + "-" + FileUtils.formatSize(usableSpace));
+		}
+	}
+	
 	/**
 	 * <p>加载磁力链接</p>
 	 * 
@@ -322,6 +355,20 @@ public final class TorrentSession {
 		);
 	}
 
+	/**
+	 * <p>加载Endgame</p>
+	 */
+	private void loadPeerEndgame() {
+		this.peerEndgame = PeerEndgame.newInstance(this);
+	}
+	
+	/**
+	 * <p>加载SmartBan</p>
+	 */
+	private void loadPeerSmartBan() {
+		this.peerSmartBan = PeerSmartBan.newInstance(this);
+	}
+	
 	/**
 	 * <p>加载PeerDownloaderGroup</p>
 	 */
@@ -578,6 +625,9 @@ public final class TorrentSession {
 		}
 		SystemThreadContext.shutdownNow(this.executor);
 		if(this.torrentStreamGroup != null) {
+			this.torrentStreamGroup.cancelVerify();
+			// 等待磁盘任务完成：保存快速恢复之后不再写入文件
+			this.torrentStreamGroup.awaitDiskTasks();
 			this.torrentStreamGroup.flush();
 		}
 	}
@@ -596,6 +646,12 @@ public final class TorrentSession {
 		if(this.torrentStreamGroup != null) {
 			this.torrentStreamGroup.release();
 		}
+		if(this.peerEndgame != null) {
+			this.peerEndgame.release();
+		}
+		if(this.peerSmartBan != null) {
+			this.peerSmartBan.release();
+		}
 		SystemThreadContext.shutdownNow(this.executorTimer);
 	}
 
@@ -863,13 +919,184 @@ public final class TorrentSession {
 	 * 
 	 * @param peerPieces Peer已下载Piece位图
 	 * @param suggestPieces Peer推荐Piece位图
+	 * @param rate Peer下载速度（B/S）
 	 * 
 	 * @return 下载Piece
 	 * 
-	 * @see TorrentStreamGroup#pick(BitSet, BitSet)
+	 * @see TorrentStreamGroup#pick(BitSet, BitSet, long)
+	 */
+	public TorrentPiece pick(BitSet peerPieces, BitSet suggestPieces, long rate) {
+		return torrentStreamGroup.pick(peerPieces, suggestPieces, rate);
+	}
+	
+	/**
+	 * <p>获取文件路径</p>
+	 * 
+	 * @param fileIndex 文件索引（种子文件列表索引）
+	 * 
+	 * @return 文件路径；索引错误：null
+	 */
+	public String filePath(int fileIndex) {
+		final List<TorrentFile> files = this.torrent.getInfo().files();
+		if(fileIndex < 0 || fileIndex >= files.size()) {
+			return null;
+		}
+		return FileUtils.file(this.taskSession.downloadFolder().getAbsolutePath(), files.get(fileIndex).path());
+	}
+	
+	/**
+	 * <p>设置文件下载优先级</p>
+	 * <p>运行时修改不用重新加载文件：跳过剩余没有下载完成的文件时任务可能直接完成</p>
+	 * 
+	 * @param fileIndex 文件索引（种子文件列表索引）
+	 * @param priority 文件下载优先级
+	 * 
+	 * @return 是否设置成功
+	 * 
+	 * @see TorrentStreamGroup#priority(String, Priority)
+	 */
+	public boolean priority(int fileIndex, Priority priority) {
+		final String path = this.filePath(fileIndex);
+		if(path == null || this.torrentStreamGroup == null) {
+			return false;
+		}
+		final boolean success = this.torrentStreamGroup.priority(path, priority);
+		if(success && this.downloadable()) {
+			this.checkCompletedAndDone();
+		}
+		return success;
+	}
+	
+	/**
+	 * <p>设置播放位置（边下边播）</p>
+	 * 
+	 * @param fileIndex 文件索引（种子文件列表索引）
+	 * @param position 文件偏移
+	 * 
+	 * @return 是否设置成功
+	 * 
+	 * @see TorrentStreamGroup#playhead(String, long)
+	 */
+	public boolean playhead(int fileIndex, long position) {
+		final String path = this.filePath(fileIndex);
+		if(path == null || this.torrentStreamGroup == null) {
+			return false;
+		}
+		return this.torrentStreamGroup.playhead(path, position);
+	}
+	
+	/**
+	 * <p>删除播放位置（边下边播）</p>
+	 * 
+	 * @param fileIndex 文件索引（种子文件列表索引）
+	 * @param position 文件偏移（最后设置的播放位置）
+	 * 
+	 * @see TorrentStreamGroup#removePlayhead(String, long)
+	 */
+	public void removePlayhead(int fileIndex, long position) {
+		final String path = this.filePath(fileIndex);
+		if(path == null || this.torrentStreamGroup == null) {
+			return;
+		}
+		this.torrentStreamGroup.removePlayhead(path, position);
+	}
+	
+	/**
+	 * <p>设置Peer平均下载速度（边下边播）</p>
+	 * 
+	 * @param rate Peer平均下载速度（B/S）
+	 * 
+	 * @see TorrentStreaming#rate(long)
+	 */
+	public void streamingRate(long rate) {
+		if(this.torrentStreamGroup != null) {
+			this.torrentStreamGroup.streaming().rate(rate);
+		}
+	}
+	
+	/**
+	 * <p>获取边下边播地址</p>
+	 * <p>本地HTTP服务：支持Range请求，数据没有下载完成时阻塞等待。</p>
+	 * 
+	 * @param fileIndex 文件索引（种子文件列表索引）
+	 * 
+	 * @return 边下边播地址；文件索引错误或者服务启动失败：null
+	 * 
+	 * @see TorrentStreamingServer#url(String, int)
+	 */
+	public String streamingUrl(int fileIndex) {
+		if(this.filePath(fileIndex) == null) {
+			return null;
+		}
+		return TorrentStreamingServer.getInstance().url(this.infoHashHex(), fileIndex);
+	}
+	
+	/**
+	 * <p>判断Peer是否需要重复请求风险Piece（边下边播）</p>
+	 * 
+	 * @param rate Peer下载速度（B/S）
+	 * 
+	 * @return 是否需要重复请求
+	 * 
+	 * @see TorrentStreaming#urgent(long)
+	 */
+	public boolean urgent(long rate) {
+		return this.torrentStreamGroup.streaming().urgent(rate);
+	}
+	
+	/**
+	 * <p>获取风险Piece位图（边下边播）</p>
+	 * 
+	 * @return 风险Piece位图
+	 * 
+	 * @see TorrentStreaming#riskPieces()
+	 */
+	public BitSet riskPieces() {
+		return this.torrentStreamGroup.streaming().riskPieces();
+	}
+	
+	/**
+	 * <p>获取Endgame</p>
+	 * 
+	 * @return Endgame
+	 */
+	public PeerEndgame endgame() {
+		return this.peerEndgame;
+	}
+	
+	/**
+	 * <p>获取SmartBan</p>
+	 * 
+	 * @return SmartBan
+	 */
+	public PeerSmartBan smartBan() {
+		return this.peerSmartBan;
+	}
+	
+	/**
+	 * <p>获取剩余未下载的Piece数量</p>
+	 * 
+	 * @return 剩余未下载的Piece数量
+	 * 
+	 * @see TorrentStreamGroup#remainingPieceSize()
 	 */
-	public TorrentPiece pick(BitSet peerPieces, BitSet suggestPieces) {
-		return torrentStreamGroup.pick(peerPieces, suggestPieces);
+	public int remainingPieceSize() {
+		return this.torrentStreamGroup.remainingPieceSize();
+	}
+	
+	/**
+	 * <p>更新Piece可用数量</p>
+	 * 
+	 * @param pieces Piece位图
+	 * @param delta 变化数量
+	 * 
+	 * @see TorrentStreamGroup#availability(BitSet, int)
+	 */
+	public void availability(BitSet pieces, int delta) {
+		if(this.torrentStreamGroup == null || pieces.isEmpty()) {
+			return;
+		}
+		this.torrentStreamGroup.availability(pieces, delta);
 	}
 	
 	/**
@@ -888,6 +1115,24 @@ public final class TorrentSession {
 	public byte[] read(int index, int begin, int length) throws NetException {
 		return this.torrentStreamGroup.read(index, begin, length);
 	}
+	
+	/**
+	 * <p>读取Piece数据到缓冲区</p>
+	 * 
+	 * @param index Piece索引
+	 * @param begin Piece偏移
+	 * @param length 数据长度
+	 * @param buffer 缓冲区
+	 * 
+	 * @return 是否读取成功
+	 * 
+	 * @throws NetException 网络异常
+	 * 
+	 * @see TorrentStreamGroup#read(int, int, int, ByteBuffer)
+	 */
+	public boolean read(int index, int begin, int length, ByteBuffer buffer) throws NetException {
+		return this.torrentStreamGroup.read(index, begin, length, buffer);
+	}
 
 	/**
 	 * <p>保存Piece</p>
@@ -902,6 +1147,28 @@ public final class TorrentSession {
 		return this.torrentStreamGroup.write(piece);
 	}
 	
+	/**
+	 * <p>提交磁盘任务</p>
+	 * 
+	 * @param runnable 任务
+	 * 
+	 * @see TorrentStreamGroup#submit(Runnable)
+	 */
+	public void submitDisk(Runnable runnable) {
+		this.torrentStreamGroup.submit(runnable);
+	}
+	
+	/**
+	 * <p>判断磁盘是否繁忙（背压）</p>
+	 * 
+	 * @return 是否繁忙
+	 * 
+	 * @see TorrentStreamGroup#diskBusy()
+	 */
+	public boolean diskBusy() {
+		return this.torrentStreamGroup.diskBusy();
+	}
+	
 	/**
 	 * <p>判断Piece是否已经下载</p>
 	 * 
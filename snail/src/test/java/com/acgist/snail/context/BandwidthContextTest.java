@@ -0,0 +1,80 @@
+package com.acgist.snail.context;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import com.acgist.snail.pojo.session.BandwidthSession;
+import com.acgist.snail.pojo.session.LimitSession.Type;
+import com.acgist.snail.utils.Performance;
+
+public class BandwidthContextTest extends Performance {
+
+	private static final long CAPACITY = 1024L * 1024;
+	
+	@Test
+	public void testBalance() {
+		final BandwidthContext context = BandwidthContext.getInstance();
+		final BandwidthSession torrent = new BandwidthSession();
+		final BandwidthSession http = new BandwidthSession();
+		final List<BandwidthSession> list = List.of(torrent, http);
+		// 相同权重：平均分配
+		torrent.limitSession(Type.DOWNLOAD).limit(CAPACITY * 4);
+		http.limitSession(Type.DOWNLOAD).limit(CAPACITY);
+		context.balance(list, Type.DOWNLOAD, CAPACITY);
+		this.log("相同权重：{}", list);
+		assertEquals(CAPACITY / 2, torrent.buffer(Type.DOWNLOAD));
+		assertEquals(CAPACITY / 2, http.buffer(Type.DOWNLOAD));
+		// 修改权重
+		http.weight(BandwidthSession.DEFAULT_WEIGHT * 3);
+		torrent.limitSession(Type.DOWNLOAD).limit(CAPACITY * 4);
+		http.limitSession(Type.DOWNLOAD).limit(CAPACITY);
+		context.balance(list, Type.DOWNLOAD, CAPACITY);
+		this.log("修改权重：{}", list);
+		assertEquals(CAPACITY / 4, torrent.buffer(Type.DOWNLOAD));
+		assertEquals(CAPACITY * 3 / 4, http.buffer(Type.DOWNLOAD));
+		// 剩余速度重新分配：需求已经满足
+		final BandwidthSession idle = new BandwidthSession();
+		idle.buffer(Type.DOWNLOAD, CAPACITY / 2);
+		idle.limitSession(Type.DOWNLOAD).limit(CAPACITY / 8);
+		torrent.limitSession(Type.DOWNLOAD).limit(CAPACITY * 4);
+		context.balance(List.of(torrent, idle), Type.DOWNLOAD, CAPACITY);
+		this.log("剩余速度重新分配：{}-{}", torrent, idle);
+		assertTrue(torrent.buffer(Type.DOWNLOAD) > CAPACITY * 3 / 4);
+		assertTrue(idle.buffer(Type.DOWNLOAD) >= CAPACITY / 8);
+		// 保证速度
+		http.weight(BandwidthSession.MIN_WEIGHT);
+		http.minBuffer(0L, CAPACITY / 2);
+		torrent.limitSession(Type.DOWNLOAD).limit(CAPACITY * 4);
+		http.limitSession(Type.DOWNLOAD).limit(CAPACITY * 4);
+		context.balance(list, Type.DOWNLOAD, CAPACITY);
+		this.log("保证速度：{}", list);
+		assertTrue(http.buffer(Type.DOWNLOAD) >= CAPACITY / 2);
+		// 系统没有限速
+		context.balance(list, Type.DOWNLOAD, 0L);
+		assertEquals(0L, torrent.buffer(Type.DOWNLOAD));
+		assertEquals(0L, http.buffer(Type.DOWNLOAD));
+	}
+	
+	@Test
+	public void testMaxBuffer() {
+		final BandwidthContext context = BandwidthContext.getInstance();
+		final long capacity = CAPACITY * 3;
+		final BandwidthSession limit = new BandwidthSession(() -> CAPACITY, () -> CAPACITY);
+		final BandwidthSession unlimit = new BandwidthSession(() -> 0L, () -> 0L);
+		limit.weight(90);
+		unlimit.weight(10);
+		final List<BandwidthSession> list = List.of(limit, unlimit);
+		// 单个任务限速：超过部分分配给其他任务
+		limit.limitSession(Type.DOWNLOAD).limit(capacity * 4);
+		unlimit.limitSession(Type.DOWNLOAD).limit(capacity * 4);
+		context.balance(list, Type.DOWNLOAD, capacity);
+		this.log("单个任务限速：{}", list);
+		assertEquals(CAPACITY, limit.buffer(Type.DOWNLOAD));
+		assertEquals(capacity - CAPACITY, unlimit.buffer(Type.DOWNLOAD));
+	}
+	
+}
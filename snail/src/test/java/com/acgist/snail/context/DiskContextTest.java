@@ -0,0 +1,44 @@
+package com.acgist.snail.context;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+
+import com.acgist.snail.utils.Performance;
+
+public class DiskContextTest extends Performance {
+
+	@Test
+	public void testSubmit() throws InterruptedException {
+		final var context = DiskContext.getInstance();
+		final String disk = context.disk(System.getProperty("java.io.tmpdir") + "/snail/not/exists");
+		assertNotNull(disk);
+		final int size = 1000;
+		final Thread thread = Thread.currentThread();
+		final AtomicInteger count = new AtomicInteger(0);
+		final AtomicInteger callerCount = new AtomicInteger(0);
+		final CountDownLatch latch = new CountDownLatch(size);
+		for (int index = 0; index < size; index++) {
+			context.submit(disk, () -> {
+				count.incrementAndGet();
+				if(Thread.currentThread() == thread) {
+					callerCount.incrementAndGet();
+				}
+				latch.countDown();
+			});
+		}
+		assertTrue(latch.await(10, TimeUnit.SECONDS));
+		assertEquals(size, count.get());
+		// 磁盘任务不会在提交任务线程执行
+		assertEquals(0, callerCount.get());
+		assertFalse(context.busy(disk));
+	}
+
+}
@@ -1,7 +1,9 @@
 package com.acgist.snail.context;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 import java.util.concurrent.CountDownLatch;
 
@@ -23,4 +25,21 @@ public class SystemThreadContextTest extends Performance {
 		assertNotNull(executor);
 	}
 	
+	@Test
+	public void testExecutorFactory() throws InterruptedException {
+		assertTrue(PlatformExecutorFactory.getInstance().available());
+		assertFalse(SystemThreadContext.executorFactory(null));
+		this.log("线程池工厂：{}", SystemThreadContext.executorFactory().name());
+		final CountDownLatch latch = new CountDownLatch(1);
+		final var executor = SystemThreadContext.newCacheExecutor(0, 60L, "ACGIST-Cache");
+		executor.submit(() -> {
+			latch.countDown();
+		});
+		latch.await();
+		assertTrue(SystemThreadContext.metrics().stream().anyMatch(metrics -> "ACGIST-Cache".equals(metrics.getName())));
+		SystemThreadContext.metrics().forEach(this::log);
+		SystemThreadContext.shutdownNow(executor);
+		assertFalse(SystemThreadContext.metrics().stream().anyMatch(metrics -> "ACGIST-Cache".equals(metrics.getName())));
+	}
+	
 }
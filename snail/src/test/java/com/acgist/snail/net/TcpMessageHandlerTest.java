@@ -0,0 +1,101 @@
+package com.acgist.snail.net;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousSocketChannel;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+import com.acgist.snail.context.exception.NetException;
+import com.acgist.snail.utils.Performance;
+
+public class TcpMessageHandlerTest extends Performance {
+
+	@Test
+	public void testSend() throws Exception {
+		try(final ServerSocket server = new ServerSocket(0)) {
+			final AsynchronousSocketChannel channel = AsynchronousSocketChannel.open();
+			channel.connect(new InetSocketAddress("127.0.0.1", server.getLocalPort())).get(5, TimeUnit.SECONDS);
+			final TcpMessageHandler handler = new TcpMessageHandler() {
+			};
+			handler.handle(channel);
+			final ByteArrayOutputStream expect = new ByteArrayOutputStream();
+			try(final Socket socket = server.accept()) {
+				for (int index = 0; index < 40; index++) {
+					final byte[] bytes = ("request-" + index).getBytes();
+					expect.write(bytes);
+					handler.send(ByteBuffer.wrap(bytes));
+				}
+				handler.close();
+				final InputStream input = socket.getInputStream();
+				final ByteArrayOutputStream actual = new ByteArrayOutputStream();
+				final byte[] bytes = new byte[1024];
+				int length;
+				while((length = input.read(bytes)) >= 0) {
+					actual.write(bytes, 0, length);
+				}
+				assertArrayEquals(expect.toByteArray(), actual.toByteArray());
+				assertFalse(handler.available());
+			}
+		}
+	}
+	
+	@Test
+	public void testDelayWrite() throws Exception {
+		try(final ServerSocket server = new ServerSocket(0)) {
+			final AsynchronousSocketChannel channel = AsynchronousSocketChannel.open();
+			channel.connect(new InetSocketAddress("127.0.0.1", server.getLocalPort())).get(5, TimeUnit.SECONDS);
+			final TcpMessageHandler handler = new TcpMessageHandler() {
+			};
+			handler.handle(channel);
+			try(final Socket socket = server.accept()) {
+				this.cost();
+				// 限速：延迟发送
+				handler.delayWrite(500);
+				handler.send(ByteBuffer.wrap("delay".getBytes()));
+				final InputStream input = socket.getInputStream();
+				final byte[] bytes = new byte[5];
+				int length = 0;
+				while(length < bytes.length) {
+					length += input.read(bytes, length, bytes.length - length);
+				}
+				assertTrue(this.costed() >= 400);
+				assertArrayEquals("delay".getBytes(), bytes);
+			} finally {
+				handler.close();
+			}
+		}
+	}
+	
+	@Test
+	public void testHighWaterMark() throws Exception {
+		try(final ServerSocket server = new ServerSocket(0)) {
+			final AsynchronousSocketChannel channel = AsynchronousSocketChannel.open();
+			channel.connect(new InetSocketAddress("127.0.0.1", server.getLocalPort())).get(5, TimeUnit.SECONDS);
+			final TcpMessageHandler handler = new TcpMessageHandler() {
+			};
+			handler.handle(channel);
+			try(final Socket socket = server.accept()) {
+				// 服务端不读取数据：发送队列超过高水位
+				assertThrows(NetException.class, () -> {
+					while(true) {
+						handler.send(ByteBuffer.allocate(64 * 1024));
+					}
+				});
+			} finally {
+				handler.close();
+			}
+		}
+	}
+
+}
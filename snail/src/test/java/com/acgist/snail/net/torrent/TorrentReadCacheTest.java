@@ -0,0 +1,38 @@
+package com.acgist.snail.net.torrent;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.nio.ByteBuffer;
+
+import org.junit.jupiter.api.Test;
+
+import com.acgist.snail.config.SystemConfig;
+import com.acgist.snail.utils.Performance;
+
+public class TorrentReadCacheTest extends Performance {
+
+	@Test
+	public void testCache() {
+		final var cache = TorrentReadCache.getInstance();
+		final int length = (int) (SystemConfig.getStorageReadSizeByte() / 2);
+		final long hitCount = cache.hitCount();
+		final long missCount = cache.missCount();
+		assertNull(cache.get(null, 0));
+		cache.put(null, 0, ByteBuffer.allocate(length));
+		cache.put(null, 1, ByteBuffer.allocate(length));
+		assertNotNull(cache.get(null, 0));
+		// 淘汰最近最少使用：1
+		cache.put(null, 2, ByteBuffer.allocate(length));
+		assertNotNull(cache.get(null, 0));
+		assertNull(cache.get(null, 1));
+		assertNotNull(cache.get(null, 2));
+		assertEquals(hitCount + 3, cache.hitCount());
+		assertEquals(missCount + 2, cache.missCount());
+		assertEquals(2L * length, cache.size());
+		cache.remove(null);
+		assertEquals(0L, cache.size());
+	}
+
+}
@@ -0,0 +1,40 @@
+package com.acgist.snail.net.torrent;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.BitSet;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import com.acgist.snail.utils.Performance;
+
+public class TorrentResumeTest extends Performance {
+
+	@Test
+	public void testResume() throws IOException {
+		final File file = Files.createTempFile("snail", ".data").toFile();
+		final File resumeFile = new File(file.getAbsolutePath() + TorrentResume.RESUME_SUFFIX);
+		file.deleteOnExit();
+		resumeFile.deleteOnExit();
+		Files.write(file.toPath(), new byte[1024]);
+		final BitSet pieces = new BitSet();
+		pieces.set(1);
+		pieces.set(3);
+		TorrentResume.newInstance(resumeFile.getAbsolutePath()).store(pieces, List.of(file.getAbsolutePath()));
+		var resume = TorrentResume.newInstance(resumeFile.getAbsolutePath());
+		assertTrue(resume.trusted(file.getAbsolutePath()));
+		assertTrue(resume.hasPiece(1));
+		assertFalse(resume.hasPiece(2));
+		assertTrue(resume.hasPiece(3));
+		// 文件修改
+		Files.write(file.toPath(), new byte[2048]);
+		resume = TorrentResume.newInstance(resumeFile.getAbsolutePath());
+		assertFalse(resume.trusted(file.getAbsolutePath()));
+	}
+
+}
@@ -0,0 +1,58 @@
+package com.acgist.snail.net.torrent;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+
+import org.junit.jupiter.api.Test;
+
+import com.acgist.snail.context.exception.DownloadException;
+import com.acgist.snail.utils.Performance;
+
+public class TorrentStorageTest extends Performance {
+
+	@Test
+	public void testStorage() throws DownloadException, IOException {
+		final File file = Files.createTempFile("snail", ".storage").toFile();
+		file.deleteOnExit();
+		final byte[] bytes = new byte[1024];
+		for (int index = 0; index < bytes.length; index++) {
+			bytes[index] = (byte) index;
+		}
+		final var channelStorage = TorrentChannelStorage.newInstance(file.getAbsolutePath());
+		assertEquals(bytes.length, channelStorage.write(ByteBuffer.wrap(bytes), 100));
+		assertEquals(bytes.length + 100, channelStorage.size());
+		final var channelBuffer = ByteBuffer.allocate(bytes.length);
+		assertEquals(bytes.length, channelStorage.read(channelBuffer, 100));
+		assertArrayEquals(bytes, channelBuffer.array());
+		final var mappedStorage = TorrentMappedStorage.newInstance(channelStorage);
+		final var mappedBuffer = ByteBuffer.allocate(bytes.length);
+		assertEquals(bytes.length, mappedStorage.read(mappedBuffer, 100));
+		assertArrayEquals(bytes, mappedBuffer.array());
+		// 读到文件结尾
+		assertEquals(24, mappedStorage.read(ByteBuffer.allocate(100), 1100));
+		mappedStorage.close();
+	}
+	
+	@Test
+	public void testGatheringWrite() throws DownloadException, IOException {
+		final File file = Files.createTempFile("snail", ".storage").toFile();
+		file.deleteOnExit();
+		final var storage = TorrentChannelStorage.newInstance(file.getAbsolutePath());
+		final ByteBuffer[] buffers = new ByteBuffer[] {
+			ByteBuffer.wrap(new byte[] {1, 2}),
+			ByteBuffer.wrap(new byte[] {3}),
+			ByteBuffer.wrap(new byte[] {4, 5, 6})
+		};
+		assertEquals(6L, storage.write(buffers, 10));
+		final var buffer = ByteBuffer.allocate(6);
+		assertEquals(6, storage.read(buffer, 10));
+		assertArrayEquals(new byte[] {1, 2, 3, 4, 5, 6}, buffer.array());
+		storage.close();
+	}
+
+}
@@ -101,12 +101,12 @@ public class TorrentStreamGroupTest extends Performance {
 		peerPieces.set(0, session.torrent().getInfo().pieceSize(), true);
 		final BitSet suggestPieces = new BitSet();
 //		this.costed(100000, 10, () -> {
-//			group.pick(peerPieces, suggestPieces);
+//			group.pick(peerPieces, suggestPieces, 0L);
 //		});
 //		group.piecePos(620);
 //		this.costed(10, 10, () -> {
 //			TorrentPiece index;
-//			while((index = group.pick(peerPieces, suggestPieces)) != null) {
+//			while((index = group.pick(peerPieces, suggestPieces, 0L)) != null) {
 //				this.log(index.getIndex());
 //				group.done(index.getIndex());
 //				this.log(session.torrent().getInfo().pieceSize());
@@ -116,7 +116,7 @@ public class TorrentStreamGroupTest extends Performance {
 		this.cost();
 		TorrentPiece index;
 		final Set<Integer> indexSet = new HashSet<Integer>();
-		while((index = group.pick(peerPieces, suggestPieces)) != null) {
+		while((index = group.pick(peerPieces, suggestPieces, 0L)) != null) {
 			this.log(index.getIndex());
 			group.done(index.getIndex());
 			indexSet.add(index.getIndex());
@@ -3,6 +3,7 @@ package com.acgist.snail.net.torrent;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.BitSet;
 import java.util.List;
@@ -14,6 +15,7 @@ import com.acgist.snail.context.TorrentContext;
 import com.acgist.snail.context.exception.DownloadException;
 import com.acgist.snail.pojo.ITaskSessionStatus.Status;
 import com.acgist.snail.pojo.bean.TorrentFile;
+import com.acgist.snail.pojo.bean.TorrentPiece;
 import com.acgist.snail.pojo.entity.TaskEntity;
 import com.acgist.snail.pojo.session.TaskSession;
 import com.acgist.snail.pojo.wrapper.DescriptionWrapper;
@@ -80,7 +82,10 @@ public class TorrentStreamTest extends Performance {
 			var torrentPiece = newStream.pick(0, peerPieces, peerPieces);
 			final byte[] bytes = oldStream.read(index);
 			if(torrentPiece != null) {
-				torrentPiece.write(torrentPiece.getBegin(), bytes);
+				final int sliceSize = torrentPiece.missingSlices().cardinality();
+				for (int slice = 0; slice < sliceSize; slice++) {
+					torrentPiece.write(torrentPiece.sliceBegin(slice), ByteBuffer.wrap(bytes, slice * TorrentPiece.SLICE_LENGTH, torrentPiece.sliceLength(slice)));
+				}
 				newStream.write(torrentPiece);
 			}
 		}
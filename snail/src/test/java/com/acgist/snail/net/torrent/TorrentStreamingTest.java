@@ -0,0 +1,26 @@
+package com.acgist.snail.net.torrent;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import org.junit.jupiter.api.Test;
+
+import com.acgist.snail.utils.Performance;
+
+public class TorrentStreamingTest extends Performance {
+
+	@Test
+	public void testRange() {
+		final var handler = new TorrentStreamingMessageHandler();
+		assertArrayEquals(new long[] { 0L, 99L }, handler.range(null, 100L));
+		assertArrayEquals(new long[] { 10L, 99L }, handler.range("bytes=10-", 100L));
+		assertArrayEquals(new long[] { 10L, 20L }, handler.range("bytes=10-20", 100L));
+		assertArrayEquals(new long[] { 10L, 99L }, handler.range("bytes=10-200", 100L));
+		assertArrayEquals(new long[] { 80L, 99L }, handler.range("bytes=-20", 100L));
+		assertNull(handler.range("bytes=100-", 100L));
+		assertNull(handler.range("bytes=20-10", 100L));
+		assertNull(handler.range("bytes=0-1,2-3", 100L));
+		assertNull(handler.range("items=0-1", 100L));
+	}
+
+}
@@ -51,8 +51,7 @@ public class PeerClientTest extends Performance {
 		final var peerSession = PeerSession.newInstance(statisticsSession, host, port);
 		// UTP支持
 		peerSession.flags(PeerConfig.PEX_UTP);
-		final var launcher = PeerDownloader.newInstance(peerSession, torrentSession);
-		launcher.handshake();
+		PeerConnector.getInstance().connect(peerSession, torrentSession, launcher -> this.log("Peer连接：{}", launcher));
 		new Thread(() -> {
 			while(true) {
 				this.log("下载速度：" + statisticsSession.downloadSpeed());
@@ -76,8 +75,7 @@ public class PeerClientTest extends Performance {
 //		final Integer port = 18888; // 蜗牛测试端口
 		final Integer port = 49160; // FDM测试端口
 		final var peerSession = PeerSession.newInstance(new StatisticsSession(), host, port);
-		final var launcher = PeerDownloader.newInstance(peerSession, torrentSession);
-		launcher.handshake();
+		PeerConnector.getInstance().connect(peerSession, torrentSession, launcher -> this.log("Peer连接：{}", launcher));
 		this.pause();
 	}
 
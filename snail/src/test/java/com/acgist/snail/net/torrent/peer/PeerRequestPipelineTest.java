@@ -0,0 +1,46 @@
+package com.acgist.snail.net.torrent.peer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+import com.acgist.snail.pojo.bean.TorrentPiece;
+import com.acgist.snail.utils.Performance;
+
+public class PeerRequestPipelineTest extends Performance {
+
+	@Test
+	public void testDepth() {
+		final var pipeline = PeerRequestPipeline.newInstance(PeerRequestPipeline.MAX_DEPTH);
+		assertEquals(PeerRequestPipeline.MIN_DEPTH, pipeline.depth());
+		// 往返时间100毫秒：每100毫秒响应10个Slice（1600KB/S）
+		long time = 0L;
+		for (int loop = 0; loop < 20; loop++) {
+			for (int index = 0; index < 10; index++) {
+				pipeline.request(time);
+			}
+			time += 100;
+			for (int index = 0; index < 10; index++) {
+				pipeline.response(TorrentPiece.SLICE_LENGTH, time);
+			}
+		}
+		this.log("RTT：{}，速度：{}，深度：{}", pipeline.rtt(), pipeline.rate(), pipeline.depth());
+		assertEquals(100L, pipeline.rtt());
+		assertTrue(pipeline.depth() > 10);
+		assertTrue(pipeline.depth() <= PeerRequestPipeline.MAX_DEPTH);
+	}
+	
+	@Test
+	public void testMaxDepth() {
+		final var pipeline = PeerRequestPipeline.newInstance(PeerRequestPipeline.MAX_UTP_DEPTH);
+		long time = 0L;
+		for (int loop = 0; loop < 20; loop++) {
+			pipeline.request(time);
+			time += 1000;
+			pipeline.response(100 * TorrentPiece.SLICE_LENGTH, time);
+		}
+		assertEquals(PeerRequestPipeline.MAX_UTP_DEPTH, pipeline.depth());
+	}
+
+}
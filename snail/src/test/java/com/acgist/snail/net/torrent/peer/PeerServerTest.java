@@ -78,8 +78,7 @@ public class PeerServerTest extends Performance {
 		final var peerSession = PeerSession.newInstance(statisticsSession, host, port);
 		// UTP支持：需要启动服务端后修改端口配置
 //		peerSession.flags(PeerConfig.PEX_UTP);
-		final var launcher = PeerDownloader.newInstance(peerSession, torrentSession);
-		launcher.handshake();
+		PeerConnector.getInstance().connect(peerSession, torrentSession, launcher -> LOGGER.debug("Peer连接：{}", launcher));
 		new Thread(() -> {
 			while(true) {
 				LOGGER.debug("下载速度：{}", statisticsSession.downloadSpeed());
@@ -0,0 +1,49 @@
+package com.acgist.snail.net.torrent.peer;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+import com.acgist.snail.context.StatisticsContext;
+import com.acgist.snail.pojo.bean.TorrentPiece;
+import com.acgist.snail.pojo.session.PeerSession;
+import com.acgist.snail.utils.DigestUtils;
+import com.acgist.snail.utils.Performance;
+
+public class PeerSmartBanTest extends Performance {
+
+	@Test
+	public void testBan() {
+		final var length = 2 * TorrentPiece.SLICE_LENGTH;
+		final var hash = DigestUtils.sha1().digest(new byte[length]);
+		final var bad = PeerSession.newInstance(StatisticsContext.getInstance().statistics(), "192.168.1.1", 18888);
+		final var good = PeerSession.newInstance(StatisticsContext.getInstance().statistics(), "192.168.1.2", 18888);
+		final var smartBan = PeerSmartBan.newInstance(null);
+		// 第一次下载：错误数据
+		final var badPiece = TorrentPiece.newInstance(length, 0, 0, length, hash, true);
+		final var badData = new byte[TorrentPiece.SLICE_LENGTH];
+		badData[0] = 1;
+		smartBan.source(badPiece, 0, bad);
+		badPiece.write(0, badData);
+		smartBan.source(badPiece, TorrentPiece.SLICE_LENGTH, good);
+		badPiece.write(TorrentPiece.SLICE_LENGTH, new byte[TorrentPiece.SLICE_LENGTH]);
+		assertFalse(badPiece.verify());
+		smartBan.fail(badPiece);
+		badPiece.release();
+		// 第二次下载：正确数据
+		final var piece = TorrentPiece.newInstance(length, 0, 0, length, hash, true);
+		smartBan.source(piece, 0, good);
+		piece.write(0, new byte[TorrentPiece.SLICE_LENGTH]);
+		smartBan.source(piece, TorrentPiece.SLICE_LENGTH, good);
+		piece.write(TorrentPiece.SLICE_LENGTH, new byte[TorrentPiece.SLICE_LENGTH]);
+		assertTrue(piece.verify());
+		smartBan.success(piece);
+		piece.release();
+		assertTrue(bad.banned());
+		assertFalse(bad.available());
+		assertFalse(good.banned());
+		assertTrue(good.available());
+	}
+	
+}
@@ -4,11 +4,15 @@ import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertDoesNotThrow;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
 import static org.junit.jupiter.api.Assertions.assertNull;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
+import java.nio.ByteBuffer;
+
 import org.junit.jupiter.api.Test;
 
+import com.acgist.snail.context.PieceBufferContext;
 import com.acgist.snail.utils.DigestUtils;
 import com.acgist.snail.utils.Performance;
 
@@ -33,6 +37,53 @@ public class TorrentPieceTest extends Performance {
 		assertTrue(piece.verify());
 	}
 	
+	@Test
+	public void testSlice() {
+		final var piece = TorrentPiece.newInstance(3 * 16 * 1024, 0, 0, 3 * 16 * 1024 - 10, null, false);
+		assertEquals(3, piece.missingSlices().cardinality());
+		assertEquals(16 * 1024 - 10, piece.sliceLength(2));
+		assertFalse(piece.write(piece.sliceBegin(1), new byte[16 * 1024]));
+		// 重复数据
+		assertFalse(piece.write(piece.sliceBegin(1), new byte[16 * 1024]));
+		assertTrue(piece.hasSlice(16 * 1024));
+		assertEquals(2, piece.missingSlices().cardinality());
+		// 跳过已经下载的Slice
+		assertEquals(0, piece.position());
+		assertEquals(16 * 1024, piece.length());
+		assertTrue(piece.hasMoreSlice());
+		assertEquals(2 * 16 * 1024, piece.position());
+		assertFalse(piece.write(0, new byte[16 * 1024]));
+		// 无效数据：没有对齐和数据大小错误
+		assertFalse(piece.write(piece.sliceBegin(2) + 1, new byte[piece.sliceLength(2) - 1]));
+		assertFalse(piece.write(piece.sliceBegin(2), new byte[16 * 1024]));
+		assertFalse(piece.write(piece.sliceBegin(3), new byte[16 * 1024]));
+		assertEquals(1, piece.missingSlices().cardinality());
+		assertTrue(piece.write(piece.sliceBegin(2), new byte[piece.sliceLength(2)]));
+		assertTrue(piece.completed());
+		assertTrue(piece.missingSlices().isEmpty());
+		piece.release();
+	}
+	
+	@Test
+	public void testWriteSlice() {
+		final var piece = TorrentPiece.newInstance(1024, 0, 10, 20, null, false);
+		// 模拟接收缓冲区：消息头 + Slice数据 + 下一条消息
+		final ByteBuffer buffer = ByteBuffer.allocateDirect(32);
+		buffer.putInt(0);
+		for (int index = 10; index < 20; index++) {
+			buffer.put((byte) index);
+		}
+		buffer.putInt(-1);
+		buffer.flip();
+		buffer.position(4);
+		final ByteBuffer slice = buffer.slice();
+		slice.limit(10);
+		assertTrue(piece.write(10, slice));
+		assertFalse(slice.hasRemaining());
+		assertEquals(4, buffer.position());
+		assertArrayEquals(new byte[] {10, 11, 12, 13, 14, 15, 16, 17, 18, 19}, piece.read(10, 10));
+	}
+	
 	@Test
 	public void testRead() {
 		final int pieceLength = 1024;
@@ -51,7 +102,50 @@ public class TorrentPieceTest extends Performance {
 		assertNull(piece.read(0, 10));
 		assertNull(piece.read(20, 10));
 	}
+	
+	@Test
+	public void testReadBuffer() {
+		final var piece = TorrentPiece.newInstance(1024, 0, 10, 20, null, false);
+		final byte[] bytes = new byte[10];
+		for (int index = 0; index < bytes.length; index++) {
+			bytes[index] = (byte) (index + 10);
+		}
+		piece.write(10, bytes);
+		final ByteBuffer buffer = ByteBuffer.allocateDirect(4);
+		assertEquals(2, piece.read(11, 2, buffer));
+		assertEquals(-1, piece.read(0, 20, buffer));
+		assertEquals(-1, piece.read(0, 10, buffer));
+		assertEquals(2, piece.read(18, 20, buffer));
+		buffer.flip();
+		assertEquals(11, buffer.get());
+		assertEquals(12, buffer.get());
+		assertEquals(18, buffer.get());
+		assertEquals(19, buffer.get());
+		piece.release();
+	}
 
+	@Test
+	public void testRelease() {
+		final var context = PieceBufferContext.getInstance();
+		final long missCount = context.missCount();
+		final var piece = TorrentPiece.newInstance(2 * 16 * 1024, 0, 0, 2 * 16 * 1024, null, false);
+		assertNull(piece.read(0, 10));
+		assertFalse(piece.write(0, new byte[16 * 1024]));
+		assertTrue(piece.retain());
+		piece.release();
+		assertNotNull(piece.read(0, 10));
+		piece.release();
+		assertNull(piece.read(0, 10));
+		assertFalse(piece.retain());
+		assertFalse(piece.write(16 * 1024, new byte[16 * 1024]));
+		// 复用缓冲区
+		final var reuse = TorrentPiece.newInstance(2 * 16 * 1024, 1, 0, 2 * 16 * 1024, null, false);
+		assertFalse(reuse.write(0, new byte[16 * 1024]));
+		assertTrue(reuse.write(16 * 1024, new byte[16 * 1024]));
+		assertEquals(missCount + 1, context.missCount());
+		reuse.release();
+	}
+	
 	@Test
 	public void testCosted() {
 		final int pieceLength = 1024;
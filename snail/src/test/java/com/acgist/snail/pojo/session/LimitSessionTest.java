@@ -1,12 +1,15 @@
 package com.acgist.snail.pojo.session;
 
+import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
 import org.junit.jupiter.api.Test;
 
 import com.acgist.snail.config.DownloadConfig;
+import com.acgist.snail.config.SystemConfig;
 import com.acgist.snail.pojo.session.LimitSession.Type;
 import com.acgist.snail.utils.Performance;
+import com.acgist.snail.utils.ThreadUtils;
 
 public class LimitSessionTest extends Performance {
 
@@ -19,7 +22,7 @@ public class LimitSessionTest extends Performance {
 			int value = 0;
 			while(true) {
 				value+=1024;
-				session.limit(1024);
+				ThreadUtils.sleep(session.limit(1024));
 				if(value >= size) {
 					break;
 				}
@@ -29,7 +32,7 @@ public class LimitSessionTest extends Performance {
 			int value = 0;
 			while(true) {
 				value+=1024;
-				session.limit(1024);
+				ThreadUtils.sleep(session.limit(1024));
 				if(value >= size) {
 					break;
 				}
@@ -42,4 +45,21 @@ public class LimitSessionTest extends Performance {
 		assertTrue(this.costed() >= 1000);
 	}
 	
+	@Test
+	public void testLimit() {
+		final long rate = 1024L * 1024;
+		final LimitSession session = new LimitSession(Type.DOWNLOAD, () -> rate);
+		// 突发：令牌桶装满
+		final long burst = rate * SystemConfig.getLimitBurst() / SystemConfig.ONE_SECOND_MILLIS;
+		assertEquals(0L, session.limit(burst));
+		// 透支：等待偿还（最多透支令牌桶容量）
+		final long delay = session.limit(rate);
+		this.log("等待时间：{}", delay);
+		assertTrue(delay > SystemConfig.getLimitBurst() - 100L && delay <= SystemConfig.getLimitBurst());
+		assertTrue(session.limit(rate) <= SystemConfig.getLimitBurst());
+		// 不限速
+		final LimitSession unlimit = new LimitSession(Type.DOWNLOAD, () -> 0L);
+		assertEquals(0L, unlimit.limit(rate * 10));
+	}
+	
 }
@@ -1,6 +1,7 @@
 package com.acgist.snail.pojo.session;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 import org.junit.jupiter.api.Test;
 
@@ -20,4 +21,26 @@ public class StatisticsSessionTest extends Performance {
 		assertEquals(1024, session.downloadSize());
 	}
 	
+	@Test
+	public void testLimit() {
+		final long rate = 1024L * 1024;
+		final StatisticsSession parent = new StatisticsSession(
+			new LimitSession(LimitSession.Type.UPLOAD, () -> rate),
+			new LimitSession(LimitSession.Type.DOWNLOAD, () -> rate),
+			false,
+			null
+		);
+		final StatisticsSession session = new StatisticsSession(false, false, parent);
+		final StatisticsSession other = new StatisticsSession(false, false, parent);
+		// 上级限速：所有下级共用令牌
+		long delay = 0L;
+		for (int index = 0; index < 4; index++) {
+			delay = Math.max(delay, session.downloadLimit((int) rate / 4));
+			delay = Math.max(delay, other.downloadLimit((int) rate / 4));
+		}
+		this.log("等待时间：{}", delay);
+		assertTrue(delay > 0L);
+		assertEquals(0L, session.uploadLimit(1024));
+	}
+	
 }